@@ -0,0 +1,56 @@
+package com.belkatechnologies.bigquery.streaming.processor;
+
+import com.belkatechnologies.bigquery.streaming.writer.WriteMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collection of buffered rows into a batch by {@code getSized()}, per row.
+ * The buffer is refilled with the same encoded rows before every invocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchAssemblyBenchmark {
+
+    private static final int BATCH_ROWS = 10_000;
+
+    @Param({"JSON", "PROTO"})
+    private WriteMode writeMode;
+
+    private DefaultAsyncContinuousRetriableStreamProcessor processor;
+    private List<StreamingRow> rows;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        processor = BenchmarkRows.processor(false, null, writeMode);
+        rows = new ArrayList<>(BATCH_ROWS);
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            rows.add(processor.streamWriter.encode(BenchmarkRows.ROW));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void fill() {
+        processor.queue.offerAll(rows);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public StreamingObject getSized() {
+        return processor.getSized();
+    }
+
+    @TearDown(Level.Invocation)
+    public void drain() {
+        while (processor.queue.poll() != null) {
+            // rows over MAX_BYTES are left by getSized
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.belkatechnologies.bigquery.streaming.processor;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferCapacity;
+import com.belkatechnologies.bigquery.streaming.buffer.OverflowPolicy;
+import com.belkatechnologies.bigquery.streaming.writer.JsonRowWriter;
+import com.belkatechnologies.bigquery.streaming.writer.ProtoRowSchema;
+import com.belkatechnologies.bigquery.streaming.writer.ProtoRowWriter;
+import com.belkatechnologies.bigquery.streaming.writer.StreamRowWriter;
+import com.belkatechnologies.bigquery.streaming.writer.StreamWriterFactory;
+import com.belkatechnologies.bigquery.streaming.writer.WriteMode;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rows, schema and processors shared by the benchmarks. Processors are built without a write client:
+ * their writers encode rows and are never asked to append.
+ */
+final class BenchmarkRows {
+
+    static final Map<String, Object> ROW = Map.of(
+            "id", "4f1c7a52-8d4e-4c1b-9d8e-2b7f0c3a9e11",
+            "timestamp", "2024-01-01T00:00:00Z",
+            "user_id", 123456789L,
+            "level", 10,
+            "payload", "session_platform=iOS#is#global_energy=43#is#global_level=10#is#event=exploration_action");
+    static final ProtoRowSchema SCHEMA = ProtoRowSchema.of(TableSchema.newBuilder()
+            .addFields(column("id", TableFieldSchema.Type.STRING))
+            .addFields(column("timestamp", TableFieldSchema.Type.TIMESTAMP))
+            .addFields(column("user_id", TableFieldSchema.Type.INT64))
+            .addFields(column("level", TableFieldSchema.Type.INT64))
+            .addFields(column("payload", TableFieldSchema.Type.STRING))
+            .build());
+
+    private BenchmarkRows() {
+    }
+
+    static StreamRowWriter writer(WriteMode writeMode) {
+        return writeMode == WriteMode.PROTO ? new ProtoRowWriter(null, SCHEMA) : new JsonRowWriter(null, SCHEMA);
+    }
+
+    static List<Map<String, Object>> rows(int count) {
+        List<Map<String, Object>> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add(ROW);
+        }
+        return rows;
+    }
+
+    /**
+     * @param lockFree  Whether to build a {@link LockFreeStreamProcessor}.
+     * @param maxRows   Limit of the buffer, rows over it evict the oldest ones; null for unlimited.
+     * @param writeMode How rows are encoded.
+     */
+    static DefaultAsyncContinuousRetriableStreamProcessor processor(boolean lockFree, Long maxRows, WriteMode writeMode) {
+        BigQueryProperties.StreamingProperties streaming = new BigQueryProperties.StreamingProperties();
+        streaming.getBuffer().setMaxRowsPerTable(maxRows);
+        streaming.getBuffer().setOverflowPolicy(OverflowPolicy.DROP_OLDEST);
+        BigQueryProperties properties = BigQueryProperties.builder().streaming(streaming).build();
+        StreamWriterFactory writerFactory = new StreamWriterFactory(writeMode, null);
+        BufferCapacity capacity = new BufferCapacity(null, null, null);
+        DefaultAsyncContinuousRetriableStreamProcessor processor = lockFree
+                ? new LockFreeStreamProcessor(null, null, properties, capacity, writerFactory) {
+                    @Override
+                    public boolean isStopped() {
+                        return false;
+                    }
+                }
+                : new DefaultAsyncContinuousRetriableStreamProcessor(null, null, properties, capacity, writerFactory) {
+                    @Override
+                    public boolean isStopped() {
+                        return false;
+                    }
+                };
+        processor.streamWriter = writer(writeMode);
+        return processor;
+    }
+
+    private static TableFieldSchema column(String name, TableFieldSchema.Type type) {
+        return TableFieldSchema.newBuilder().setName(name).setType(type).setMode(TableFieldSchema.Mode.NULLABLE).build();
+    }
+}
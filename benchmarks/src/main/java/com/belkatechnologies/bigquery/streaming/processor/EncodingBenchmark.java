@@ -0,0 +1,54 @@
+package com.belkatechnologies.bigquery.streaming.processor;
+
+import com.belkatechnologies.bigquery.streaming.writer.StreamRowWriter;
+import com.belkatechnologies.bigquery.streaming.writer.WriteMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Conversion of rows by the writers of both write modes: a map to a sized {@link StreamingRow}
+ * (a JSON object, or a serialized protobuf message), and rows to the batch of an append request.
+ * The conversion of JSON batches to protobuf happens in the JsonStreamWriter when appending and is not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodingBenchmark {
+
+    private static final int BATCH_ROWS = 1000;
+
+    @Param({"JSON", "PROTO"})
+    private WriteMode writeMode;
+
+    private StreamRowWriter writer;
+    private List<StreamingRow> rows;
+    private int size;
+
+    @Setup
+    public void setUp() {
+        writer = BenchmarkRows.writer(writeMode);
+        rows = new ArrayList<>(BATCH_ROWS);
+        for (int i = 0; i < BATCH_ROWS; i++) {
+            StreamingRow row = writer.encode(BenchmarkRows.ROW);
+            rows.add(row);
+            size += row.size();
+        }
+    }
+
+    @Benchmark
+    public StreamingRow encode() {
+        return writer.encode(BenchmarkRows.ROW);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_ROWS)
+    public StreamingObject toBatch() {
+        return writer.toBatch(rows, size);
+    }
+}
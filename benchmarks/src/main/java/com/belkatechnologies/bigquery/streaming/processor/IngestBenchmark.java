@@ -0,0 +1,110 @@
+package com.belkatechnologies.bigquery.streaming.processor;
+
+import com.belkatechnologies.bigquery.streaming.writer.WriteMode;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * putOne/putBatch under contention: the synchronized {@link DefaultAsyncContinuousRetriableStreamProcessor}
+ * against the {@link LockFreeStreamProcessor}, with a draining thread standing in for the flush task.
+ * Every benchmark runs with 1, 8, 32 and 128 producer threads, the suffix of its name, to compare how both scale
+ * with the number of producers in one run; {@code -t} would override all of them. The buffer is limited, so if
+ * the drainer falls behind the oldest rows are evicted instead of exhausting the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class IngestBenchmark {
+
+    private static final int BATCH_ROWS = 100;
+
+    @Param({"false", "true"})
+    private boolean lockFree;
+
+    @Param({"JSON", "PROTO"})
+    private WriteMode writeMode;
+
+    private DefaultAsyncContinuousRetriableStreamProcessor processor;
+    private List<Map<String, Object>> batch;
+    private volatile boolean running;
+    private Thread drainer;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        processor = BenchmarkRows.processor(lockFree, 1_000_000L, writeMode);
+        batch = BenchmarkRows.rows(BATCH_ROWS);
+        running = true;
+        drainer = new Thread(() -> {
+            while (running) {
+                if (processor.queue.poll() == null) {
+                    Thread.onSpinWait();
+                }
+            }
+        }, "drainer");
+        drainer.start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        running = false;
+        drainer.join();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void putOne1() {
+        processor.putOne(BenchmarkRows.ROW);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void putOne8() {
+        processor.putOne(BenchmarkRows.ROW);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void putOne32() {
+        processor.putOne(BenchmarkRows.ROW);
+    }
+
+    @Benchmark
+    @Threads(128)
+    public void putOne128() {
+        processor.putOne(BenchmarkRows.ROW);
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH_ROWS)
+    public void putBatch1() {
+        processor.putBatch(batch);
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(BATCH_ROWS)
+    public void putBatch8() {
+        processor.putBatch(batch);
+    }
+
+    @Benchmark
+    @Threads(32)
+    @OperationsPerInvocation(BATCH_ROWS)
+    public void putBatch32() {
+        processor.putBatch(batch);
+    }
+
+    @Benchmark
+    @Threads(128)
+    @OperationsPerInvocation(BATCH_ROWS)
+    public void putBatch128() {
+        processor.putBatch(batch);
+    }
+}
@@ -0,0 +1,37 @@
+package com.belkatechnologies.bigquery.streaming.processor;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sizing of a JSON row: the schema-less estimate of {@link StreamingUtils#getSize(JSONObject)}
+ * against the exact size computed with the table schema.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowSizeBenchmark {
+
+    private JSONObject row;
+
+    @Setup
+    public void setUp() {
+        row = new JSONObject(BenchmarkRows.ROW);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public int getSize() {
+        return StreamingUtils.getSize(row);
+    }
+
+    @Benchmark
+    public int computeRowSize() {
+        return BenchmarkRows.SCHEMA.computeRowSize(row);
+    }
+}
@@ -1,8 +1,16 @@
 package com.belkatechnologies.bigquery.configuration;
 
+import com.belkatechnologies.bigquery.streaming.buffer.OverflowPolicy;
+import com.belkatechnologies.bigquery.streaming.priority.Priority;
+import com.belkatechnologies.bigquery.streaming.writer.WriteMode;
 import lombok.*;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * @author Ilia Guzenko, Denis Chernyshev
  */
@@ -16,6 +24,10 @@ public class BigQueryProperties {
     private DataProperties data;
     private StreamingProperties streaming;
     private SnapshottingProperties snapshotting;
+    /**
+     * Runs the blocking pools of the starter on virtual threads, needs Java 21.
+     */
+    private boolean virtualThreads;
 
     @Getter
     @Setter
@@ -30,6 +42,209 @@ public class BigQueryProperties {
         private boolean enabled;
         private Integer streamingManagerPoolSize;
         private Integer asyncStreamingDelay;
+        private boolean lockFreeIngest;
+        private boolean exactlyOnce;
+        private WriteMode writeMode;
+        private BufferProperties buffer = new BufferProperties();
+        private FlushProperties flush = new FlushProperties();
+        private TransportProperties transport = new TransportProperties();
+        private InFlightProperties inFlight = new InFlightProperties();
+        private RetryProperties retry = new RetryProperties();
+        private CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+        private WalProperties wal = new WalProperties();
+        private DeadLetterProperties deadLetter = new DeadLetterProperties();
+        private BulkProperties bulk = new BulkProperties();
+        private ShutdownProperties shutdown = new ShutdownProperties();
+        private FanOutProperties fanOut = new FanOutProperties();
+        private EvictionProperties eviction = new EvictionProperties();
+        private PriorityProperties priority = new PriorityProperties();
+    }
+
+    /**
+     * Limits of the in-memory ingest buffers. Empty limits mean unlimited. The process-wide {@code maxBytes} is shared
+     * fairly by the tables in proportion to their {@code weights}, 1 for the tables not listed.
+     */
+    @Getter
+    @Setter
+    public static class BufferProperties {
+        private Long maxRowsPerTable;
+        private Long maxBytesPerTable;
+        private Long maxRows;
+        private Long maxBytes;
+        private OverflowPolicy overflowPolicy;
+        private Long blockTimeoutMillis;
+        private Map<String, Double> weights = new HashMap<>();
+    }
+
+    /**
+     * Thresholds triggering a flush of a table, whichever is reached first. {@code timeoutMs} bounds a forced flush
+     * and the close of a processor, 10 minutes by default.
+     */
+    @Getter
+    @Setter
+    public static class FlushProperties {
+        private Long maxBytes;
+        private Long maxRows;
+        private Long lingerMs;
+        private Long timeoutMs;
+    }
+
+    /**
+     * Sizes of the transport shared by all stream processors. Empty values mean defaults.
+     */
+    @Getter
+    @Setter
+    public static class TransportProperties {
+        private Integer channelPoolSize;
+        private Integer writerThreads;
+        private Integer callbackThreads;
+        private Integer callbackQueueCapacity;
+    }
+
+    /**
+     * Window of appends sent to BigQuery but not acknowledged yet, per table.
+     */
+    @Getter
+    @Setter
+    public static class InFlightProperties {
+        private Integer maxRequests;
+        private Long maxBytes;
+        private Long appendTimeoutMs;
+    }
+
+    /**
+     * Retries of failed batches, per table.
+     */
+    @Getter
+    @Setter
+    public static class RetryProperties {
+        private Integer maxAttempts;
+        private Integer reconnectAttempt;
+        private Long initialBackoffMs;
+        private Long maxBackoffMs;
+        private Double backoffMultiplier;
+        private Long maxBytesPerTable;
+    }
+
+    /**
+     * Local write-ahead log of the buffered rows, replayed on startup.
+     */
+    @Getter
+    @Setter
+    public static class WalProperties {
+        private boolean enabled;
+        private String directory;
+        private Long segmentBytes;
+        private Long spillThresholdBytes;
+        private boolean forceOnAppend;
+    }
+
+    /**
+     * Where rows rejected by BigQuery go: a directory of NDJSON files and/or a table. Rows are only logged if neither is set.
+     * A batch rejected without row errors is split in halves up to {@code maxSplits} times to find the bad rows.
+     */
+    @Getter
+    @Setter
+    public static class DeadLetterProperties {
+        private String directory;
+        private String dataset;
+        private String table;
+        private Integer maxSplits;
+    }
+
+    /**
+     * Parallelism of bulk writes through PENDING streams.
+     */
+    @Getter
+    @Setter
+    public static class BulkProperties {
+        private Integer streamsPerTable;
+        private Integer maxInFlightPerStream;
+        private Long maxInFlightBytesPerStream;
+    }
+
+    /**
+     * Circuit breaker pausing the appends of a table after consecutive failures. Empty values mean defaults,
+     * a non-positive failure threshold disables it.
+     */
+    @Getter
+    @Setter
+    public static class CircuitBreakerProperties {
+        private Integer failureThreshold;
+        private Long openMs;
+        private Long maxOpenMs;
+    }
+
+    /**
+     * Draining of the managed tables when the application stops. Empty values mean defaults.
+     */
+    @Getter
+    @Setter
+    public static class ShutdownProperties {
+        private Long timeoutMs;
+        private Integer parallelism;
+    }
+
+    /**
+     * Eviction of the processors of tables without puts for {@code idleTimeoutMs}, disabled without it.
+     * The idle processors are looked for every {@code checkIntervalMs}, 60 seconds by default.
+     */
+    @Getter
+    @Setter
+    public static class EvictionProperties {
+        private Long idleTimeoutMs;
+        private Long checkIntervalMs;
+    }
+
+    /**
+     * Several writers per table, each with its own buffer, flusher and connection. Empty values mean defaults:
+     * one writer per table, a writer added while the backlog per writer exceeds 16 MB and removed while it stays
+     * under 1 MB, checked every 5 seconds.
+     */
+    @Getter
+    @Setter
+    public static class FanOutProperties {
+        private Integer maxWriters;
+        private Long scaleUpBytes;
+        private Long scaleDownBytes;
+        private Long scaleIntervalMs;
+        private Map<String, TableFanOutProperties> tables = new HashMap<>();
+    }
+
+    /**
+     * Writers of one table, overriding {@link FanOutProperties#getMaxWriters()}. Rows with the same value of the key
+     * column go to the same writer, which keeps their order; such tables keep {@code maxWriters} writers.
+     */
+    @Getter
+    @Setter
+    public static class TableFanOutProperties {
+        private Integer minWriters;
+        private Integer maxWriters;
+        private String keyColumn;
+    }
+
+    /**
+     * Priority classes of the tables: by table name, else by the first matching name pattern, else
+     * {@code defaultPriority} (NORMAL if empty). {@code maxInFlightBytes} is the in-flight append budget shared by all
+     * tables, unlimited if empty.
+     */
+    @Getter
+    @Setter
+    public static class PriorityProperties {
+        private Priority defaultPriority;
+        private Map<String, Priority> tables = new HashMap<>();
+        private List<PatternPriority> patterns = new ArrayList<>();
+        private Long maxInFlightBytes;
+    }
+
+    /**
+     * Priority of the tables whose names match a regular expression.
+     */
+    @Getter
+    @Setter
+    public static class PatternPriority {
+        private String pattern;
+        private Priority priority;
     }
 
     @Setter
@@ -2,13 +2,25 @@ package com.belkatechnologies.bigquery.configuration;
 
 import com.belkatechnologies.bigquery.streaming.DefaultStreamingManager;
 import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferCapacity;
+import com.belkatechnologies.bigquery.streaming.buffer.FairShareBudget;
+import com.belkatechnologies.bigquery.streaming.bulk.BulkWriteSessionFactory;
 import com.belkatechnologies.bigquery.streaming.callback.DefaultAbstractAppendCompleteCallback;
+import com.belkatechnologies.bigquery.streaming.deadletter.NdjsonFileDeadLetterSink;
+import com.belkatechnologies.bigquery.streaming.deadletter.TableDeadLetterSink;
+import com.belkatechnologies.bigquery.streaming.priority.PriorityLanes;
 import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
 import com.belkatechnologies.bigquery.streaming.processor.DefaultAsyncContinuousRetriableStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.processor.LockFreeStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.transport.StreamingTransport;
+import com.belkatechnologies.bigquery.streaming.wal.WriteAheadLogStore;
+import com.belkatechnologies.bigquery.streaming.writer.StreamWriterFactory;
+import com.belkatechnologies.bigquery.streaming.writer.WriteMode;
 import com.google.api.gax.core.FixedCredentialsProvider;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
 import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
+import com.google.cloud.bigquery.storage.v1.TableName;
 import org.springframework.beans.factory.ObjectFactory;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.config.ConfigurableBeanFactory;
@@ -16,9 +28,11 @@ import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 import org.springframework.context.annotation.Scope;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 
 /**
  * Auto-configuration class for setting up BigQuery Streaming-related beans and services
@@ -44,16 +58,174 @@ public class StreamingAutoConfiguration {
     }
 
     /**
-     * Creates a prototype-scoped BigQuery Write client based on the provided settings.
+     * Creates the transport shared by all stream processors: gRPC channel pool, writer executor
+     * and bounded append callback executor, sized by {@code bigquery.streaming.transport.*}.
+     *
+     * @param bigQueryProperties BigQuery configuration properties.
+     * @return Streaming transport.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public StreamingTransport streamingTransport(BigQueryProperties bigQueryProperties) {
+        return new StreamingTransport(bigQueryProperties.getStreaming().getTransport());
+    }
+
+    /**
+     * Creates the BigQuery Write client shared by all stream processors, multiplexing their calls
+     * over the channel pool of the streaming transport.
      *
      * @param bigQueryWriteSettings BigQuery Write settings.
+     * @param streamingTransport    Transport shared by all stream processors.
      * @return BigQuery Write client.
      * @throws IOException If there is an issue with the provided settings.
      */
     @Bean
+    @ConditionalOnMissingBean
+    public BigQueryWriteClient bigQueryWriteClient(BigQueryWriteSettings bigQueryWriteSettings,
+                                                   StreamingTransport streamingTransport) throws IOException {
+        return BigQueryWriteClient.create(bigQueryWriteSettings.toBuilder()
+                .setTransportChannelProvider(streamingTransport.getChannelProvider())
+                .setBackgroundExecutorProvider(streamingTransport.getExecutorProvider())
+                .build());
+    }
+
+    /**
+     * Creates the priority lanes of the tables, configured by {@code bigquery.streaming.priority}: the share of the
+     * streaming manager pool and of the in-flight budget each priority class may take.
+     *
+     * @param bigQueryProperties BigQuery configuration properties.
+     * @return Priority lanes.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public PriorityLanes priorityLanes(BigQueryProperties bigQueryProperties) {
+        Integer poolSize = bigQueryProperties.getStreaming().getStreamingManagerPoolSize();
+        return new PriorityLanes(bigQueryProperties.getStreaming().getPriority(), poolSize != null ? poolSize : 200);
+    }
+
+    /**
+     * Creates the process-wide capacity shared by the ingest buffers of all stream processors. With
+     * {@code bigquery.streaming.buffer.max-bytes} it is a budget shared fairly by the tables, see {@link FairShareBudget}.
+     *
+     * @param bigQueryProperties BigQuery configuration properties.
+     * @param priorityLanes      Priority classes giving the weights of the tables in the budget.
+     * @return Global buffer capacity.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public BufferCapacity globalBufferCapacity(BigQueryProperties bigQueryProperties, PriorityLanes priorityLanes) {
+        BigQueryProperties.BufferProperties buffer = bigQueryProperties.getStreaming().getBuffer();
+        if (buffer == null) {
+            return new BufferCapacity(null, null, null);
+        }
+        return buffer.getMaxBytes() != null && buffer.getMaxBytes() > 0
+                ? new FairShareBudget(buffer.getMaxRows(), buffer.getMaxBytes(), buffer.getWeights(), priorityLanes)
+                : new BufferCapacity(buffer.getMaxRows(), null, null);
+    }
+
+    /**
+     * Creates the factory of writers used by stream processors, encoding rows according to
+     * {@code bigquery.streaming.write-mode} (JSON by default) and appending to COMMITTED streams at explicit offsets
+     * when {@code bigquery.streaming.exactly-once} is enabled.
+     *
+     * @param bigQueryProperties BigQuery configuration properties.
+     * @param streamingTransport Transport shared by all writers.
+     * @return Stream writer factory.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public StreamWriterFactory streamWriterFactory(BigQueryProperties bigQueryProperties, StreamingTransport streamingTransport) {
+        WriteMode writeMode = bigQueryProperties.getStreaming().getWriteMode();
+        return new StreamWriterFactory(writeMode != null ? writeMode : WriteMode.JSON, streamingTransport,
+                bigQueryProperties.getStreaming().isExactlyOnce());
+    }
+
+    /**
+     * Creates the factory of bulk write sessions writing tables through PENDING streams,
+     * sized by {@code bigquery.streaming.bulk.*}.
+     *
+     * @param bigQueryWriteClient BigQuery Write client.
+     * @param streamWriterFactory Factory of the writers appending rows to BigQuery.
+     * @param bigQueryProperties  BigQuery configuration properties.
+     * @return Bulk write session factory.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    public BulkWriteSessionFactory bulkWriteSessionFactory(BigQueryWriteClient bigQueryWriteClient,
+                                                           StreamWriterFactory streamWriterFactory,
+                                                           BigQueryProperties bigQueryProperties) {
+        return new BulkWriteSessionFactory(bigQueryWriteClient, streamWriterFactory, bigQueryProperties.getStreaming());
+    }
+
+    /**
+     * Creates the store of the per-table write-ahead logs when {@code bigquery.streaming.wal.enabled} is set.
+     *
+     * @param bigQueryProperties BigQuery configuration properties.
+     * @return Write-ahead log store.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty(value = "bigquery.streaming.wal.enabled", havingValue = "true")
+    public WriteAheadLogStore writeAheadLogStore(BigQueryProperties bigQueryProperties) {
+        return new WriteAheadLogStore(bigQueryProperties.getStreaming().getWal());
+    }
+
+    /**
+     * Creates the dead-letter sink writing rejected rows to NDJSON files
+     * when {@code bigquery.streaming.dead-letter.directory} is set.
+     *
+     * @param bigQueryProperties BigQuery configuration properties.
+     * @return NDJSON file dead-letter sink.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty("bigquery.streaming.dead-letter.directory")
+    public NdjsonFileDeadLetterSink ndjsonFileDeadLetterSink(BigQueryProperties bigQueryProperties) {
+        return new NdjsonFileDeadLetterSink(Paths.get(bigQueryProperties.getStreaming().getDeadLetter().getDirectory()));
+    }
+
+    /**
+     * Creates the dead-letter sink streaming rejected rows into
+     * {@code bigquery.streaming.dead-letter.dataset}.{@code bigquery.streaming.dead-letter.table}
+     * of {@code bigquery.data.project} when the table is set.
+     *
+     * @param bigQueryProperties BigQuery configuration properties.
+     * @param streamingManager   Provider of the streaming manager, resolved lazily as the manager creates processors using the sink.
+     * @return Table dead-letter sink.
+     */
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnProperty("bigquery.streaming.dead-letter.table")
+    public TableDeadLetterSink tableDeadLetterSink(BigQueryProperties bigQueryProperties,
+                                                   ObjectProvider<StreamingManager> streamingManager) {
+        BigQueryProperties.DeadLetterProperties deadLetter = bigQueryProperties.getStreaming().getDeadLetter();
+        return new TableDeadLetterSink(streamingManager,
+                TableName.of(bigQueryProperties.getData().getProject(), deadLetter.getDataset(), deadLetter.getTable()));
+    }
+
+    /**
+     * Creates a prototype-scoped lock-free BigQuery Stream Processor when
+     * {@code bigquery.streaming.lock-free-ingest} is enabled.
+     *
+     * @param bigQueryWriteClient  BigQuery Write client.
+     * @param callbackProvider     Provider for the abstract append-complete callback.
+     * @param bigQueryProperties   BigQuery configuration properties.
+     * @param globalBufferCapacity Capacity shared by the ingest buffers of all processors.
+     * @param streamWriterFactory  Factory of the writers appending rows to BigQuery.
+     * @return Lock-free BigQuery Stream Processor.
+     */
+    @Bean
     @Scope(ConfigurableBeanFactory.SCOPE_PROTOTYPE)
-    public BigQueryWriteClient bigQueryWriteClient(BigQueryWriteSettings bigQueryWriteSettings) throws IOException {
-        return BigQueryWriteClient.create(bigQueryWriteSettings);
+    @ConditionalOnMissingBean(BigQueryStreamProcessor.class)
+    @ConditionalOnProperty(value = "bigquery.streaming.lock-free-ingest", havingValue = "true")
+    public BigQueryStreamProcessor lockFreeStreamProcessor(
+            BigQueryWriteClient bigQueryWriteClient,
+            ObjectProvider<DefaultAbstractAppendCompleteCallback> callbackProvider,
+            BigQueryProperties bigQueryProperties,
+            BufferCapacity globalBufferCapacity,
+            StreamWriterFactory streamWriterFactory
+    ) {
+        return new LockFreeStreamProcessor(bigQueryWriteClient, callbackProvider, bigQueryProperties, globalBufferCapacity, streamWriterFactory);
     }
 
     /**
@@ -62,6 +234,9 @@ public class StreamingAutoConfiguration {
      *
      * @param bigQueryWriteClient  BigQuery Write client.
      * @param callbackProvider     Provider for the abstract append-complete callback.
+     * @param bigQueryProperties   BigQuery configuration properties.
+     * @param globalBufferCapacity Capacity shared by the ingest buffers of all processors.
+     * @param streamWriterFactory  Factory of the writers appending rows to BigQuery.
      * @return Default asynchronous, continuous, and retriable BigQuery Stream Processor.
      */
     @Bean
@@ -69,14 +244,19 @@ public class StreamingAutoConfiguration {
     @ConditionalOnMissingBean
     public BigQueryStreamProcessor defaultAsyncRetriableStreamProcessor(
             BigQueryWriteClient bigQueryWriteClient,
-            ObjectProvider<DefaultAbstractAppendCompleteCallback> callbackProvider
+            ObjectProvider<DefaultAbstractAppendCompleteCallback> callbackProvider,
+            BigQueryProperties bigQueryProperties,
+            BufferCapacity globalBufferCapacity,
+            StreamWriterFactory streamWriterFactory
     ) {
-        return new DefaultAsyncContinuousRetriableStreamProcessor(bigQueryWriteClient, callbackProvider);
+        return new DefaultAsyncContinuousRetriableStreamProcessor(bigQueryWriteClient, callbackProvider, bigQueryProperties, globalBufferCapacity, streamWriterFactory);
     }
 
     /**
      * Creates a Streaming Manager based on the provided BigQuery properties and
      * BigQuery Stream Processor object factory.
+     * <p>
+     * Depends on the shared BigQuery Write client and transport, so that they are closed after the manager drains.
      *
      * @param bigQueryProperties                 BigQuery configuration properties.
      * @param bigQueryStreamProcessorObjectFactory Object factory for creating BigQuery Stream Processor instances.
@@ -84,6 +264,7 @@ public class StreamingAutoConfiguration {
      */
     @Bean
     @ConditionalOnMissingBean
+    @DependsOn({"bigQueryWriteClient", "streamingTransport"})
     public StreamingManager streamingManager(
             BigQueryProperties bigQueryProperties,
             ObjectFactory<BigQueryStreamProcessor> bigQueryStreamProcessorObjectFactory
@@ -0,0 +1,48 @@
+package com.belkatechnologies.bigquery.configuration;
+
+import com.belkatechnologies.bigquery.streaming.metrics.MicrometerStreamingMetrics;
+import com.belkatechnologies.bigquery.streaming.metrics.StreamingMetrics;
+import com.belkatechnologies.bigquery.streaming.transport.StreamingTransport;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.AutoConfigureAfter;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Auto-configuration publishing the streaming metrics to Micrometer when a {@link MeterRegistry} is present,
+ * e.g. configured by Spring Boot Actuator.
+ */
+@Configuration
+@ConditionalOnClass(name = "io.micrometer.core.instrument.MeterRegistry")
+@ConditionalOnProperty(value = "bigquery.streaming.enabled", havingValue = "true")
+@AutoConfigureAfter(name = {
+        "org.springframework.boot.actuate.autoconfigure.metrics.CompositeMeterRegistryAutoConfiguration",
+        "org.springframework.boot.actuate.autoconfigure.metrics.export.simple.SimpleMetricsExportAutoConfiguration"
+})
+public class StreamingMetricsAutoConfiguration {
+
+    /**
+     * Creates the Micrometer streaming metrics and binds the append callback executor of the transport.
+     *
+     * @param meterRegistry      Registry the meters are published to.
+     * @param streamingTransport Transport shared by all stream processors.
+     * @return Micrometer streaming metrics.
+     */
+    @Bean
+    @ConditionalOnBean(MeterRegistry.class)
+    @ConditionalOnMissingBean(StreamingMetrics.class)
+    public StreamingMetrics streamingMetrics(MeterRegistry meterRegistry, StreamingTransport streamingTransport) {
+        MicrometerStreamingMetrics metrics = new MicrometerStreamingMetrics(meterRegistry);
+        metrics.bindExecutor("append-callback", streamingTransport.getCallbackExecutor());
+        FunctionCounter.builder("bigquery.streaming.callback.caller.runs", streamingTransport,
+                        transport -> transport.getStatistic().getCallbackCallerRuns())
+                .description("Append callbacks run on the completing thread because the callback queue was full")
+                .register(meterRegistry);
+        return metrics;
+    }
+}
@@ -3,7 +3,7 @@ package com.belkatechnologies.bigquery.snapshotting;
 import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
 import com.belkatechnologies.bigquery.manager.BigQueryManager;
 import com.belkatechnologies.bigquery.manager.BqDatasetDaoImpl;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.belkatechnologies.bigquery.utils.ThreadFactories;
 import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -50,7 +50,8 @@ public class SnapshotServiceImpl implements SnapshotService {
 
         long snapshotPostfix = System.currentTimeMillis();
         log.info("Start creating snapshot with postfix {}", snapshotPostfix);
-        ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("snapshot-thread-%d").build());
+        ExecutorService executor = Executors.newCachedThreadPool(
+                ThreadFactories.create("snapshot-thread-%d", bigQueryProperties.isVirtualThreads()));
         AtomicInteger taskCounter = new AtomicInteger();
 
         snapshotConfiguration.datasets().forEach((dataset, tables) -> {
@@ -1,20 +1,33 @@
 package com.belkatechnologies.bigquery.streaming;
 
 import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.bulk.BulkWriteSession;
+import com.belkatechnologies.bigquery.streaming.bulk.BulkWriteSessionFactory;
+import com.belkatechnologies.bigquery.streaming.fanout.FanOutPolicy;
+import com.belkatechnologies.bigquery.streaming.fanout.FanOutStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.flush.ShutdownCoordinator;
+import com.belkatechnologies.bigquery.streaming.flush.TableFlusher;
+import com.belkatechnologies.bigquery.streaming.metrics.StreamingMetrics;
+import com.belkatechnologies.bigquery.streaming.priority.PriorityLanes;
 import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.wal.WriteAheadLog;
+import com.belkatechnologies.bigquery.streaming.wal.WriteAheadLogStore;
 import com.belkatechnologies.bigquery.utils.ShutDownUtils;
+import com.belkatechnologies.bigquery.utils.ThreadFactories;
 import com.google.cloud.bigquery.storage.v1.TableName;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 
 import javax.annotation.PostConstruct;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Consumer;
 
 @Slf4j
@@ -25,27 +38,74 @@ public class DefaultStreamingManager implements StreamingManager {
     private final ObjectFactory<BigQueryStreamProcessor> streamProcessorFactory;
 
     private final Map<TableName, BigQueryStreamProcessor> streams = new ConcurrentHashMap<>();
+    private final Map<TableName, TableFlusher> flushers = new ConcurrentHashMap<>();
+    private final Map<TableName, WriteAheadLog> writeAheadLogs = new ConcurrentHashMap<>();
+    private final Map<TableName, Activity> activities = new ConcurrentHashMap<>();
+    private final AtomicLong createdProcessors = new AtomicLong();
+    private final AtomicLong evictedProcessors = new AtomicLong();
 
-    private ScheduledExecutorService executorService;
+    @Autowired(required = false)
+    private WriteAheadLogStore writeAheadLogStore;
+    @Autowired(required = false)
+    private BulkWriteSessionFactory bulkWriteSessionFactory;
+    @Autowired(required = false)
+    private StreamingMetrics streamingMetrics = StreamingMetrics.NOOP;
+    @Autowired(required = false)
+    private PriorityLanes priorityLanes = PriorityLanes.UNLIMITED;
 
-    int delay;
+    private ScheduledExecutorService executorService;
+    private long idleTimeoutNanos;
 
     @PostConstruct
     private void init() {
-        Integer asyncStreamingDelay = bigQueryProperties.getStreaming().getAsyncStreamingDelay();
-        delay = asyncStreamingDelay != null ? asyncStreamingDelay : 30;
         Integer poolSize = bigQueryProperties.getStreaming().getStreamingManagerPoolSize();
-        executorService = Executors.newScheduledThreadPool(poolSize != null ? poolSize : 200,
-                new ThreadFactoryBuilder().setNameFormat("streaming-manager-%d").build());
+        // on virtual threads the workers parked between flushes cost a few hundred bytes instead of a stack each
+        ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(poolSize != null ? poolSize : 200,
+                ThreadFactories.create("streaming-manager-%d", bigQueryProperties.isVirtualThreads()));
+        // linger timers are re-armed on every flush
+        scheduledExecutor.setRemoveOnCancelPolicy(true);
+        executorService = scheduledExecutor;
+        streamingMetrics.bindExecutor("streaming-manager", executorService);
+        streamingMetrics.bindManager(this);
+        scheduleEviction(bigQueryProperties.getStreaming().getEviction());
+        if (writeAheadLogStore != null) {
+            for (TableName tableName : writeAheadLogStore.getRecoverableTables()) {
+                try {
+                    createStreamProcessor(tableName);
+                } catch (Exception e) {
+                    log.error("Can not recover the write-ahead log of table {}, it is kept for the next start", tableName, e);
+                }
+            }
+        }
     }
 
     @Override
     public void createStreamProcessor(TableName tableName) {
         streams.computeIfAbsent(tableName, table -> {
             log.debug("createStreamProcessor for table {}", table);
-            BigQueryStreamProcessor streamProcessor = streamProcessorFactory.getObject();
+            FanOutPolicy fanOut = FanOutPolicy.of(bigQueryProperties.getStreaming().getFanOut(), table.getTable());
+            BigQueryStreamProcessor streamProcessor = fanOut.isEnabled()
+                    ? new FanOutStreamProcessor(fanOut, streamProcessorFactory::getObject, executorService, priorityLanes)
+                    : streamProcessorFactory.getObject();
             streamProcessor.initialize(tableName);
-            executorService.scheduleWithFixedDelay(streamProcessor, 2, delay, TimeUnit.SECONDS);
+            if (writeAheadLogStore != null) {
+                // the log outlives an evicted processor, its unacknowledged rows are not replayed twice
+                WriteAheadLog writeAheadLog = writeAheadLogs.computeIfAbsent(table, writeAheadLogStore::open);
+                streamProcessor.attachWriteAheadLog(writeAheadLog);
+            }
+            streamingMetrics.bindProcessor(streamProcessor);
+            createdProcessors.incrementAndGet();
+            if (idleTimeoutNanos > 0) {
+                activities.put(table, new Activity());
+            }
+            if (streamProcessor instanceof FanOutStreamProcessor fanOutProcessor) {
+                // every writer of the table has its own flusher
+                fanOutProcessor.start();
+                return streamProcessor;
+            }
+            TableFlusher flusher = new TableFlusher(streamProcessor, executorService, priorityLanes);
+            flushers.put(table, flusher);
+            flusher.start();
             return streamProcessor;
         });
     }
@@ -73,16 +133,67 @@ public class DefaultStreamingManager implements StreamingManager {
         }
     }
 
+    @Override
+    public Map<TableName, Long> executeBulk(Collection<TableName> tableNames, Consumer<BulkWriteSession> consumer) {
+        if (bulkWriteSessionFactory == null) {
+            throw new IllegalStateException("Bulk writes are not configured: no BulkWriteSessionFactory bean");
+        }
+        try (BulkWriteSession session = bulkWriteSessionFactory.open(tableNames)) {
+            consumer.accept(session);
+            return session.commit();
+        }
+    }
+
     @Override
     public void putBatchForTable(TableName tableName, Collection<Map<String, Object>> batch) {
-        createStreamProcessor(tableName);
-        getOrThrow(tableName).putBatch(batch);
+        put(tableName, processor -> processor.putBatch(batch));
     }
 
     @Override
     public void putRowForTable(TableName tableName, Map<String, Object> row) {
-        createStreamProcessor(tableName);
-        getOrThrow(tableName).putOne(row);
+        put(tableName, processor -> processor.putOne(row));
+    }
+
+    @Override
+    public <T> void putRecord(TableName tableName, T record) {
+        put(tableName, processor -> processor.putRecord(record));
+    }
+
+    @Override
+    public <T> void putRecords(TableName tableName, Collection<T> records) {
+        put(tableName, processor -> processor.putRecords(records));
+    }
+
+    /**
+     * Puts rows into the processor of the table, creating it if it does not exist or has been evicted.
+     */
+    private void put(TableName tableName, Consumer<BigQueryStreamProcessor> put) {
+        if (idleTimeoutNanos <= 0) {
+            createStreamProcessor(tableName);
+            put.accept(getOrThrow(tableName));
+            return;
+        }
+        while (true) {
+            createStreamProcessor(tableName);
+            Activity activity = activities.get(tableName);
+            if (activity == null) {
+                // being evicted, a new processor is created once it is removed
+                Thread.onSpinWait();
+                continue;
+            }
+            activity.lock.readLock().lock();
+            try {
+                BigQueryStreamProcessor streamProcessor = streams.get(tableName);
+                if (streamProcessor == null || activities.get(tableName) != activity) {
+                    continue;
+                }
+                activity.lastPutNanos = System.nanoTime();
+                put.accept(streamProcessor);
+                return;
+            } finally {
+                activity.lock.readLock().unlock();
+            }
+        }
     }
 
     @Override
@@ -92,7 +203,8 @@ public class DefaultStreamingManager implements StreamingManager {
 
     @Override
     public void forceFlushAll() {
-        ExecutorService threadPool = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("forceFlushAll-%d").build());
+        ExecutorService threadPool = Executors.newCachedThreadPool(
+                ThreadFactories.create("forceFlushAll-%d", bigQueryProperties.isVirtualThreads()));
         streams.values().forEach(stream -> threadPool.submit(stream::forceFlush));
         ShutDownUtils.shutdownWithAwait(threadPool, 10, TimeUnit.MINUTES, "forceFlushAllPool");
     }
@@ -100,8 +212,19 @@ public class DefaultStreamingManager implements StreamingManager {
     @Override
     public void flushStreamAndClose(TableName tableName) {
         try {
-            getOrThrow(tableName).close();
+            BigQueryStreamProcessor streamProcessor = getOrThrow(tableName);
+            TableFlusher flusher = flushers.remove(tableName);
+            if (flusher != null) {
+                flusher.stop();
+            }
+            streamProcessor.close();
+            WriteAheadLog writeAheadLog = writeAheadLogs.remove(tableName);
+            if (writeAheadLog != null) {
+                writeAheadLog.close();
+            }
+            streamingMetrics.unbindProcessor(tableName);
             streams.remove(tableName);
+            activities.remove(tableName);
         } catch (Exception e) {
             log.error("error while closing stream for table {}", tableName.toString());
             throw new RuntimeException(e);
@@ -126,6 +249,10 @@ public class DefaultStreamingManager implements StreamingManager {
                     .name(streamProcessor.getTable().getTable())
                     .rowQueueSize(streamProcessor.getRowQueueSize())
                     .fallBackQueueSize(streamProcessor.getFallBackQueueSize())
+                    .writers(streamProcessor.getWriterCount())
+                    .priority(streamProcessor.getPriority())
+                    .buffer(streamProcessor.getBufferStatistic())
+                    .circuitBreaker(streamProcessor.getCircuitBreakerStatistic())
                     .isInitialized(streamProcessor.isInitialized())
                     .isStopped(streamProcessor.isStopped())
                     .build());
@@ -133,19 +260,106 @@ public class DefaultStreamingManager implements StreamingManager {
         return streamsStats;
     }
 
+    @Override
+    public StreamingManagerStatistic getManagerStatistic() {
+        return StreamingManagerStatistic.builder()
+                .liveProcessors(streams.size())
+                .createdProcessors(createdProcessors.get())
+                .evictedProcessors(evictedProcessors.get())
+                .build();
+    }
+
+    private void scheduleEviction(BigQueryProperties.EvictionProperties eviction) {
+        if (eviction == null || eviction.getIdleTimeoutMs() == null || eviction.getIdleTimeoutMs() <= 0) {
+            return;
+        }
+        idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(eviction.getIdleTimeoutMs());
+        long intervalMillis = Math.min(eviction.getIdleTimeoutMs(),
+                eviction.getCheckIntervalMs() != null && eviction.getCheckIntervalMs() > 0 ? eviction.getCheckIntervalMs() : 60_000);
+        executorService.scheduleWithFixedDelay(this::evictIdle, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Flushes, closes and removes the processors of the tables without puts for the idle timeout.
+     * Processors with buffered rows or batches waiting to retry are kept until they are sent.
+     */
+    private void evictIdle() {
+        for (Map.Entry<TableName, Activity> entry : activities.entrySet()) {
+            TableName tableName = entry.getKey();
+            Activity activity = entry.getValue();
+            BigQueryStreamProcessor streamProcessor = streams.get(tableName);
+            if (streamProcessor == null || !isIdle(activity, streamProcessor)) {
+                continue;
+            }
+            // puts in progress keep the processor, it is looked at again by the next check
+            if (!activity.lock.writeLock().tryLock()) {
+                continue;
+            }
+            try {
+                if (!isIdle(activity, streamProcessor) || streams.get(tableName) != streamProcessor) {
+                    continue;
+                }
+                // a put may create the next processor of the table as soon as this one is removed
+                TableFlusher flusher = flushers.get(tableName);
+                if (flusher != null) {
+                    flusher.stop();
+                }
+                streamingMetrics.unbindProcessor(tableName);
+                streams.remove(tableName, streamProcessor);
+                if (flusher != null) {
+                    flushers.remove(tableName, flusher);
+                }
+                activities.remove(tableName, activity);
+            } finally {
+                activity.lock.writeLock().unlock();
+            }
+            try {
+                streamProcessor.close();
+                evictedProcessors.incrementAndGet();
+                log.debug("Evicted the processor of table {}, idle for {} millis", tableName.getTable(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - activity.lastPutNanos));
+            } catch (Exception e) {
+                log.error("Error while evicting the processor of table {}", tableName.getTable(), e);
+            }
+        }
+    }
+
+    private boolean isIdle(Activity activity, BigQueryStreamProcessor streamProcessor) {
+        return System.nanoTime() - activity.lastPutNanos >= idleTimeoutNanos
+                && streamProcessor.getRowQueueSize() == 0
+                && streamProcessor.getFallBackQueueSize() == 0
+                && streamProcessor.getInFlightRequests() == 0;
+    }
+
+    /**
+     * Drains all tables in parallel under the {@code bigquery.streaming.shutdown.timeout-ms} deadline.
+     */
     @PreDestroy
     private void destroy() {
         log.info("destroy DefaultStreamingManager");
         try {
-            for (BigQueryStreamProcessor streamProcessor : streams.values()) {
-                streamProcessor.close();
-            }
-            ShutDownUtils.shutdownWithAwait(executorService, 10, TimeUnit.MINUTES, "destroyPool");
+            ShutdownCoordinator coordinator = new ShutdownCoordinator(bigQueryProperties);
+            long deadline = System.nanoTime() + coordinator.getTimeoutNanos();
+            flushers.values().forEach(TableFlusher::stop);
+            coordinator.closeAll(streams.values(), deadline);
+            writeAheadLogs.values().forEach(WriteAheadLog::close);
+            // flushes started before the flushers stopped end with the processors
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            ShutDownUtils.shutdownWithAwait(executorService, (int) Math.max(remaining, 0), TimeUnit.MILLISECONDS, "destroyPool");
         } catch (Exception e) {
-            log.error("error while destroy DefaultStreamingManager");
+            log.error("error while destroy DefaultStreamingManager", e);
         }
     }
 
+    /**
+     * Puts into a table hold the read lock, evicting its processor takes the write lock,
+     * so rows are never put into an evicted processor.
+     */
+    private static class Activity {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private volatile long lastPutNanos = System.nanoTime();
+    }
+
     private BigQueryStreamProcessor getOrThrow(TableName tableName) {
         BigQueryStreamProcessor streamProcessor = streams.get(tableName);
         if (streamProcessor == null) {
@@ -9,6 +9,12 @@ import java.util.concurrent.Executors;
 
 public interface StreamingConsts {
 
+    /**
+     * @deprecated Unbounded and no longer used by the starter, append callbacks run on
+     * {@link com.belkatechnologies.bigquery.streaming.transport.StreamingTransport#getCallbackExecutor()}.
+     * Kept for applications still submitting to it, it starts no thread until then.
+     */
+    @Deprecated
     ExecutorService CALLBACK_EXECUTOR = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("append-callback-%d").build());
 
     int MAX_BYTES = 8_000_000;
@@ -20,5 +26,7 @@ public interface StreamingConsts {
                     Status.Code.CANCELLED,
                     Status.Code.FAILED_PRECONDITION,
                     Status.Code.DEADLINE_EXCEEDED,
+                    // quota and throughput limits, lifted after a while
+                    Status.Code.RESOURCE_EXHAUSTED,
                     Status.Code.UNAVAILABLE);
 }
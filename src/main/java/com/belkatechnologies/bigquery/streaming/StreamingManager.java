@@ -1,5 +1,6 @@
 package com.belkatechnologies.bigquery.streaming;
 
+import com.belkatechnologies.bigquery.streaming.bulk.BulkWriteSession;
 import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
 import com.google.cloud.bigquery.storage.v1.TableName;
 
@@ -13,7 +14,8 @@ import java.util.function.Consumer;
 public interface StreamingManager {
 
     /**
-     * Creates a BigQueryStreamProcessor instance for the provided TableName and schedules it to be flushed every 30(or assigned via properties) seconds.
+     * Creates a BigQueryStreamProcessor instance for the provided TableName and flushes it whenever the buffered rows reach
+     * the configured bytes or rows thresholds or the oldest of them lingers for 30 seconds (or as assigned via properties).
      * The method is idempotent and does not create a new StreamProcessor if one already exists for the TableName.
      *
      * @param tableName The BigQuery object representing project, dataset, and table names.
@@ -49,11 +51,26 @@ public interface StreamingManager {
      */
     void executeOnceOnStandalone(TableName tableName, Consumer<BigQueryStreamProcessor> consumer, Consumer<Exception> onException);
 
+    /**
+     * Executes the provided consumer on a bulk write session writing the tables through PENDING streams,
+     * several streams per table, and commits the session once the consumer returns. Nothing is visible before the commit:
+     * if the consumer or any append fails, no table is committed.
+     * Intended for backfills, rows do not pass through the stream processors.
+     *
+     * @param tableNames The tables written by the session.
+     * @param consumer   The consumer function putting rows into the session.
+     * @return The number of committed rows per table.
+     * @throws RuntimeException If the session can not be committed.
+     */
+    Map<TableName, Long> executeBulk(Collection<TableName> tableNames, Consumer<BulkWriteSession> consumer);
+
     /**
      * Adds a batch of rows to the processing queue for the specified table.
      *
      * @param tableName The BigQuery object representing project, dataset, and table names.
      * @param rows      The collection of maps representing the rows.
+     * @throws com.belkatechnologies.bigquery.streaming.buffer.BufferOverflowException If the table buffer is full
+     *                                                                                  and the overflow policy rejects the rows.
      */
     void putBatchForTable(TableName tableName, Collection<Map<String, Object>> rows);
 
@@ -62,9 +79,32 @@ public interface StreamingManager {
      *
      * @param tableName The BigQuery object representing project, dataset, and table names.
      * @param row       The map representing the row data.
+     * @throws com.belkatechnologies.bigquery.streaming.buffer.BufferOverflowException If the table buffer is full
+     *                                                                                  and the overflow policy rejects the row.
      */
     void putRowForTable(TableName tableName, Map<String, Object> row);
 
+    /**
+     * Adds a single typed record to the processing queue for the specified table.
+     *
+     * @param tableName The BigQuery object representing project, dataset, and table names.
+     * @param record    The record, a POJO or a record class optionally annotated with
+     *                  {@link com.belkatechnologies.bigquery.streaming.codec.BigQueryColumn}.
+     * @throws com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException If the class of the record does not match the table schema.
+     * @see BigQueryStreamProcessor#putRecord(Object)
+     */
+    <T> void putRecord(TableName tableName, T record);
+
+    /**
+     * Adds a batch of typed records to the processing queue for the specified table.
+     *
+     * @param tableName The BigQuery object representing project, dataset, and table names.
+     * @param records   The records.
+     * @throws com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException If the class of a record does not match the table schema.
+     * @see BigQueryStreamProcessor#putRecords(Collection)
+     */
+    <T> void putRecords(TableName tableName, Collection<T> records);
+
     /**
      * Forces the flushing of the stream for the specified table.
      *
@@ -98,5 +138,12 @@ public interface StreamingManager {
      * @return A map containing statistics for each table.
      */
     Map<TableName, StreamingStatistic> getStatistics();
+
+    /**
+     * Retrieves the number of live processors and the processors created and evicted since the start.
+     *
+     * @return The statistic of the managed processors.
+     */
+    StreamingManagerStatistic getManagerStatistic();
 }
 
@@ -0,0 +1,15 @@
+package com.belkatechnologies.bigquery.streaming;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Snapshot of the processors managed by the streaming manager.
+ */
+@Builder
+@Data
+public class StreamingManagerStatistic {
+    private final int liveProcessors;
+    private final long createdProcessors;
+    private final long evictedProcessors;
+}
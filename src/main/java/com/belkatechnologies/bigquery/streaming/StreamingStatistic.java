@@ -1,5 +1,8 @@
 package com.belkatechnologies.bigquery.streaming;
 
+import com.belkatechnologies.bigquery.streaming.buffer.BufferStatistic;
+import com.belkatechnologies.bigquery.streaming.priority.Priority;
+import com.belkatechnologies.bigquery.streaming.retry.CircuitBreakerStatistic;
 import lombok.Builder;
 import lombok.Data;
 
@@ -9,6 +12,10 @@ public class StreamingStatistic {
     private final String name;
     private final int rowQueueSize;
     private final int fallBackQueueSize;
+    private final int writers;
+    private final Priority priority;
+    private final BufferStatistic buffer;
+    private final CircuitBreakerStatistic circuitBreaker;
     private boolean isInitialized;
     private boolean isStopped;
 }
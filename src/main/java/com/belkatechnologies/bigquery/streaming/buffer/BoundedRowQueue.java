@@ -0,0 +1,255 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Ingest buffer of a stream processor limited by a {@link BufferCapacity}.
+ * Rows which do not fit are handled according to the configured {@link OverflowPolicy}.
+ * Room is released as soon as a row is polled by the flush task.
+ * Rows are accounted by {@link StreamingRow#bufferedSize()}, so rows spilled to the write-ahead log take
+ * the heap of their reference only and an outage does not fill the buffer with rows kept on disk.
+ */
+public class BoundedRowQueue {
+
+    private final Queue<StreamingRow> rows;
+    // rows polled but not taken by the flush task, they go out before the rows of the queue
+    private final ConcurrentLinkedDeque<StreamingRow> pushedBack = new ConcurrentLinkedDeque<>();
+    @Getter
+    private final BufferCapacity capacity;
+    @Getter
+    private final OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong heldBytes = new AtomicLong();
+    private volatile Consumer<StreamingRow> dropListener = row -> {
+    };
+
+    private final LongAdder blocked = new LongAdder();
+    private final LongAdder blockTimeouts = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder droppedOldest = new LongAdder();
+    private final LongAdder droppedNewest = new LongAdder();
+
+    /**
+     * @param rows               Thread-safe queue used to store the rows.
+     * @param capacity           Capacity limiting the rows of this queue.
+     * @param overflowPolicy     Policy applied when the capacity is exhausted.
+     * @param blockTimeoutMillis Maximum time a producer waits for capacity with {@link OverflowPolicy#BLOCK}.
+     */
+    public BoundedRowQueue(Queue<StreamingRow> rows, BufferCapacity capacity, OverflowPolicy overflowPolicy, long blockTimeoutMillis) {
+        this.rows = rows;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+    }
+
+    /**
+     * Adds a row to the queue applying the overflow policy if there is no room for it.
+     *
+     * @return False if the row is dropped by the overflow policy instead of being added.
+     * @throws BufferOverflowException If the row is rejected.
+     */
+    public boolean offer(StreamingRow row) {
+        if (capacity.tryAcquire(1, row.bufferedSize())) {
+            add(row);
+            return true;
+        }
+        switch (overflowPolicy) {
+            case BLOCK -> awaitOrThrow(1, row.bufferedSize());
+            case REJECT -> reject(1);
+            case DROP_OLDEST -> {
+                if (!evictOldestFor(row.bufferedSize())) {
+                    dropNewest(row);
+                    return false;
+                }
+            }
+            case DROP_NEWEST -> {
+                dropNewest(row);
+                return false;
+            }
+        }
+        add(row);
+        return true;
+    }
+
+    /**
+     * Adds rows to the queue. With {@link OverflowPolicy#BLOCK} and {@link OverflowPolicy#REJECT}
+     * the batch is accepted or refused as a whole, drop policies are applied row by row.
+     *
+     * @return The rows added: the batch itself unless rows are dropped by the overflow policy.
+     * @throws BufferOverflowException If the batch is rejected.
+     */
+    public List<StreamingRow> offerAll(List<StreamingRow> batch) {
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST || overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+            List<StreamingRow> added = new ArrayList<>(batch.size());
+            for (StreamingRow row : batch) {
+                if (offer(row)) {
+                    added.add(row);
+                }
+            }
+            return added.size() == batch.size() ? batch : added;
+        }
+        long bytes = 0;
+        for (StreamingRow row : batch) {
+            bytes += row.bufferedSize();
+        }
+        if (!capacity.tryAcquire(batch.size(), bytes)) {
+            if (overflowPolicy == OverflowPolicy.REJECT) {
+                reject(batch.size());
+            }
+            awaitOrThrow(batch.size(), bytes);
+        }
+        batch.forEach(this::add);
+        return batch;
+    }
+
+    /**
+     * Adds a row regardless of the capacity, e.g. a row recovered from the write-ahead log.
+     * The room is accounted, so producers wait until it is released.
+     */
+    public void force(StreamingRow row) {
+        capacity.forceAcquire(1, row.bufferedSize());
+        add(row);
+    }
+
+    /**
+     * Sets the listener receiving the rows dropped by the overflow policy.
+     */
+    public void setDropListener(Consumer<StreamingRow> dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Retrieves and removes the oldest row releasing its room.
+     *
+     * @return The oldest row or null if the queue is empty.
+     */
+    public StreamingRow poll() {
+        StreamingRow row = pushedBack.pollFirst();
+        if (row == null) {
+            row = rows.poll();
+        }
+        if (row != null) {
+            size.decrementAndGet();
+            capacity.release(1, row.bufferedSize());
+        }
+        return row;
+    }
+
+    /**
+     * Retrieves, but does not remove, the oldest row.
+     *
+     * @return The oldest row or null if the queue is empty.
+     */
+    public StreamingRow peek() {
+        StreamingRow row = pushedBack.peekFirst();
+        return row != null ? row : rows.peek();
+    }
+
+    /**
+     * Puts a polled row back at the head of the queue, e.g. a row which does not fit the batch being assembled.
+     * Its room is taken again regardless of the capacity, as it was before the poll.
+     */
+    public void pushBack(StreamingRow row) {
+        capacity.forceAcquire(1, row.bufferedSize());
+        pushedBack.addFirst(row);
+        size.incrementAndGet();
+    }
+
+    /**
+     * Accounts a batch waiting to retry. It never fails, but the room is visible to producers.
+     */
+    public void holdRetry(int rowCount, long bytes) {
+        heldBytes.addAndGet(bytes);
+        capacity.forceAcquire(rowCount, bytes);
+    }
+
+    /**
+     * Releases the room held by a batch waiting to retry.
+     */
+    public void releaseRetry(int rowCount, long bytes) {
+        capacity.release(rowCount, bytes);
+        heldBytes.addAndGet(-bytes);
+    }
+
+    /**
+     * @return The bytes of the rows waiting in the queue, without the batches waiting to retry.
+     */
+    public long getQueuedBytes() {
+        return Math.max(capacity.getBytes() - heldBytes.get(), 0);
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    public BufferStatistic getStatistic() {
+        return BufferStatistic.builder()
+                .bufferedRows(capacity.getRows())
+                .bufferedBytes(capacity.getBytes())
+                .maxRows(capacity.getMaxRows())
+                .maxBytes(capacity.getMaxBytes())
+                .fairShareBytes(capacity.getFairShareBytes())
+                .throttled(capacity.getThrottled())
+                .overflowPolicy(overflowPolicy)
+                .blocked(blocked.sum())
+                .blockTimeouts(blockTimeouts.sum())
+                .rejected(rejected.sum())
+                .droppedOldest(droppedOldest.sum())
+                .droppedNewest(droppedNewest.sum())
+                .build();
+    }
+
+    private void add(StreamingRow row) {
+        rows.add(row);
+        size.incrementAndGet();
+    }
+
+    private void awaitOrThrow(int rowCount, long bytes) {
+        blocked.increment();
+        if (!capacity.awaitAcquire(rowCount, bytes, blockTimeoutNanos)) {
+            blockTimeouts.increment();
+            throw new BufferOverflowException(String.format(
+                    "Buffer is full: timed out waiting for room for %d rows (%d bytes)", rowCount, bytes));
+        }
+    }
+
+    private void reject(int rowCount) {
+        rejected.add(rowCount);
+        throw new BufferOverflowException(String.format(
+                "Buffer is full: %d rows rejected, buffered %d rows (%d bytes)", rowCount, capacity.getRows(), capacity.getBytes()));
+    }
+
+    private void dropNewest(StreamingRow row) {
+        droppedNewest.increment();
+        dropListener.accept(row);
+    }
+
+    private boolean evictOldestFor(int bytes) {
+        while (!capacity.tryAcquire(1, bytes)) {
+            StreamingRow evicted = poll();
+            if (evicted == null) {
+                return false;
+            }
+            droppedOldest.increment();
+            dropListener.accept(evicted);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,244 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+import lombok.Getter;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Row and byte accounting for buffered rows.
+ * A per-table capacity is linked to the process-wide one, so an acquisition succeeds only if both have room.
+ * An acquisition is always granted when the capacity is empty, so a single row (or batch) bigger
+ * than the limit can not get stuck forever.
+ */
+public class BufferCapacity {
+
+    private static final long MAX_WAIT_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final long maxRows;
+    private final long maxBytes;
+    private final BufferCapacity parent;
+    @Getter
+    private volatile int parts = 1;
+
+    private final AtomicLong rows = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final LongAdder throttled = new LongAdder();
+    @Getter
+    private volatile String table;
+
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+
+    /**
+     * @param maxRows  Maximum number of buffered rows, null or non-positive means unlimited.
+     * @param maxBytes Maximum number of buffered bytes, null or non-positive means unlimited.
+     * @param parent   Capacity which must also be acquired, usually the process-wide one. May be null.
+     */
+    public BufferCapacity(Long maxRows, Long maxBytes, BufferCapacity parent) {
+        this.maxRows = maxRows != null && maxRows > 0 ? maxRows : Long.MAX_VALUE;
+        this.maxBytes = maxBytes != null && maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+        this.parent = parent;
+    }
+
+    /**
+     * @return The maximum number of buffered rows, the part of the limit held by this capacity if it is split.
+     */
+    public long getMaxRows() {
+        return maxRows == Long.MAX_VALUE ? maxRows : Math.max(maxRows / parts, 1);
+    }
+
+    /**
+     * @return The maximum number of buffered bytes, the part of the limit held by this capacity if it is split.
+     */
+    public long getMaxBytes() {
+        return maxBytes == Long.MAX_VALUE ? maxBytes : Math.max(maxBytes / parts, 1);
+    }
+
+    /**
+     * Splits the limits between the given number of capacities, e.g. the writers of a table appending its rows
+     * in parallel, each of them holding one part. A capacity above its new part refuses rows until it drains.
+     */
+    public void split(int parts) {
+        this.parts = Math.max(parts, 1);
+    }
+
+    public long getRows() {
+        return rows.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return Acquisitions refused by the parent to leave room for the tables below their fair share.
+     */
+    public long getThrottled() {
+        return throttled.sum();
+    }
+
+    /**
+     * @return The bytes of the parent this capacity is entitled to, its own limit without a parent sharing its budget.
+     */
+    public long getFairShareBytes() {
+        return parent != null ? Math.min(getMaxBytes(), parent.fairShareOf(this)) : getMaxBytes();
+    }
+
+    /**
+     * Names the capacity after the table it limits and registers it with the parent, which may weigh the tables.
+     */
+    public void attach(String table) {
+        this.table = table;
+        if (parent != null) {
+            parent.register(this);
+        }
+    }
+
+    /**
+     * Unregisters the capacity of a closed processor from the parent.
+     */
+    public void detach() {
+        if (parent != null) {
+            parent.unregister(this);
+        }
+    }
+
+    /**
+     * Tries to reserve room for the given amount of rows and bytes without waiting.
+     *
+     * @return True if the room is reserved, false if the capacity (or its parent) is exhausted.
+     */
+    public boolean tryAcquire(long rowCount, long byteCount) {
+        if (!reserve(rowCount, byteCount)) {
+            return false;
+        }
+        if (parent != null && !parent.tryAcquireFor(this, rowCount, byteCount)) {
+            releaseLocal(rowCount, byteCount);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reserves the room in this capacity only, compare-and-set so that a refused acquisition never shows
+     * in the counters and makes concurrent producers fail for nothing. The lock is left to the waiting producers.
+     */
+    private boolean reserve(long rowCount, long byteCount) {
+        long maxRows = getMaxRows();
+        long currentRows;
+        do {
+            currentRows = rows.get();
+            if (currentRows != 0 && currentRows + rowCount > maxRows) {
+                return false;
+            }
+        } while (!rows.compareAndSet(currentRows, currentRows + rowCount));
+        boolean wasEmpty = currentRows == 0;
+        long maxBytes = getMaxBytes();
+        long currentBytes;
+        do {
+            currentBytes = bytes.get();
+            if (!wasEmpty && currentBytes + byteCount > maxBytes) {
+                releaseLocal(rowCount, 0);
+                return false;
+            }
+        } while (!bytes.compareAndSet(currentBytes, currentBytes + byteCount));
+        return true;
+    }
+
+    /**
+     * Reserves room in this capacity on behalf of a child, which has already accounted the room itself.
+     */
+    protected boolean tryAcquireFor(BufferCapacity child, long rowCount, long byteCount) {
+        return tryAcquire(rowCount, byteCount);
+    }
+
+    /**
+     * @return The bytes of this capacity a child is entitled to.
+     */
+    protected long fairShareOf(BufferCapacity child) {
+        return getMaxBytes();
+    }
+
+    protected void register(BufferCapacity child) {
+    }
+
+    protected void unregister(BufferCapacity child) {
+    }
+
+    /**
+     * Counts an acquisition of the child refused to share this capacity fairly.
+     */
+    protected void throttle(BufferCapacity child) {
+        child.throttled.increment();
+    }
+
+    /**
+     * Reserves room for the given amount of rows and bytes, waiting up to the given timeout.
+     *
+     * @return True if the room is reserved, false if the timeout elapsed or the thread was interrupted.
+     */
+    public boolean awaitAcquire(long rowCount, long byteCount, long timeoutNanos) {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!tryAcquire(rowCount, byteCount)) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return false;
+            }
+            waiters.incrementAndGet();
+            lock.lock();
+            try {
+                // the parent signals its own waiters only, so wake up periodically to re-check it
+                released.awaitNanos(Math.min(remaining, MAX_WAIT_SLICE_NANOS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                lock.unlock();
+                waiters.decrementAndGet();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reserves room unconditionally, even if the limits are exceeded.
+     * Used for batches waiting to retry: they must never be lost because of the buffer limits,
+     * but they still have to be visible to producers as occupied memory.
+     */
+    public void forceAcquire(long rowCount, long byteCount) {
+        rows.addAndGet(rowCount);
+        bytes.addAndGet(byteCount);
+        if (parent != null) {
+            parent.forceAcquire(rowCount, byteCount);
+        }
+    }
+
+    /**
+     * Releases previously acquired room and wakes up blocked producers.
+     */
+    public void release(long rowCount, long byteCount) {
+        releaseLocal(rowCount, byteCount);
+        if (parent != null) {
+            parent.release(rowCount, byteCount);
+        }
+    }
+
+    private void releaseLocal(long rowCount, long byteCount) {
+        rows.addAndGet(-rowCount);
+        bytes.addAndGet(-byteCount);
+        if (waiters.get() > 0) {
+            lock.lock();
+            try {
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
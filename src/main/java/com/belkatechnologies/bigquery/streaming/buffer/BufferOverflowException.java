@@ -0,0 +1,13 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+/**
+ * Thrown when rows can not be accepted by a stream processor because its ingest buffer is full
+ * and the configured {@link OverflowPolicy} is {@link OverflowPolicy#REJECT} or
+ * {@link OverflowPolicy#BLOCK} timed out.
+ */
+public class BufferOverflowException extends RuntimeException {
+
+    public BufferOverflowException(String message) {
+        super(message);
+    }
+}
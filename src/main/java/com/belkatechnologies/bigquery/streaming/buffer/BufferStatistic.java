@@ -0,0 +1,24 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Snapshot of the ingest buffer usage and overflow counters of a single stream processor.
+ */
+@Builder
+@Data
+public class BufferStatistic {
+    private final long bufferedRows;
+    private final long bufferedBytes;
+    private final long maxRows;
+    private final long maxBytes;
+    private final long fairShareBytes;
+    private final long throttled;
+    private final OverflowPolicy overflowPolicy;
+    private final long blocked;
+    private final long blockTimeouts;
+    private final long rejected;
+    private final long droppedOldest;
+    private final long droppedNewest;
+}
@@ -0,0 +1,136 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+import com.belkatechnologies.bigquery.streaming.priority.PriorityLanes;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Process-wide byte budget of the buffered rows, retries included, shared fairly by the tables.
+ * <p>
+ * The fair share of a table is the budget split between the tables holding rows in proportion to their weights.
+ * While less than half of the budget is used every table takes what it needs. Above that a table always gets room
+ * up to its fair share, and borrows beyond it only from the budget not promised to the tables below their share,
+ * a smaller part of it the more the table has already borrowed. So as the budget runs out, the tables furthest above
+ * their share are throttled first and the quiet tables still find room.
+ * <p>
+ * The weight of a table not listed explicitly is the weight of its priority class, so the tables of the low priority
+ * class are the first to be throttled and to shed rows under their overflow policy. A table written by several writers
+ * has a capacity per writer, splitting the weight of the table.
+ * <p>
+ * The shares are recomputed at most every 100 milliseconds, the usage of the acquiring table is always current.
+ */
+public class FairShareBudget extends BufferCapacity {
+
+    private static final double FAIR_SHARE_THRESHOLD = 0.5;
+    private static final long REFRESH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final Map<String, Double> weights;
+    private final PriorityLanes priorities;
+    private final Set<BufferCapacity> tables = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+    private volatile Shares shares = new Shares(Map.of(), 0, 0, System.nanoTime() - REFRESH_NANOS);
+
+    /**
+     * @param maxRows  Maximum number of buffered rows, null or non-positive means unlimited.
+     * @param maxBytes The budget in bytes.
+     * @param weights    Weights of the tables by table name.
+     * @param priorities Priority classes giving the weights of the tables not listed.
+     */
+    public FairShareBudget(Long maxRows, long maxBytes, Map<String, Double> weights, PriorityLanes priorities) {
+        super(maxRows, maxBytes, null);
+        this.weights = weights != null ? Map.copyOf(weights) : Map.of();
+        this.priorities = priorities != null ? priorities : PriorityLanes.UNLIMITED;
+    }
+
+    @Override
+    protected boolean tryAcquireFor(BufferCapacity child, long rowCount, long byteCount) {
+        if (getBytes() + byteCount <= getMaxBytes() * FAIR_SHARE_THRESHOLD) {
+            return tryAcquire(rowCount, byteCount);
+        }
+        Shares current = shares();
+        long share = current.shareOf(child, weightOf(child), getMaxBytes());
+        // the child has already accounted the bytes it acquires
+        long usage = child.getBytes();
+        if (usage > share) {
+            double borrowable = getMaxBytes() - getBytes() - current.reservedBytes();
+            double borrowed = usage - share;
+            if (byteCount > borrowable * share / (share + borrowed)) {
+                throttle(child);
+                return false;
+            }
+        }
+        return tryAcquire(rowCount, byteCount);
+    }
+
+    @Override
+    protected long fairShareOf(BufferCapacity child) {
+        return shares().shareOf(child, weightOf(child), getMaxBytes());
+    }
+
+    @Override
+    protected void register(BufferCapacity child) {
+        tables.add(child);
+    }
+
+    @Override
+    protected void unregister(BufferCapacity child) {
+        tables.remove(child);
+    }
+
+    private double weightOf(BufferCapacity child) {
+        String table = child.getTable();
+        Double weight = table != null ? weights.get(table) : null;
+        // the writers of a fanned out table split its weight like its limits
+        return (weight != null && weight > 0 ? weight : priorities.priorityOf(table).getWeight()) / child.getParts();
+    }
+
+    private Shares shares() {
+        Shares current = shares;
+        if (System.nanoTime() - current.computedAt() < REFRESH_NANOS || !refreshing.compareAndSet(false, true)) {
+            return current;
+        }
+        try {
+            Map<BufferCapacity, Long> usages = new HashMap<>();
+            double weightSum = 0;
+            for (BufferCapacity table : tables) {
+                long usage = table.getBytes();
+                if (usage > 0) {
+                    usages.put(table, usage);
+                    weightSum += weightOf(table);
+                }
+            }
+            Map<BufferCapacity, Long> computed = new HashMap<>();
+            long reserved = 0;
+            for (Map.Entry<BufferCapacity, Long> usage : usages.entrySet()) {
+                long share = (long) (getMaxBytes() * weightOf(usage.getKey()) / weightSum);
+                computed.put(usage.getKey(), share);
+                reserved += Math.max(share - usage.getValue(), 0);
+            }
+            current = new Shares(computed, weightSum, reserved, System.nanoTime());
+            shares = current;
+            return current;
+        } finally {
+            refreshing.set(false);
+        }
+    }
+
+    /**
+     * @param byTable       Fair shares of the tables holding rows.
+     * @param weightSum     Sum of the weights of the tables holding rows.
+     * @param reservedBytes Bytes of the fair shares not used yet by the tables below their share.
+     * @param computedAt    The {@link System#nanoTime()} the shares are computed at.
+     */
+    private record Shares(Map<BufferCapacity, Long> byTable, double weightSum, long reservedBytes, long computedAt) {
+
+        long shareOf(BufferCapacity table, double weight, long budget) {
+            Long share = byTable.get(table);
+            // a table which held no rows at the last refresh joins the tables holding rows
+            return share != null ? share : (long) (budget * weight / (weightSum + weight));
+        }
+    }
+}
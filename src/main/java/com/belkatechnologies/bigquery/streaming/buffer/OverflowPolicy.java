@@ -0,0 +1,25 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+/**
+ * Defines what happens when a row is put into a stream processor whose ingest buffer
+ * (or the process-wide buffer) has reached its capacity.
+ */
+public enum OverflowPolicy {
+    /**
+     * Blocks the producer until capacity is released or the configured timeout elapses.
+     * A {@link BufferOverflowException} is thrown on timeout.
+     */
+    BLOCK,
+    /**
+     * Immediately throws a {@link BufferOverflowException}; the rows are not enqueued.
+     */
+    REJECT,
+    /**
+     * Evicts the oldest buffered rows of the same table to make room for the new ones.
+     */
+    DROP_OLDEST,
+    /**
+     * Silently discards the rows being put.
+     */
+    DROP_NEWEST
+}
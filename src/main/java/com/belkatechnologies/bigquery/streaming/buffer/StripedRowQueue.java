@@ -0,0 +1,104 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.google.common.collect.Iterators;
+
+import java.util.AbstractQueue;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Lock-free queue split into stripes selected by the producer thread, so producers writing
+ * to the same table do not contend on a single queue tail.
+ * The consumer drains the stripes round-robin, therefore the order is kept per producer thread only.
+ */
+public class StripedRowQueue extends AbstractQueue<StreamingRow> {
+
+    private final Queue<StreamingRow>[] stripes;
+    private final int mask;
+    // flush tasks of the table may drain concurrently
+    private volatile int drainCursor;
+
+    /**
+     * @param concurrency Expected number of concurrent producers, rounded up to a power of two.
+     */
+    @SuppressWarnings("unchecked")
+    public StripedRowQueue(int concurrency) {
+        int stripeCount = Integer.highestOneBit(Math.max(1, concurrency - 1)) << 1;
+        this.stripes = new Queue[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new ConcurrentLinkedQueue<>();
+        }
+        this.mask = stripeCount - 1;
+    }
+
+    public StripedRowQueue() {
+        this(Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    @Override
+    public boolean offer(StreamingRow row) {
+        return stripes[stripeIndex()].offer(row);
+    }
+
+    @Override
+    public StreamingRow poll() {
+        int start = drainCursor;
+        for (int i = 0; i <= mask; i++) {
+            int index = (start + i) & mask;
+            StreamingRow row = stripes[index].poll();
+            if (row != null) {
+                drainCursor = index + 1;
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public StreamingRow peek() {
+        int start = drainCursor;
+        for (int i = 0; i <= mask; i++) {
+            StreamingRow row = stripes[(start + i) & mask].peek();
+            if (row != null) {
+                return row;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Queue<StreamingRow> stripe : stripes) {
+            if (!stripe.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Traverses every stripe, prefer {@link BoundedRowQueue#size()} on hot paths.
+     */
+    @Override
+    public int size() {
+        int size = 0;
+        for (Queue<StreamingRow> stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<StreamingRow> iterator() {
+        return Iterators.concat(Arrays.stream(stripes).map(Queue::iterator).iterator());
+    }
+
+    private int stripeIndex() {
+        long id = Thread.currentThread().getId();
+        int hash = (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+}
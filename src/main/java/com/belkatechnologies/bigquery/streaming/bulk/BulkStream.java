@@ -0,0 +1,103 @@
+package com.belkatechnologies.bigquery.streaming.bulk;
+
+import com.belkatechnologies.bigquery.streaming.flush.AppendWindow;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.retry.RetryPolicy;
+import com.belkatechnologies.bigquery.streaming.writer.ExplicitStreamWriter;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.Status;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.belkatechnologies.bigquery.streaming.StreamingConsts.RETRIABLE_ERROR_CODES;
+
+/**
+ * One PENDING stream of a bulk write. Batches are appended at consecutive offsets, up to the window of the stream
+ * in flight. Responses are checked in offset order: a failed append is sent again at its offset once all the appends
+ * before it are acknowledged, so the appends after it, refused with OUT_OF_RANGE, can be sent again as well.
+ * Not thread-safe, used under the lock of the session.
+ */
+@RequiredArgsConstructor
+class BulkStream {
+
+    @Getter
+    private final ExplicitStreamWriter writer;
+    private final AppendWindow window;
+    private final RetryPolicy retryPolicy;
+
+    private final Deque<Append> appends = new ArrayDeque<>();
+    @Getter
+    private long rows;
+
+    void append(StreamingObject batch) throws Exception {
+        checkAcknowledged(false);
+        window.acquire(batch.size());
+        StreamingObject bound = writer.bind(batch);
+        ApiFuture<AppendRowsResponse> response;
+        try {
+            response = writer.append(bound);
+        } catch (Exception e) {
+            window.release(bound.size());
+            throw e;
+        }
+        response.addListener(() -> window.release(bound.size()), MoreExecutors.directExecutor());
+        appends.add(new Append(bound, response));
+        rows += bound.rowCount();
+    }
+
+    /**
+     * Checks the responses in offset order, sending failed appends again.
+     *
+     * @param all Whether to wait for all the appends or to stop at the first one without a response.
+     * @throws Exception If an append fails and can not be retried.
+     */
+    void checkAcknowledged(boolean all) throws Exception {
+        Append head;
+        while ((head = appends.peek()) != null && (all || head.response().isDone())) {
+            awaitOrResend(head);
+            appends.poll();
+        }
+    }
+
+    private void awaitOrResend(Append append) throws Exception {
+        StreamingObject batch = append.batch();
+        ApiFuture<AppendRowsResponse> response = append.response();
+        for (int attempt = 1; ; attempt++) {
+            try {
+                AppendRowsResponse result = response.get();
+                if (result.hasError()) {
+                    throw new RuntimeException(String.format("Append at offset %d of stream %s failed: %s",
+                            batch.offset().offset(), batch.offset().stream(), result.getError()));
+                }
+                return;
+            } catch (ExecutionException e) {
+                Status.Code code = Status.fromThrowable(e.getCause()).getCode();
+                if (code == Status.Code.ALREADY_EXISTS) {
+                    // the append has landed before
+                    return;
+                }
+                boolean retriable = RETRIABLE_ERROR_CODES.contains(code) || code == Status.Code.OUT_OF_RANGE;
+                if (!retriable || attempt > retryPolicy.maxAttempts()) {
+                    throw new RuntimeException(String.format("Append at offset %d of stream %s failed after %d attempts",
+                            batch.offset().offset(), batch.offset().stream(), attempt), e.getCause());
+                }
+                TimeUnit.NANOSECONDS.sleep(retryPolicy.backoffNanos(attempt));
+                response = writer.append(batch);
+            }
+        }
+    }
+
+    void close() {
+        writer.close();
+    }
+
+    private record Append(StreamingObject batch, ApiFuture<AppendRowsResponse> response) {
+    }
+}
@@ -0,0 +1,222 @@
+package com.belkatechnologies.bigquery.streaming.bulk;
+
+import com.belkatechnologies.bigquery.streaming.codec.RowCodec;
+import com.belkatechnologies.bigquery.streaming.flush.AppendWindow;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.belkatechnologies.bigquery.streaming.retry.RetryPolicy;
+import com.belkatechnologies.bigquery.streaming.writer.StreamRowWriter;
+import com.belkatechnologies.bigquery.streaming.writer.StreamWriterFactory;
+import com.google.cloud.bigquery.storage.v1.*;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.*;
+
+import static com.belkatechnologies.bigquery.streaming.StreamingConsts.MAX_BYTES;
+
+/**
+ * Bulk write of rows into PENDING streams of one or several tables, made visible by {@link #commit()}.
+ * Rows of a table are collected into batches of up to MAX_BYTES, which are spread over several streams
+ * appended in parallel. Nothing is visible before the commit, a session closed without a commit is discarded.
+ * <p>
+ * BigQuery commits the streams of one table atomically. The streams of all tables are finalized and checked
+ * before the first table is committed, so a failed append or a short stream leaves every table untouched.
+ */
+@Slf4j
+public class BulkWriteSession implements AutoCloseable {
+
+    private final BigQueryWriteClient client;
+    private final Map<TableName, TableWrite> tables = new LinkedHashMap<>();
+    private boolean done;
+
+    BulkWriteSession(BigQueryWriteClient client, StreamWriterFactory writerFactory, Collection<TableName> tableNames,
+                     int streamsPerTable, int maxInFlightPerStream, long maxInFlightBytesPerStream, RetryPolicy retryPolicy) {
+        this.client = client;
+        try {
+            for (TableName tableName : tableNames) {
+                List<BulkStream> streams = new ArrayList<>(streamsPerTable);
+                tables.put(tableName, new TableWrite(tableName, writerFactory, streams));
+                for (int i = 0; i < streamsPerTable; i++) {
+                    streams.add(new BulkStream(writerFactory.create(tableName, client, WriteStream.Type.PENDING),
+                            new AppendWindow(maxInFlightPerStream, maxInFlightBytesPerStream), retryPolicy));
+                }
+            }
+        } catch (Exception e) {
+            close();
+            throw new RuntimeException("Can not open bulk write streams", e);
+        }
+    }
+
+    /**
+     * Adds rows of a table.
+     *
+     * @param tableName One of the tables of the session.
+     * @param rows      The maps representing the rows.
+     */
+    public synchronized void putBatch(TableName tableName, Collection<Map<String, Object>> rows) {
+        TableWrite table = getOrThrow(tableName);
+        for (Map<String, Object> row : rows) {
+            table.add(table.encoder().encode(row));
+        }
+    }
+
+    /**
+     * Adds typed records (POJOs or record classes) of a table.
+     *
+     * @param tableName One of the tables of the session.
+     * @param records   The records.
+     * @throws com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException If a class does not match the table schema.
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> void putRecords(TableName tableName, Collection<T> records) {
+        TableWrite table = getOrThrow(tableName);
+        for (T record : records) {
+            RowCodec<T> codec = (RowCodec<T>) table.getCodec(record.getClass());
+            table.add(table.encoder().encode(codec, record));
+        }
+    }
+
+    /**
+     * Waits for all appends, finalizes the streams of all tables and commits them table by table.
+     *
+     * @return The number of committed rows per table.
+     * @throws RuntimeException If the session can not be committed. Tables committed before the failure are listed
+     *                          in the message, which only happens if BigQuery refuses a commit after all the streams
+     *                          have been finalized.
+     */
+    public synchronized Map<TableName, Long> commit() {
+        if (done) {
+            throw new IllegalStateException("Bulk write session is already committed or closed");
+        }
+        done = true;
+        Map<TableName, Long> rows = new LinkedHashMap<>();
+        try {
+            for (TableWrite table : tables.values()) {
+                table.flush();
+                for (BulkStream stream : table.streams) {
+                    stream.checkAcknowledged(true);
+                    stream.close();
+                }
+            }
+            for (TableWrite table : tables.values()) {
+                long tableRows = 0;
+                for (BulkStream stream : table.streams) {
+                    long streamRows = stream.getWriter().finalizeStreamRows();
+                    if (streamRows != stream.getRows()) {
+                        throw new IllegalStateException(String.format("Stream %s has %d rows, %d appended",
+                                stream.getWriter().getStream().name(), streamRows, stream.getRows()));
+                    }
+                    tableRows += streamRows;
+                }
+                rows.put(table.tableName, tableRows);
+            }
+        } catch (Exception e) {
+            abort();
+            throw new RuntimeException("Bulk write is not committed", e);
+        }
+        List<TableName> committed = new ArrayList<>();
+        for (TableWrite table : tables.values()) {
+            BatchCommitWriteStreamsResponse response = client.batchCommitWriteStreams(BatchCommitWriteStreamsRequest.newBuilder()
+                    .setParent(table.tableName.toString())
+                    .addAllWriteStreams(table.streams.stream().map(it -> it.getWriter().getStream().name()).toList())
+                    .build());
+            if (!response.hasCommitTime()) {
+                throw new RuntimeException(String.format("Commit of table %s failed: %s; tables committed before: %s",
+                        table.tableName, response.getStreamErrorsList(), committed));
+            }
+            committed.add(table.tableName);
+            log.info("Bulk write committed {} rows to table {}", rows.get(table.tableName), table.tableName.getTable());
+        }
+        return rows;
+    }
+
+    /**
+     * Discards the session if it has not been committed.
+     */
+    @Override
+    public synchronized void close() {
+        if (!done) {
+            done = true;
+            abort();
+        }
+    }
+
+    private void abort() {
+        log.warn("Bulk write to tables {} is discarded", tables.keySet());
+        // pending streams which are never committed are garbage collected by BigQuery
+        tables.values().forEach(table -> table.streams.forEach(stream -> {
+            try {
+                stream.close();
+            } catch (Exception e) {
+                log.debug("Ignoring error while closing bulk stream", e);
+            }
+        }));
+    }
+
+    private TableWrite getOrThrow(TableName tableName) {
+        if (done) {
+            throw new IllegalStateException("Bulk write session is already committed or closed");
+        }
+        TableWrite table = tables.get(tableName);
+        if (table == null) {
+            throw new IllegalArgumentException(String.format("Table %s is not a part of the bulk write session", tableName));
+        }
+        return table;
+    }
+
+    /**
+     * Rows of one table collected into batches and spread over its streams.
+     */
+    private class TableWrite {
+
+        private final TableName tableName;
+        private final StreamWriterFactory writerFactory;
+        private final List<BulkStream> streams;
+        private final List<StreamingRow> rows = new ArrayList<>();
+        private final Map<Class<?>, RowCodec<?>> codecs = new HashMap<>();
+        private int size;
+        private int next;
+
+        TableWrite(TableName tableName, StreamWriterFactory writerFactory, List<BulkStream> streams) {
+            this.tableName = tableName;
+            this.writerFactory = writerFactory;
+            this.streams = streams;
+        }
+
+        void add(StreamingRow row) {
+            if (!rows.isEmpty() && size + row.size() > MAX_BYTES) {
+                flush();
+            }
+            rows.add(row);
+            size += row.size();
+        }
+
+        void flush() {
+            if (rows.isEmpty()) {
+                return;
+            }
+            try {
+                streams.get(next++ % streams.size()).append(encoder().toBatch(new ArrayList<>(rows), size));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+            rows.clear();
+            size = 0;
+        }
+
+        /**
+         * Rows are encoded the same way by all the writers of the table.
+         */
+        StreamRowWriter encoder() {
+            return streams.get(0).getWriter();
+        }
+
+        RowCodec<?> getCodec(Class<?> type) {
+            return codecs.computeIfAbsent(type, it -> RowCodec.of(it, writerFactory.getSchema(tableName, client).getLayout()));
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.belkatechnologies.bigquery.streaming.bulk;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.retry.RetryPolicy;
+import com.belkatechnologies.bigquery.streaming.writer.StreamWriterFactory;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.TableName;
+
+import java.util.Collection;
+
+/**
+ * Opens {@link BulkWriteSession}s sized by {@code bigquery.streaming.bulk.*}.
+ */
+public class BulkWriteSessionFactory {
+
+    private static final int DEFAULT_STREAMS_PER_TABLE = 4;
+    private static final int DEFAULT_MAX_IN_FLIGHT_PER_STREAM = 16;
+    private static final long DEFAULT_MAX_IN_FLIGHT_BYTES_PER_STREAM = 100L * 1024 * 1024;
+
+    private final BigQueryWriteClient client;
+    private final StreamWriterFactory writerFactory;
+    private final int streamsPerTable;
+    private final int maxInFlightPerStream;
+    private final long maxInFlightBytesPerStream;
+    private final RetryPolicy retryPolicy;
+
+    public BulkWriteSessionFactory(BigQueryWriteClient client, StreamWriterFactory writerFactory, BigQueryProperties.StreamingProperties properties) {
+        this.client = client;
+        this.writerFactory = writerFactory;
+        BigQueryProperties.BulkProperties bulk = properties.getBulk() != null ? properties.getBulk() : new BigQueryProperties.BulkProperties();
+        this.streamsPerTable = bulk.getStreamsPerTable() != null && bulk.getStreamsPerTable() > 0
+                ? bulk.getStreamsPerTable()
+                : DEFAULT_STREAMS_PER_TABLE;
+        this.maxInFlightPerStream = bulk.getMaxInFlightPerStream() != null && bulk.getMaxInFlightPerStream() > 0
+                ? bulk.getMaxInFlightPerStream()
+                : DEFAULT_MAX_IN_FLIGHT_PER_STREAM;
+        this.maxInFlightBytesPerStream = bulk.getMaxInFlightBytesPerStream() != null && bulk.getMaxInFlightBytesPerStream() > 0
+                ? bulk.getMaxInFlightBytesPerStream()
+                : DEFAULT_MAX_IN_FLIGHT_BYTES_PER_STREAM;
+        this.retryPolicy = RetryPolicy.of(properties.getRetry());
+    }
+
+    /**
+     * Opens a session creating the PENDING streams of the tables.
+     *
+     * @param tableNames The tables written by the session.
+     * @return The session, to be committed or closed.
+     */
+    public BulkWriteSession open(Collection<TableName> tableNames) {
+        return new BulkWriteSession(client, writerFactory, tableNames, streamsPerTable, maxInFlightPerStream,
+                maxInFlightBytesPerStream, retryPolicy);
+    }
+}
@@ -4,10 +4,10 @@ import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcesso
 import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
 import com.google.api.core.ApiFutureCallback;
 import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.protobuf.Int64Value;
 import com.google.cloud.bigquery.storage.v1.Exceptions;
 import io.grpc.Status;
 import io.grpc.StatusRuntimeException;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
 import java.util.concurrent.Phaser;
@@ -24,13 +24,14 @@ import static com.belkatechnologies.bigquery.streaming.StreamingConsts.RETRIABLE
  * - `@Component`
  * - `@Scope(BeanDefinition.SCOPE_PROTOTYPE)`
  * <p>
- * The constructor remains unchanged in the subclass.
+ * The subclass declares a constructor taking the parent processor, the batch and the processed rows and bytes counters,
+ * see {@link #DefaultAbstractAppendCompleteCallback(BigQueryStreamProcessor, StreamingObject, AtomicLong, AtomicLong)}.
+ * Subclasses still declaring the deprecated constructor with a {@link Phaser} keep working.
  * <p>
  * Note: The methods `doOnSuccess`, `doOnSuccessButHasError`, and `doOnFailure` must be overridden
  * in the subclass to provide custom logic for success and failure scenarios.
  */
 @Slf4j
-@RequiredArgsConstructor
 public abstract class DefaultAbstractAppendCompleteCallback implements ApiFutureCallback<AppendRowsResponse> {
 
     protected final BigQueryStreamProcessor parent;
@@ -39,6 +40,31 @@ public abstract class DefaultAbstractAppendCompleteCallback implements ApiFuture
     protected final AtomicLong processedRows;
     protected final AtomicLong processedBytes;
 
+    /**
+     * @param parent         The processor which sent the batch.
+     * @param batch          The appended batch.
+     * @param processedRows  Rows acknowledged by BigQuery so far.
+     * @param processedBytes Bytes acknowledged by BigQuery so far.
+     */
+    protected DefaultAbstractAppendCompleteCallback(BigQueryStreamProcessor parent, StreamingObject batch,
+                                                    AtomicLong processedRows, AtomicLong processedBytes) {
+        this(parent, batch, null, processedRows, processedBytes);
+    }
+
+    /**
+     * @deprecated Appends are no longer awaited through a phaser, use
+     * {@link #DefaultAbstractAppendCompleteCallback(BigQueryStreamProcessor, StreamingObject, AtomicLong, AtomicLong)}.
+     */
+    @Deprecated
+    protected DefaultAbstractAppendCompleteCallback(BigQueryStreamProcessor parent, StreamingObject batch, Phaser phaser,
+                                                    AtomicLong processedRows, AtomicLong processedBytes) {
+        this.parent = parent;
+        this.batch = batch;
+        this.phaser = phaser;
+        this.processedRows = processedRows;
+        this.processedBytes = processedBytes;
+    }
+
     /**
      * Custom logic to be executed on successful completion of an append operation.
      *
@@ -62,21 +88,36 @@ public abstract class DefaultAbstractAppendCompleteCallback implements ApiFuture
     public abstract void doOnFailure(Throwable throwable);
 
     /**
-     * Handles the successful completion of an append operation.
+     * Handles the successful completion of an append operation. A response carrying an error is handled
+     * like a failure with the status of the error.
      *
      * @param response The {@link AppendRowsResponse} received upon success.
      */
     public final void onSuccess(AppendRowsResponse response) {
         if (response.hasError()) {
-            phaser.arrive();
-            log.info("table: {}. Error in response {}", parent.getTable().getTable(), response.getError());
-            doOnSuccessButHasError(response);
+            StatusRuntimeException error = Status.fromCodeValue(response.getError().getCode())
+                    .withDescription(response.getError().getMessage())
+                    .asRuntimeException();
+            if (!isAlreadyWritten(error)) {
+                arrive();
+                log.info("table: {}. Error in response {}", parent.getTable().getTable(), response.getError());
+                doOnSuccessButHasError(response);
+            }
+            handleError(error);
             return;
         }
+        succeed(response);
+    }
+
+    /**
+     * Counts the batch as appended. Every batch gets here at most once, so it arrives at the phaser once.
+     */
+    private void succeed(AppendRowsResponse response) {
         log.info("onSuccess for table {}", parent.getTable().getTable());
-        processedRows.addAndGet(batch.jsonBatch().length());
+        processedRows.addAndGet(batch.rowCount());
         processedBytes.addAndGet(batch.size());
-        phaser.arrive();
+        arrive();
+        parent.releaseBatch(batch);
         doOnSuccess(response);
     }
 
@@ -86,18 +127,46 @@ public abstract class DefaultAbstractAppendCompleteCallback implements ApiFuture
      * @param throwable The {@link Throwable} representing the failure.
      */
     public final void onFailure(Throwable throwable) {
-        phaser.arrive();
-        doOnFailure(throwable);
+        if (!isAlreadyWritten(throwable)) {
+            arrive();
+            doOnFailure(throwable);
+            log.info("onFailure for table " + parent.getTable().getTable());
+        }
+        handleError(throwable);
+    }
+
+    /**
+     * Retries, defers, rejects or gives up the batch depending on the error. Nothing is dropped silently:
+     * batches failing with errors which are not retried go to {@link BigQueryStreamProcessor#failBatch}.
+     */
+    private void handleError(Throwable throwable) {
         String table = parent.getTable().getTable();
-        log.info("onFailure for table " + table);
+        if (isAlreadyWritten(throwable)) {
+            // a previous attempt of the batch has landed at its offset
+            log.info("Batch {} for table {} is already written at offset {}", batch.id(), table, batch.offset().offset());
+            succeed(AppendRowsResponse.newBuilder()
+                    .setAppendResult(AppendRowsResponse.AppendResult.newBuilder().setOffset(Int64Value.of(batch.offset().offset())))
+                    .build());
+            return;
+        }
         if (throwable instanceof StatusRuntimeException ex) {
             Status status = Status.fromThrowable(throwable);
             log.error("StatusRuntimeException while processing table {}, status {}", table, ex.getStatus());
-            if (Status.INVALID_ARGUMENT.getCode().equals(status.getCode())) {
+            if (batch.offset() != null && Status.Code.OUT_OF_RANGE.equals(status.getCode())) {
+                try {
+                    parent.deferBatch(batch);
+                } catch (Exception e) {
+                    log.error("Exception while deferBatch for table " + table, e);
+                }
+            } else if (Status.INVALID_ARGUMENT.getCode().equals(status.getCode())) {
                 log.error("Invalid argument in batch", ex);
-                if (ex instanceof Exceptions.AppendSerializtionError) {
-                    String error = ((Exceptions.AppendSerializtionError) ex).getRowIndexToErrorMessage().toString();
-                    log.error("Can't save batch: {}", error);
+                if (ex instanceof Exceptions.AppendSerializationError serializationError) {
+                    log.error("Can't save rows: {}", serializationError.getRowIndexToErrorMessage());
+                }
+                try {
+                    parent.rejectBatch(batch, ex);
+                } catch (Exception e) {
+                    log.error("Exception while rejectBatch for table " + table, e);
                 }
             } else if (RETRIABLE_ERROR_CODES.contains(status.getCode())) {
                 try {
@@ -105,6 +174,12 @@ public abstract class DefaultAbstractAppendCompleteCallback implements ApiFuture
                 } catch (Exception e) {
                     log.error("Exception while retryBatch for table " + table, e);
                 }
+            } else {
+                try {
+                    parent.failBatch(batch, ex);
+                } catch (Exception e) {
+                    log.error("Exception while failBatch for table " + table, e);
+                }
             }
         } else {
             log.error("Exception while processing table " + table, throwable);
@@ -115,5 +190,14 @@ public abstract class DefaultAbstractAppendCompleteCallback implements ApiFuture
             }
         }
     }
-}
 
+    private boolean isAlreadyWritten(Throwable throwable) {
+        return batch.offset() != null && Status.Code.ALREADY_EXISTS.equals(Status.fromThrowable(throwable).getCode());
+    }
+
+    private void arrive() {
+        if (phaser != null) {
+            phaser.arrive();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.belkatechnologies.bigquery.streaming.codec;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Customizes how a field or record component is mapped to a table column by {@link RowCodec}.
+ * Without the annotation, every non-static, non-transient field is mapped to the column with the same name.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.FIELD, ElementType.METHOD, ElementType.RECORD_COMPONENT})
+public @interface BigQueryColumn {
+
+    /**
+     * @return The column name, the field name if empty.
+     */
+    String value() default "";
+
+    /**
+     * @return Whether the field is not written at all.
+     */
+    boolean ignore() default false;
+}
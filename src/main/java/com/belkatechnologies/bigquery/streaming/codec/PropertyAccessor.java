@@ -0,0 +1,11 @@
+package com.belkatechnologies.bigquery.streaming.codec;
+
+/**
+ * Reads a property of a record. Implemented by classes spun by {@link java.lang.invoke.LambdaMetafactory}
+ * around getters and record accessors, so reading a property is a plain interface call.
+ */
+@FunctionalInterface
+public interface PropertyAccessor {
+
+    Object get(Object bean);
+}
@@ -0,0 +1,414 @@
+package com.belkatechnologies.bigquery.streaming.codec;
+
+import com.belkatechnologies.bigquery.streaming.writer.ProtoRowSchema;
+import com.belkatechnologies.bigquery.streaming.writer.ProtoRowSchema.Column;
+import com.belkatechnologies.bigquery.streaming.writer.ProtoRowSchema.MessageLayout;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import lombok.Getter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.RecordComponent;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Encoder of records of one class into rows of one table, built once per class and table.
+ * Properties are record components or non-static, non-transient fields (read through their getters when present),
+ * optionally customized with {@link BigQueryColumn}. Every property is bound to its column when the codec is built:
+ * unknown columns, incompatible types and unmapped REQUIRED columns fail with {@link SchemaMismatchException}.
+ * Properties are read through accessors generated by {@link LambdaMetafactory}, so encoding a record uses
+ * neither reflection nor an intermediate map.
+ *
+ * @param <T> The record class.
+ */
+public final class RowCodec<T> {
+
+    @Getter
+    private final Class<T> type;
+    private final Property[] properties;
+
+    private RowCodec(Class<T> type, List<Property> properties) {
+        this.type = type;
+        this.properties = properties.toArray(new Property[0]);
+    }
+
+    /**
+     * Builds a codec binding the properties of the class to the columns of the table.
+     *
+     * @param type   The record class.
+     * @param layout The columns of the table.
+     * @return The codec.
+     * @throws SchemaMismatchException If the class does not match the table schema.
+     */
+    public static <T> RowCodec<T> of(Class<T> type, MessageLayout layout) {
+        return build(type, layout, type.getSimpleName());
+    }
+
+    /**
+     * Finds the property of a class bound to a column, to read a value of a record without encoding it.
+     *
+     * @param type   The record class.
+     * @param column The column name, compared ignoring case like BigQuery does.
+     * @return The accessor of the property, null if no property of the class is bound to the column.
+     */
+    public static PropertyAccessor accessorOf(Class<?> type, String column) {
+        for (Candidate candidate : candidates(type)) {
+            if (candidate.columnName().equalsIgnoreCase(column)) {
+                return candidate.accessor();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Encodes a record straight to the protobuf wire format of the table.
+     */
+    public ByteString toProto(T record) {
+        return encodeProto(record);
+    }
+
+    /**
+     * Encodes a record to a JSON object accepted by {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter}.
+     */
+    public JSONObject toJson(T record) {
+        return encodeJson(record);
+    }
+
+    private ByteString encodeProto(Object record) {
+        ByteString.Output bytes = ProtoRowSchema.newRowOutput();
+        CodedOutputStream out = ProtoRowSchema.newCodedOutput(bytes);
+        try {
+            for (Property property : properties) {
+                Object value = property.accessor().get(record);
+                if (value != null) {
+                    property.writeProto(out, value);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteString();
+    }
+
+    private JSONObject encodeJson(Object record) {
+        JSONObject json = new JSONObject();
+        for (Property property : properties) {
+            Object value = property.accessor().get(record);
+            if (value != null) {
+                json.put(property.column().name(), property.toJson(value));
+            }
+        }
+        return json;
+    }
+
+    private static <T> RowCodec<T> build(Class<T> type, MessageLayout layout, String path) {
+        List<Property> properties = new ArrayList<>();
+        Set<Integer> mapped = new HashSet<>();
+        for (Candidate candidate : candidates(type)) {
+            String propertyPath = path + "." + candidate.name();
+            Column column = layout.findColumn(candidate.columnName());
+            if (column == null) {
+                throw new SchemaMismatchException(String.format("Property %s has no column %s", propertyPath, candidate.columnName()));
+            }
+            if (!mapped.add(column.number())) {
+                throw new SchemaMismatchException(String.format("Column %s is mapped twice, second time by %s", column.name(), propertyPath));
+            }
+            RowCodec<?> nested = bind(column, candidate.type(), propertyPath);
+            properties.add(new Property(candidate.accessor(), column, nested));
+        }
+        for (Column column : layout.getColumns()) {
+            if (column.required() && !mapped.contains(column.number())) {
+                throw new SchemaMismatchException(String.format("Required column %s is not mapped by %s", column.name(), path));
+            }
+        }
+        return new RowCodec<>(type, properties);
+    }
+
+    /**
+     * Checks the property type against the column.
+     *
+     * @return The codec of nested records for STRUCT columns, null otherwise.
+     */
+    private static RowCodec<?> bind(Column column, Type propertyType, String path) {
+        Class<?> raw = rawType(propertyType);
+        if (raw.isArray() && raw.getComponentType().isPrimitive() && raw != byte[].class) {
+            throw new SchemaMismatchException(String.format("Property %s: primitive arrays are not supported, use a List", path));
+        }
+        boolean multiple = (raw.isArray() && raw != byte[].class) || Collection.class.isAssignableFrom(raw);
+        if (column.repeated()) {
+            if (!multiple) {
+                throw new SchemaMismatchException(String.format("Property %s of type %s is not a collection, but column %s is REPEATED",
+                        path, raw.getName(), column.name()));
+            }
+            return bindScalar(column, elementType(propertyType), path);
+        }
+        if (multiple && column.type() != TableFieldSchema.Type.JSON) {
+            throw new SchemaMismatchException(String.format("Property %s is a collection, but column %s is not REPEATED", path, column.name()));
+        }
+        return bindScalar(column, propertyType, path);
+    }
+
+    private static RowCodec<?> bindScalar(Column column, Type valueType, String path) {
+        Class<?> raw = MethodType.methodType(rawType(valueType)).wrap().returnType();
+        if (raw == Object.class) {
+            // unknown at build time, the value is checked when it is written
+            return null;
+        }
+        if (column.type() == TableFieldSchema.Type.STRUCT) {
+            if (Map.class.isAssignableFrom(raw) || raw == JSONObject.class) {
+                return null;
+            }
+            if (isScalar(raw)) {
+                throw new SchemaMismatchException(String.format("Property %s of type %s can not be written to STRUCT column %s",
+                        path, raw.getName(), column.name()));
+            }
+            return build(raw, column.nested(), path);
+        }
+        if (!isCompatible(column.type(), raw)) {
+            throw new SchemaMismatchException(String.format("Property %s of type %s can not be written to %s column %s",
+                    path, raw.getName(), column.type(), column.name()));
+        }
+        return null;
+    }
+
+    private static boolean isCompatible(TableFieldSchema.Type type, Class<?> raw) {
+        if (CharSequence.class.isAssignableFrom(raw)) {
+            return true;
+        }
+        return switch (type) {
+            case STRING -> raw.isEnum() || raw == UUID.class || raw == Character.class;
+            case INT64 -> isIntegral(raw);
+            case DOUBLE, NUMERIC, BIGNUMERIC -> Number.class.isAssignableFrom(raw);
+            case BOOL -> raw == Boolean.class;
+            case BYTES -> raw == byte[].class || ByteString.class.isAssignableFrom(raw);
+            case TIMESTAMP -> raw == Instant.class || raw == OffsetDateTime.class || raw == ZonedDateTime.class
+                    || raw == LocalDateTime.class || Date.class.isAssignableFrom(raw) || isIntegral(raw);
+            case DATE -> raw == LocalDate.class || isIntegral(raw);
+            case DATETIME -> raw == LocalDateTime.class;
+            case TIME -> raw == LocalTime.class;
+            case JSON -> Map.class.isAssignableFrom(raw) || Collection.class.isAssignableFrom(raw)
+                    || raw == JSONObject.class || raw == JSONArray.class;
+            default -> false;
+        };
+    }
+
+    private static boolean isIntegral(Class<?> raw) {
+        return raw == Long.class || raw == Integer.class || raw == Short.class || raw == Byte.class || raw == BigInteger.class;
+    }
+
+    private static boolean isScalar(Class<?> raw) {
+        return raw.isPrimitive() || raw.isEnum() || raw.isArray() || raw.getName().startsWith("java.")
+                || ByteString.class.isAssignableFrom(raw);
+    }
+
+    private static Class<?> rawType(Type type) {
+        if (type instanceof Class<?> cls) {
+            return cls;
+        }
+        if (type instanceof ParameterizedType parameterized) {
+            return rawType(parameterized.getRawType());
+        }
+        if (type instanceof GenericArrayType array) {
+            return rawType(array.getGenericComponentType()).arrayType();
+        }
+        return Object.class;
+    }
+
+    private static Type elementType(Type type) {
+        if (type instanceof Class<?> cls && cls.isArray()) {
+            return cls.getComponentType();
+        }
+        if (type instanceof GenericArrayType array) {
+            return array.getGenericComponentType();
+        }
+        if (type instanceof ParameterizedType parameterized && parameterized.getActualTypeArguments().length == 1) {
+            return parameterized.getActualTypeArguments()[0];
+        }
+        return Object.class;
+    }
+
+    private static List<Candidate> candidates(Class<?> type) {
+        List<Candidate> candidates = new ArrayList<>();
+        if (type.isRecord()) {
+            MethodHandles.Lookup lookup = lookupIn(type);
+            for (RecordComponent component : type.getRecordComponents()) {
+                BigQueryColumn annotation = component.getAnnotation(BigQueryColumn.class);
+                if (annotation == null || !annotation.ignore()) {
+                    candidates.add(new Candidate(component.getName(), columnName(component.getName(), annotation),
+                            component.getGenericType(), accessor(lookup, component.getAccessor())));
+                }
+            }
+            return candidates;
+        }
+        for (Class<?> current = type; current != null && current != Object.class; current = current.getSuperclass()) {
+            MethodHandles.Lookup lookup = lookupIn(current);
+            for (Field field : current.getDeclaredFields()) {
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers) || field.isSynthetic()) {
+                    continue;
+                }
+                BigQueryColumn annotation = field.getAnnotation(BigQueryColumn.class);
+                if (annotation != null && annotation.ignore()) {
+                    continue;
+                }
+                Method getter = findGetter(current, field);
+                PropertyAccessor accessor = getter != null ? accessor(lookup, getter) : accessor(lookup, field);
+                candidates.add(new Candidate(field.getName(), columnName(field.getName(), annotation), field.getGenericType(), accessor));
+            }
+        }
+        return candidates;
+    }
+
+    private static String columnName(String propertyName, BigQueryColumn annotation) {
+        return annotation != null && !annotation.value().isEmpty() ? annotation.value() : propertyName;
+    }
+
+    private static Method findGetter(Class<?> type, Field field) {
+        String suffix = Character.toUpperCase(field.getName().charAt(0)) + field.getName().substring(1);
+        List<String> names = field.getType() == boolean.class ? List.of("is" + suffix, "get" + suffix) : List.of("get" + suffix);
+        for (String name : names) {
+            try {
+                Method method = type.getDeclaredMethod(name);
+                if (!Modifier.isStatic(method.getModifiers()) && method.getReturnType() == field.getType()) {
+                    return method;
+                }
+            } catch (NoSuchMethodException ignore) {
+            }
+        }
+        return null;
+    }
+
+    private static MethodHandles.Lookup lookupIn(Class<?> type) {
+        try {
+            return MethodHandles.privateLookupIn(type, MethodHandles.lookup());
+        } catch (IllegalAccessException e) {
+            return MethodHandles.publicLookup();
+        }
+    }
+
+    private static PropertyAccessor accessor(MethodHandles.Lookup lookup, Method getter) {
+        MethodHandle handle;
+        try {
+            handle = lookup.unreflect(getter);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Can not access " + getter, e);
+        }
+        try {
+            CallSite site = LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(PropertyAccessor.class),
+                    MethodType.methodType(Object.class, Object.class),
+                    handle,
+                    MethodType.methodType(MethodType.methodType(getter.getReturnType()).wrap().returnType(), getter.getDeclaringClass()));
+            return (PropertyAccessor) site.getTarget().invoke();
+        } catch (Throwable e) {
+            return accessor(handle);
+        }
+    }
+
+    private static PropertyAccessor accessor(MethodHandles.Lookup lookup, Field field) {
+        try {
+            return accessor(lookup.unreflectGetter(field));
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Can not access " + field, e);
+        }
+    }
+
+    private static PropertyAccessor accessor(MethodHandle handle) {
+        MethodHandle generic = handle.asType(MethodType.methodType(Object.class, Object.class));
+        return bean -> {
+            try {
+                return (Object) generic.invokeExact(bean);
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        };
+    }
+
+    private static Iterable<?> elements(Object value) {
+        return value instanceof Object[] array ? List.of(array) : (Iterable<?>) value;
+    }
+
+    private record Candidate(String name, String columnName, Type type, PropertyAccessor accessor) {
+    }
+
+    private record Property(PropertyAccessor accessor, Column column, RowCodec<?> nested) {
+
+        void writeProto(CodedOutputStream out, Object value) throws IOException {
+            if (nested == null) {
+                ProtoRowSchema.writeField(out, column, value);
+            } else if (column.repeated()) {
+                for (Object element : elements(value)) {
+                    if (element != null) {
+                        out.writeBytes(column.number(), nested.encodeProto(element));
+                    }
+                }
+            } else {
+                out.writeBytes(column.number(), nested.encodeProto(value));
+            }
+        }
+
+        Object toJson(Object value) {
+            if (column.repeated()) {
+                JSONArray array = new JSONArray();
+                for (Object element : elements(value)) {
+                    if (element != null) {
+                        array.put(toJsonScalar(element));
+                    }
+                }
+                return array;
+            }
+            return toJsonScalar(value);
+        }
+
+        private Object toJsonScalar(Object value) {
+            if (nested != null) {
+                return nested.encodeJson(value);
+            }
+            return switch (column.type()) {
+                case TIMESTAMP -> ProtoRowSchema.toEpochMicros(column, value);
+                case BYTES -> value instanceof byte[] bytes ? Base64.getEncoder().encodeToString(bytes)
+                        : value instanceof ByteString byteString ? Base64.getEncoder().encodeToString(byteString.toByteArray())
+                        : value;
+                case NUMERIC, BIGNUMERIC -> value instanceof BigDecimal decimal ? decimal.toPlainString() : value.toString();
+                case JSON -> value instanceof Map<?, ?> map ? new JSONObject(map).toString()
+                        : value instanceof Collection<?> collection ? new JSONArray(collection).toString()
+                        : value.toString();
+                case STRUCT -> value instanceof Map<?, ?> map ? new JSONObject(map) : value;
+                case DATE -> value instanceof Number ? value : value.toString();
+                case STRING, DATETIME, TIME, GEOGRAPHY, INTERVAL -> value instanceof Enum<?> enumValue ? enumValue.name() : value.toString();
+                default -> value;
+            };
+        }
+    }
+}
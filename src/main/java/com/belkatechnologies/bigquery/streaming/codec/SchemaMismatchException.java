@@ -0,0 +1,11 @@
+package com.belkatechnologies.bigquery.streaming.codec;
+
+/**
+ * Thrown when a {@link RowCodec} can not be built because the class does not match the table schema.
+ */
+public class SchemaMismatchException extends RuntimeException {
+
+    public SchemaMismatchException(String message) {
+        super(message);
+    }
+}
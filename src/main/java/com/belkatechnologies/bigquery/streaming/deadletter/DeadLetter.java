@@ -0,0 +1,29 @@
+package com.belkatechnologies.bigquery.streaming.deadletter;
+
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.google.protobuf.ByteString;
+import org.json.JSONObject;
+
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Record representing a row rejected by BigQuery, with the error it was rejected with.
+ * Exactly one of {@code json} and {@code message} is set, depending on the write mode.
+ *
+ * @param table    The table the row was appended to.
+ * @param batchId  The identity of the batch the row was rejected in.
+ * @param error    The error message of the row, or of the whole batch if BigQuery did not report row errors.
+ * @param json     The row as a JSON object.
+ * @param message  The row serialized to protobuf.
+ * @param failedAt When the row was rejected.
+ */
+public record DeadLetter(TableName table, long batchId, String error, JSONObject json, ByteString message, Instant failedAt) {
+
+    /**
+     * @return The row as JSON text, or the protobuf row encoded in base64.
+     */
+    public String payload() {
+        return json != null ? json.toString() : Base64.getEncoder().encodeToString(message.toByteArray());
+    }
+}
@@ -0,0 +1,19 @@
+package com.belkatechnologies.bigquery.streaming.deadletter;
+
+import java.util.List;
+
+/**
+ * The {@code DeadLetterSink} interface defines where rows rejected by BigQuery go, so that they can be
+ * inspected and replayed instead of being lost with the rest of their batch.
+ * Define a bean implementing it, or configure one of the provided sinks with {@code bigquery.streaming.dead-letter.*}.
+ */
+public interface DeadLetterSink {
+
+    /**
+     * This method is called with the rejected rows of a batch. The other rows of the batch are appended again.
+     * It runs on the append callback thread, so it should not block for long.
+     *
+     * @param rows The rejected rows with their errors.
+     */
+    void accept(List<DeadLetter> rows);
+}
@@ -0,0 +1,62 @@
+package com.belkatechnologies.bigquery.streaming.deadletter;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Dead-letter sink appending rejected rows to newline-delimited JSON files, one file per table
+ * named {@code <project>.<dataset>.<table>.ndjson}. JSON rows are written under {@code row},
+ * protobuf rows in base64 under {@code row_proto_base64}.
+ */
+@Slf4j
+public class NdjsonFileDeadLetterSink implements DeadLetterSink {
+
+    @Getter
+    private final Path directory;
+
+    public NdjsonFileDeadLetterSink(Path directory) {
+        this.directory = directory;
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            throw new RuntimeException("Can not create dead-letter directory " + directory, e);
+        }
+    }
+
+    @Override
+    public synchronized void accept(List<DeadLetter> rows) {
+        if (rows.isEmpty()) {
+            return;
+        }
+        var table = rows.get(0).table();
+        Path file = directory.resolve(table.getProject() + "." + table.getDataset() + "." + table.getTable() + ".ndjson");
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (DeadLetter row : rows) {
+                JSONObject line = new JSONObject()
+                        .put("table", row.table().toString())
+                        .put("batch_id", row.batchId())
+                        .put("error", row.error())
+                        .put("failed_at", row.failedAt().toString());
+                if (row.json() != null) {
+                    line.put("row", row.json());
+                } else {
+                    line.put("row_proto_base64", row.payload());
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        } catch (IOException e) {
+            log.error("Can not write {} dead-letter rows of table {} to {}", rows.size(), table.getTable(), file, e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.belkatechnologies.bigquery.streaming.deadletter;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dead-letter sink streaming rejected rows into another table through the {@link StreamingManager}.
+ * The table must have the columns {@code table STRING, batch_id INT64, error STRING, payload STRING, failed_at TIMESTAMP}.
+ * Rows rejected by the dead-letter table itself are only logged.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class TableDeadLetterSink implements DeadLetterSink {
+
+    private final ObjectProvider<StreamingManager> streamingManager;
+    @Getter
+    private final TableName table;
+
+    @Override
+    public void accept(List<DeadLetter> rows) {
+        List<Map<String, Object>> batch = new ArrayList<>(rows.size());
+        for (DeadLetter row : rows) {
+            if (table.equals(row.table())) {
+                log.error("Row rejected by the dead-letter table {}: {}; row={}", table, row.error(), row.payload());
+                continue;
+            }
+            Map<String, Object> deadLetter = new HashMap<>();
+            deadLetter.put("table", row.table().toString());
+            deadLetter.put("batch_id", row.batchId());
+            deadLetter.put("error", row.error());
+            deadLetter.put("payload", row.payload());
+            deadLetter.put("failed_at", ChronoUnit.MICROS.between(Instant.EPOCH, row.failedAt()));
+            batch.add(deadLetter);
+        }
+        if (!batch.isEmpty()) {
+            streamingManager.getObject().putBatchForTable(table, batch);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.belkatechnologies.bigquery.streaming.fanout;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Number of writers of a table and when it changes.
+ *
+ * @param minWriters         Writers the table starts with and never goes below.
+ * @param maxWriters         Writers the table never goes above, 1 disables the fan-out.
+ * @param keyColumn          Column whose value picks the writer of a row, null to spread rows round-robin.
+ * @param scaleUpBytes       Buffered bytes per writer above which a writer is added.
+ * @param scaleDownBytes     Buffered bytes per writer below which a writer is removed.
+ * @param scaleIntervalNanos Period of the backlog checks.
+ */
+public record FanOutPolicy(int minWriters, int maxWriters, String keyColumn,
+                           long scaleUpBytes, long scaleDownBytes, long scaleIntervalNanos) {
+
+    private static final int DEFAULT_MAX_WRITERS = 1;
+    private static final long DEFAULT_SCALE_UP_BYTES = 16L * 1024 * 1024;
+    private static final long DEFAULT_SCALE_DOWN_BYTES = 1024L * 1024;
+    private static final long DEFAULT_SCALE_INTERVAL_MILLIS = 5_000;
+
+    /**
+     * Resolves the policy of a table from properties. A table with a key column keeps {@code maxWriters} writers:
+     * changing their number would move keys to other writers, whose rows may land before the rows still buffered
+     * in the previous one.
+     */
+    public static FanOutPolicy of(BigQueryProperties.FanOutProperties properties, String table) {
+        if (properties == null) {
+            properties = new BigQueryProperties.FanOutProperties();
+        }
+        BigQueryProperties.TableFanOutProperties tableProperties = properties.getTables() != null
+                ? properties.getTables().get(table)
+                : null;
+        if (tableProperties == null) {
+            tableProperties = new BigQueryProperties.TableFanOutProperties();
+        }
+        int maxWriters = Math.max(1, tableProperties.getMaxWriters() != null
+                ? tableProperties.getMaxWriters()
+                : properties.getMaxWriters() != null ? properties.getMaxWriters() : DEFAULT_MAX_WRITERS);
+        String keyColumn = tableProperties.getKeyColumn() != null && !tableProperties.getKeyColumn().isBlank()
+                ? tableProperties.getKeyColumn()
+                : null;
+        int minWriters = keyColumn != null
+                ? maxWriters
+                : Math.min(maxWriters, Math.max(1, tableProperties.getMinWriters() != null ? tableProperties.getMinWriters() : 1));
+        long scaleUpBytes = properties.getScaleUpBytes() != null && properties.getScaleUpBytes() > 0
+                ? properties.getScaleUpBytes()
+                : DEFAULT_SCALE_UP_BYTES;
+        long scaleDownBytes = Math.min(scaleUpBytes / 2, properties.getScaleDownBytes() != null
+                ? properties.getScaleDownBytes()
+                : DEFAULT_SCALE_DOWN_BYTES);
+        long intervalMillis = properties.getScaleIntervalMs() != null && properties.getScaleIntervalMs() > 0
+                ? properties.getScaleIntervalMs()
+                : DEFAULT_SCALE_INTERVAL_MILLIS;
+        return new FanOutPolicy(minWriters, maxWriters, keyColumn, scaleUpBytes, scaleDownBytes,
+                TimeUnit.MILLISECONDS.toNanos(intervalMillis));
+    }
+
+    public boolean isEnabled() {
+        return maxWriters > 1;
+    }
+
+    public boolean isScaling() {
+        return minWriters < maxWriters;
+    }
+}
@@ -0,0 +1,524 @@
+package com.belkatechnologies.bigquery.streaming.fanout;
+
+import com.belkatechnologies.bigquery.streaming.buffer.BufferStatistic;
+import com.belkatechnologies.bigquery.streaming.codec.PropertyAccessor;
+import com.belkatechnologies.bigquery.streaming.codec.RowCodec;
+import com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException;
+import com.belkatechnologies.bigquery.streaming.flush.FlushTrigger;
+import com.belkatechnologies.bigquery.streaming.flush.TableFlusher;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.priority.Priority;
+import com.belkatechnologies.bigquery.streaming.priority.PriorityLanes;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.retry.CircuitBreaker;
+import com.belkatechnologies.bigquery.streaming.retry.CircuitBreakerStatistic;
+import com.belkatechnologies.bigquery.streaming.wal.WriteAheadLog;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Stream processor of a table written by several writers at once, for tables receiving more than a single connection
+ * can append. Every writer is a processor created by the prototype factory, with its own buffer, flusher, in-flight
+ * window and stream, so the writers append in parallel. Rows are spread round-robin, or by the hash of the key column
+ * when the rows of a key must land in order.
+ * <p>
+ * Without a key column the number of writers follows the backlog: a writer is added while the bytes buffered per writer
+ * exceed {@link FanOutPolicy#scaleUpBytes()} and the last one is drained and closed after they stay below
+ * {@link FanOutPolicy#scaleDownBytes()} for a few checks. The per-table buffer limits are split between the writers.
+ */
+@Slf4j
+public class FanOutStreamProcessor implements BigQueryStreamProcessor {
+
+    private static final int SCALE_DOWN_CHECKS = 3;
+
+    private final FanOutPolicy policy;
+    private final Supplier<BigQueryStreamProcessor> processorFactory;
+    private final ScheduledExecutorService executorService;
+    private final PriorityLanes priorityLanes;
+
+    // puts hold the read lock, removing a writer takes the write lock so that no row is put into a closing writer
+    private final ReentrantReadWriteLock routing = new ReentrantReadWriteLock();
+    private final AtomicLong next = new AtomicLong();
+    private final Map<Class<?>, Optional<PropertyAccessor>> keyAccessors = new ConcurrentHashMap<>();
+    // writers removed by a scale down which are still being drained, completed once they are closed
+    private final Map<BigQueryStreamProcessor, CompletableFuture<Void>> retiring = new ConcurrentHashMap<>();
+    private volatile List<Shard> shards = List.of();
+    private volatile TableName tableName;
+    private volatile WriteAheadLog writeAheadLog;
+
+    private boolean started;
+    private ScheduledFuture<?> scaling;
+    private int calmChecks;
+
+    /**
+     * @param policy           The writers of the table.
+     * @param processorFactory Creates the processor of a writer.
+     * @param executorService  The pool running the flushes of the writers and the backlog checks.
+     * @param priorityLanes    The lanes admitting the flushes of the writers.
+     */
+    public FanOutStreamProcessor(FanOutPolicy policy, Supplier<BigQueryStreamProcessor> processorFactory,
+                                 ScheduledExecutorService executorService, PriorityLanes priorityLanes) {
+        this.policy = policy;
+        this.processorFactory = processorFactory;
+        this.executorService = executorService;
+        this.priorityLanes = priorityLanes;
+    }
+
+    @Override
+    public synchronized BigQueryStreamProcessor initialize(TableName tableName) {
+        this.tableName = tableName;
+        if (shards.isEmpty()) {
+            List<Shard> created = new ArrayList<>(policy.minWriters());
+            for (int i = 0; i < policy.minWriters(); i++) {
+                created.add(newShard());
+            }
+            shards = List.copyOf(created);
+            splitBuffers();
+            log.info("Table {} is written by {} writers, up to {}{}", tableName.getTable(), created.size(), policy.maxWriters(),
+                    policy.keyColumn() != null ? ", rows spread by " + policy.keyColumn() : "");
+        } else {
+            shards.forEach(shard -> shard.processor().initialize(tableName));
+        }
+        return this;
+    }
+
+    /**
+     * Starts the flushers of the writers and the backlog checks.
+     */
+    public synchronized void start() {
+        started = true;
+        shards.forEach(shard -> shard.flusher().start());
+        if (policy.isScaling()) {
+            scaling = executorService.scheduleWithFixedDelay(this::rescale, policy.scaleIntervalNanos(),
+                    policy.scaleIntervalNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops the flushers of the writers and the backlog checks. A flush in progress is not interrupted.
+     */
+    public synchronized void stop() {
+        started = false;
+        if (scaling != null) {
+            scaling.cancel(false);
+            scaling = null;
+        }
+        shards.forEach(shard -> shard.flusher().stop());
+    }
+
+    @Override
+    public void attachWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+        // the first writer replays the recovered rows, the log is shared by all of them
+        shards.forEach(shard -> shard.processor().attachWriteAheadLog(writeAheadLog));
+    }
+
+    @Override
+    public void putOne(Map<String, Object> row) {
+        routing.readLock().lock();
+        try {
+            pick(shards, policy.keyColumn() != null ? row.get(policy.keyColumn()) : null).putOne(row);
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void putBatch(Collection<Map<String, Object>> rows) {
+        putAll(rows, row -> row.get(policy.keyColumn()), BigQueryStreamProcessor::putBatch);
+    }
+
+    @Override
+    public <T> void putRecord(T record) {
+        routing.readLock().lock();
+        try {
+            pick(shards, policy.keyColumn() != null ? keyOf(record) : null).putRecord(record);
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    @Override
+    public <T> void putRecords(Collection<T> records) {
+        putAll(records, this::keyOf, BigQueryStreamProcessor::putRecords);
+    }
+
+    private <T> void putAll(Collection<T> items, Function<T, Object> key, BiConsumer<BigQueryStreamProcessor, Collection<T>> put) {
+        routing.readLock().lock();
+        try {
+            List<Shard> current = shards;
+            if (policy.keyColumn() == null || current.size() == 1) {
+                put.accept(pick(current, null), items);
+                return;
+            }
+            List<List<T>> parts = new ArrayList<>(current.size());
+            for (int i = 0; i < current.size(); i++) {
+                parts.add(new ArrayList<>());
+            }
+            for (T item : items) {
+                parts.get(index(key.apply(item), current.size())).add(item);
+            }
+            for (int i = 0; i < current.size(); i++) {
+                if (!parts.get(i).isEmpty()) {
+                    put.accept(current.get(i).processor(), parts.get(i));
+                }
+            }
+        } finally {
+            routing.readLock().unlock();
+        }
+    }
+
+    private BigQueryStreamProcessor pick(List<Shard> current, Object key) {
+        int index = policy.keyColumn() != null
+                ? index(key, current.size())
+                : (int) Math.floorMod(next.getAndIncrement(), (long) current.size());
+        return current.get(index).processor();
+    }
+
+    private static int index(Object key, int writers) {
+        return Math.floorMod(Objects.hashCode(key), writers);
+    }
+
+    private Object keyOf(Object record) {
+        PropertyAccessor accessor = keyAccessors.computeIfAbsent(record.getClass(),
+                type -> Optional.ofNullable(RowCodec.accessorOf(type, policy.keyColumn()))).orElse(null);
+        if (accessor == null) {
+            throw new SchemaMismatchException(String.format("%s has no property of the key column %s of table %s",
+                    record.getClass().getSimpleName(), policy.keyColumn(), tableName.getTable()));
+        }
+        return accessor.get(record);
+    }
+
+    private void rescale() {
+        try {
+            List<Shard> current = shards;
+            long backlog = 0;
+            for (Shard shard : current) {
+                backlog += shard.processor().getBufferStatistic().getBufferedBytes();
+            }
+            long perWriter = backlog / current.size();
+            if (perWriter > policy.scaleUpBytes() && current.size() < policy.maxWriters()) {
+                calmChecks = 0;
+                addShard(perWriter);
+            } else if (perWriter < policy.scaleDownBytes() && current.size() > policy.minWriters()) {
+                if (++calmChecks >= SCALE_DOWN_CHECKS) {
+                    calmChecks = 0;
+                    removeShard(perWriter);
+                }
+            } else {
+                calmChecks = 0;
+            }
+        } catch (Exception e) {
+            log.error("Error while scaling the writers of table {}", tableName.getTable(), e);
+        }
+    }
+
+    private synchronized void addShard(long perWriter) {
+        if (!started) {
+            return;
+        }
+        Shard shard = newShard();
+        shard.flusher().start();
+        List<Shard> scaled = new ArrayList<>(shards);
+        scaled.add(shard);
+        shards = List.copyOf(scaled);
+        splitBuffers();
+        log.info("Table {} is scaled up to {} writers, {} bytes buffered per writer", tableName.getTable(), scaled.size(), perWriter);
+    }
+
+    private synchronized void removeShard(long perWriter) {
+        if (!started || !routing.writeLock().tryLock()) {
+            // puts in progress, the next check tries again
+            return;
+        }
+        Shard removed;
+        try {
+            List<Shard> current = shards;
+            removed = current.get(current.size() - 1);
+            shards = List.copyOf(current.subList(0, current.size() - 1));
+        } finally {
+            routing.writeLock().unlock();
+        }
+        removed.flusher().stop();
+        splitBuffers();
+        CompletableFuture<Void> retired = new CompletableFuture<>();
+        retiring.put(removed.processor(), retired);
+        log.info("Table {} is scaled down to {} writers, {} bytes buffered per writer", tableName.getTable(), shards.size(), perWriter);
+        try {
+            executorService.execute(() -> retire(removed.processor(), retired));
+        } catch (RejectedExecutionException e) {
+            // the pool is shut down, the writer is drained on the calling thread
+            retire(removed.processor(), retired);
+        }
+    }
+
+    private void retire(BigQueryStreamProcessor processor, CompletableFuture<Void> retired) {
+        try {
+            processor.close();
+        } catch (Exception e) {
+            log.error("Error while closing a writer of table {}", tableName.getTable(), e);
+        } finally {
+            retiring.remove(processor);
+            retired.complete(null);
+        }
+    }
+
+    /**
+     * Gives every writer its part of the per-table buffer limits, so that the table buffers no more than its limits
+     * whatever the number of writers.
+     */
+    private void splitBuffers() {
+        List<Shard> current = shards;
+        current.forEach(shard -> shard.processor().splitBuffer(current.size()));
+    }
+
+    private Shard newShard() {
+        BigQueryStreamProcessor processor = processorFactory.get();
+        processor.initialize(tableName);
+        WriteAheadLog wal = writeAheadLog;
+        if (wal != null) {
+            processor.attachWriteAheadLog(wal);
+        }
+        return new Shard(processor, new TableFlusher(processor, executorService, priorityLanes));
+    }
+
+    @Override
+    public void forceFlush() {
+        shards.forEach(shard -> shard.processor().forceFlush());
+    }
+
+    @Override
+    public void run() {
+        shards.forEach(shard -> shard.processor().run());
+    }
+
+    @Override
+    public void close() throws Exception {
+        stop();
+        for (Shard shard : shards) {
+            shard.processor().close();
+        }
+        for (CompletableFuture<Void> retired : List.copyOf(retiring.values())) {
+            retired.join();
+        }
+    }
+
+    /**
+     * Drains the writers in parallel, each of them until the deadline. Writers removed by a scale down are already
+     * being closed, they are waited for until the deadline.
+     */
+    @Override
+    public long closeBy(long deadlineNanos) throws Exception {
+        stop();
+        List<BigQueryStreamProcessor> processors = new ArrayList<>();
+        shards.forEach(shard -> processors.add(shard.processor()));
+        if (processors.isEmpty()) {
+            return awaitRetired(deadlineNanos);
+        }
+        List<CompletableFuture<Long>> drains = new ArrayList<>(processors.size());
+        for (BigQueryStreamProcessor processor : processors.subList(1, processors.size())) {
+            try {
+                drains.add(CompletableFuture.supplyAsync(() -> closeBy(processor, deadlineNanos), executorService));
+            } catch (RejectedExecutionException e) {
+                drains.add(CompletableFuture.supplyAsync(() -> closeBy(processor, deadlineNanos), Runnable::run));
+            }
+        }
+        // the first writer is drained on the calling thread
+        drains.add(CompletableFuture.supplyAsync(() -> closeBy(processors.get(0), deadlineNanos), Runnable::run));
+        long left = 0;
+        for (CompletableFuture<Long> drain : drains) {
+            try {
+                left += drain.join();
+            } catch (CompletionException e) {
+                log.error("Error while draining a writer of table {}", tableName.getTable(), e.getCause());
+            }
+        }
+        return left + awaitRetired(deadlineNanos);
+    }
+
+    /**
+     * Waits for the writers removed by a scale down to be closed.
+     *
+     * @return The rows still buffered by the writers not closed by the deadline.
+     */
+    private long awaitRetired(long deadlineNanos) {
+        long left = 0;
+        for (Map.Entry<BigQueryStreamProcessor, CompletableFuture<Void>> retired : List.copyOf(retiring.entrySet())) {
+            try {
+                retired.getValue().get(Math.max(deadlineNanos - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                BigQueryStreamProcessor processor = retired.getKey();
+                left += processor.getRowQueueSize();
+                log.warn("A removed writer of table {} is not drained by the deadline, {} rows left",
+                        tableName.getTable(), processor.getRowQueueSize());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (Exception e) {
+                log.error("Error while closing a writer of table {}", tableName.getTable(), e);
+            }
+        }
+        return left;
+    }
+
+    private static long closeBy(BigQueryStreamProcessor processor, long deadlineNanos) {
+        try {
+            return processor.closeBy(deadlineNanos);
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        }
+    }
+
+    @Override
+    public boolean isStopped() {
+        return primary().isStopped();
+    }
+
+    @Override
+    public boolean isInitialized() {
+        List<Shard> current = shards;
+        return !current.isEmpty() && current.stream().allMatch(shard -> shard.processor().isInitialized());
+    }
+
+    @Override
+    public TableName getTable() {
+        return tableName;
+    }
+
+    /**
+     * Batches are retried by the writer which sent them, never through the fan-out processor: the append callbacks
+     * are created by the writers with the writer as their parent, which keeps the rows of a key on their writer.
+     */
+    @Override
+    public void retryBatch(StreamingObject batch) {
+        throw new UnsupportedOperationException("Batches of table " + tableName.getTable() + " are retried by their writer");
+    }
+
+    @Override
+    public int getRowQueueSize() {
+        return shards.stream().mapToInt(shard -> shard.processor().getRowQueueSize()).sum();
+    }
+
+    @Override
+    public int getFallBackQueueSize() {
+        return shards.stream().mapToInt(shard -> shard.processor().getFallBackQueueSize()).sum();
+    }
+
+    @Override
+    public int getInFlightRequests() {
+        return shards.stream().mapToInt(shard -> shard.processor().getInFlightRequests()).sum();
+    }
+
+    @Override
+    public int getWriterCount() {
+        return shards.size();
+    }
+
+    /**
+     * Sums the buffers of the writers. Every writer holds a part of the per-table limits, so they are summed too.
+     */
+    @Override
+    public BufferStatistic getBufferStatistic() {
+        long bufferedRows = 0, bufferedBytes = 0, maxRows = 0, maxBytes = 0, fairShareBytes = 0, throttled = 0;
+        long blocked = 0, blockTimeouts = 0, rejected = 0, droppedOldest = 0, droppedNewest = 0;
+        List<Shard> current = shards;
+        for (Shard shard : current) {
+            BufferStatistic statistic = shard.processor().getBufferStatistic();
+            bufferedRows += statistic.getBufferedRows();
+            bufferedBytes += statistic.getBufferedBytes();
+            maxRows = saturatedAdd(maxRows, statistic.getMaxRows());
+            maxBytes = saturatedAdd(maxBytes, statistic.getMaxBytes());
+            fairShareBytes = saturatedAdd(fairShareBytes, statistic.getFairShareBytes());
+            throttled += statistic.getThrottled();
+            blocked += statistic.getBlocked();
+            blockTimeouts += statistic.getBlockTimeouts();
+            rejected += statistic.getRejected();
+            droppedOldest += statistic.getDroppedOldest();
+            droppedNewest += statistic.getDroppedNewest();
+        }
+        return BufferStatistic.builder()
+                .bufferedRows(bufferedRows)
+                .bufferedBytes(bufferedBytes)
+                .maxRows(maxRows)
+                .maxBytes(maxBytes)
+                .fairShareBytes(fairShareBytes)
+                .throttled(throttled)
+                .overflowPolicy(current.isEmpty() ? null : current.get(0).processor().getBufferStatistic().getOverflowPolicy())
+                .blocked(blocked)
+                .blockTimeouts(blockTimeouts)
+                .rejected(rejected)
+                .droppedOldest(droppedOldest)
+                .droppedNewest(droppedNewest)
+                .build();
+    }
+
+    /**
+     * Gets the circuit breaker of the first writer whose appends are paused, of the first writer otherwise.
+     */
+    @Override
+    public CircuitBreakerStatistic getCircuitBreakerStatistic() {
+        CircuitBreakerStatistic first = null;
+        for (Shard shard : shards) {
+            CircuitBreakerStatistic statistic = shard.processor().getCircuitBreakerStatistic();
+            if (statistic != null && statistic.getState() != CircuitBreaker.State.CLOSED) {
+                return statistic;
+            }
+            if (first == null) {
+                first = statistic;
+            }
+        }
+        return first;
+    }
+
+    /**
+     * Gets the trigger of the first writer. Every writer is flushed by its own flusher.
+     */
+    @Override
+    public FlushTrigger getFlushTrigger() {
+        return primary().getFlushTrigger();
+    }
+
+    @Override
+    public Priority getPriority() {
+        return primary().getPriority();
+    }
+
+    private BigQueryStreamProcessor primary() {
+        List<Shard> current = shards;
+        if (current.isEmpty()) {
+            throw new IllegalStateException("Fan-out processor is not initialized");
+        }
+        return current.get(0).processor();
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        try {
+            return Math.addExact(a, b);
+        } catch (ArithmeticException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private record Shard(BigQueryStreamProcessor processor, TableFlusher flusher) {
+    }
+}
@@ -0,0 +1,123 @@
+package com.belkatechnologies.bigquery.streaming.flush;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * In-flight window of a stream processor limiting the appends sent but not acknowledged yet,
+ * in requests and in bytes. A slot is taken before a batch is appended and given back as soon as
+ * its response (or its timeout) arrives, so appends are pipelined without a flush-cycle barrier.
+ * A batch is always admitted into an empty window, even if it is bigger than the byte limit.
+ */
+public class AppendWindow {
+
+    private final int maxRequests;
+    private final long maxBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private int requests;
+    private long bytes;
+
+    /**
+     * @param maxRequests Maximum number of in-flight appends, non-positive means unlimited.
+     * @param maxBytes    Maximum number of in-flight bytes, non-positive means unlimited.
+     */
+    public AppendWindow(int maxRequests, long maxBytes) {
+        this.maxRequests = maxRequests > 0 ? maxRequests : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    }
+
+    /**
+     * Takes a slot for an append, waiting while the window is full.
+     */
+    public void acquire(long batchBytes) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (requests > 0 && (requests >= maxRequests || bytes + batchBytes > maxBytes)) {
+                released.await();
+            }
+            requests++;
+            bytes += batchBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes a slot for an append, waiting while the window is full but not longer than the timeout.
+     *
+     * @return True if the slot is taken, false if the timeout elapsed first.
+     */
+    public boolean tryAcquire(long batchBytes, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (requests > 0 && (requests >= maxRequests || bytes + batchBytes > maxBytes)) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = released.awaitNanos(nanos);
+            }
+            requests++;
+            bytes += batchBytes;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Gives back the slot of a completed (or timed out) append.
+     */
+    public void release(long batchBytes) {
+        lock.lock();
+        try {
+            requests--;
+            bytes -= batchBytes;
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until all in-flight appends are completed.
+     *
+     * @return True if the window is empty, false if the timeout elapsed first.
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (requests > 0) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = released.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getInFlightRequests() {
+        lock.lock();
+        try {
+            return requests;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getInFlightBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.belkatechnologies.bigquery.streaming.flush;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.belkatechnologies.bigquery.streaming.StreamingConsts.MAX_BYTES;
+
+/**
+ * Thresholds making the buffered rows of a table due to be flushed, whichever is reached first.
+ *
+ * @param maxBytes    Buffered bytes triggering a flush.
+ * @param maxRows     Buffered rows triggering a flush.
+ * @param lingerNanos Maximum time the oldest buffered row waits for a flush.
+ */
+public record FlushPolicy(long maxBytes, long maxRows, long lingerNanos) {
+
+    private static final int DEFAULT_LINGER_SECONDS = 30;
+
+    /**
+     * Resolves the policy from properties. Without {@code flush.linger-ms} rows linger for
+     * {@code async-streaming-delay} seconds (30 by default), without {@code flush.max-bytes} a flush
+     * is triggered as soon as a full append request is buffered, without {@code flush.max-rows}
+     * the row count is not a trigger.
+     */
+    public static FlushPolicy of(BigQueryProperties.StreamingProperties properties) {
+        BigQueryProperties.FlushProperties flush = properties.getFlush() != null
+                ? properties.getFlush()
+                : new BigQueryProperties.FlushProperties();
+        long lingerMillis;
+        if (flush.getLingerMs() != null) {
+            lingerMillis = flush.getLingerMs();
+        } else {
+            Integer delay = properties.getAsyncStreamingDelay();
+            lingerMillis = TimeUnit.SECONDS.toMillis(delay != null ? delay : DEFAULT_LINGER_SECONDS);
+        }
+        return new FlushPolicy(
+                flush.getMaxBytes() != null && flush.getMaxBytes() > 0 ? flush.getMaxBytes() : MAX_BYTES,
+                flush.getMaxRows() != null && flush.getMaxRows() > 0 ? flush.getMaxRows() : Long.MAX_VALUE,
+                TimeUnit.MILLISECONDS.toNanos(Math.max(lingerMillis, 0)));
+    }
+}
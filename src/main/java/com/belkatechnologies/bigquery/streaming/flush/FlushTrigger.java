@@ -0,0 +1,120 @@
+package com.belkatechnologies.bigquery.streaming.flush;
+
+import com.belkatechnologies.bigquery.streaming.buffer.BoundedRowQueue;
+import com.belkatechnologies.bigquery.streaming.retry.RetryQueue;
+import lombok.Getter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when the buffered rows of a table are due to be flushed according to a {@link FlushPolicy}.
+ * Producers report buffered rows, the trigger arms the linger timer for the first of them and asks
+ * for an immediate flush as soon as the bytes or rows thresholds are crossed, so idle tables are never woken up
+ * and busy tables do not wait for the timer. Batches waiting to retry do not count towards the thresholds, they are due
+ * when their delay elapses.
+ */
+public class FlushTrigger {
+
+    private static final long NONE = Long.MIN_VALUE;
+    private static final Listener NO_OP = new Listener() {
+        @Override
+        public void flushNow() {
+        }
+
+        @Override
+        public void flushIn(long nanos) {
+        }
+    };
+
+    @Getter
+    private final FlushPolicy policy;
+    private final BoundedRowQueue rows;
+    private final RetryQueue retries;
+
+    private final AtomicLong oldestRowNanos = new AtomicLong(NONE);
+    private volatile Listener listener = NO_OP;
+
+    /**
+     * @param policy  The flush thresholds.
+     * @param rows    The buffered rows of the table.
+     * @param retries The batches of the table waiting to retry.
+     */
+    public FlushTrigger(FlushPolicy policy, BoundedRowQueue rows, RetryQueue retries) {
+        this.policy = policy;
+        this.rows = rows;
+        this.retries = retries;
+    }
+
+    /**
+     * Sets the listener performing flushes. Processors which are flushed manually have none.
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener != null ? listener : NO_OP;
+    }
+
+    /**
+     * Called after rows (or a batch to retry) are buffered.
+     */
+    public void onBuffered() {
+        if (oldestRowNanos.get() == NONE && oldestRowNanos.compareAndSet(NONE, System.nanoTime())) {
+            if (!isFull()) {
+                listener.flushIn(policy.lingerNanos());
+            }
+        }
+        if (isFull()) {
+            listener.flushNow();
+        }
+    }
+
+    /**
+     * Called after a batch is scheduled to retry, so that the flush runs when its delay elapses.
+     */
+    public void onRetryScheduled(long delayNanos) {
+        listener.flushIn(delayNanos);
+    }
+
+    /**
+     * Called by the flusher after a flush. Rows left in the buffer linger from now on, batches waiting to retry
+     * are due when the earliest of them is ready.
+     *
+     * @return Nanos until the next flush is due, 0 if it is due now, -1 if nothing is buffered.
+     */
+    public long onFlushed() {
+        oldestRowNanos.set(NONE);
+        long retryDue = retries.nanosUntilReady();
+        if (rows.isEmpty() || !oldestRowNanos.compareAndSet(NONE, System.nanoTime())) {
+            // empty, or a producer has just armed the timer itself
+            return retryDue;
+        }
+        long rowsDue = isFull() ? 0 : policy.lingerNanos();
+        return retryDue < 0 ? rowsDue : Math.min(rowsDue, retryDue);
+    }
+
+    /**
+     * @return Nanos the oldest buffered row has been waiting, 0 if the buffer is empty.
+     */
+    public long getLingeringNanos() {
+        long oldest = oldestRowNanos.get();
+        return oldest == NONE ? 0 : System.nanoTime() - oldest;
+    }
+
+    private boolean isFull() {
+        return rows.getQueuedBytes() >= policy.maxBytes() || rows.size() >= policy.maxRows();
+    }
+
+    /**
+     * Flusher of a table driven by the trigger.
+     */
+    public interface Listener {
+
+        /**
+         * Flushes as soon as possible.
+         */
+        void flushNow();
+
+        /**
+         * Flushes in the given time unless a flush happens earlier.
+         */
+        void flushIn(long nanos);
+    }
+}
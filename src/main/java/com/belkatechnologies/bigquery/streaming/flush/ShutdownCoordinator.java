@@ -0,0 +1,107 @@
+package com.belkatechnologies.bigquery.streaming.flush;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.belkatechnologies.bigquery.utils.ThreadFactories;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the managed stream processors in parallel when the application stops, under one deadline for all of them,
+ * so that the shutdown fits the termination grace period whatever the number of tables. The largest backlogs are
+ * drained first. Rows not sent by the deadline are kept in the write-ahead log or given up to the hooks, see
+ * {@link BigQueryStreamProcessor#closeBy(long)}.
+ */
+@Slf4j
+public class ShutdownCoordinator {
+
+    private static final long DEFAULT_TIMEOUT_MILLIS = 25_000;
+    private static final int DEFAULT_PARALLELISM = 16;
+    // the processors stop at the deadline by themselves, this covers giving up their rows
+    private static final long REPORT_GRACE_MILLIS = 2_000;
+
+    @Getter
+    private final long timeoutNanos;
+    private final int parallelism;
+    private final boolean virtualThreads;
+
+    public ShutdownCoordinator(BigQueryProperties properties) {
+        BigQueryProperties.ShutdownProperties shutdown = properties.getStreaming().getShutdown() != null
+                ? properties.getStreaming().getShutdown()
+                : new BigQueryProperties.ShutdownProperties();
+        long timeoutMillis = shutdown.getTimeoutMs() != null ? shutdown.getTimeoutMs() : DEFAULT_TIMEOUT_MILLIS;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(timeoutMillis, 0));
+        this.parallelism = shutdown.getParallelism() != null && shutdown.getParallelism() > 0
+                ? shutdown.getParallelism()
+                : DEFAULT_PARALLELISM;
+        this.virtualThreads = properties.isVirtualThreads();
+    }
+
+    /**
+     * Flushes and closes the processors until the deadline.
+     *
+     * @param processors    The processors, their flushers must be stopped.
+     * @param deadlineNanos The {@link System#nanoTime()} to stop flushing at.
+     * @return The rows not appended by the deadline, per table.
+     */
+    public Map<TableName, Long> closeAll(Collection<BigQueryStreamProcessor> processors, long deadlineNanos) {
+        Map<TableName, Long> left = new ConcurrentHashMap<>();
+        if (processors.isEmpty()) {
+            return left;
+        }
+        List<BigQueryStreamProcessor> ordered = processors.stream()
+                .sorted(Comparator.comparingLong(ShutdownCoordinator::backlog).reversed())
+                .toList();
+        log.info("Draining {} tables, {} at once, {} millis left", ordered.size(), Math.min(parallelism, ordered.size()),
+                TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime()));
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, ordered.size()),
+                ThreadFactories.create("shutdown-drain-%d", virtualThreads));
+        for (BigQueryStreamProcessor processor : ordered) {
+            executor.execute(() -> {
+                try {
+                    long rows = processor.closeBy(deadlineNanos);
+                    if (rows > 0) {
+                        left.put(processor.getTable(), rows);
+                    }
+                } catch (Exception e) {
+                    log.error("Error while draining table {}", processor.getTable(), e);
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            long waitNanos = deadlineNanos - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(REPORT_GRACE_MILLIS);
+            if (!executor.awaitTermination(waitNanos, TimeUnit.NANOSECONDS)) {
+                log.warn("Tables are still draining after the shutdown deadline, interrupting them");
+                // the tables not started yet are past the deadline, they only give up their rows
+                executor.shutdownNow().forEach(Runnable::run);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow().forEach(Runnable::run);
+        }
+        if (!left.isEmpty()) {
+            log.error("{} rows of {} tables are not sent before the shutdown deadline: {}",
+                    left.values().stream().mapToLong(Long::longValue).sum(), left.size(), left);
+        }
+        return left;
+    }
+
+    private static long backlog(BigQueryStreamProcessor processor) {
+        try {
+            return processor.getBufferStatistic().getBufferedBytes();
+        } catch (Exception e) {
+            return 0;
+        }
+    }
+}
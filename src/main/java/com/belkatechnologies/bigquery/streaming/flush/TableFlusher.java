@@ -0,0 +1,178 @@
+package com.belkatechnologies.bigquery.streaming.flush;
+
+import com.belkatechnologies.bigquery.streaming.priority.Priority;
+import com.belkatechnologies.bigquery.streaming.priority.PriorityLanes;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the flushes of a managed stream processor on the shared pool when its {@link FlushTrigger} asks for them.
+ * At most one flush of a table runs at a time; a request arriving during a flush makes it run again right after.
+ * A flush the {@link PriorityLanes} do not admit yet is tried again shortly, keeping its place as the running flush.
+ */
+@Slf4j
+public class TableFlusher implements FlushTrigger.Listener {
+
+    private static final long LANE_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final BigQueryStreamProcessor processor;
+    private final FlushTrigger trigger;
+    private final ScheduledExecutorService executorService;
+    private final PriorityLanes lanes;
+    private final Priority priority;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    private ScheduledFuture<?> timer;
+    private long timerDeadline;
+
+    public TableFlusher(BigQueryStreamProcessor processor, ScheduledExecutorService executorService) {
+        this(processor, executorService, PriorityLanes.UNLIMITED);
+    }
+
+    /**
+     * @param processor       The initialized processor.
+     * @param executorService The pool running the flushes.
+     * @param lanes           The lanes admitting the flushes by the priority class of the table.
+     */
+    public TableFlusher(BigQueryStreamProcessor processor, ScheduledExecutorService executorService, PriorityLanes lanes) {
+        this.processor = processor;
+        this.trigger = processor.getFlushTrigger();
+        this.executorService = executorService;
+        this.lanes = lanes;
+        this.priority = lanes.priorityOf(processor.getTable() != null ? processor.getTable().getTable() : null);
+    }
+
+    /**
+     * Attaches the flusher to the trigger of the processor and picks up rows buffered before.
+     */
+    public void start() {
+        trigger.setListener(this);
+        long due = trigger.onFlushed();
+        if (due >= 0) {
+            flushIn(due);
+        }
+    }
+
+    /**
+     * Detaches the flusher. A flush in progress is not interrupted.
+     */
+    public synchronized void stop() {
+        stopped = true;
+        trigger.setListener(null);
+        cancelTimer();
+    }
+
+    @Override
+    public void flushNow() {
+        if (stopped || requested.get()) {
+            return;
+        }
+        requested.set(true);
+        if (running.compareAndSet(false, true)) {
+            submit();
+        }
+    }
+
+    @Override
+    public synchronized void flushIn(long nanos) {
+        if (stopped) {
+            return;
+        }
+        long deadline = System.nanoTime() + nanos;
+        if (timer != null && !timer.isDone() && timerDeadline - deadline <= 0) {
+            return;
+        }
+        cancelTimer();
+        timerDeadline = deadline;
+        try {
+            timer = executorService.schedule(this::flushNow, nanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Flush of table {} is not scheduled, pool is shut down", processor.getTable());
+        }
+    }
+
+    private void submit() {
+        try {
+            executorService.execute(this::flush);
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            log.debug("Flush of table {} is not submitted, pool is shut down", processor.getTable());
+        }
+    }
+
+    private void flush() {
+        if (stopped) {
+            running.set(false);
+            return;
+        }
+        if (!lanes.tryEnterFlush(priority)) {
+            defer();
+            return;
+        }
+        try {
+            flushAdmitted();
+        } finally {
+            lanes.exitFlush();
+        }
+    }
+
+    private void defer() {
+        try {
+            executorService.schedule(this::flush, LANE_RETRY_NANOS, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            log.debug("Flush of table {} is not deferred, pool is shut down", processor.getTable());
+        }
+    }
+
+    private void flushAdmitted() {
+        requested.set(false);
+        synchronized (this) {
+            cancelTimer();
+        }
+        // a stopped processor is being force flushed by another thread, look again later
+        boolean skipped = processor.isStopped();
+        try {
+            if (!skipped) {
+                processor.run();
+            }
+        } catch (Exception e) {
+            log.error("Error while flushing table {}", processor.getTable(), e);
+        } finally {
+            long due = trigger.onFlushed();
+            running.set(false);
+            long paused = processor.getPausedNanos();
+            if (skipped) {
+                requested.set(false);
+                flushIn(trigger.getPolicy().lingerNanos());
+            } else if (paused != 0) {
+                // a full buffer must not spin the flusher while appends are paused, the probe response wakes it up
+                requested.set(false);
+                if (paused > 0) {
+                    flushIn(paused);
+                }
+            } else if (requested.get() || due == 0) {
+                requested.set(false);
+                flushNow();
+            } else if (due > 0) {
+                flushIn(due);
+            }
+        }
+    }
+
+    private void cancelTimer() {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+}
@@ -17,7 +17,7 @@ public interface PostAppendHook {
     /**
      * This method is called after the completion of an append operation in the BigQuery streaming process.
      *
-     * @param callback       The {@code ApiFuture} representing the result of the append operation of one bathed(if possible) JSONArray
+     * @param callback       The {@code ApiFuture} representing the result of the append operation of one batched(if possible) {@code StreamingObject}
      * @param processedRows  An {@code AtomicLong} containing the count of processed rows during the operation.
      */
     void postAppendAction(ApiFuture<AppendRowsResponse> callback, AtomicLong processedRows);
@@ -1,5 +1,6 @@
 package com.belkatechnologies.bigquery.streaming.hook;
 
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
 import org.json.JSONArray;
 
 /**
@@ -14,9 +15,24 @@ public interface PreAppendHook {
     /**
      * This method is called before the initiation of an append operation in the BigQuery streaming process.
      * Implementations can perform custom actions or modifications to the data batch before it is appended.
+     * Called only for batches written in JSON mode by the default {@link #preAppendAction(String, StreamingObject)}.
      *
      * @param table  The name of the BigQuery table to which the data batch is being appended.
      * @param batch  The {@code JSONArray} representing the data batch to be appended.
      */
-    void preAppendAction(String table, JSONArray batch);
+    default void preAppendAction(String table, JSONArray batch) {
+    }
+
+    /**
+     * This method is called before the initiation of an append operation in the BigQuery streaming process
+     * with the encoded batch, either JSON or protobuf.
+     *
+     * @param table  The name of the BigQuery table to which the data batch is being appended.
+     * @param batch  The {@code StreamingObject} representing the encoded data batch to be appended.
+     */
+    default void preAppendAction(String table, StreamingObject batch) {
+        if (batch.jsonBatch() != null) {
+            preAppendAction(table, batch.jsonBatch());
+        }
+    }
 }
@@ -0,0 +1,38 @@
+package com.belkatechnologies.bigquery.streaming.hook;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+
+/**
+ * The {@code RetryExhaustedHook} interface defines a hook to be executed when a failed batch
+ * is given up, so that it can be persisted or reported instead of being lost silently.
+ */
+public interface RetryExhaustedHook {
+
+    /**
+     * This method is called when a batch is not going to be retried anymore.
+     *
+     * @param table  The name of the table.
+     * @param batch  The {@code StreamingObject} which is given up.
+     * @param reason Why the batch is given up.
+     */
+    void onRetryExhausted(String table, StreamingObject batch, Reason reason);
+
+    enum Reason {
+        /**
+         * The batch failed more times than the configured attempts.
+         */
+        ATTEMPTS_EXHAUSTED,
+        /**
+         * The batches waiting to retry exceed the retry byte budget of the table.
+         */
+        BUDGET_EXCEEDED,
+        /**
+         * BigQuery failed the batch with an error which is not retried, e.g. PERMISSION_DENIED or NOT_FOUND.
+         */
+        NON_RETRIABLE_ERROR,
+        /**
+         * The batch was not sent before the shutdown deadline and there is no write-ahead log to keep it.
+         */
+        SHUTDOWN_DEADLINE
+    }
+}
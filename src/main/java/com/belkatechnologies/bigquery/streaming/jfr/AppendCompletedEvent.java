@@ -0,0 +1,34 @@
+package com.belkatechnologies.bigquery.streaming.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The response to an append, or its timeout. Emitted on the thread completing the append,
+ * before the append callback is dispatched.
+ */
+@Name("com.belkatechnologies.bigquery.AppendCompleted")
+@Label("Append Completed")
+@Category({"BigQuery", "Streaming"})
+@Description("The response to an append or its timeout")
+@StackTrace(false)
+public class AppendCompletedEvent extends TableEvent {
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Latency")
+    @Description("Time from sending the append to its response")
+    @Timespan
+    public long latency;
+
+    @Label("Status")
+    public String status;
+}
@@ -0,0 +1,34 @@
+package com.belkatechnologies.bigquery.streaming.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A batch handed to the writer of a table. The duration is the time the append call blocked the flush thread:
+ * the conversion of the rows to the request and the wait for room in the writer.
+ */
+@Name("com.belkatechnologies.bigquery.AppendSent")
+@Label("Append Sent")
+@Category({"BigQuery", "Streaming"})
+@Description("A batch handed to the stream writer")
+@StackTrace(false)
+public class AppendSentEvent extends TableEvent {
+
+    @Label("Attempt")
+    public int attempt;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Offset")
+    @Description("Offset in the write stream, -1 for the default stream")
+    public long offset;
+}
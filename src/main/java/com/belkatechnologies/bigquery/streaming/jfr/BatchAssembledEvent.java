@@ -0,0 +1,33 @@
+package com.belkatechnologies.bigquery.streaming.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Rows collected from the ingest buffer of a table into a batch. The duration is the time spent collecting them,
+ * including the reads of rows spilled to the write-ahead log.
+ */
+@Name("com.belkatechnologies.bigquery.BatchAssembled")
+@Label("Batch Assembled")
+@Category({"BigQuery", "Streaming"})
+@Description("Rows collected from the ingest buffer into a batch")
+@StackTrace(false)
+public class BatchAssembledEvent extends TableEvent {
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Queue Wait")
+    @Description("Time the oldest buffered row waited for the flush")
+    @Timespan
+    public long queueWait;
+}
@@ -0,0 +1,19 @@
+package com.belkatechnologies.bigquery.streaming.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * The writer of a table recreated after repeated failures. The duration includes the backoff between
+ * the attempts to connect, which run in the background; the batch is the one whose retry triggered the reconnect.
+ */
+@Name("com.belkatechnologies.bigquery.Reconnect")
+@Label("Reconnect")
+@Category({"BigQuery", "Streaming"})
+@Description("The stream writer of a table recreated")
+@StackTrace(false)
+public class ReconnectEvent extends TableEvent {
+}
@@ -0,0 +1,34 @@
+package com.belkatechnologies.bigquery.streaming.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * A failed batch put back to be sent again.
+ */
+@Name("com.belkatechnologies.bigquery.RetryScheduled")
+@Label("Retry Scheduled")
+@Category({"BigQuery", "Streaming"})
+@Description("A failed batch scheduled to be sent again")
+@StackTrace(false)
+public class RetryScheduledEvent extends TableEvent {
+
+    @Label("Attempt")
+    @Description("The attempt the batch is going to be sent with")
+    public int attempt;
+
+    @Label("Rows")
+    public int rows;
+
+    @Label("Delay")
+    @Timespan
+    public long delay;
+
+    @Label("Deferred")
+    @Description("The batch waits for an earlier offset without counting an attempt")
+    public boolean deferred;
+}
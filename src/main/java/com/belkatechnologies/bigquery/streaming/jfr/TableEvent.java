@@ -0,0 +1,18 @@
+package com.belkatechnologies.bigquery.streaming.jfr;
+
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+
+/**
+ * Base of the Flight Recorder events of the append lifecycle, identifying the table and the batch.
+ * They cost a check of a flag unless a recording runs, e.g. one started with {@code -XX:StartFlightRecording}
+ * or {@code jcmd <pid> JFR.start}, and can be disabled in the recording settings by their names.
+ */
+public abstract class TableEvent extends Event {
+
+    @Label("Table")
+    public String table;
+
+    @Label("Batch Id")
+    public long batchId;
+}
@@ -0,0 +1,171 @@
+package com.belkatechnologies.bigquery.streaming.metrics;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import io.grpc.Status;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes the streaming metrics to a Micrometer registry. Meters of a table are tagged with
+ * {@code project}, {@code dataset} and {@code table}.
+ */
+@RequiredArgsConstructor
+public class MicrometerStreamingMetrics implements StreamingMetrics {
+
+    private static final String PREFIX = "bigquery.streaming.";
+
+    private final MeterRegistry registry;
+    private final Map<TableName, TableMetrics> tables = new ConcurrentHashMap<>();
+    private final Map<TableName, List<Meter>> gauges = new ConcurrentHashMap<>();
+
+    @Override
+    public TableMetrics forTable(TableName tableName) {
+        return tables.computeIfAbsent(tableName, table -> new MicrometerTableMetrics(registry, tags(table)));
+    }
+
+    @Override
+    public void bindProcessor(BigQueryStreamProcessor processor) {
+        // a gauge of the same id would be returned still observing the previous processor
+        unbindProcessor(processor.getTable());
+        Tags tags = tags(processor.getTable());
+        List<Meter> meters = List.of(
+                Gauge.builder(PREFIX + "queue.rows", processor, BigQueryStreamProcessor::getRowQueueSize)
+                        .description("Rows waiting in the ingest buffer")
+                        .tags(tags)
+                        .register(registry),
+                Gauge.builder(PREFIX + "fallback.batches", processor, BigQueryStreamProcessor::getFallBackQueueSize)
+                        .description("Batches waiting to be retried")
+                        .tags(tags)
+                        .register(registry),
+                Gauge.builder(PREFIX + "inflight.requests", processor, BigQueryStreamProcessor::getInFlightRequests)
+                        .description("Appends sent and not acknowledged yet")
+                        .tags(tags)
+                        .register(registry));
+        gauges.put(processor.getTable(), meters);
+    }
+
+    @Override
+    public void unbindProcessor(TableName tableName) {
+        List<Meter> meters = gauges.remove(tableName);
+        if (meters != null) {
+            meters.forEach(registry::remove);
+        }
+    }
+
+    @Override
+    public void bindManager(StreamingManager manager) {
+        Gauge.builder(PREFIX + "processors.live", manager, it -> it.getManagerStatistic().getLiveProcessors())
+                .description("Processors of the tables currently written")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "processors.created", manager, it -> it.getManagerStatistic().getCreatedProcessors())
+                .description("Processors created, recreations after an eviction included")
+                .register(registry);
+        FunctionCounter.builder(PREFIX + "processors.evicted", manager, it -> it.getManagerStatistic().getEvictedProcessors())
+                .description("Processors closed after the idle timeout")
+                .register(registry);
+    }
+
+    @Override
+    public void bindExecutor(String name, ExecutorService executor) {
+        new ExecutorServiceMetrics(executor, name, Tags.empty()).bindTo(registry);
+    }
+
+    private static Tags tags(TableName tableName) {
+        return Tags.of("project", tableName.getProject(), "dataset", tableName.getDataset(), "table", tableName.getTable());
+    }
+
+    private static class MicrometerTableMetrics implements TableMetrics {
+
+        private final MeterRegistry registry;
+        private final Tags tags;
+        private final Counter enqueuedRows;
+        private final Counter enqueuedBytes;
+        private final Counter appendedRows;
+        private final Counter appendedBytes;
+        private final Counter retries;
+        private final Counter serializationErrors;
+        private final Timer batchAssembly;
+        private final Timer flush;
+        private final Map<String, Counter> drops = new ConcurrentHashMap<>();
+        private final Map<Status.Code, Timer> appends = new ConcurrentHashMap<>();
+
+        MicrometerTableMetrics(MeterRegistry registry, Tags tags) {
+            this.registry = registry;
+            this.tags = tags;
+            this.enqueuedRows = Counter.builder(PREFIX + "rows.enqueued").tags(tags).register(registry);
+            this.enqueuedBytes = Counter.builder(PREFIX + "bytes.enqueued").baseUnit("bytes").tags(tags).register(registry);
+            this.appendedRows = Counter.builder(PREFIX + "rows.appended").tags(tags).register(registry);
+            this.appendedBytes = Counter.builder(PREFIX + "bytes.appended").baseUnit("bytes").tags(tags).register(registry);
+            this.retries = Counter.builder(PREFIX + "retries").description("Batches scheduled to be sent again").tags(tags).register(registry);
+            this.serializationErrors = Counter.builder(PREFIX + "serialization.errors")
+                    .description("Rows rejected by BigQuery as invalid")
+                    .tags(tags)
+                    .register(registry);
+            this.batchAssembly = Timer.builder(PREFIX + "batch.assembly").tags(tags).register(registry);
+            this.flush = Timer.builder(PREFIX + "flush").description("Sending the buffered batches of a flush").tags(tags).register(registry);
+        }
+
+        @Override
+        public void onEnqueued(int rows, long bytes) {
+            enqueuedRows.increment(rows);
+            enqueuedBytes.increment(bytes);
+        }
+
+        @Override
+        public void onDropped(int rows, String reason) {
+            drops.computeIfAbsent(reason, it -> Counter.builder(PREFIX + "rows.dropped").tags(tags).tag("reason", it).register(registry))
+                    .increment(rows);
+        }
+
+        @Override
+        public void onBatchAssembled(long nanos) {
+            batchAssembly.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void onAppendCompleted(long nanos, Status.Code status) {
+            appends.computeIfAbsent(status, it -> Timer.builder(PREFIX + "append")
+                            .description("Append RPC latency")
+                            .tags(tags)
+                            .tag("status", it.name())
+                            .register(registry))
+                    .record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public void onAppended(int rows, long bytes) {
+            appendedRows.increment(rows);
+            appendedBytes.increment(bytes);
+        }
+
+        @Override
+        public void onRetry() {
+            retries.increment();
+        }
+
+        @Override
+        public void onSerializationError(int rows) {
+            serializationErrors.increment(rows);
+        }
+
+        @Override
+        public void onFlushed(long nanos) {
+            flush.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
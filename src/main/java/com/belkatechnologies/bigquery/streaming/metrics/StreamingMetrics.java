@@ -0,0 +1,62 @@
+package com.belkatechnologies.bigquery.streaming.metrics;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.google.cloud.bigquery.storage.v1.TableName;
+
+import java.util.concurrent.ExecutorService;
+
+/**
+ * The {@code StreamingMetrics} interface publishes the metrics of the streaming subsystem.
+ * Without a bean implementing it nothing is measured; {@link MicrometerStreamingMetrics} is configured
+ * when a Micrometer {@code MeterRegistry} is present.
+ */
+public interface StreamingMetrics {
+
+    StreamingMetrics NOOP = new StreamingMetrics() {
+    };
+
+    /**
+     * Gets the metrics of a table, shared by all processors of the table.
+     *
+     * @param tableName The table.
+     * @return The metrics of the table.
+     */
+    default TableMetrics forTable(TableName tableName) {
+        return TableMetrics.NOOP;
+    }
+
+    /**
+     * Publishes the queue depths and the in-flight requests of a processor managed by the streaming manager,
+     * replacing those of a previous processor of the same table.
+     *
+     * @param processor The initialized processor.
+     */
+    default void bindProcessor(BigQueryStreamProcessor processor) {
+    }
+
+    /**
+     * Stops publishing the queue depths and the in-flight requests of the processor of a table.
+     *
+     * @param tableName The table.
+     */
+    default void unbindProcessor(TableName tableName) {
+    }
+
+    /**
+     * Publishes the number of live processors and the processors created and evicted by the streaming manager.
+     *
+     * @param manager The streaming manager.
+     */
+    default void bindManager(StreamingManager manager) {
+    }
+
+    /**
+     * Publishes the saturation of an executor: pool size, active threads and queued tasks.
+     *
+     * @param name     The name of the executor, e.g. {@code streaming-manager}.
+     * @param executor The executor.
+     */
+    default void bindExecutor(String name, ExecutorService executor) {
+    }
+}
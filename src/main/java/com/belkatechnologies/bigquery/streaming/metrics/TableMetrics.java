@@ -0,0 +1,79 @@
+package com.belkatechnologies.bigquery.streaming.metrics;
+
+import io.grpc.Status;
+
+/**
+ * The {@code TableMetrics} interface receives the measurements of the stream processors of one table.
+ * Methods are called on the ingest, flush and append callback threads, so they must be cheap and must not block.
+ */
+public interface TableMetrics {
+
+    TableMetrics NOOP = new TableMetrics() {
+    };
+
+    /**
+     * Rows accepted into the ingest buffer.
+     *
+     * @param rows  The number of rows.
+     * @param bytes The size of the rows.
+     */
+    default void onEnqueued(int rows, long bytes) {
+    }
+
+    /**
+     * Rows dropped without being sent: by the overflow policy of the buffer or given up after retries.
+     *
+     * @param rows   The number of rows.
+     * @param reason Why the rows are dropped, e.g. {@code overflow} or {@code attempts_exhausted}.
+     */
+    default void onDropped(int rows, String reason) {
+    }
+
+    /**
+     * A batch collected from the ingest buffer.
+     *
+     * @param nanos The time spent collecting the batch.
+     */
+    default void onBatchAssembled(long nanos) {
+    }
+
+    /**
+     * An append completed, successfully or not.
+     *
+     * @param nanos  The time from sending the append to its response, or to its timeout.
+     * @param status The status of the response, {@code OK} on success.
+     */
+    default void onAppendCompleted(long nanos, Status.Code status) {
+    }
+
+    /**
+     * Rows written to BigQuery.
+     *
+     * @param rows  The number of rows.
+     * @param bytes The size of the rows.
+     */
+    default void onAppended(int rows, long bytes) {
+    }
+
+    /**
+     * A batch scheduled to be sent again.
+     */
+    default void onRetry() {
+    }
+
+    /**
+     * Rows rejected by BigQuery as invalid.
+     *
+     * @param rows The number of rows.
+     */
+    default void onSerializationError(int rows) {
+    }
+
+    /**
+     * A flush of the buffered batches ended, not waiting for the responses.
+     *
+     * @param nanos The time spent sending the batches.
+     */
+    default void onFlushed(long nanos) {
+    }
+}
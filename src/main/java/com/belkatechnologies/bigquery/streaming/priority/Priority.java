@@ -0,0 +1,39 @@
+package com.belkatechnologies.bigquery.streaming.priority;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Priority class of a table. The shares bound how much of the shared resources the tables of a class may take,
+ * the rest is left to the classes above it.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum Priority {
+    /**
+     * Tables which may take every flush thread and the whole in-flight budget, and weigh 4 in the buffer budget.
+     */
+    HIGH(1.0, 1.0, 4.0),
+    /**
+     * Tables which may take 75% of the flush threads and 80% of the in-flight budget, and weigh 1 in the buffer budget.
+     */
+    NORMAL(0.75, 0.8, 1.0),
+    /**
+     * Tables which may take 25% of the flush threads and 50% of the in-flight budget, and weigh 0.25 in the buffer
+     * budget, so they are deferred and throttled first.
+     */
+    LOW(0.25, 0.5, 0.25);
+
+    /**
+     * Part of the flush threads the flushes of all tables may occupy for a flush of the class to start.
+     */
+    private final double flushShare;
+    /**
+     * Part of the in-flight budget the appends of all tables may occupy for an append of the class to be sent.
+     */
+    private final double inFlightShare;
+    /**
+     * Default weight of the tables of the class in {@link com.belkatechnologies.bigquery.streaming.buffer.FairShareBudget}.
+     */
+    private final double weight;
+}
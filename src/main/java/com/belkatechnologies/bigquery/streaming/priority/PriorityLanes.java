@@ -0,0 +1,151 @@
+package com.belkatechnologies.bigquery.streaming.priority;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Gives the tables of higher priority classes the first claim on the shared resources: the flush threads of the
+ * streaming manager and the in-flight append budget, which stands for the throughput quota of the project. A flush or
+ * an append of a class is admitted only while the flushes or the appends of all tables occupy less than the share of
+ * the class ({@link Priority#getFlushShare()}, {@link Priority#getInFlightShare()}), so the rest stays free for the
+ * classes above it. Refused flushes and appends are deferred, not queued: the rows stay buffered.
+ */
+public class PriorityLanes {
+
+    /**
+     * Lanes admitting everything, for processors created outside of the application context.
+     */
+    public static final PriorityLanes UNLIMITED = new PriorityLanes(new BigQueryProperties.PriorityProperties(), 0);
+
+    private final Priority defaultPriority;
+    private final Map<String, Priority> tables;
+    private final List<PatternPriority> patterns = new ArrayList<>();
+    private final Map<String, Priority> resolved = new ConcurrentHashMap<>();
+    private final int flushThreads;
+    private final long maxInFlightBytes;
+
+    private final AtomicInteger runningFlushes = new AtomicInteger();
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    /**
+     * @param properties   The priorities of the tables and the in-flight budget.
+     * @param flushThreads The threads of the pool running the flushes, non-positive means unlimited.
+     */
+    public PriorityLanes(BigQueryProperties.PriorityProperties properties, int flushThreads) {
+        if (properties == null) {
+            properties = new BigQueryProperties.PriorityProperties();
+        }
+        this.defaultPriority = properties.getDefaultPriority() != null ? properties.getDefaultPriority() : Priority.NORMAL;
+        this.tables = properties.getTables() != null ? Map.copyOf(properties.getTables()) : Map.of();
+        if (properties.getPatterns() != null) {
+            for (BigQueryProperties.PatternPriority pattern : properties.getPatterns()) {
+                if (pattern.getPattern() == null || pattern.getPriority() == null) {
+                    throw new IllegalArgumentException("Priority pattern needs both pattern and priority");
+                }
+                patterns.add(new PatternPriority(Pattern.compile(pattern.getPattern()), pattern.getPriority()));
+            }
+        }
+        this.flushThreads = flushThreads;
+        this.maxInFlightBytes = properties.getMaxInFlightBytes() != null && properties.getMaxInFlightBytes() > 0
+                ? properties.getMaxInFlightBytes()
+                : Long.MAX_VALUE;
+    }
+
+    /**
+     * Resolves the priority class of a table: by its name, else by the first pattern matching it, else the default.
+     */
+    public Priority priorityOf(String table) {
+        if (table == null) {
+            return defaultPriority;
+        }
+        return resolved.computeIfAbsent(table, name -> {
+            Priority priority = tables.get(name);
+            if (priority != null) {
+                return priority;
+            }
+            for (PatternPriority pattern : patterns) {
+                if (pattern.pattern().matcher(name).matches()) {
+                    return pattern.priority();
+                }
+            }
+            return defaultPriority;
+        });
+    }
+
+    /**
+     * Takes a flush thread for a table of the class.
+     *
+     * @return True if the flush may run now, it must then be followed by {@link #exitFlush()}.
+     */
+    public boolean tryEnterFlush(Priority priority) {
+        if (flushThreads <= 0) {
+            return true;
+        }
+        if (priority.getFlushShare() >= 1) {
+            runningFlushes.incrementAndGet();
+            return true;
+        }
+        int limit = Math.max(1, (int) (flushThreads * priority.getFlushShare()));
+        while (true) {
+            int running = runningFlushes.get();
+            if (running >= limit) {
+                return false;
+            }
+            if (runningFlushes.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    public void exitFlush() {
+        if (flushThreads > 0) {
+            runningFlushes.decrementAndGet();
+        }
+    }
+
+    /**
+     * Takes room in the in-flight budget for an append of a table of the class. An append is always admitted
+     * when nothing is in flight, so a batch bigger than the budget can not get stuck forever.
+     *
+     * @return True if the append may be sent now, the room must then be given back by {@link #releaseInFlight(long)}.
+     */
+    public boolean tryAcquireInFlight(Priority priority, long bytes) {
+        if (maxInFlightBytes == Long.MAX_VALUE) {
+            return true;
+        }
+        long limit = (long) (maxInFlightBytes * priority.getInFlightShare());
+        while (true) {
+            long current = inFlightBytes.get();
+            if (current > 0 && current + bytes > limit) {
+                return false;
+            }
+            if (inFlightBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    public void releaseInFlight(long bytes) {
+        if (maxInFlightBytes != Long.MAX_VALUE) {
+            inFlightBytes.addAndGet(-bytes);
+        }
+    }
+
+    public int getRunningFlushes() {
+        return runningFlushes.get();
+    }
+
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    private record PatternPriority(Pattern pattern, Priority priority) {
+    }
+}
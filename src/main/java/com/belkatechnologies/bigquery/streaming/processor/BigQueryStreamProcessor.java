@@ -1,5 +1,10 @@
 package com.belkatechnologies.bigquery.streaming.processor;
 
+import com.belkatechnologies.bigquery.streaming.buffer.BufferStatistic;
+import com.belkatechnologies.bigquery.streaming.flush.FlushTrigger;
+import com.belkatechnologies.bigquery.streaming.priority.Priority;
+import com.belkatechnologies.bigquery.streaming.retry.CircuitBreakerStatistic;
+import com.belkatechnologies.bigquery.streaming.wal.WriteAheadLog;
 import com.google.cloud.bigquery.storage.v1.TableName;
 
 import java.util.Collection;
@@ -16,6 +21,20 @@ public interface BigQueryStreamProcessor extends AutoCloseable, Runnable {
      */
     void forceFlush();
 
+    /**
+     * Flushes all pending batches, retries included, until the deadline and closes the processor.
+     * Rows not appended by the deadline are kept in the write-ahead log to be replayed by the next start or, without
+     * one, given up to the {@link com.belkatechnologies.bigquery.streaming.hook.RetryExhaustedHook} and
+     * {@link com.belkatechnologies.bigquery.streaming.deadletter.DeadLetterSink} beans.
+     *
+     * @param deadlineNanos The {@link System#nanoTime()} to stop flushing at.
+     * @return The number of rows not appended by the deadline, appends still in flight excluded.
+     */
+    default long closeBy(long deadlineNanos) throws Exception {
+        close();
+        return 0;
+    }
+
     /**
      * Initializes the BigQueryStreamProcessor for the assigned table.
      *
@@ -49,6 +68,8 @@ public interface BigQueryStreamProcessor extends AutoCloseable, Runnable {
      * Adds a single row to the processing queue.
      *
      * @param row The map representing the row data.
+     * @throws com.belkatechnologies.bigquery.streaming.buffer.BufferOverflowException If the queue is full
+     *                                                                                  and the overflow policy rejects the row.
      */
     void putOne(Map<String, Object> row);
 
@@ -56,9 +77,32 @@ public interface BigQueryStreamProcessor extends AutoCloseable, Runnable {
      * Adds a batch of rows to the processing queue.
      *
      * @param rows The collection of maps representing the rows.
+     * @throws com.belkatechnologies.bigquery.streaming.buffer.BufferOverflowException If the queue is full
+     *                                                                                  and the overflow policy rejects the rows.
      */
     void putBatch(Collection<Map<String, Object>> rows);
 
+    /**
+     * Adds a single typed record (a POJO or a record class) to the processing queue.
+     * The record is encoded by a {@link com.belkatechnologies.bigquery.streaming.codec.RowCodec} built once per class.
+     *
+     * @param record The record.
+     * @throws com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException If the class of the record does not match the table schema.
+     * @throws com.belkatechnologies.bigquery.streaming.buffer.BufferOverflowException If the queue is full
+     *                                                                                  and the overflow policy rejects the record.
+     */
+    <T> void putRecord(T record);
+
+    /**
+     * Adds a batch of typed records (POJOs or record classes) to the processing queue.
+     *
+     * @param records The records.
+     * @throws com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException If the class of a record does not match the table schema.
+     * @throws com.belkatechnologies.bigquery.streaming.buffer.BufferOverflowException If the queue is full
+     *                                                                                  and the overflow policy rejects the records.
+     */
+    <T> void putRecords(Collection<T> records);
+
     /**
      * Retries processing a failed batch by adding it to the fallback queue.
      *
@@ -66,6 +110,59 @@ public interface BigQueryStreamProcessor extends AutoCloseable, Runnable {
      */
     void retryBatch(StreamingObject batch);
 
+    /**
+     * Tells that a batch is done: appended, or given up and not going to be sent again.
+     * Acknowledges the rows of the batch in the write-ahead log.
+     *
+     * @param batch The batch.
+     */
+    default void releaseBatch(StreamingObject batch) {
+    }
+
+    /**
+     * Retries a batch which BigQuery refused to write at its offset yet, because an earlier batch of the stream
+     * has not landed, without counting an attempt.
+     *
+     * @param batch The batch to send again.
+     */
+    default void deferBatch(StreamingObject batch) {
+        retryBatch(batch);
+    }
+
+    /**
+     * Handles a batch rejected by BigQuery as invalid: the rows reported as failing are passed
+     * to the {@link com.belkatechnologies.bigquery.streaming.deadletter.DeadLetterSink} beans and the rest is appended again.
+     * The batch is done once this method returns.
+     *
+     * @param batch The rejected batch.
+     * @param error The error the batch was rejected with.
+     */
+    default void rejectBatch(StreamingObject batch, Throwable error) {
+        releaseBatch(batch);
+    }
+
+    /**
+     * Gives up a batch BigQuery failed with an error which is not retried, e.g. PERMISSION_DENIED or NOT_FOUND:
+     * the batch is passed to the {@link com.belkatechnologies.bigquery.streaming.hook.RetryExhaustedHook} and
+     * {@link com.belkatechnologies.bigquery.streaming.deadletter.DeadLetterSink} beans and counted as dropped.
+     * The batch is done once this method returns.
+     *
+     * @param batch The failed batch.
+     * @param error The error the batch failed with.
+     */
+    default void failBatch(StreamingObject batch, Throwable error) {
+        releaseBatch(batch);
+    }
+
+    /**
+     * Logs the rows buffered from now on to the write-ahead log and replays the rows it recovered.
+     * Must be called after {@link #initialize(TableName)}. Processors without write-ahead log support ignore it.
+     *
+     * @param writeAheadLog The write-ahead log of the table of the processor.
+     */
+    default void attachWriteAheadLog(WriteAheadLog writeAheadLog) {
+    }
+
     /**
      * Gets the size of the row processing queue.
      *
@@ -79,4 +176,74 @@ public interface BigQueryStreamProcessor extends AutoCloseable, Runnable {
      * @return The size of the fallback queue.
      */
     int getFallBackQueueSize();
+
+    /**
+     * Gets the number of appends sent to BigQuery and not acknowledged yet.
+     *
+     * @return The number of in-flight appends.
+     */
+    default int getInFlightRequests() {
+        return 0;
+    }
+
+    /**
+     * Gets the number of writers appending the rows of the table in parallel.
+     *
+     * @return The number of writers, 1 unless the table is fanned out.
+     */
+    default int getWriterCount() {
+        return 1;
+    }
+
+    /**
+     * Splits the per-table buffer limits between the writers appending the rows of the table in parallel.
+     * Processors without a buffer of their own ignore it.
+     *
+     * @param writers The number of writers of the table, each of them holding one part of the limits.
+     */
+    default void splitBuffer(int writers) {
+    }
+
+    /**
+     * Gets the usage of the ingest buffer and the counters of the applied overflow policy.
+     *
+     * @return The buffer statistic snapshot.
+     */
+    BufferStatistic getBufferStatistic();
+
+    /**
+     * Gets the state of the circuit breaker pausing the appends of the table while BigQuery is unavailable.
+     *
+     * @return The circuit breaker statistic snapshot, null if the processor has no circuit breaker.
+     */
+    default CircuitBreakerStatistic getCircuitBreakerStatistic() {
+        return null;
+    }
+
+    /**
+     * Gets the priority class of the table, which gives it a claim on the flush threads, the in-flight append budget
+     * and the buffer budget shared with the other tables.
+     *
+     * @return The priority class of the table.
+     */
+    default Priority getPriority() {
+        return Priority.NORMAL;
+    }
+
+    /**
+     * Tells whether appends are paused. Rows keep being buffered while they are.
+     *
+     * @return 0 if appends are allowed, the nanos until they are tried again (after the circuit breaker opened or
+     * the priority lanes deferred them), or a negative value while the append probing BigQuery is in flight.
+     */
+    default long getPausedNanos() {
+        return 0;
+    }
+
+    /**
+     * Gets the trigger telling when the buffered rows are due to be flushed.
+     *
+     * @return The flush trigger of the processor.
+     */
+    FlushTrigger getFlushTrigger();
 }
@@ -1,39 +1,75 @@
 package com.belkatechnologies.bigquery.streaming.processor;
 
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.buffer.BoundedRowQueue;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferCapacity;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferOverflowException;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferStatistic;
+import com.belkatechnologies.bigquery.streaming.buffer.OverflowPolicy;
 import com.belkatechnologies.bigquery.streaming.callback.DefaultAbstractAppendCompleteCallback;
+import com.belkatechnologies.bigquery.streaming.codec.RowCodec;
+import com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException;
+import com.belkatechnologies.bigquery.streaming.deadletter.DeadLetter;
+import com.belkatechnologies.bigquery.streaming.deadletter.DeadLetterSink;
+import com.belkatechnologies.bigquery.streaming.flush.AppendWindow;
+import com.belkatechnologies.bigquery.streaming.flush.FlushPolicy;
+import com.belkatechnologies.bigquery.streaming.flush.FlushTrigger;
 import com.belkatechnologies.bigquery.streaming.hook.PostAppendHook;
 import com.belkatechnologies.bigquery.streaming.hook.PreAppendHook;
+import com.belkatechnologies.bigquery.streaming.hook.RetryExhaustedHook;
 import com.belkatechnologies.bigquery.streaming.hook.StreamFailedHook;
+import com.belkatechnologies.bigquery.streaming.jfr.AppendCompletedEvent;
+import com.belkatechnologies.bigquery.streaming.jfr.AppendSentEvent;
+import com.belkatechnologies.bigquery.streaming.jfr.BatchAssembledEvent;
+import com.belkatechnologies.bigquery.streaming.jfr.ReconnectEvent;
+import com.belkatechnologies.bigquery.streaming.jfr.RetryScheduledEvent;
+import com.belkatechnologies.bigquery.streaming.metrics.StreamingMetrics;
+import com.belkatechnologies.bigquery.streaming.metrics.TableMetrics;
+import com.belkatechnologies.bigquery.streaming.priority.Priority;
+import com.belkatechnologies.bigquery.streaming.priority.PriorityLanes;
+import com.belkatechnologies.bigquery.streaming.retry.CircuitBreaker;
+import com.belkatechnologies.bigquery.streaming.retry.CircuitBreakerStatistic;
+import com.belkatechnologies.bigquery.streaming.retry.RetryPolicy;
+import com.belkatechnologies.bigquery.streaming.retry.RetryQueue;
+import com.belkatechnologies.bigquery.streaming.wal.WalReceipt;
+import com.belkatechnologies.bigquery.streaming.wal.WriteAheadLog;
+import com.belkatechnologies.bigquery.streaming.writer.StreamRowWriter;
+import com.belkatechnologies.bigquery.streaming.writer.StreamWriterFactory;
+import com.belkatechnologies.bigquery.streaming.writer.UnknownColumnException;
 import com.google.api.core.ApiFuture;
 import com.google.api.core.ApiFutures;
-import com.google.api.gax.core.FixedExecutorProvider;
+import com.google.api.core.SettableApiFuture;
 import com.google.cloud.bigquery.storage.v1.*;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.MoreExecutors;
 import lombok.Getter;
-import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
+import io.grpc.Status;
 import lombok.extern.slf4j.Slf4j;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.springframework.beans.BeansException;
 import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.util.CollectionUtils;
 
 import javax.annotation.PreDestroy;
+import java.time.Instant;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
-import static com.belkatechnologies.bigquery.streaming.StreamingConsts.CALLBACK_EXECUTOR;
 import static com.belkatechnologies.bigquery.streaming.StreamingConsts.MAX_BYTES;
+import static com.belkatechnologies.bigquery.streaming.StreamingConsts.RETRIABLE_ERROR_CODES;
 
 @Slf4j
-@RequiredArgsConstructor
 public class DefaultAsyncContinuousRetriableStreamProcessor implements BigQueryStreamProcessor {
 
     private final BigQueryWriteClient client;
     private final ObjectProvider<DefaultAbstractAppendCompleteCallback> callbackProvider;
+    private final StreamWriterFactory writerFactory;
+    private final Executor callbackExecutor;
+    private final ScheduledExecutorService timeoutScheduler;
 
     @Autowired(required = false)
     private List<PreAppendHook> preAppendHooks = new ArrayList<>();
@@ -41,40 +77,151 @@ public class DefaultAsyncContinuousRetriableStreamProcessor implements BigQueryS
     private List<PostAppendHook> postAppendHooks = new ArrayList<>();
     @Autowired(required = false)
     private List<StreamFailedHook> streamFailedHooks = new ArrayList<>();
+    @Autowired(required = false)
+    private List<RetryExhaustedHook> retryExhaustedHooks = new ArrayList<>();
+    @Autowired(required = false)
+    private List<DeadLetterSink> deadLetterSinks = new ArrayList<>();
+    @Autowired(required = false)
+    private StreamingMetrics streamingMetrics = StreamingMetrics.NOOP;
+    @Autowired(required = false)
+    private PriorityLanes priorityLanes = PriorityLanes.UNLIMITED;
 
-    protected final Queue<JSONObject> queue = new ConcurrentLinkedQueue<>();
-    protected final Queue<StreamingObject> fallBackQueue = new ConcurrentLinkedQueue<>();
+    protected final BoundedRowQueue queue;
+    @Getter
+    protected final FlushTrigger flushTrigger;
+    protected final RetryPolicy retryPolicy;
+    protected final RetryQueue fallBackQueue;
+    protected final AppendWindow window;
+    private final BigQueryProperties.CircuitBreakerProperties circuitBreakerProperties;
+    private volatile CircuitBreaker circuitBreaker;
+    private final AtomicBoolean reconnecting = new AtomicBoolean();
+    private final AtomicLong reconnectFailures = new AtomicLong();
+    private volatile ReconnectEvent reconnectEvent;
+    private volatile boolean closed;
+    private volatile Priority priority = Priority.NORMAL;
+    private volatile boolean legacyCallback;
+    private volatile long deferredUntilNanos = System.nanoTime();
+    private final long appendTimeoutMillis;
+    private final long flushTimeoutNanos;
+    // passed to callbacks declaring the deprecated constructor, nothing waits on it
+    private final Phaser legacyPhaser = new Phaser(1);
+    private final int maxRejectSplits;
+    private final AtomicLong processedRows = new AtomicLong();
+    private final AtomicLong processedBytes = new AtomicLong();
 
-    protected JsonStreamWriter streamWriter;
+    protected volatile StreamRowWriter streamWriter;
+    // locks rather than monitors: a virtual thread blocked on the buffer or the append window keeps its carrier free
+    private final ReentrantLock ingestLock = new ReentrantLock();
+    private final ReentrantLock writerLock = new ReentrantLock();
     protected TableName tableName;
+    private volatile WriteAheadLog writeAheadLog;
+    private volatile TableMetrics metrics = TableMetrics.NOOP;
+    private long schemaFetchedAt;
 
-    protected ConcurrentMap<Integer, Integer> reconnectCount = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Class<?>, RowCodec<?>> codecs = new ConcurrentHashMap<>();
 
     @Getter
     private boolean initialized = false;
     private final AtomicBoolean stopped = new AtomicBoolean(true);
 
-    //на случай если в очередь быстро поступает много батчей(быстрее флаша в цикле while)
-    private final static int MAX_PHASER_PARTIES = 64;
+    private static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 30_000;
+    private static final int DEFAULT_MAX_IN_FLIGHT_REQUESTS = 64;
+    private static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 100L * 1024 * 1024;
+    private static final long DEFAULT_APPEND_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long DEFAULT_FLUSH_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final int DEFAULT_MAX_REJECT_SPLITS = 8;
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final long SCHEMA_FETCH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long LANE_RETRY_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+    // JsonToProtoMessage of google-cloud-bigquerystorage (libraries-bom 26.30.0) reports a row with columns missing
+    // from the writer schema as "JSONObject has fields unknown to BigQuery: ...", only as the text of the row error
+    private static final String UNKNOWN_FIELDS_MESSAGE = "unknown to BigQuery";
+
+    public DefaultAsyncContinuousRetriableStreamProcessor(
+            BigQueryWriteClient client,
+            ObjectProvider<DefaultAbstractAppendCompleteCallback> callbackProvider,
+            BigQueryProperties bigQueryProperties,
+            BufferCapacity globalBufferCapacity,
+            StreamWriterFactory writerFactory
+    ) {
+        this(client, callbackProvider, bigQueryProperties, globalBufferCapacity, writerFactory, new ConcurrentLinkedQueue<>());
+    }
+
+    /**
+     * @param rows Thread-safe queue used to store rows waiting to be flushed.
+     */
+    protected DefaultAsyncContinuousRetriableStreamProcessor(
+            BigQueryWriteClient client,
+            ObjectProvider<DefaultAbstractAppendCompleteCallback> callbackProvider,
+            BigQueryProperties bigQueryProperties,
+            BufferCapacity globalBufferCapacity,
+            StreamWriterFactory writerFactory,
+            Queue<StreamingRow> rows
+    ) {
+        this.client = client;
+        this.callbackProvider = callbackProvider;
+        this.writerFactory = writerFactory;
+        this.callbackExecutor = writerFactory.getTransport() != null
+                ? writerFactory.getTransport().getCallbackExecutor()
+                : MoreExecutors.directExecutor();
+        this.timeoutScheduler = writerFactory.getTransport() != null ? writerFactory.getTransport().getScheduler() : null;
+        this.queue = createQueue(bigQueryProperties.getStreaming().getBuffer(), globalBufferCapacity, rows);
+        this.queue.setDropListener(row -> {
+            releaseRow(row);
+            metrics.onDropped(1, "overflow");
+        });
+        this.retryPolicy = RetryPolicy.of(bigQueryProperties.getStreaming().getRetry());
+        this.fallBackQueue = new RetryQueue(retryPolicy.maxBytes());
+        this.flushTrigger = new FlushTrigger(FlushPolicy.of(bigQueryProperties.getStreaming()), queue, fallBackQueue);
+        BigQueryProperties.InFlightProperties inFlight = bigQueryProperties.getStreaming().getInFlight() != null
+                ? bigQueryProperties.getStreaming().getInFlight()
+                : new BigQueryProperties.InFlightProperties();
+        this.window = new AppendWindow(
+                inFlight.getMaxRequests() != null ? inFlight.getMaxRequests() : DEFAULT_MAX_IN_FLIGHT_REQUESTS,
+                inFlight.getMaxBytes() != null ? inFlight.getMaxBytes() : DEFAULT_MAX_IN_FLIGHT_BYTES);
+        this.appendTimeoutMillis = inFlight.getAppendTimeoutMs() != null && inFlight.getAppendTimeoutMs() > 0
+                ? inFlight.getAppendTimeoutMs()
+                : DEFAULT_APPEND_TIMEOUT_MILLIS;
+        BigQueryProperties.FlushProperties flush = bigQueryProperties.getStreaming().getFlush();
+        this.flushTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(flush != null && flush.getTimeoutMs() != null && flush.getTimeoutMs() > 0
+                ? flush.getTimeoutMs()
+                : DEFAULT_FLUSH_TIMEOUT_MILLIS);
+        this.circuitBreakerProperties = bigQueryProperties.getStreaming().getCircuitBreaker();
+        BigQueryProperties.DeadLetterProperties deadLetter = bigQueryProperties.getStreaming().getDeadLetter();
+        this.maxRejectSplits = deadLetter != null && deadLetter.getMaxSplits() != null
+                ? deadLetter.getMaxSplits()
+                : DEFAULT_MAX_REJECT_SPLITS;
+    }
+
+    private static BoundedRowQueue createQueue(BigQueryProperties.BufferProperties properties,
+                                               BufferCapacity globalBufferCapacity,
+                                               Queue<StreamingRow> rows) {
+        if (properties == null) {
+            properties = new BigQueryProperties.BufferProperties();
+        }
+        BufferCapacity capacity = new BufferCapacity(properties.getMaxRowsPerTable(), properties.getMaxBytesPerTable(), globalBufferCapacity);
+        OverflowPolicy overflowPolicy = properties.getOverflowPolicy() != null ? properties.getOverflowPolicy() : OverflowPolicy.BLOCK;
+        long blockTimeout = properties.getBlockTimeoutMillis() != null ? properties.getBlockTimeoutMillis() : DEFAULT_BLOCK_TIMEOUT_MILLIS;
+        return new BoundedRowQueue(rows, capacity, overflowPolicy, blockTimeout);
+    }
 
     @Override
     public DefaultAsyncContinuousRetriableStreamProcessor initialize(TableName tableName) {
         try {
             this.tableName = tableName;
-            if (streamWriter != null) {
-                streamWriter.close();
-            }
-            streamWriter = JsonStreamWriter.newBuilder(tableName.toString(), client)
-                    .setExecutorProvider(
-                            FixedExecutorProvider.create(Executors.newScheduledThreadPool(100, new ThreadFactoryBuilder().setNameFormat("executor-provider-%d").build())))
-                    .setChannelProvider(
-                            BigQueryWriteSettings.defaultGrpcTransportProviderBuilder()
-                                    .setKeepAliveTime(org.threeten.bp.Duration.ofMinutes(1))
-                                    .setKeepAliveTimeout(org.threeten.bp.Duration.ofMinutes(1))
-                                    .setKeepAliveWithoutCalls(true)
-                                    .build())
-                    .setEnableConnectionPool(true)
-                    .build();
+            this.metrics = streamingMetrics.forTable(tableName);
+            queue.getCapacity().attach(tableName.getTable());
+            this.priority = priorityLanes.priorityOf(tableName.getTable());
+            if (circuitBreaker == null) {
+                circuitBreaker = CircuitBreaker.of(tableName.getTable(), circuitBreakerProperties);
+            }
+            StreamRowWriter previous = streamWriter;
+            if (previous != null) {
+                previous.close();
+                streamWriter = writerFactory.recreate(previous, tableName, client);
+            } else {
+                streamWriter = writerFactory.create(tableName, client);
+            }
             initialized = true;
             stopped.set(false);
             return this;
@@ -101,53 +248,48 @@ public class DefaultAsyncContinuousRetriableStreamProcessor implements BigQueryS
             return;
         }
         if (initialized) {
-            stream();
+            stream(NO_DEADLINE);
         } else {
             throw new RuntimeException("Cant start StreamProcessor before initialization!");
         }
     }
 
-    private void stream() {
-        if (!isQueueEmpty()) {
-            log.info("Flush stream for table: {}, rowQueueSize: {}, fallBackQueueSize: {}", tableName.getTable(), getRowQueueSize(), getFallBackQueueSize());
-            final AtomicLong processedRows = new AtomicLong();
-            final AtomicLong processedBytes = new AtomicLong();
+    /**
+     * Sends the buffered batches one after another as long as the in-flight window has room.
+     * The method does not wait for responses: slots are given back as acknowledgements arrive.
+     *
+     * @param deadlineNanos The {@link System#nanoTime()} to stop sending at, {@link #NO_DEADLINE} to send everything.
+     */
+    private void stream(long deadlineNanos) {
+        if (hasReady()) {
+            log.info("Flush stream for table: {}, rowQueueSize: {}, fallBackQueueSize: {}, inFlight: {}",
+                    tableName.getTable(), getRowQueueSize(), getFallBackQueueSize(), window.getInFlightRequests());
             long start = System.currentTimeMillis();
-            Phaser phaser = new Phaser(1);
+            long startNanos = System.nanoTime();
+            long sentRows = 0;
+            long sentBytes = 0;
             StreamingObject streamingObject = null;
             try {
-                while (!isQueueEmpty()) {
+                while (hasReady() && (deadlineNanos == NO_DEADLINE || deadlineNanos - System.nanoTime() > 0)) {
+                    long permit = circuitBreaker.tryAcquire();
+                    if (permit == CircuitBreaker.DENIED) {
+                        log.debug("Appends of table {} are paused by the circuit breaker ({})", tableName.getTable(), circuitBreaker.getState());
+                        break;
+                    }
                     streamingObject = poll();
-                    JSONArray batch = streamingObject.jsonBatch();
-                    if (batch.isEmpty()) break;
-                    preAppendHooks.forEach(it -> it.preAppendAction(tableName.getTable(), batch));
-                    final ApiFuture<AppendRowsResponse> responseApiFuture = streamWriter.append(batch);
-                    phaser.register();
-                    final var callback = callbackProvider.getObject(this, streamingObject, phaser, processedRows, processedBytes);
-                    ApiFutures.addCallback(responseApiFuture, callback, CALLBACK_EXECUTOR);
-                    postAppendHooks.forEach(it -> it.postAppendAction(responseApiFuture, processedRows));
-                    if (phaser.getRegisteredParties() > MAX_PHASER_PARTIES) {
+                    if (streamingObject.isEmpty() || !send(streamingObject, deadlineNanos, permit)) {
+                        circuitBreaker.release(permit);
                         break;
                     }
+                    sentRows += streamingObject.rowCount();
+                    sentBytes += streamingObject.size();
                 }
-                try {
-                    phaser.awaitAdvanceInterruptibly(phaser.arrive(), 10, TimeUnit.MINUTES);
-                    long duration = System.currentTimeMillis() - start;
-                    log.info("{}: {} records({} bytes) flushed successfully. It takes {} millis. Approximate speed: {} rows per millisecond",
-                            tableName.getTable(), processedRows, processedBytes, duration, processedRows.get() / (duration + 1));
-                } catch (TimeoutException timeoutException) {
-                    log.error("phaser for table {}, timed out", tableName.getTable());
-                    retryBatch(streamingObject);
-                }
-
+                metrics.onFlushed(System.nanoTime() - startNanos);
+                log.info("{}: {} records({} bytes) sent in {} millis, {} appends in flight",
+                        tableName.getTable(), sentRows, sentBytes, System.currentTimeMillis() - start, window.getInFlightRequests());
             } catch (Exception ex) {
-                if (ex instanceof Exceptions.AppendSerializationError serializationError) {
-                    log.error("Serialization error for table {}; status {}; rows: {}", tableName.getTable(), serializationError.getStatus(), serializationError.getRowIndexToErrorMessage());
-                    if (streamingObject != null) {
-                        JSONArray rows = streamingObject.jsonBatch();
-                        serializationError.getRowIndexToErrorMessage()
-                                .forEach((index, s) -> log.warn("Wrong index={}; row={}", index, rows.get(index)));
-                    }
+                if (ex instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
                 }
                 StreamingObject finalStreamingObject = streamingObject;
                 streamFailedHooks.forEach(it -> it.onStreamFail(ex, finalStreamingObject));
@@ -156,9 +298,174 @@ public class DefaultAsyncContinuousRetriableStreamProcessor implements BigQueryS
         }
     }
 
+    /**
+     * Appends a batch once the window has room for it. The append callback observes a future completed
+     * either by the response or, if the response does not come in time, by a DEADLINE_EXCEEDED error,
+     * so only the batches which actually time out are retried.
+     *
+     * @param permit The circuit breaker permit the batch is sent with, its outcome is reported with it.
+     * @return False if the window had no room before the deadline, the batch is put back to the fallback queue then.
+     */
+    private boolean send(StreamingObject next, long deadlineNanos, long permit) throws Exception {
+        try {
+            if (deadlineNanos == NO_DEADLINE) {
+                window.acquire(next.size());
+            } else if (!window.tryAcquire(next.size(), deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                addToFailBackQueue(next);
+                return false;
+            }
+        } catch (InterruptedException e) {
+            circuitBreaker.release(permit);
+            addToFailBackQueue(next);
+            throw e;
+        }
+        if (!priorityLanes.tryAcquireInFlight(priority, next.size())) {
+            // the rest of the shared in-flight budget is kept for the higher priority classes
+            window.release(next.size());
+            deferredUntilNanos = System.nanoTime() + LANE_RETRY_NANOS;
+            addToFailBackQueue(next);
+            return false;
+        }
+        // offsets are assigned in the order batches are sent
+        final StreamRowWriter writer = streamWriter;
+        final StreamingObject batch = writer.bind(next);
+        final ApiFuture<AppendRowsResponse> responseApiFuture;
+        AppendSentEvent sentEvent = new AppendSentEvent();
+        try {
+            preAppendHooks.forEach(it -> it.preAppendAction(tableName.getTable(), batch));
+            sentEvent.begin();
+            responseApiFuture = writer.append(batch);
+            if (sentEvent.shouldCommit()) {
+                sentEvent.table = tableName.getTable();
+                sentEvent.batchId = batch.id();
+                sentEvent.attempt = batch.attempt();
+                sentEvent.rows = batch.rowCount();
+                sentEvent.bytes = batch.size();
+                sentEvent.offset = batch.offset() != null ? batch.offset().offset() : -1;
+                sentEvent.commit();
+            }
+        } catch (Exception e) {
+            window.release(batch.size());
+            priorityLanes.releaseInFlight(batch.size());
+            if (!getRowErrors(e).isEmpty()) {
+                log.error("Serialization error for table {}: {}", tableName.getTable(), e.getMessage());
+                circuitBreaker.release(permit);
+                rejectBatch(batch, e);
+                return true;
+            }
+            circuitBreaker.onFailure(permit);
+            // the batch is handed to the stream failed hooks and not sent again
+            skipOffset(batch);
+            releaseBatch(batch);
+            throw e;
+        }
+        SettableApiFuture<AppendRowsResponse> completion = SettableApiFuture.create();
+        responseApiFuture.addListener(() -> {
+            try {
+                completion.set(responseApiFuture.get());
+            } catch (ExecutionException e) {
+                completion.setException(e.getCause());
+            } catch (Exception e) {
+                completion.setException(e);
+            }
+        }, MoreExecutors.directExecutor());
+        long sentAt = System.nanoTime();
+        ScheduledFuture<?> timeout = timeoutScheduler == null ? null : timeoutScheduler.schedule(() -> {
+            if (completion.setException(Status.DEADLINE_EXCEEDED
+                    .withDescription("No append response for " + appendTimeoutMillis + " millis")
+                    .asRuntimeException())) {
+                log.error("Append of {} rows for table {} timed out", batch.rowCount(), tableName.getTable());
+            }
+        }, appendTimeoutMillis, TimeUnit.MILLISECONDS);
+        completion.addListener(() -> {
+            window.release(batch.size());
+            priorityLanes.releaseInFlight(batch.size());
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            recordAppend(batch, completion, System.nanoTime() - sentAt, permit);
+        }, MoreExecutors.directExecutor());
+        final var callback = createCallback(batch);
+        ApiFutures.addCallback(completion, callback, callbackExecutor);
+        postAppendHooks.forEach(it -> it.postAppendAction(responseApiFuture, processedRows));
+        return true;
+    }
+
+    private DefaultAbstractAppendCompleteCallback createCallback(StreamingObject batch) {
+        if (!legacyCallback) {
+            try {
+                return callbackProvider.getObject(this, batch, processedRows, processedBytes);
+            } catch (BeansException e) {
+                legacyCallback = true;
+                log.warn("Append callback of table {} has no constructor without a phaser, the deprecated one is used",
+                        tableName.getTable());
+            }
+        }
+        return callbackProvider.getObject(this, batch, legacyPhaser, processedRows, processedBytes);
+    }
+
+    private void recordAppend(StreamingObject batch, ApiFuture<AppendRowsResponse> completion, long nanos, long permit) {
+        Status.Code code;
+        try {
+            AppendRowsResponse response = completion.get();
+            code = response.hasError() ? Status.fromCodeValue(response.getError().getCode()).getCode() : Status.Code.OK;
+            if (response.hasUpdatedSchema()) {
+                // creating a writer blocks, this runs on the gRPC thread
+                StreamRowWriter writer = streamWriter;
+                callbackExecutor.execute(() -> refreshSchema(writer, response.getUpdatedSchema()));
+            }
+        } catch (ExecutionException e) {
+            code = Status.fromThrowable(e.getCause()).getCode();
+        } catch (Exception e) {
+            code = Status.fromThrowable(e).getCode();
+        }
+        metrics.onAppendCompleted(nanos, code);
+        // any answer but a retriable error tells that BigQuery accepts appends
+        if (RETRIABLE_ERROR_CODES.contains(code) ? circuitBreaker.onFailure(permit) : circuitBreaker.onSuccess(permit)) {
+            long probeIn = circuitBreaker.nanosUntilProbe();
+            flushTrigger.onRetryScheduled(Math.max(probeIn, 0));
+        }
+        AppendCompletedEvent event = new AppendCompletedEvent();
+        if (event.shouldCommit()) {
+            event.table = tableName.getTable();
+            event.batchId = batch.id();
+            event.attempt = batch.attempt();
+            event.rows = batch.rowCount();
+            event.latency = nanos;
+            event.status = code.name();
+            event.commit();
+        }
+        // a previous attempt of the batch has landed at its offset
+        if (code == Status.Code.OK || code == Status.Code.ALREADY_EXISTS && batch.offset() != null) {
+            metrics.onAppended(batch.rowCount(), batch.size());
+        }
+    }
+
     @Override
-    public synchronized void putOne(Map<String, Object> row) {
-        if (stopped.get()) {
+    public void putOne(Map<String, Object> row) {
+        ingestLock.lock();
+        try {
+            enqueue(row);
+        } finally {
+            ingestLock.unlock();
+        }
+    }
+
+    @Override
+    public void putBatch(Collection<Map<String, Object>> rows) {
+        ingestLock.lock();
+        try {
+            enqueueAll(rows);
+        } finally {
+            ingestLock.unlock();
+        }
+    }
+
+    /**
+     * Converts the row and adds it to the queue. Does not synchronize by itself.
+     */
+    protected void enqueue(Map<String, Object> row) {
+        if (isStopped()) {
             log.error("can not accept batch while force flushing");
             return;
         }
@@ -166,13 +473,18 @@ public class DefaultAsyncContinuousRetriableStreamProcessor implements BigQueryS
             log.error("row can not be null or empty");
             return;
         }
-        JSONObject json = getJsonObject(row);
-        queue.add(json);
+        StreamingRow encoded = encode(row);
+        if (encoded != null) {
+            offer(encoded);
+            flushTrigger.onBuffered();
+        }
     }
 
-    @Override
-    public synchronized void putBatch(Collection<Map<String, Object>> rows) {
-        if (stopped.get()) {
+    /**
+     * Converts the rows and adds them to the queue. Does not synchronize by itself.
+     */
+    protected void enqueueAll(Collection<Map<String, Object>> rows) {
+        if (isStopped()) {
             log.error("can not accept batch while force flushing");
             return;
         }
@@ -180,75 +492,786 @@ public class DefaultAsyncContinuousRetriableStreamProcessor implements BigQueryS
             log.error("rows can not be null or empty");
             return;
         }
+        List<StreamingRow> batch = new ArrayList<>(rows.size());
         rows.forEach(row -> {
             if (!CollectionUtils.isEmpty(row)) {
-                JSONObject json = getJsonObject(row);
-                queue.add(json);
+                StreamingRow encoded = encode(row);
+                if (encoded != null) {
+                    batch.add(encoded);
+                }
             } else {
                 log.error("row can not be null or empty");
             }
         });
+        if (!batch.isEmpty()) {
+            offerAll(batch);
+            flushTrigger.onBuffered();
+        }
+    }
+
+    @Override
+    public <T> void putRecord(T record) {
+        ingestLock.lock();
+        try {
+            enqueueRecord(record);
+        } finally {
+            ingestLock.unlock();
+        }
+    }
+
+    @Override
+    public <T> void putRecords(Collection<T> records) {
+        ingestLock.lock();
+        try {
+            enqueueRecords(records);
+        } finally {
+            ingestLock.unlock();
+        }
+    }
+
+    /**
+     * Encodes the record with the codec of its class and adds it to the queue. Does not synchronize by itself.
+     */
+    protected <T> void enqueueRecord(T record) {
+        if (isStopped()) {
+            log.error("can not accept batch while force flushing");
+            return;
+        }
+        if (record == null) {
+            log.error("record can not be null");
+            return;
+        }
+        StreamingRow encoded = encodeRecord(record);
+        if (encoded != null) {
+            offer(encoded);
+            flushTrigger.onBuffered();
+        }
+    }
+
+    /**
+     * Encodes the records with the codecs of their classes and adds them to the queue. Does not synchronize by itself.
+     */
+    protected <T> void enqueueRecords(Collection<T> records) {
+        if (isStopped()) {
+            log.error("can not accept batch while force flushing");
+            return;
+        }
+        if (CollectionUtils.isEmpty(records)) {
+            log.error("records can not be null or empty");
+            return;
+        }
+        List<StreamingRow> batch = new ArrayList<>(records.size());
+        records.forEach(record -> {
+            if (record != null) {
+                StreamingRow encoded = encodeRecord(record);
+                if (encoded != null) {
+                    batch.add(encoded);
+                }
+            } else {
+                log.error("record can not be null");
+            }
+        });
+        if (!batch.isEmpty()) {
+            offerAll(batch);
+            flushTrigger.onBuffered();
+        }
+    }
+
+    /**
+     * Logs the row to the write-ahead log, if any, and adds it to the queue. Only a row the queue accepts is counted
+     * as enqueued, a row dropped by the overflow policy is counted by the drop listener.
+     */
+    private void offer(StreamingRow row) {
+        WriteAheadLog wal = writeAheadLog;
+        StreamingRow logged = wal != null ? wal.append(row, queue.getCapacity().getBytes()) : row;
+        boolean added;
+        try {
+            added = queue.offer(logged);
+        } catch (BufferOverflowException e) {
+            if (wal != null) {
+                wal.release(logged);
+            }
+            metrics.onDropped(1, "rejected");
+            throw e;
+        }
+        if (added) {
+            metrics.onEnqueued(1, row.size());
+        }
+    }
+
+    /**
+     * Logs the rows to the write-ahead log, if any, and adds them to the queue, counting the rows it accepts.
+     */
+    private void offerAll(List<StreamingRow> rows) {
+        WriteAheadLog wal = writeAheadLog;
+        long bytes = 0;
+        for (StreamingRow row : rows) {
+            bytes += row.size();
+        }
+        List<StreamingRow> logged = rows;
+        if (wal != null) {
+            long bufferedBytes = queue.getCapacity().getBytes();
+            logged = new ArrayList<>(rows.size());
+            for (StreamingRow row : rows) {
+                StreamingRow next = wal.append(row, bufferedBytes);
+                logged.add(next);
+                bufferedBytes += next.bufferedSize();
+            }
+        }
+        List<StreamingRow> added;
+        try {
+            added = queue.offerAll(logged);
+        } catch (BufferOverflowException e) {
+            if (wal != null) {
+                logged.forEach(wal::release);
+            }
+            metrics.onDropped(rows.size(), "rejected");
+            throw e;
+        }
+        if (added.size() < logged.size()) {
+            bytes = 0;
+            for (StreamingRow row : added) {
+                bytes += row.size();
+            }
+        }
+        if (!added.isEmpty()) {
+            metrics.onEnqueued(added.size(), bytes);
+        }
     }
 
+    private void releaseRow(StreamingRow row) {
+        WriteAheadLog wal = writeAheadLog;
+        if (wal != null) {
+            wal.release(row);
+        }
+    }
+
+    /**
+     * Encodes a row with the current writer. A column the writer does not know makes it look for a new table schema.
+     * A row which still does not match the schema is rejected, see {@link #rejectRow(JSONObject, RuntimeException)}.
+     *
+     * @return The encoded row, null if it has been rejected.
+     */
+    private StreamingRow encode(Map<String, Object> row) {
+        StreamRowWriter writer = streamWriter;
+        try {
+            return writer.encode(row);
+        } catch (UnknownColumnException e) {
+            if (!refreshSchema(writer, null)) {
+                rejectRow(new JSONObject(row), e);
+                return null;
+            }
+        } catch (IllegalArgumentException e) {
+            rejectRow(new JSONObject(row), e);
+            return null;
+        }
+        try {
+            return streamWriter.encode(row);
+        } catch (IllegalArgumentException e) {
+            rejectRow(new JSONObject(row), e);
+            return null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> StreamingRow encodeRecord(T record) {
+        StreamRowWriter writer = streamWriter;
+        RowCodec<T> codec;
+        try {
+            codec = (RowCodec<T>) getCodec(record.getClass());
+        } catch (SchemaMismatchException e) {
+            if (!refreshSchema(writer, null)) {
+                throw e;
+            }
+            codec = (RowCodec<T>) getCodec(record.getClass());
+        }
+        try {
+            return streamWriter.encode(codec, record);
+        } catch (IllegalArgumentException e) {
+            rejectRow(codec.toJson(record), e);
+            return null;
+        }
+    }
+
+    /**
+     * A row which can not be encoded for the table, e.g. with a value BigQuery does not accept for its column,
+     * goes to the dead-letter sinks right away, like the rows BigQuery rejects, so the other rows of a put still go on.
+     */
+    private void rejectRow(JSONObject row, RuntimeException error) {
+        log.error("row rejected for table {}: {}", tableName.getTable(), error.getMessage());
+        metrics.onSerializationError(1);
+        StreamingObject batch = new StreamingObject(0, new JSONArray().put(row));
+        deadLetter(batch, List.of(new StreamingRow(row, 0)), List.of(String.valueOf(error.getMessage())), error);
+    }
+
+    /**
+     * Swaps in a writer built for the current table schema if it has changed since the given writer was created,
+     * e.g. because a column has been added. The queue keeps flowing: the buffered rows and the batches in flight
+     * were encoded for the previous schema, which the new one extends. Unless the new schema is given it is fetched,
+     * at most once per 10 seconds.
+     *
+     * @param failed  The writer which did not know a column.
+     * @param updated The new schema of the table, e.g. reported by an append response, or null to fetch it.
+     * @return True if the current writer is built for a schema other than the one of the failed writer.
+     */
+    private boolean refreshSchema(StreamRowWriter failed, TableSchema updated) {
+        StreamRowWriter previous;
+        writerLock.lock();
+        try {
+            TableSchema current = streamWriter.getSchema().getTableSchema();
+            if (!current.equals(failed.getSchema().getTableSchema())) {
+                // refreshed by another thread
+                return true;
+            }
+            if (updated == null) {
+                long now = System.nanoTime();
+                if (schemaFetchedAt != 0 && now - schemaFetchedAt < SCHEMA_FETCH_INTERVAL_NANOS) {
+                    return false;
+                }
+                schemaFetchedAt = now;
+                updated = StreamWriterFactory.fetchTableSchema(tableName, client);
+            }
+            if (updated.equals(current)) {
+                return false;
+            }
+            writerFactory.updateSchema(tableName, updated);
+            previous = streamWriter;
+            streamWriter = writerFactory.recreate(previous, tableName, client);
+            codecs.clear();
+            log.info("Schema of table {} changed from {} to {} columns, writer recreated",
+                    tableName.getTable(), current.getFieldsCount(), updated.getFieldsCount());
+        } catch (Exception e) {
+            log.error("Can not refresh the schema of table {}", tableName.getTable(), e);
+            return false;
+        } finally {
+            writerLock.unlock();
+        }
+        // waits for the appends in flight on the previous writer
+        callbackExecutor.execute(previous::close);
+        return true;
+    }
+
+    /**
+     * Gets the codec of the class, building and validating it against the table schema on the first call.
+     *
+     * @throws com.belkatechnologies.bigquery.streaming.codec.SchemaMismatchException If the class does not match the table schema.
+     */
+    public RowCodec<?> getCodec(Class<?> type) {
+        return codecs.computeIfAbsent(type, it -> RowCodec.of(it, writerFactory.getSchema(tableName, client).getLayout()));
+    }
+
+    /**
+     * Sends the buffered rows and waits for their appends, the retries included, but not longer than
+     * {@code bigquery.streaming.flush.timeout-ms}: while the circuit breaker is open nothing may land for a long time.
+     * Rows left at the timeout stay buffered.
+     */
     @Override
-    public synchronized void forceFlush() {
+    public void forceFlush() {
+        long deadlineNanos = System.nanoTime() + flushTimeoutNanos;
+        ingestLock.lock();
         try {
             stopped.set(true);
-            while (!isQueueEmpty()) {
-                log.info("forceFlush table {}, queue size {}, failBackQueueSize {}", tableName.getTable(), getRowQueueSize(), getFallBackQueueSize());
-                stream();
+            while ((!isQueueEmpty() || window.getInFlightRequests() > 0) && deadlineNanos - System.nanoTime() > 0) {
+                log.info("forceFlush table {}, queue size {}, failBackQueueSize {}, inFlight {}",
+                        tableName.getTable(), getRowQueueSize(), getFallBackQueueSize(), window.getInFlightRequests());
+                stream(deadlineNanos);
+                // responses may bring batches back to retry
+                window.awaitEmpty(Math.min(deadlineNanos - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(appendTimeoutMillis)),
+                        TimeUnit.NANOSECONDS);
+                awaitPause(deadlineNanos);
+            }
+            if (!isQueueEmpty() || window.getInFlightRequests() > 0) {
+                log.warn("forceFlush of table {} timed out after {} millis, queue size {}, failBackQueueSize {}, inFlight {}",
+                        tableName.getTable(), TimeUnit.NANOSECONDS.toMillis(flushTimeoutNanos), getRowQueueSize(),
+                        getFallBackQueueSize(), window.getInFlightRequests());
             }
         } catch (Exception e) {
             log.debug("Ignoring error while forceFlush", e);
         } finally {
             stopped.set(false);
+            ingestLock.unlock();
         }
     }
 
     @Override
-    public void retryBatch(StreamingObject batch) {
-        if (batch == null) return;
-        int key = batch.toString().hashCode();
-        int retryCounts = reconnectCount.merge(key, 1, Integer::sum);
-        if (retryCounts < 3) {
-            addToFailBackQueue(batch);
-        } else if (retryCounts == 3) {
-            restoreConnection();
-            addToFailBackQueue(batch);
+    public long closeBy(long deadlineNanos) {
+        ingestLock.lock();
+        try {
+            stopped.set(true);
+            while ((!isQueueEmpty() || window.getInFlightRequests() > 0) && deadlineNanos - System.nanoTime() > 0) {
+                stream(deadlineNanos);
+                // responses may bring batches back to retry
+                window.awaitEmpty(Math.min(deadlineNanos - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos(appendTimeoutMillis)),
+                        TimeUnit.NANOSECONDS);
+                awaitPause(deadlineNanos);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            ingestLock.unlock();
+        }
+        closed = true;
+        long left = abandonPending();
+        if (window.getInFlightRequests() > 0) {
+            log.warn("{} appends of table {} are still in flight at the shutdown deadline",
+                    window.getInFlightRequests(), tableName.getTable());
+        }
+        closeWriter();
+        return left;
+    }
+
+    /**
+     * Waits while the circuit breaker is open or the appends are deferred by the priority lanes, and while only
+     * batches whose retry delay has not elapsed are left, but not past the deadline.
+     */
+    private void awaitPause(long deadlineNanos) throws InterruptedException {
+        long wait = getPausedNanos();
+        if (wait == 0 && queue.isEmpty()) {
+            wait = fallBackQueue.nanosUntilReady();
+        }
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(deadlineNanos == NO_DEADLINE ? wait : Math.min(wait, deadlineNanos - System.nanoTime()));
+        }
+    }
+
+    /**
+     * Empties the buffer and the fallback queue of a stopped processor. With a write-ahead log the rows are only
+     * counted: they are not acknowledged, so their segments are replayed by the next start.
+     *
+     * @return The number of rows removed.
+     */
+    private long abandonPending() {
+        WriteAheadLog wal = writeAheadLog;
+        long rows = 0;
+        StreamingObject batch;
+        while ((batch = fallBackQueue.poll(true)) != null) {
+            queue.releaseRetry(batch.rowCount(), batch.size());
+            rows += batch.rowCount();
+            if (wal == null) {
+                abandon(batch);
+            }
+        }
+        if (wal != null) {
+            while (queue.poll() != null) {
+                rows++;
+            }
         } else {
-            log.error("Can't save batch, skip " + batch.jsonBatch().length() + " events for " + tableName.getTable());
-            reconnectCount.remove(key);
+            while (!queue.isEmpty()) {
+                batch = getSized();
+                if (batch.isEmpty()) break;
+                rows += batch.rowCount();
+                abandon(batch);
+            }
+        }
+        if (rows > 0 && wal != null) {
+            log.warn("{} rows of table {} are not sent before the shutdown deadline, they are kept in the write-ahead log {}",
+                    rows, tableName.getTable(), wal.getDirectory());
+        } else if (rows > 0) {
+            log.error("{} rows of table {} are not sent before the shutdown deadline and are given up", rows, tableName.getTable());
+        }
+        return rows;
+    }
+
+    private void abandon(StreamingObject batch) {
+        metrics.onDropped(batch.rowCount(), RetryExhaustedHook.Reason.SHUTDOWN_DEADLINE.name().toLowerCase(Locale.ROOT));
+        if (!deadLetterSinks.isEmpty()) {
+            deadLetter(batch, streamWriter.toRows(batch),
+                    Collections.nCopies(batch.rowCount(), "Not sent before the shutdown deadline"), null);
         }
+        notifyRetryExhausted(batch, RetryExhaustedHook.Reason.SHUTDOWN_DEADLINE);
+        releaseBatch(batch);
     }
 
+    /**
+     * A batch coming back from an append answered after the processor was closed is not sent again: it is given up
+     * like the rows left at the shutdown deadline, with a write-ahead log it is left to the replay.
+     */
+    private boolean abandonIfClosed(StreamingObject batch) {
+        if (!closed) {
+            return false;
+        }
+        log.warn("Batch {} of table {} came back after the processor was closed", batch.id(), tableName.getTable());
+        if (writeAheadLog == null) {
+            abandon(batch);
+        }
+        return true;
+    }
+
+    @Override
+    public void retryBatch(StreamingObject batch) {
+        if (batch == null || abandonIfClosed(batch)) return;
+        StreamingObject retry = batch.nextAttempt();
+        if (retry.attempt() > retryPolicy.maxAttempts()) {
+            giveUp(batch, RetryExhaustedHook.Reason.ATTEMPTS_EXHAUSTED);
+            return;
+        }
+        if (retry.attempt() == retryPolicy.reconnectAttempt()) {
+            restoreConnection(batch);
+        }
+        long delay = retryPolicy.backoffNanos(retry.attempt());
+        queue.holdRetry(retry.rowCount(), retry.size());
+        if (!fallBackQueue.offer(retry, delay)) {
+            queue.releaseRetry(retry.rowCount(), retry.size());
+            giveUp(batch, RetryExhaustedHook.Reason.BUDGET_EXCEEDED);
+            return;
+        }
+        metrics.onRetry();
+        recordRetry(retry, delay, false);
+        log.debug("Retry {} of batch {} for table {} in {} millis", retry.attempt(), retry.id(), tableName.getTable(),
+                TimeUnit.NANOSECONDS.toMillis(delay));
+        flushTrigger.onRetryScheduled(delay);
+    }
+
+    private void recordRetry(StreamingObject batch, long delay, boolean deferred) {
+        RetryScheduledEvent event = new RetryScheduledEvent();
+        if (event.shouldCommit()) {
+            event.table = tableName.getTable();
+            event.batchId = batch.id();
+            event.attempt = batch.attempt();
+            event.rows = batch.rowCount();
+            event.delay = delay;
+            event.deferred = deferred;
+            event.commit();
+        }
+    }
+
+    /**
+     * Puts a batch back to be sent again right away, without counting an attempt and regardless of the retry budget.
+     */
     public void addToFailBackQueue(StreamingObject batch) {
+        if (abandonIfClosed(batch)) return;
         log.debug("Add batch to fail back queue");
-        fallBackQueue.add(batch);
+        queue.holdRetry(batch.rowCount(), batch.size());
+        fallBackQueue.force(batch, 0);
+        flushTrigger.onBuffered();
     }
 
-    private JSONObject getJsonObject(Map<String, Object> row) {
-        var json = new JSONObject();
-        row.forEach(json::put);
-        return json;
+    @Override
+    public void attachWriteAheadLog(WriteAheadLog writeAheadLog) {
+        this.writeAheadLog = writeAheadLog;
+        int replayed = writeAheadLog.replay(queue::force);
+        if (replayed > 0) {
+            log.info("{} rows recovered from the write-ahead log for table {}", replayed, tableName.getTable());
+            flushTrigger.onBuffered();
+        }
     }
 
-    private boolean isQueueEmpty() {
-        return getRowQueueSize() == 0 && getFallBackQueueSize() == 0;
+    @Override
+    public void releaseBatch(StreamingObject batch) {
+        if (batch != null && batch.walReceipt() != null) {
+            batch.walReceipt().release();
+        }
+    }
+
+    /**
+     * Rows reported by BigQuery as failing go to the dead-letter sinks and the rest of the batch is appended again
+     * right away. A request which is too large is split in halves, the halves are split again if they are still
+     * too large. Without row errors the batch is split in halves as well, so that the halves holding no bad row land,
+     * down to single rows or the split limit; a part rejected at the limit goes to the dead-letter sinks as a whole.
+     */
+    @Override
+    public void rejectBatch(StreamingObject batch, Throwable error) {
+        if (batch == null) return;
+        if (isSchemaMismatch(error)) {
+            // the columns may not be visible to the write API yet, the retry backoff leaves time for that
+            log.warn("Batch {} does not match the schema of table {}: {}", batch.id(), tableName.getTable(), error.getMessage());
+            refreshSchema(streamWriter, null);
+            retryBatch(batch);
+            return;
+        }
+        try {
+            // the parts are appended at new offsets
+            skipOffset(batch);
+            List<StreamingRow> rows = streamWriter.toRows(batch);
+            Map<Integer, String> rowErrors = getRowErrors(error);
+            if (isTooLarge(error) && rows.size() > 1) {
+                log.warn("Batch {} of {} rows ({} bytes) for table {} is too large, split in halves",
+                        batch.id(), batch.rowCount(), batch.size(), tableName.getTable());
+                split(batch, rows);
+                return;
+            }
+            List<StreamingRow> accepted = new ArrayList<>(rows.size());
+            List<StreamingRow> rejected = new ArrayList<>();
+            List<String> errors = new ArrayList<>();
+            for (int i = 0; i < rows.size(); i++) {
+                String rowError = rowErrors.get(i);
+                if (rowError != null) {
+                    rejected.add(rows.get(i));
+                    errors.add(rowError);
+                } else {
+                    accepted.add(rows.get(i));
+                }
+            }
+            if (rejected.isEmpty() && rows.size() > 1 && batch.splits() < maxRejectSplits) {
+                // no usable row errors, the halves tell the good rows from the bad ones
+                log.warn("Batch {} of {} rows for table {} is rejected without row errors, split in halves",
+                        batch.id(), batch.rowCount(), tableName.getTable());
+                split(batch, rows);
+                return;
+            }
+            if (rejected.isEmpty()) {
+                rejected = rows;
+                accepted = List.of();
+                errors = Collections.nCopies(rows.size(), String.valueOf(error.getMessage()));
+            }
+            log.error("{} of {} rows of batch {} rejected for table {}", rejected.size(), rows.size(), batch.id(), tableName.getTable());
+            metrics.onSerializationError(rejected.size());
+            deadLetter(batch, rejected, errors, error);
+            if (!accepted.isEmpty()) {
+                resend(batch, accepted, batch.splits());
+            }
+        } finally {
+            releaseBatch(batch);
+        }
+    }
+
+    /**
+     * The rows of a batch failed with an error which is not retried go to the dead-letter sinks and the retry exhausted
+     * hooks, like the batches out of attempts, so they are never acknowledged in the write-ahead log silently.
+     */
+    @Override
+    public void failBatch(StreamingObject batch, Throwable error) {
+        if (batch == null) return;
+        if (!deadLetterSinks.isEmpty()) {
+            deadLetter(batch, streamWriter.toRows(batch),
+                    Collections.nCopies(batch.rowCount(), String.valueOf(error.getMessage())), error);
+        }
+        giveUp(batch, RetryExhaustedHook.Reason.NON_RETRIABLE_ERROR);
     }
 
-    @SneakyThrows
-    protected void restoreConnection() {
-        log.debug("Restore connection");
-        close();
-        while (true) {
-            log.debug("Try restore connection");
+    private void split(StreamingObject batch, List<StreamingRow> rows) {
+        int middle = rows.size() / 2;
+        resend(batch, rows.subList(0, middle), batch.splits() + 1);
+        resend(batch, rows.subList(middle, rows.size()), batch.splits() + 1);
+    }
+
+    /**
+     * Puts a part of a batch to be sent right away. The part holds the write-ahead log rows of the whole batch.
+     *
+     * @param splits The number of splits the part results from.
+     */
+    private void resend(StreamingObject batch, List<StreamingRow> rows, int splits) {
+        int size = 0;
+        for (StreamingRow row : rows) {
+            size += row.size();
+        }
+        StreamingObject part = streamWriter.toBatch(rows, size).withSplits(splits);
+        if (batch.walReceipt() != null) {
+            part = part.withWalReceipt(batch.walReceipt().retain());
+        }
+        addToFailBackQueue(part);
+        flushTrigger.onRetryScheduled(0);
+    }
+
+    private void deadLetter(StreamingObject batch, List<StreamingRow> rows, List<String> errors, Throwable error) {
+        if (deadLetterSinks.isEmpty()) {
+            for (int i = 0; i < rows.size(); i++) {
+                StreamingRow row = rows.get(i);
+                log.warn("Rejected row for table {}: {}; row={}", tableName.getTable(), errors.get(i),
+                        row.json() != null ? row.json() : row.message());
+            }
+            int size = rows.stream().mapToInt(StreamingRow::size).sum();
+            // rows rejected before they were encoded are kept as JSON whatever the write mode
+            StreamingObject rejected = rows.stream().allMatch(it -> it.json() != null)
+                    ? new StreamingObject(size, new JSONArray(rows.stream().map(StreamingRow::json).toList()))
+                    : streamWriter.toBatch(rows, size);
+            Exception exception = error instanceof Exception e ? e : new RuntimeException(error);
+            streamFailedHooks.forEach(it -> it.onStreamFail(exception, rejected));
+            return;
+        }
+        Instant now = Instant.now();
+        List<DeadLetter> deadLetters = new ArrayList<>(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            StreamingRow row = rows.get(i);
+            deadLetters.add(new DeadLetter(tableName, batch.id(), errors.get(i), row.json(), row.message(), now));
+        }
+        deadLetterSinks.forEach(it -> {
             try {
-                initialize(tableName);
-                break;
+                it.accept(deadLetters);
+            } catch (Exception e) {
+                log.error("Exception in dead-letter sink for table {}", tableName.getTable(), e);
+            }
+        });
+    }
+
+    private static Map<Integer, String> getRowErrors(Throwable error) {
+        if (error instanceof Exceptions.AppendSerializationError e && e.getRowIndexToErrorMessage() != null) {
+            return e.getRowIndexToErrorMessage();
+        }
+        return Map.of();
+    }
+
+    private static boolean isSchemaMismatch(Throwable error) {
+        if (error instanceof Exceptions.SchemaMismatchedException) {
+            return true;
+        }
+        return getRowErrors(error).values().stream().anyMatch(it -> it != null && it.contains(UNKNOWN_FIELDS_MESSAGE));
+    }
+
+    private static boolean isTooLarge(Throwable error) {
+        Status status = Status.fromThrowable(error);
+        return status.getCode() == Status.Code.INVALID_ARGUMENT
+                && status.getDescription() != null
+                && status.getDescription().toLowerCase(Locale.ROOT).contains("too large");
+    }
+
+    /**
+     * Sends the batch again once its delay elapses without counting an attempt: BigQuery refused its offset
+     * because an earlier batch has not landed yet. The earlier batch either lands or is given up, which moves
+     * the processor to a new stream where this batch gets a new offset. Deferrals back off like the retries of
+     * the earlier batch; once it has had all its attempts and the offset is still refused, nothing is going to fill
+     * the gap, so the processor moves to a new stream and the batch is retried there, counting an attempt.
+     */
+    @Override
+    public void deferBatch(StreamingObject batch) {
+        if (batch == null || abandonIfClosed(batch)) return;
+        StreamingObject deferred = batch.nextDeferral();
+        if (deferred.deferrals() > retryPolicy.maxAttempts() + 1) {
+            log.warn("Offset {} of stream {} is still refused after {} deferrals of batch {}, table {}",
+                    batch.offset().offset(), batch.offset().stream(), batch.deferrals(), batch.id(), tableName.getTable());
+            skipOffset(batch);
+            retryBatch(batch);
+            return;
+        }
+        long delay = retryPolicy.backoffNanos(deferred.deferrals());
+        queue.holdRetry(deferred.rowCount(), deferred.size());
+        fallBackQueue.force(deferred, delay);
+        metrics.onRetry();
+        recordRetry(deferred, delay, true);
+        flushTrigger.onRetryScheduled(delay);
+    }
+
+    /**
+     * A batch bound to the current stream is not going to land at its offset, the offsets after it could never be
+     * written. Moves the processor to a new stream, batches bound to the previous one get new offsets when retried.
+     */
+    private void skipOffset(StreamingObject batch) {
+        StreamRowWriter writer = streamWriter;
+        if (!writer.isBound(batch)) {
+            return;
+        }
+        writerLock.lock();
+        try {
+            if (writer != streamWriter) {
+                return;
+            }
+            log.warn("Batch {} at offset {} of stream {} is dropped, moving table {} to a new stream",
+                    batch.id(), batch.offset().offset(), batch.offset().stream(), tableName.getTable());
+            try {
+                streamWriter = writerFactory.create(tableName, client);
             } catch (Exception e) {
-                log.error("Unable to restore connection", e);
-                Thread.sleep(TimeUnit.MINUTES.toMillis(1));
+                log.error("Can not create a new write stream for table {}", tableName.getTable(), e);
+                return;
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        try {
+            writer.close();
+            writer.finalizeStream();
+        } catch (Exception e) {
+            log.error("Can not finalize write stream {}", batch.offset().stream(), e);
+        }
+    }
+
+    private void giveUp(StreamingObject batch, RetryExhaustedHook.Reason reason) {
+        log.error("Can't save batch {} after {} retries ({}), skip {} events for {}",
+                batch.id(), batch.attempt(), reason, batch.rowCount(), tableName.getTable());
+        skipOffset(batch);
+        releaseBatch(batch);
+        metrics.onDropped(batch.rowCount(), reason.name().toLowerCase(Locale.ROOT));
+        notifyRetryExhausted(batch, reason);
+    }
+
+    private void notifyRetryExhausted(StreamingObject batch, RetryExhaustedHook.Reason reason) {
+        retryExhaustedHooks.forEach(it -> {
+            try {
+                it.onRetryExhausted(tableName.getTable(), batch, reason);
+            } catch (Exception e) {
+                log.error("Exception in retry exhausted hook for table {}", tableName.getTable(), e);
+            }
+        });
+    }
+
+    private boolean isQueueEmpty() {
+        return queue.isEmpty() && fallBackQueue.isEmpty();
+    }
+
+    /**
+     * @return True if there are buffered rows or a batch whose retry delay has elapsed.
+     */
+    private boolean hasReady() {
+        return !queue.isEmpty() || fallBackQueue.nanosUntilReady() == 0;
+    }
+
+    /**
+     * Schedules recreating the writer unless it is already scheduled, without blocking the calling thread, which is
+     * often an append callback thread. Failed attempts are repeated with the retry backoff and count as failures
+     * of the circuit breaker. Batches in flight on the previous writer complete or fail and are retried.
+     *
+     * @param batch The batch whose retry asks for the reconnect.
+     */
+    protected void restoreConnection(StreamingObject batch) {
+        if (!reconnecting.compareAndSet(false, true)) {
+            log.debug("Reconnect of table {} is already scheduled", tableName.getTable());
+            return;
+        }
+        ReconnectEvent event = new ReconnectEvent();
+        event.begin();
+        event.batchId = batch.id();
+        reconnectEvent = event;
+        if (timeoutScheduler == null) {
+            // no shared transport: a single attempt on the calling thread
+            reconnect();
+        } else {
+            scheduleReconnect(0);
+        }
+    }
+
+    private void scheduleReconnect(long delayNanos) {
+        try {
+            timeoutScheduler.schedule(() -> callbackExecutor.execute(this::reconnect), delayNanos, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("Reconnect of table {} is not scheduled, pool is shut down", tableName.getTable());
+            reconnecting.set(false);
+        }
+    }
+
+    private void reconnect() {
+        if (closed) {
+            reconnecting.set(false);
+            return;
+        }
+        log.debug("Try restore connection of table {}", tableName.getTable());
+        StreamRowWriter previous;
+        writerLock.lock();
+        try {
+            previous = streamWriter;
+            streamWriter = writerFactory.recreate(previous, tableName, client);
+        } catch (Exception e) {
+            long failures = reconnectFailures.incrementAndGet();
+            circuitBreaker.onFailure(CircuitBreaker.NOT_PROBE);
+            if (timeoutScheduler == null) {
+                log.error("Unable to restore connection of table {}", tableName.getTable(), e);
+                reconnecting.set(false);
+                return;
             }
+            long delay = retryPolicy.backoffNanos((int) Math.min(failures, Integer.MAX_VALUE));
+            log.error("Unable to restore connection of table {}, next attempt in {} millis",
+                    tableName.getTable(), TimeUnit.NANOSECONDS.toMillis(delay), e);
+            scheduleReconnect(delay);
+            return;
+        } finally {
+            writerLock.unlock();
+        }
+        previous.close();
+        reconnectFailures.set(0);
+        reconnecting.set(false);
+        log.info("Connection of table {} restored", tableName.getTable());
+        ReconnectEvent event = reconnectEvent;
+        if (event != null && event.shouldCommit()) {
+            event.table = tableName.getTable();
+            event.commit();
         }
     }
 
@@ -257,48 +1280,123 @@ public class DefaultAsyncContinuousRetriableStreamProcessor implements BigQueryS
         return queue.size();
     }
 
+    @Override
+    public int getInFlightRequests() {
+        return window.getInFlightRequests();
+    }
+
+    @Override
+    public void splitBuffer(int writers) {
+        queue.getCapacity().split(writers);
+    }
+
+    @Override
+    public BufferStatistic getBufferStatistic() {
+        return queue.getStatistic();
+    }
+
+    @Override
+    public CircuitBreakerStatistic getCircuitBreakerStatistic() {
+        CircuitBreaker breaker = circuitBreaker;
+        return breaker != null ? breaker.getStatistic(reconnecting.get(), reconnectFailures.get()) : null;
+    }
+
+    @Override
+    public long getPausedNanos() {
+        CircuitBreaker breaker = circuitBreaker;
+        long probeIn = breaker != null ? breaker.nanosUntilProbe() : 0;
+        long deferred = deferredUntilNanos - System.nanoTime();
+        // a probe in flight is reported as is, the flusher waits for its response
+        return probeIn < 0 ? probeIn : Math.max(probeIn, deferred);
+    }
+
+    @Override
+    public Priority getPriority() {
+        return priority;
+    }
+
     @Override
     public int getFallBackQueueSize() {
         return fallBackQueue.size();
     }
 
     private StreamingObject poll() {
-        if (!fallBackQueue.isEmpty()) {
-            return fallBackQueue.poll();
+        // retries wait for their delay even while force flushing, the drain loops sleep until the earliest is ready
+        StreamingObject retry = fallBackQueue.poll(false);
+        if (retry != null) {
+            queue.releaseRetry(retry.rowCount(), retry.size());
+            return retry;
         } else {
-            return getSized();
+            BatchAssembledEvent event = new BatchAssembledEvent();
+            long queueWait = event.isEnabled() ? flushTrigger.getLingeringNanos() : 0;
+            event.begin();
+            long start = System.nanoTime();
+            StreamingObject batch = getSized();
+            metrics.onBatchAssembled(System.nanoTime() - start);
+            if (!batch.isEmpty() && event.shouldCommit()) {
+                event.table = tableName.getTable();
+                event.batchId = batch.id();
+                event.rows = batch.rowCount();
+                event.bytes = batch.size();
+                event.queueWait = queueWait;
+                event.commit();
+            }
+            return batch;
         }
     }
 
-    private StreamingObject getSized() {
-        JSONArray jsonBatch = new JSONArray();
+    /**
+     * Collects rows into a batch up to MAX_BYTES. Row sizes are computed once at enqueue time,
+     * so the batch size is a plain sum and the next row is put back to the head of the queue if it does not fit.
+     * A single row larger than MAX_BYTES is still sent alone. Rows spilled to the write-ahead log are read back here.
+     */
+    StreamingObject getSized() {
+        WriteAheadLog wal = writeAheadLog;
+        WalReceipt receipt = wal != null ? new WalReceipt() : null;
+        List<StreamingRow> rows = new ArrayList<>();
         int size = 0;
-        while (size <= MAX_BYTES) {
-            JSONObject poll = queue.poll();
-            if (poll != null) {
-                size += StreamingUtils.getSize(poll);
-                jsonBatch.put(poll);
-            } else {
+        StreamingRow poll;
+        // polled before it is sized: with several stripes a peeked row is not necessarily the one polled next
+        while ((poll = queue.poll()) != null) {
+            if (!rows.isEmpty() && size + poll.size() > MAX_BYTES) {
+                queue.pushBack(poll);
                 break;
             }
+            size += poll.size();
+            if (receipt != null) {
+                receipt.add(poll);
+                poll = wal.load(poll);
+            }
+            rows.add(poll);
         }
         log.info("Collected batch size {} bytes", size);
-        return new StreamingObject(size, jsonBatch);
+        StreamingObject batch = streamWriter.toBatch(rows, size);
+        return receipt != null && !receipt.isEmpty() ? batch.withWalReceipt(receipt) : batch;
     }
 
+    /**
+     * Flushes the processor like {@link #forceFlush()} and closes it; the rows left at the flush timeout are given up,
+     * see {@link #closeBy(long)}.
+     */
     @Override
     public void close() {
-        forceFlush();
-        stopped.set(true);
-        client.close();
+        closeBy(System.nanoTime() + flushTimeoutNanos);
+    }
+
+    private void closeWriter() {
+        queue.getCapacity().detach();
+        // the write client is shared by all processors and closed with the application context
         streamWriter.close();
+        try {
+            streamWriter.finalizeStream();
+        } catch (Exception e) {
+            log.error("Can not finalize the write stream of table {}", tableName.getTable(), e);
+        }
     }
 
     @PreDestroy
     private void destroy() {
         try {
-            forceFlush();
-            stopped.set(true);
             close();
         } catch (Exception ignore) {
             log.error("Error while destroy stream processor for table {}", tableName.getTable());
@@ -0,0 +1,58 @@
+package com.belkatechnologies.bigquery.streaming.processor;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferCapacity;
+import com.belkatechnologies.bigquery.streaming.buffer.StripedRowQueue;
+import com.belkatechnologies.bigquery.streaming.callback.DefaultAbstractAppendCompleteCallback;
+import com.belkatechnologies.bigquery.streaming.writer.StreamWriterFactory;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * Stream processor whose producers never lock each other.
+ * Rows are converted on the caller thread and put into per-thread stripes of a lock-free queue
+ * which are drained by the flush task. Rows put while a force flush is in progress are rejected
+ * the same way as by {@link DefaultAsyncContinuousRetriableStreamProcessor}, but without a monitor,
+ * so a row racing with the beginning of a force flush may be left for the next flush.
+ * The buffer capacity is reserved by compare-and-set, producers only wait for each other when the buffer is full
+ * under {@link com.belkatechnologies.bigquery.streaming.buffer.OverflowPolicy#BLOCK}, or, with a write-ahead log,
+ * while the encoded row is copied into the log segment.
+ * Enabled by the {@code bigquery.streaming.lock-free-ingest} property.
+ */
+@Slf4j
+public class LockFreeStreamProcessor extends DefaultAsyncContinuousRetriableStreamProcessor {
+
+    public LockFreeStreamProcessor(
+            BigQueryWriteClient client,
+            ObjectProvider<DefaultAbstractAppendCompleteCallback> callbackProvider,
+            BigQueryProperties bigQueryProperties,
+            BufferCapacity globalBufferCapacity,
+            StreamWriterFactory writerFactory
+    ) {
+        super(client, callbackProvider, bigQueryProperties, globalBufferCapacity, writerFactory, new StripedRowQueue());
+    }
+
+    @Override
+    public void putOne(Map<String, Object> row) {
+        enqueue(row);
+    }
+
+    @Override
+    public void putBatch(Collection<Map<String, Object>> rows) {
+        enqueueAll(rows);
+    }
+
+    @Override
+    public <T> void putRecord(T record) {
+        enqueueRecord(record);
+    }
+
+    @Override
+    public <T> void putRecords(Collection<T> records) {
+        enqueueRecords(records);
+    }
+}
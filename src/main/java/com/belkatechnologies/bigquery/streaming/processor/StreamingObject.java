@@ -1,12 +1,77 @@
 package com.belkatechnologies.bigquery.streaming.processor;
 
+import com.belkatechnologies.bigquery.streaming.wal.WalReceipt;
+import com.belkatechnologies.bigquery.streaming.writer.StreamOffset;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
 import org.json.JSONArray;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
- * Record representing a streaming object containing size information and a JSON batch.
+ * Record representing a streaming object containing size information and an encoded batch.
+ * Exactly one of {@code jsonBatch} and {@code protoBatch} is set, depending on the write mode.
  *
- * @param size      The size of the streaming object in bytes.
- * @param jsonBatch The JSON batch associated with the streaming object.
+ * @param id         The process-unique identity of the batch, kept across retries.
+ * @param attempt    The number of retries of the batch, 0 for the first append.
+ * @param deferrals  The number of times the batch was sent again because BigQuery refused its offset, counted
+ *                   per offset.
+ * @param splits     The number of times the rows of the batch were split in halves to find the rows BigQuery rejects.
+ * @param size       The size of the streaming object in bytes.
+ * @param rowCount   The number of rows in the batch.
+ * @param jsonBatch  The JSON batch associated with the streaming object.
+ * @param protoBatch The protobuf batch associated with the streaming object.
+ * @param walReceipt The write-ahead log rows of the batch acknowledged when it is done, null if they are not logged.
+ * @param offset     The position of the batch in the write stream, null when it is appended to the default stream.
  */
-public record StreamingObject(int size, JSONArray jsonBatch) {
+public record StreamingObject(long id, int attempt, int deferrals, int splits, int size, int rowCount, JSONArray jsonBatch,
+                              ProtoRows protoBatch, WalReceipt walReceipt, StreamOffset offset) {
+
+    private static final AtomicLong IDS = new AtomicLong();
+
+    public StreamingObject(int size, JSONArray jsonBatch) {
+        this(IDS.incrementAndGet(), 0, 0, 0, size, jsonBatch.length(), jsonBatch, null, null, null);
+    }
+
+    public StreamingObject(int size, ProtoRows protoBatch) {
+        this(IDS.incrementAndGet(), 0, 0, 0, size, protoBatch.getSerializedRowsCount(), null, protoBatch, null, null);
+    }
+
+    /**
+     * @return The same batch counting one more retry.
+     */
+    public StreamingObject nextAttempt() {
+        return new StreamingObject(id, attempt + 1, deferrals, splits, size, rowCount, jsonBatch, protoBatch, walReceipt, offset);
+    }
+
+    /**
+     * @return The same batch counting one more deferral at its offset.
+     */
+    public StreamingObject nextDeferral() {
+        return new StreamingObject(id, attempt, deferrals + 1, splits, size, rowCount, jsonBatch, protoBatch, walReceipt, offset);
+    }
+
+    /**
+     * @return The same batch acknowledging the given write-ahead log rows when it is done.
+     */
+    public StreamingObject withWalReceipt(WalReceipt receipt) {
+        return new StreamingObject(id, attempt, deferrals, splits, size, rowCount, jsonBatch, protoBatch, receipt, offset);
+    }
+
+    /**
+     * @return The same batch appended at the given position of a write stream, with no deferrals there yet.
+     */
+    public StreamingObject withOffset(StreamOffset offset) {
+        return new StreamingObject(id, attempt, 0, splits, size, rowCount, jsonBatch, protoBatch, walReceipt, offset);
+    }
+
+    /**
+     * @return The same batch counting the given number of splits of the rows it was cut from.
+     */
+    public StreamingObject withSplits(int splits) {
+        return new StreamingObject(id, attempt, deferrals, splits, size, rowCount, jsonBatch, protoBatch, walReceipt, offset);
+    }
+
+    public boolean isEmpty() {
+        return rowCount == 0;
+    }
 }
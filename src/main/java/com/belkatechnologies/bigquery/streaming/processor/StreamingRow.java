@@ -0,0 +1,48 @@
+package com.belkatechnologies.bigquery.streaming.processor;
+
+import com.belkatechnologies.bigquery.streaming.wal.WalSegment;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import org.json.JSONObject;
+
+/**
+ * Record representing a single encoded row waiting in the ingest buffer.
+ *
+ * @param json    The row converted to a JSON object, set in {@link com.belkatechnologies.bigquery.streaming.writer.WriteMode#JSON} mode.
+ * @param message The row serialized to protobuf, set in {@link com.belkatechnologies.bigquery.streaming.writer.WriteMode#PROTO} mode.
+ * @param size    The serialized size of the row in bytes, computed once when the row is enqueued.
+ * @param segment The write-ahead log segment holding the row, null if the row is not logged.
+ * @param offset  The offset of the row in the segment.
+ */
+public record StreamingRow(JSONObject json, ByteString message, int size, WalSegment segment, int offset) {
+
+    /**
+     * Heap taken by a row spilled to its write-ahead log segment: the record itself, without a payload.
+     */
+    public static final int SPILLED_ROW_BYTES = 32;
+
+    public StreamingRow(JSONObject json, int size) {
+        this(json, null, size, null, 0);
+    }
+
+    /**
+     * The size includes the tag and the length prefix the row takes in {@link com.google.cloud.bigquery.storage.v1.ProtoRows}.
+     */
+    public StreamingRow(ByteString message) {
+        this(null, message, CodedOutputStream.computeBytesSize(1, message), null, 0);
+    }
+
+    /**
+     * @return True if the payload of the row is kept in its write-ahead log segment only.
+     */
+    public boolean isSpilled() {
+        return json == null && message == null;
+    }
+
+    /**
+     * @return The bytes the row takes in the ingest buffer: its size, or only the reference to its segment if it is spilled.
+     */
+    public int bufferedSize() {
+        return isSpilled() ? SPILLED_ROW_BYTES : size;
+    }
+}
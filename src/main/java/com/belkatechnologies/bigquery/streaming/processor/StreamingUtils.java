@@ -6,6 +6,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.math.BigDecimal;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
@@ -19,6 +20,13 @@ import static com.google.protobuf.CodedOutputStream.*;
 @Slf4j
 public class StreamingUtils {
 
+    /**
+     * Estimates the size of rows without a table schema.
+     *
+     * @deprecated Use {@link com.belkatechnologies.bigquery.streaming.writer.ProtoRowSchema#computeRowSize(JSONObject)},
+     * which is exact.
+     */
+    @Deprecated
     public static int getSize(JSONArray jsonArray) {
         int result = 0;
         for (Object jsonObject : jsonArray) {
@@ -27,32 +35,56 @@ public class StreamingUtils {
         return result;
     }
 
+    /**
+     * Estimates the size of a row without a table schema. Field numbers are assumed to follow the order of the keys,
+     * nested objects and arrays are sized as messages and repeated fields, other values as strings.
+     *
+     * @deprecated Use {@link com.belkatechnologies.bigquery.streaming.writer.ProtoRowSchema#computeRowSize(JSONObject)},
+     * which is exact.
+     */
+    @Deprecated
     public static int getSize(JSONObject jsonObject) {
         int result = 0;
+        int fieldNumber = 0;
         for (String key : jsonObject.keySet()) {
-            Object value = jsonObject.get(key);
-            if (value instanceof ByteString) {
-                result = result + computeBytesSize(key.length(), (ByteString) value);
-            } else if (value instanceof String) {
-                result = result + computeStringSize(key.length(), (String) value);
-            } else if (value instanceof Long) {
-                result = result + computeInt64Size(key.length(), (Long) value);
-            } else if (value instanceof Integer) {
-                result = result + computeInt64Size(key.length(), (Integer) value);
-            } else if (value instanceof Boolean) {
-                result = result + computeBoolSize(key.length(), (Boolean) value);
-            } else if (value instanceof Float) {
-                result = result + computeFloatSize(key.length(), (Float) value);
-            } else if (value instanceof Double) {
-                result = result + computeDoubleSize(key.length(), (Double) value);
-            } else {
-                log.warn("Got unknown type {}, key {}, value {}", value.getClass(), key, value);
-                result = result + computeStringSize(key.length(), value.toString());
-            }
+            result = result + getValueSize(++fieldNumber, jsonObject.get(key));
         }
         return result;
     }
 
+    private static int getValueSize(int fieldNumber, Object value) {
+        if (value instanceof ByteString) {
+            return computeBytesSize(fieldNumber, (ByteString) value);
+        } else if (value instanceof String) {
+            return computeStringSize(fieldNumber, (String) value);
+        } else if (value instanceof Long) {
+            return computeInt64Size(fieldNumber, (Long) value);
+        } else if (value instanceof Integer) {
+            return computeInt64Size(fieldNumber, (Integer) value);
+        } else if (value instanceof Boolean) {
+            return computeBoolSize(fieldNumber, (Boolean) value);
+        } else if (value instanceof Float) {
+            return computeFloatSize(fieldNumber, (Float) value);
+        } else if (value instanceof Double) {
+            return computeDoubleSize(fieldNumber, (Double) value);
+        } else if (value instanceof BigDecimal) {
+            return computeStringSize(fieldNumber, ((BigDecimal) value).toPlainString());
+        } else if (value instanceof JSONObject) {
+            int size = getSize((JSONObject) value);
+            return computeTagSize(fieldNumber) + computeUInt32SizeNoTag(size) + size;
+        } else if (value instanceof JSONArray) {
+            int size = 0;
+            for (Object element : (JSONArray) value) {
+                size = size + getValueSize(fieldNumber, element);
+            }
+            return size;
+        } else if (JSONObject.NULL.equals(value)) {
+            return 0;
+        } else {
+            return computeStringSize(fieldNumber, value.toString());
+        }
+    }
+
     /**
      * split into several batches while all of them is not less than MAX_BYTES
      */
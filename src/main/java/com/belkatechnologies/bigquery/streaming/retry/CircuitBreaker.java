@@ -0,0 +1,216 @@
+package com.belkatechnologies.bigquery.streaming.retry;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import lombok.extern.slf4j.Slf4j;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Circuit breaker of the appends of one table. Consecutive failed appends open it: appends pause while rows
+ * keep being buffered, so a table whose appends fail does not keep the shared threads busy. Once the open time
+ * elapses a single append is let through as a probe (half-open): its success closes the breaker, its failure opens
+ * it again for twice as long, up to the maximum. Any answer of BigQuery other than a retriable error is a success.
+ * <p>
+ * The probe is told apart by the permit {@link #tryAcquire()} returns for it: while half-open, only the outcome
+ * of the append sent with that permit moves the breaker, appends sent before it opened may still fail meanwhile.
+ */
+@Slf4j
+public class CircuitBreaker {
+
+    private static final int DEFAULT_FAILURE_THRESHOLD = 5;
+    private static final long DEFAULT_OPEN_MILLIS = 5_000;
+    private static final long DEFAULT_MAX_OPEN_MILLIS = 60_000;
+
+    /**
+     * Returned by {@link #tryAcquire()} when the append may not be sent.
+     */
+    public static final long DENIED = -1;
+    /**
+     * Permit of the appends sent while the breaker is closed, and of the failures which are not appends.
+     */
+    public static final long NOT_PROBE = 0;
+
+    public enum State {
+        /**
+         * Appends are sent.
+         */
+        CLOSED,
+        /**
+         * Appends are paused, rows are buffered.
+         */
+        OPEN,
+        /**
+         * A single append is sent to probe whether BigQuery accepts appends again.
+         */
+        HALF_OPEN
+    }
+
+    private final String table;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final long maxOpenNanos;
+
+    private State state = State.CLOSED;
+    private State previousState;
+    private int consecutiveFailures;
+    private int consecutiveOpens;
+    private long probeAt;
+    private long probe = NOT_PROBE;
+    private long probes;
+    private long openedCount;
+    private long halfOpenedCount;
+    private long closedCount;
+    private Instant lastTransitionAt;
+
+    /**
+     * @param table            The table, for logging.
+     * @param failureThreshold Consecutive failures opening the breaker, non-positive disables it.
+     * @param openNanos        How long the breaker stays open the first time.
+     * @param maxOpenNanos     Upper bound of the open time.
+     */
+    public CircuitBreaker(String table, int failureThreshold, long openNanos, long maxOpenNanos) {
+        this.table = table;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openNanos;
+        this.maxOpenNanos = Math.max(maxOpenNanos, openNanos);
+    }
+
+    public static CircuitBreaker of(String table, BigQueryProperties.CircuitBreakerProperties properties) {
+        if (properties == null) {
+            properties = new BigQueryProperties.CircuitBreakerProperties();
+        }
+        return new CircuitBreaker(table,
+                properties.getFailureThreshold() != null ? properties.getFailureThreshold() : DEFAULT_FAILURE_THRESHOLD,
+                TimeUnit.MILLISECONDS.toNanos(properties.getOpenMs() != null ? properties.getOpenMs() : DEFAULT_OPEN_MILLIS),
+                TimeUnit.MILLISECONDS.toNanos(properties.getMaxOpenMs() != null ? properties.getMaxOpenMs() : DEFAULT_MAX_OPEN_MILLIS));
+    }
+
+    /**
+     * Takes the permission to send an append. In the half-open state only the probe is permitted.
+     * A permission which is not used must be given back with {@link #release(long)}.
+     *
+     * @return {@link #DENIED} if the append may not be sent now, otherwise the permit to report its outcome with:
+     * a positive number for the probe, {@link #NOT_PROBE} for the other appends.
+     */
+    public synchronized long tryAcquire() {
+        return switch (state) {
+            case CLOSED -> NOT_PROBE;
+            case OPEN -> {
+                if (System.nanoTime() - probeAt < 0) {
+                    yield DENIED;
+                }
+                transition(State.HALF_OPEN);
+                halfOpenedCount++;
+                probe = ++probes;
+                yield probe;
+            }
+            case HALF_OPEN -> {
+                if (probe != NOT_PROBE) {
+                    yield DENIED;
+                }
+                probe = ++probes;
+                yield probe;
+            }
+        };
+    }
+
+    /**
+     * Gives back a permission taken by {@link #tryAcquire()} without sending an append.
+     */
+    public synchronized void release(long permit) {
+        if (isProbe(permit)) {
+            probe = NOT_PROBE;
+        }
+    }
+
+    /**
+     * Records an append answered by BigQuery. While half-open only the probe closes the breaker.
+     *
+     * @param permit The permit the append was sent with.
+     * @return True if the breaker has been closed by this call, so the paused appends can be sent.
+     */
+    public synchronized boolean onSuccess(long permit) {
+        consecutiveFailures = 0;
+        if (state == State.CLOSED || state == State.HALF_OPEN && !isProbe(permit)) {
+            return false;
+        }
+        consecutiveOpens = 0;
+        probe = NOT_PROBE;
+        transition(State.CLOSED);
+        closedCount++;
+        return true;
+    }
+
+    /**
+     * Records an append failed with a retriable error, or a failed attempt to reconnect. While half-open only
+     * the failure of the probe opens the breaker again, the others are stale: the appends were sent before it opened.
+     *
+     * @param permit The permit the append was sent with, {@link #NOT_PROBE} for failures which are not appends.
+     * @return True if the breaker has been opened by this call.
+     */
+    public synchronized boolean onFailure(long permit) {
+        consecutiveFailures++;
+        if (failureThreshold <= 0 || state == State.OPEN
+                || state == State.CLOSED && consecutiveFailures < failureThreshold
+                || state == State.HALF_OPEN && !isProbe(permit)) {
+            return false;
+        }
+        long open = Math.min(openNanos << Math.min(consecutiveOpens, 20), maxOpenNanos);
+        consecutiveOpens++;
+        probeAt = System.nanoTime() + open;
+        probe = NOT_PROBE;
+        transition(State.OPEN);
+        openedCount++;
+        log.warn("Circuit breaker of table {} is open for {} millis after {} consecutive failures",
+                table, TimeUnit.NANOSECONDS.toMillis(open), consecutiveFailures);
+        return true;
+    }
+
+    /**
+     * @return Nanos until the probe may be sent, 0 if appends may be sent now, -1 if the probe is in flight.
+     */
+    public synchronized long nanosUntilProbe() {
+        return switch (state) {
+            case CLOSED -> 0;
+            case OPEN -> Math.max(probeAt - System.nanoTime(), 0);
+            case HALF_OPEN -> probe != NOT_PROBE ? -1 : 0;
+        };
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @param reconnecting      Whether a reconnect of the writer is scheduled.
+     * @param reconnectFailures Failed attempts of the scheduled reconnect.
+     */
+    public synchronized CircuitBreakerStatistic getStatistic(boolean reconnecting, long reconnectFailures) {
+        return CircuitBreakerStatistic.builder()
+                .state(state)
+                .consecutiveFailures(consecutiveFailures)
+                .openedCount(openedCount)
+                .halfOpenedCount(halfOpenedCount)
+                .closedCount(closedCount)
+                .previousState(previousState)
+                .lastTransitionAt(lastTransitionAt)
+                .nanosUntilProbe(nanosUntilProbe())
+                .reconnecting(reconnecting)
+                .reconnectFailures(reconnectFailures)
+                .build();
+    }
+
+    private boolean isProbe(long permit) {
+        return permit != NOT_PROBE && permit == probe;
+    }
+
+    private void transition(State next) {
+        if (next != State.OPEN) {
+            log.info("Circuit breaker of table {}: {} -> {}", table, state, next);
+        }
+        previousState = state;
+        state = next;
+        lastTransitionAt = Instant.now();
+    }
+}
@@ -0,0 +1,24 @@
+package com.belkatechnologies.bigquery.streaming.retry;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+
+/**
+ * Snapshot of the circuit breaker of a single stream processor and the counters of its transitions.
+ */
+@Builder
+@Data
+public class CircuitBreakerStatistic {
+    private final CircuitBreaker.State state;
+    private final int consecutiveFailures;
+    private final long openedCount;
+    private final long halfOpenedCount;
+    private final long closedCount;
+    private final CircuitBreaker.State previousState;
+    private final Instant lastTransitionAt;
+    private final long nanosUntilProbe;
+    private final boolean reconnecting;
+    private final long reconnectFailures;
+}
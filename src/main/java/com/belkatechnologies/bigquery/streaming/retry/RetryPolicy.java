@@ -0,0 +1,54 @@
+package com.belkatechnologies.bigquery.streaming.retry;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retry rules of failed batches: attempts, jittered exponential backoff and the retry byte budget of a table.
+ *
+ * @param maxAttempts         Retries of a batch before it is given up.
+ * @param reconnectAttempt    The retry on which the writer is recreated first.
+ * @param initialBackoffNanos Delay of the first retry.
+ * @param maxBackoffNanos     Upper bound of the delay.
+ * @param multiplier          Growth of the delay per retry.
+ * @param maxBytes            Bytes of batches waiting to retry per table.
+ */
+public record RetryPolicy(int maxAttempts, int reconnectAttempt, long initialBackoffNanos, long maxBackoffNanos,
+                          double multiplier, long maxBytes) {
+
+    private static final int DEFAULT_MAX_ATTEMPTS = 3;
+    private static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+    private static final long DEFAULT_MAX_BACKOFF_MILLIS = 60_000;
+    private static final double DEFAULT_MULTIPLIER = 2;
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    public static RetryPolicy of(BigQueryProperties.RetryProperties properties) {
+        if (properties == null) {
+            properties = new BigQueryProperties.RetryProperties();
+        }
+        int maxAttempts = properties.getMaxAttempts() != null ? properties.getMaxAttempts() : DEFAULT_MAX_ATTEMPTS;
+        return new RetryPolicy(
+                maxAttempts,
+                properties.getReconnectAttempt() != null ? properties.getReconnectAttempt() : maxAttempts,
+                TimeUnit.MILLISECONDS.toNanos(properties.getInitialBackoffMs() != null ? properties.getInitialBackoffMs() : DEFAULT_INITIAL_BACKOFF_MILLIS),
+                TimeUnit.MILLISECONDS.toNanos(properties.getMaxBackoffMs() != null ? properties.getMaxBackoffMs() : DEFAULT_MAX_BACKOFF_MILLIS),
+                properties.getBackoffMultiplier() != null && properties.getBackoffMultiplier() >= 1 ? properties.getBackoffMultiplier() : DEFAULT_MULTIPLIER,
+                properties.getMaxBytesPerTable() != null ? properties.getMaxBytesPerTable() : DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Computes the delay of a retry with "equal jitter": half of the exponential delay plus a random part
+     * of the other half, so retries of many tables failing together spread out.
+     *
+     * @param attempt The retry number, starting from 1.
+     * @return The delay in nanos.
+     */
+    public long backoffNanos(int attempt) {
+        double exponential = initialBackoffNanos * Math.pow(multiplier, Math.max(attempt - 1, 0));
+        long delay = (long) Math.min(exponential, maxBackoffNanos);
+        long half = delay / 2;
+        return half + (half > 0 ? ThreadLocalRandom.current().nextLong(half + 1) : 0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.belkatechnologies.bigquery.streaming.retry;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Batches waiting for their retry delay to elapse, limited by a byte budget.
+ */
+public class RetryQueue {
+
+    private final DelayQueue<DelayedBatch> batches = new DelayQueue<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final long maxBytes;
+
+    /**
+     * @param maxBytes Budget of waiting bytes, non-positive means unlimited.
+     */
+    public RetryQueue(long maxBytes) {
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    }
+
+    /**
+     * Schedules a batch if it fits into the budget. A batch always fits into an empty queue.
+     *
+     * @return False if the budget is exhausted.
+     */
+    public boolean offer(StreamingObject batch, long delayNanos) {
+        long newBytes = bytes.addAndGet(batch.size());
+        if (newBytes > maxBytes && newBytes != batch.size()) {
+            bytes.addAndGet(-batch.size());
+            return false;
+        }
+        batches.add(new DelayedBatch(batch, System.nanoTime() + delayNanos));
+        return true;
+    }
+
+    /**
+     * Schedules a batch regardless of the budget.
+     */
+    public void force(StreamingObject batch, long delayNanos) {
+        bytes.addAndGet(batch.size());
+        batches.add(new DelayedBatch(batch, System.nanoTime() + delayNanos));
+    }
+
+    /**
+     * Takes the batch whose delay has elapsed first.
+     *
+     * @param ignoreDelay Take the earliest batch even if its delay has not elapsed, e.g. to give up the batches left at shutdown.
+     * @return The batch or null.
+     */
+    public StreamingObject poll(boolean ignoreDelay) {
+        DelayedBatch next = batches.poll();
+        if (next == null && ignoreDelay) {
+            next = batches.peek();
+            if (next != null && !batches.remove(next)) {
+                next = null;
+            }
+        }
+        if (next == null) {
+            return null;
+        }
+        bytes.addAndGet(-next.batch().size());
+        return next.batch();
+    }
+
+    /**
+     * @return Nanos until the earliest batch is ready to be sent, 0 if it is ready now, -1 if the queue is empty.
+     */
+    public long nanosUntilReady() {
+        DelayedBatch next = batches.peek();
+        return next == null ? -1 : Math.max(next.getDelay(TimeUnit.NANOSECONDS), 0);
+    }
+
+    public int size() {
+        return batches.size();
+    }
+
+    public boolean isEmpty() {
+        return batches.isEmpty();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    private record DelayedBatch(StreamingObject batch, long readyAtNanos) implements Delayed {
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(readyAtNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(readyAtNanos, ((DelayedBatch) other).readyAtNanos);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.belkatechnologies.bigquery.streaming.transport;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.utils.ShutDownUtils;
+import com.google.api.gax.core.ExecutorProvider;
+import com.google.api.gax.core.FixedExecutorProvider;
+import com.google.api.gax.grpc.ChannelPoolSettings;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Process-wide transport shared by the writers of all tables: one gRPC channel pool, one executor for
+ * the writers and one bounded executor for append callbacks. When the callback queue is full the callback
+ * runs on the thread completing the append, which slows appends down instead of queueing without limit.
+ */
+@Slf4j
+public class StreamingTransport implements AutoCloseable {
+
+    private static final int DEFAULT_CHANNEL_POOL_SIZE = 1;
+    private static final int DEFAULT_CALLBACK_QUEUE_CAPACITY = 10_000;
+
+    private final int channelPoolSize;
+    @Getter
+    private final TransportChannelProvider channelProvider;
+    private final ScheduledThreadPoolExecutor writerExecutor;
+    @Getter
+    private final ExecutorProvider executorProvider;
+    private final ThreadPoolExecutor callbackExecutor;
+    private final int callbackQueueCapacity;
+    private final LongAdder callbackCallerRuns = new LongAdder();
+
+    public StreamingTransport(BigQueryProperties.TransportProperties properties) {
+        if (properties == null) {
+            properties = new BigQueryProperties.TransportProperties();
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        this.channelPoolSize = positiveOrDefault(properties.getChannelPoolSize(), DEFAULT_CHANNEL_POOL_SIZE);
+        this.channelProvider = BigQueryWriteSettings.defaultGrpcTransportProviderBuilder()
+                .setChannelPoolSettings(ChannelPoolSettings.staticallySized(channelPoolSize))
+                .setKeepAliveTime(org.threeten.bp.Duration.ofMinutes(1))
+                .setKeepAliveTimeout(org.threeten.bp.Duration.ofMinutes(1))
+                .setKeepAliveWithoutCalls(true)
+                .build();
+        this.writerExecutor = new ScheduledThreadPoolExecutor(positiveOrDefault(properties.getWriterThreads(), Math.max(4, processors)),
+                new ThreadFactoryBuilder().setNameFormat("executor-provider-%d").build());
+        this.writerExecutor.setRemoveOnCancelPolicy(true);
+        this.executorProvider = FixedExecutorProvider.create(writerExecutor);
+        this.callbackQueueCapacity = positiveOrDefault(properties.getCallbackQueueCapacity(), DEFAULT_CALLBACK_QUEUE_CAPACITY);
+        int callbackThreads = positiveOrDefault(properties.getCallbackThreads(), processors * 2);
+        this.callbackExecutor = new ThreadPoolExecutor(callbackThreads, callbackThreads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(callbackQueueCapacity),
+                new ThreadFactoryBuilder().setNameFormat("append-callback-%d").build(),
+                (task, executor) -> {
+                    callbackCallerRuns.increment();
+                    if (!executor.isShutdown()) {
+                        task.run();
+                    }
+                });
+        this.callbackExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Gets the executor append callbacks are run on.
+     */
+    public ExecutorService getCallbackExecutor() {
+        return callbackExecutor;
+    }
+
+    /**
+     * Gets the executor shared by the writers, also used to schedule short timers such as append timeouts.
+     */
+    public ScheduledExecutorService getScheduler() {
+        return writerExecutor;
+    }
+
+    public TransportStatistic getStatistic() {
+        return TransportStatistic.builder()
+                .channelPoolSize(channelPoolSize)
+                .writerThreads(writerExecutor.getPoolSize())
+                .writerActiveThreads(writerExecutor.getActiveCount())
+                .writerQueueSize(writerExecutor.getQueue().size())
+                .callbackThreads(callbackExecutor.getPoolSize())
+                .callbackActiveThreads(callbackExecutor.getActiveCount())
+                .callbackQueueSize(callbackExecutor.getQueue().size())
+                .callbackQueueCapacity(callbackQueueCapacity)
+                .callbackCompletedTasks(callbackExecutor.getCompletedTaskCount())
+                .callbackCallerRuns(callbackCallerRuns.sum())
+                .build();
+    }
+
+    @Override
+    public void close() {
+        log.info("Close streaming transport");
+        ShutDownUtils.shutdownWithAwait(callbackExecutor, 1, TimeUnit.MINUTES, "appendCallbackPool");
+        ShutDownUtils.shutdownWithAwait(writerExecutor, 1, TimeUnit.MINUTES, "executorProviderPool");
+    }
+
+    private static int positiveOrDefault(Integer value, int defaultValue) {
+        return value != null && value > 0 ? value : defaultValue;
+    }
+}
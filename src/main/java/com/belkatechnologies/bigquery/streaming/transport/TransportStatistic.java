@@ -0,0 +1,22 @@
+package com.belkatechnologies.bigquery.streaming.transport;
+
+import lombok.Builder;
+import lombok.Data;
+
+/**
+ * Snapshot of the saturation of the process-wide executors used to append rows and to handle append responses.
+ */
+@Builder
+@Data
+public class TransportStatistic {
+    private final int channelPoolSize;
+    private final int writerThreads;
+    private final int writerActiveThreads;
+    private final int writerQueueSize;
+    private final int callbackThreads;
+    private final int callbackActiveThreads;
+    private final int callbackQueueSize;
+    private final int callbackQueueCapacity;
+    private final long callbackCompletedTasks;
+    private final long callbackCallerRuns;
+}
@@ -0,0 +1,49 @@
+package com.belkatechnologies.bigquery.streaming.wal;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WAL rows of a batch grouped by segment, acknowledged when the batch is done.
+ * A batch split into parts shares the receipt between them, the rows are acknowledged once every part is done.
+ */
+public class WalReceipt {
+
+    private final Map<WalSegment, Integer> rows = new IdentityHashMap<>();
+    private final AtomicInteger holders = new AtomicInteger(1);
+
+    /**
+     * Adds a row of the batch, rows which are not logged are ignored.
+     */
+    public void add(StreamingRow row) {
+        if (row.segment() != null) {
+            rows.merge(row.segment(), 1, Integer::sum);
+        }
+    }
+
+    public boolean isEmpty() {
+        return rows.isEmpty();
+    }
+
+    /**
+     * Shares the receipt with one more part of the batch, which must release it as well.
+     *
+     * @return This receipt.
+     */
+    public WalReceipt retain() {
+        holders.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Acknowledges the rows once all the holders released the receipt, so that fully acknowledged segments are deleted.
+     */
+    public void release() {
+        if (holders.decrementAndGet() == 0) {
+            rows.forEach(WalSegment::release);
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.belkatechnologies.bigquery.streaming.wal;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only memory-mapped file holding encoded rows of a table.
+ * A record is {@code [int payload length][byte kind][int row size][int crc32][payload]}; the length is written last,
+ * so a record torn by a crash is seen as the end of the segment. The segment counts its rows which are not acknowledged
+ * yet and deletes its file once it is sealed and all of them are. The mapping of a deleted segment is released
+ * right away instead of waiting for the buffer to be garbage collected, so the buffer must not be read once the rows
+ * read from it are acknowledged.
+ */
+@Slf4j
+public class WalSegment {
+
+    static final int HEADER_BYTES = 13;
+
+    private static final Unsafe UNSAFE = loadUnsafe();
+
+    @Getter
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private int position;
+    private volatile boolean sealed;
+    private volatile boolean deleted;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final Consumer<WalSegment> onDrained;
+
+    private WalSegment(Path path, MappedByteBuffer buffer, Consumer<WalSegment> onDrained) {
+        this.path = path;
+        this.buffer = buffer;
+        this.capacity = buffer.capacity();
+        this.onDrained = onDrained;
+    }
+
+    /**
+     * Creates a new segment file of the given size.
+     *
+     * @param onDrained Called when all the rows appended so far are acknowledged while the segment is not sealed.
+     */
+    static WalSegment create(Path path, int size, Consumer<WalSegment> onDrained) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new WalSegment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), onDrained);
+        }
+    }
+
+    /**
+     * Opens a segment left by a previous process. Nothing is appended to it, it is sealed once it is replayed
+     * so that it is not deleted while its records are still being read.
+     */
+    static WalSegment recover(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return new WalSegment(path, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()), null);
+        }
+    }
+
+    /**
+     * @return The checksum of a record payload, computed by the caller before it takes the append lock.
+     */
+    static int checksum(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Appends a record. Only the position is reserved and the record copied while holding the segment lock,
+     * so records are laid out without gaps for {@link #replay}.
+     *
+     * @param crc The {@link #checksum} of the payload.
+     * @return The offset of the record or -1 if it does not fit.
+     */
+    synchronized int append(byte kind, int rowSize, byte[] payload, int crc) {
+        int offset = position;
+        if (sealed || offset + HEADER_BYTES + payload.length > capacity) {
+            return -1;
+        }
+        buffer.put(offset + 4, kind);
+        buffer.putInt(offset + 5, rowSize);
+        buffer.putInt(offset + 9, crc);
+        buffer.put(offset + HEADER_BYTES, payload);
+        buffer.putInt(offset, payload.length);
+        position = offset + HEADER_BYTES + payload.length;
+        pending.incrementAndGet();
+        return offset;
+    }
+
+    /**
+     * Reads the record at the offset.
+     */
+    WalRecord read(int offset) {
+        int length = buffer.getInt(offset);
+        byte[] payload = new byte[length];
+        buffer.get(offset + HEADER_BYTES, payload);
+        return new WalRecord(buffer.get(offset + 4), buffer.getInt(offset + 5), payload);
+    }
+
+    /**
+     * Reads all valid records from the beginning of the segment, counting them as pending.
+     *
+     * @param consumer Receives the offset and the record.
+     */
+    void replay(BiConsumer<Integer, WalRecord> consumer) {
+        int offset = 0;
+        while (offset + HEADER_BYTES <= capacity) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || offset + HEADER_BYTES + length > capacity) {
+                break;
+            }
+            WalRecord record = read(offset);
+            if (checksum(record.payload()) != buffer.getInt(offset + 9)) {
+                log.warn("Corrupted record at {} of WAL segment {}, the rest of the segment is skipped", offset, path);
+                break;
+            }
+            pending.incrementAndGet();
+            consumer.accept(offset, record);
+            offset += HEADER_BYTES + length;
+        }
+    }
+
+    /**
+     * Seals the segment: no more appends, the file is deleted as soon as nothing is pending.
+     */
+    void seal() {
+        synchronized (this) {
+            sealed = true;
+            if (!deleted) {
+                buffer.force();
+            }
+        }
+        deleteIfDone();
+    }
+
+    /**
+     * Forces the appended records to the storage device. The caller holds a row of the segment which is not
+     * acknowledged yet, so the segment can not be deleted meanwhile.
+     */
+    void force() {
+        buffer.force();
+    }
+
+    /**
+     * Acknowledges rows of the segment.
+     */
+    void release(int rows) {
+        if (pending.addAndGet(-rows) <= 0) {
+            if (!sealed && onDrained != null) {
+                onDrained.accept(this);
+            }
+            deleteIfDone();
+        }
+    }
+
+    int getPending() {
+        return pending.get();
+    }
+
+    private void deleteIfDone() {
+        if (sealed && pending.get() <= 0 && !deleted) {
+            synchronized (this) {
+                if (deleted) {
+                    return;
+                }
+                deleted = true;
+                unmap();
+            }
+            try {
+                Files.deleteIfExists(path);
+                log.debug("WAL segment {} is acknowledged and deleted", path);
+            } catch (IOException e) {
+                log.error("Can not delete WAL segment {}", path, e);
+            }
+        }
+    }
+
+    /**
+     * Releases the mapping of the segment, otherwise the file stays mapped until the buffer is garbage collected.
+     */
+    private void unmap() {
+        if (UNSAFE == null) {
+            return;
+        }
+        try {
+            UNSAFE.invokeCleaner(buffer);
+        } catch (RuntimeException e) {
+            log.warn("Can not unmap WAL segment {}", path, e);
+        }
+    }
+
+    private static Unsafe loadUnsafe() {
+        try {
+            Field field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            return (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            log.warn("Mapped WAL segments are released by the garbage collector only: {}", e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * A record read back from a segment.
+     *
+     * @param kind    {@link WriteAheadLog#JSON} or {@link WriteAheadLog#PROTO}.
+     * @param size    The size of the row accounted in batches.
+     * @param payload The encoded row.
+     */
+    record WalRecord(byte kind, int size, byte[] payload) {
+    }
+}
@@ -0,0 +1,246 @@
+package com.belkatechnologies.bigquery.streaming.wal;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.google.protobuf.ByteString;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Write-ahead log of the rows buffered for one table, kept in memory-mapped segment files.
+ * A row is logged before it is buffered and acknowledged when its batch is appended or given up,
+ * a segment file is deleted as soon as all of its rows are acknowledged. Segments left by a previous process
+ * are replayed when the log is attached to a stream processor.
+ * <p>
+ * While the buffered bytes of the table are above the spill threshold, logged rows keep only their position
+ * in the segment and are read back when their batch is collected. Spilled rows count against the buffer limits
+ * by their reference only, see {@link StreamingRow#bufferedSize()}, so rows keep being buffered through an outage
+ * while the disk has room.
+ */
+@Slf4j
+public class WriteAheadLog implements AutoCloseable {
+
+    public static final byte JSON = 1;
+    public static final byte PROTO = 2;
+
+    private static final String SEGMENT_SUFFIX = ".wal";
+
+    @Getter
+    private final Path directory;
+    private final int segmentBytes;
+    private final long spillThresholdBytes;
+    private final boolean forceOnAppend;
+
+    // a lock rather than the monitor: a virtual thread waiting to log a row keeps its carrier free
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<WalSegment> recovered = new ArrayList<>();
+    private WalSegment active;
+    private long nextSegment;
+    private boolean closed;
+
+    /**
+     * Opens the log in the directory, recovering the segments found there.
+     *
+     * @param directory           Directory of the table segments, created if it does not exist.
+     * @param segmentBytes        Size of a segment file.
+     * @param spillThresholdBytes Buffered bytes of the table above which rows are kept on disk only.
+     * @param forceOnAppend       Whether every append is forced to the storage device.
+     */
+    public WriteAheadLog(Path directory, int segmentBytes, long spillThresholdBytes, boolean forceOnAppend) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.spillThresholdBytes = spillThresholdBytes;
+        this.forceOnAppend = forceOnAppend;
+        try {
+            Files.createDirectories(directory);
+            try (Stream<Path> files = Files.list(directory)) {
+                for (Path path : files.filter(WriteAheadLog::isSegment).sorted().toList()) {
+                    nextSegment = Math.max(nextSegment, segmentNumber(path) + 1);
+                    if (Files.size(path) > 0) {
+                        recovered.add(WalSegment.recover(path));
+                    } else {
+                        Files.delete(path);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Can not open write-ahead log in " + directory, e);
+        }
+    }
+
+    /**
+     * Logs a row. The row is encoded before taking the log lock, which is only held to pick the segment
+     * and copy the record into it.
+     *
+     * @param row           The encoded row.
+     * @param bufferedBytes The bytes currently buffered for the table.
+     * @return The row bound to its position in the log, without its payload if it is spilled.
+     */
+    public StreamingRow append(StreamingRow row, long bufferedBytes) {
+        byte kind = row.json() != null ? JSON : PROTO;
+        byte[] payload = kind == JSON
+                ? row.json().toString().getBytes(StandardCharsets.UTF_8)
+                : row.message().toByteArray();
+        int crc = WalSegment.checksum(payload);
+        WalSegment segment;
+        WalSegment rolled = null;
+        int offset;
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("Write-ahead log " + directory + " is closed");
+            }
+            offset = active != null ? active.append(kind, row.size(), payload, crc) : -1;
+            if (offset < 0) {
+                rolled = roll(payload.length);
+                offset = active.append(kind, row.size(), payload, crc);
+            }
+            segment = active;
+        } finally {
+            lock.unlock();
+        }
+        if (rolled != null) {
+            rolled.seal();
+        }
+        if (forceOnAppend) {
+            segment.force();
+        }
+        return bufferedBytes >= spillThresholdBytes
+                ? new StreamingRow(null, null, row.size(), segment, offset)
+                : new StreamingRow(row.json(), row.message(), row.size(), segment, offset);
+    }
+
+    /**
+     * Reads back the payload of a spilled row. Other rows are returned as is.
+     */
+    public StreamingRow load(StreamingRow row) {
+        if (!row.isSpilled()) {
+            return row;
+        }
+        WalSegment.WalRecord record = row.segment().read(row.offset());
+        return toRow(record, row.segment(), row.offset());
+    }
+
+    /**
+     * Acknowledges a row which is not going to be sent, e.g. dropped by the overflow policy.
+     */
+    public void release(StreamingRow row) {
+        if (row.segment() != null) {
+            row.segment().release(1);
+        }
+    }
+
+    /**
+     * Replays the rows of the segments left by a previous process. The rows are spilled,
+     * their payload is read when they are collected into a batch.
+     *
+     * @param consumer Receives the recovered rows in the order they were logged.
+     * @return The number of replayed rows.
+     */
+    public int replay(Consumer<StreamingRow> consumer) {
+        lock.lock();
+        try {
+            int count = 0;
+            for (WalSegment segment : recovered) {
+                int[] rows = new int[1];
+                segment.replay((offset, record) -> {
+                    consumer.accept(new StreamingRow(null, null, record.size(), segment, offset));
+                    rows[0]++;
+                });
+                log.info("Replayed {} rows from WAL segment {}", rows[0], segment.getPath());
+                count += rows[0];
+                segment.seal();
+            }
+            recovered.clear();
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return True if there are segments left by a previous process which are not replayed yet.
+     */
+    public boolean hasRecoveredSegments() {
+        lock.lock();
+        try {
+            return !recovered.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Seals the active segment. Segments with unacknowledged rows are kept to be replayed by the next process.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            if (active != null) {
+                active.seal();
+                active = null;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Seals the active segment once all of its rows are acknowledged, so that its file is deleted
+     * without waiting for it to fill up.
+     */
+    private void onDrained(WalSegment segment) {
+        lock.lock();
+        try {
+            if (segment == active && segment.getPending() == 0) {
+                active = null;
+                segment.seal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replaces the active segment with a new one.
+     *
+     * @return The previous active segment, to be sealed by the caller once the log lock is released.
+     */
+    private WalSegment roll(int payloadLength) {
+        WalSegment previous = active;
+        Path path = directory.resolve(String.format("segment-%020d%s", nextSegment++, SEGMENT_SUFFIX));
+        try {
+            active = WalSegment.create(path, Math.max(segmentBytes, WalSegment.HEADER_BYTES + payloadLength), this::onDrained);
+        } catch (IOException e) {
+            throw new RuntimeException("Can not create WAL segment " + path, e);
+        }
+        return previous;
+    }
+
+    private static StreamingRow toRow(WalSegment.WalRecord record, WalSegment segment, int offset) {
+        return record.kind() == JSON
+                ? new StreamingRow(new JSONObject(new String(record.payload(), StandardCharsets.UTF_8)), null, record.size(), segment, offset)
+                : new StreamingRow(null, ByteString.copyFrom(record.payload()), record.size(), segment, offset);
+    }
+
+    private static boolean isSegment(Path path) {
+        return path.getFileName().toString().startsWith("segment-") && path.getFileName().toString().endsWith(SEGMENT_SUFFIX);
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring("segment-".length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
@@ -0,0 +1,75 @@
+package com.belkatechnologies.bigquery.streaming.wal;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Root of the write-ahead logs of all tables, laid out as {@code <directory>/<project>/<dataset>/<table>/segment-N.wal}.
+ */
+@Slf4j
+public class WriteAheadLogStore {
+
+    private static final String DEFAULT_DIRECTORY = "bigquery-wal";
+    private static final long DEFAULT_SEGMENT_BYTES = 32L * 1024 * 1024;
+    private static final long DEFAULT_SPILL_THRESHOLD_BYTES = 64L * 1024 * 1024;
+
+    @Getter
+    private final Path directory;
+    private final int segmentBytes;
+    private final long spillThresholdBytes;
+    private final boolean forceOnAppend;
+
+    public WriteAheadLogStore(BigQueryProperties.WalProperties properties) {
+        this.directory = Paths.get(properties.getDirectory() != null ? properties.getDirectory() : DEFAULT_DIRECTORY);
+        this.segmentBytes = (int) Math.min(Integer.MAX_VALUE,
+                properties.getSegmentBytes() != null ? properties.getSegmentBytes() : DEFAULT_SEGMENT_BYTES);
+        this.spillThresholdBytes = properties.getSpillThresholdBytes() != null
+                ? properties.getSpillThresholdBytes()
+                : DEFAULT_SPILL_THRESHOLD_BYTES;
+        this.forceOnAppend = properties.isForceOnAppend();
+    }
+
+    /**
+     * Opens the log of a table, recovering the segments left by a previous process.
+     */
+    public WriteAheadLog open(TableName tableName) {
+        return new WriteAheadLog(tableDirectory(tableName), segmentBytes, spillThresholdBytes, forceOnAppend);
+    }
+
+    /**
+     * Finds the tables having segments left by a previous process.
+     */
+    public List<TableName> getRecoverableTables() {
+        List<TableName> tables = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return tables;
+        }
+        try (Stream<Path> files = Files.find(directory, 4, (path, attributes) -> attributes.isRegularFile()
+                && path.getFileName().toString().endsWith(".wal"))) {
+            files.map(Path::getParent)
+                    .distinct()
+                    .filter(table -> directory.relativize(table).getNameCount() == 3)
+                    .forEach(table -> tables.add(TableName.of(
+                            table.getParent().getParent().getFileName().toString(),
+                            table.getParent().getFileName().toString(),
+                            table.getFileName().toString())));
+        } catch (IOException e) {
+            log.error("Can not scan write-ahead log directory {}", directory, e);
+        }
+        return tables;
+    }
+
+    private Path tableDirectory(TableName tableName) {
+        return directory.resolve(tableName.getProject()).resolve(tableName.getDataset()).resolve(tableName.getTable());
+    }
+}
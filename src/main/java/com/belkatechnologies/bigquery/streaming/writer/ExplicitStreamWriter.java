@@ -0,0 +1,104 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+import com.belkatechnologies.bigquery.streaming.codec.RowCodec;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writer appending to an application-created COMMITTED or PENDING stream at explicit offsets, so that a retried batch
+ * is written at most once: BigQuery answers ALREADY_EXISTS when a previous attempt has already landed.
+ * A batch gets its offset when it is first sent to the stream and keeps it across retries, a batch retried
+ * after the processor moved to another stream gets a new offset there.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class ExplicitStreamWriter implements StreamRowWriter {
+
+    private final StreamRowWriter delegate;
+    @Getter
+    private final Stream stream;
+    private final BigQueryWriteClient client;
+
+    @Override
+    public StreamingRow encode(Map<String, Object> row) {
+        return delegate.encode(row);
+    }
+
+    @Override
+    public <T> StreamingRow encode(RowCodec<T> codec, T record) {
+        return delegate.encode(codec, record);
+    }
+
+    @Override
+    public ProtoRowSchema getSchema() {
+        return delegate.getSchema();
+    }
+
+    @Override
+    public StreamingObject toBatch(List<StreamingRow> rows, int size) {
+        return delegate.toBatch(rows, size);
+    }
+
+    @Override
+    public List<StreamingRow> toRows(StreamingObject batch) {
+        return delegate.toRows(batch);
+    }
+
+    @Override
+    public StreamingObject bind(StreamingObject batch) {
+        if (isBound(batch)) {
+            return batch;
+        }
+        return batch.withOffset(new StreamOffset(stream.name(), stream.nextOffset().getAndAdd(batch.rowCount())));
+    }
+
+    @Override
+    public boolean isBound(StreamingObject batch) {
+        return batch.offset() != null && batch.offset().stream().equals(stream.name());
+    }
+
+    @Override
+    public ApiFuture<AppendRowsResponse> append(StreamingObject batch) throws Exception {
+        return delegate.append(bind(batch));
+    }
+
+    @Override
+    public void finalizeStream() {
+        finalizeStreamRows();
+    }
+
+    /**
+     * Finalizes the stream.
+     *
+     * @return The number of rows in the stream.
+     */
+    public long finalizeStreamRows() {
+        long rows = client.finalizeWriteStream(stream.name()).getRowCount();
+        log.info("Write stream {} finalized with {} rows", stream.name(), rows);
+        return rows;
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    /**
+     * An application-created write stream and the offset of the next batch sent to it, kept when the writer is reconnected.
+     *
+     * @param name       The name of the write stream.
+     * @param nextOffset The offset the next batch is appended at.
+     */
+    public record Stream(String name, AtomicLong nextOffset) {
+    }
+}
@@ -0,0 +1,72 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+import com.belkatechnologies.bigquery.streaming.codec.RowCodec;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.JsonStreamWriter;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer keeping rows as JSON objects and appending them with {@link JsonStreamWriter}.
+ * Rows are sized once, when they are encoded, with the field numbers and types of the table schema,
+ * the same way {@link JsonStreamWriter} converts them to protobuf.
+ */
+@RequiredArgsConstructor
+public class JsonRowWriter implements StreamRowWriter {
+
+    private final JsonStreamWriter streamWriter;
+    @Getter
+    private final ProtoRowSchema schema;
+
+    @Override
+    public StreamingRow encode(Map<String, Object> row) {
+        var json = new JSONObject();
+        row.forEach(json::put);
+        return new StreamingRow(json, schema.computeRowSize(json));
+    }
+
+    @Override
+    public <T> StreamingRow encode(RowCodec<T> codec, T record) {
+        var json = codec.toJson(record);
+        return new StreamingRow(json, schema.computeRowSize(json));
+    }
+
+    @Override
+    public StreamingObject toBatch(List<StreamingRow> rows, int size) {
+        JSONArray jsonBatch = new JSONArray();
+        rows.forEach(row -> jsonBatch.put(row.json()));
+        return new StreamingObject(size, jsonBatch);
+    }
+
+    @Override
+    public List<StreamingRow> toRows(StreamingObject batch) {
+        JSONArray jsonBatch = batch.jsonBatch();
+        List<StreamingRow> rows = new ArrayList<>(jsonBatch.length());
+        for (int i = 0; i < jsonBatch.length(); i++) {
+            JSONObject json = jsonBatch.getJSONObject(i);
+            rows.add(new StreamingRow(json, schema.computeRowSize(json)));
+        }
+        return rows;
+    }
+
+    @Override
+    public ApiFuture<AppendRowsResponse> append(StreamingObject batch) throws Exception {
+        return batch.offset() != null
+                ? streamWriter.append(batch.jsonBatch(), batch.offset().offset())
+                : streamWriter.append(batch.jsonBatch());
+    }
+
+    @Override
+    public void close() {
+        streamWriter.close();
+    }
+}
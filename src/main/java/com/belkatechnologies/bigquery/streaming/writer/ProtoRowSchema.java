@@ -0,0 +1,592 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+import com.google.cloud.bigquery.storage.v1.BigDecimalByteStringEncoder;
+import com.google.cloud.bigquery.storage.v1.CivilTimeEncoder;
+import com.google.cloud.bigquery.storage.v1.ProtoSchema;
+import com.google.cloud.bigquery.storage.v1.ProtoSchemaConverter;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.Descriptors;
+import lombok.Getter;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Protobuf layout of a BigQuery table built once from its {@link TableSchema}.
+ * Columns are numbered in schema order. Rows are written straight to the protobuf wire format,
+ * without an intermediate {@link com.google.protobuf.DynamicMessage}, with the wire types of the descriptor
+ * {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter} builds for the table: TIMESTAMP as epoch micros,
+ * DATE as epoch days, NUMERIC and BIGNUMERIC as scaled integers in bytes, DATETIME and TIME as packed civil time
+ * in an int64, STRUCT as a nested message and GEOGRAPHY, JSON and INTERVAL as strings. So a row has the same size
+ * in both write modes.
+ */
+public class ProtoRowSchema {
+
+    private static final int OUTPUT_BUFFER_SIZE = 256;
+
+    @Getter
+    private final TableSchema tableSchema;
+    @Getter
+    private final Descriptors.Descriptor descriptor;
+    @Getter
+    private final ProtoSchema protoSchema;
+    @Getter
+    private final MessageLayout layout;
+
+    private ProtoRowSchema(TableSchema tableSchema, Descriptors.Descriptor descriptor, MessageLayout layout) {
+        this.tableSchema = tableSchema;
+        this.descriptor = descriptor;
+        this.protoSchema = ProtoSchemaConverter.convert(descriptor);
+        this.layout = layout;
+    }
+
+    /**
+     * Builds the protobuf layout of a table.
+     *
+     * @param tableSchema The table schema, e.g. returned by the Storage Write API for the default stream.
+     * @return The protobuf row schema.
+     */
+    public static ProtoRowSchema of(TableSchema tableSchema) {
+        DescriptorProto message = toDescriptorProto("Row", tableSchema.getFieldsList());
+        FileDescriptorProto file = FileDescriptorProto.newBuilder()
+                .setName("bigquery_row.proto")
+                .addMessageType(message)
+                .build();
+        try {
+            Descriptors.Descriptor descriptor = Descriptors.FileDescriptor
+                    .buildFrom(file, new Descriptors.FileDescriptor[0])
+                    .getMessageTypes()
+                    .get(0);
+            return new ProtoRowSchema(tableSchema, descriptor, MessageLayout.of(tableSchema.getFieldsList()));
+        } catch (Descriptors.DescriptorValidationException e) {
+            throw new IllegalStateException("Can not build protobuf descriptor for table schema " + tableSchema, e);
+        }
+    }
+
+    /**
+     * Encodes a row to the protobuf wire format. Null values are skipped.
+     *
+     * @param row The map representing the row data.
+     * @return The serialized row.
+     * @throws IllegalArgumentException If the row contains an unknown column or a value of an unsupported type.
+     */
+    public ByteString encode(Map<String, ?> row) {
+        return encode(layout, row);
+    }
+
+    private static ByteString encode(MessageLayout layout, Map<?, ?> row) {
+        ByteString.Output bytes = newRowOutput();
+        CodedOutputStream out = newCodedOutput(bytes);
+        try {
+            for (Map.Entry<?, ?> entry : row.entrySet()) {
+                Object value = entry.getValue();
+                if (!isNull(value)) {
+                    writeField(out, layout.column(String.valueOf(entry.getKey())), value);
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteString();
+    }
+
+    /**
+     * Computes the exact number of bytes a JSON row takes in a {@link com.google.cloud.bigquery.storage.v1.ProtoRows} batch
+     * once converted with the field numbers and nested/repeated types of the table, i.e. the size of the serialized row
+     * plus its length-delimited framing. Null values are skipped. A value which can not be converted to the type of
+     * its column is sized as its text: {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter} decides on it
+     * when the row is appended, and a rejected row goes to the dead-letter sinks with the error BigQuery reports.
+     *
+     * @param row The JSON object representing the row data.
+     * @return The size in bytes.
+     * @throws UnknownColumnException If the row contains a column the table does not have.
+     */
+    public int computeRowSize(JSONObject row) {
+        return computeRowSize(computeMessageSize(layout, row));
+    }
+
+    /**
+     * Computes the number of bytes a serialized row takes in a {@link com.google.cloud.bigquery.storage.v1.ProtoRows} batch.
+     *
+     * @param messageSize The size of the serialized row.
+     * @return The size in bytes including the framing.
+     */
+    public static int computeRowSize(int messageSize) {
+        return CodedOutputStream.computeTagSize(1) + CodedOutputStream.computeUInt32SizeNoTag(messageSize) + messageSize;
+    }
+
+    private static int computeMessageSize(MessageLayout layout, Object message) {
+        int size = 0;
+        if (message instanceof JSONObject json) {
+            for (String key : json.keySet()) {
+                size += computeFieldSize(layout, key, json.opt(key));
+            }
+        } else if (message instanceof Map<?, ?> map) {
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                size += computeFieldSize(layout, String.valueOf(entry.getKey()), entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("Unsupported value of type " + message.getClass().getName() + " for a STRUCT");
+        }
+        return size;
+    }
+
+    private static int computeFieldSize(MessageLayout layout, String name, Object value) {
+        if (isNull(value)) {
+            return 0;
+        }
+        Column column = layout.column(name);
+        if (!column.repeated()) {
+            return computeLenientValueSize(column, value);
+        }
+        if (!(value instanceof Iterable<?> || value instanceof Object[])) {
+            return computeLenientValueSize(column, value);
+        }
+        int size = 0;
+        for (Object element : toIterable(column, value)) {
+            if (!isNull(element)) {
+                size += computeLenientValueSize(column, element);
+            }
+        }
+        return size;
+    }
+
+    private static int computeLenientValueSize(Column column, Object value) {
+        try {
+            return computeValueSize(column, value);
+        } catch (UnknownColumnException e) {
+            throw e;
+        } catch (IllegalArgumentException | ArithmeticException | DateTimeException e) {
+            return CodedOutputStream.computeStringSize(column.number(), String.valueOf(value));
+        }
+    }
+
+    private static int computeValueSize(Column column, Object value) {
+        int number = column.number();
+        return switch (column.type()) {
+            case STRING, GEOGRAPHY, INTERVAL -> CodedOutputStream.computeStringSize(number, toStringValue(value));
+            case JSON -> CodedOutputStream.computeStringSize(number, toJsonString(value));
+            case NUMERIC, BIGNUMERIC -> computeDelimitedSize(number, toScaledBytes(column, value).size());
+            case DATETIME -> CodedOutputStream.computeInt64Size(number, toPackedDatetime(column, value));
+            case TIME -> CodedOutputStream.computeInt64Size(number, toPackedTime(column, value));
+            case INT64 -> CodedOutputStream.computeInt64Size(number, toLong(column, value));
+            case DOUBLE -> CodedOutputStream.computeDoubleSize(number, 0);
+            case BOOL -> CodedOutputStream.computeBoolSize(number, false);
+            case BYTES -> computeDelimitedSize(number, computeBytesLength(column, value));
+            case TIMESTAMP -> CodedOutputStream.computeInt64Size(number, toEpochMicros(column, value));
+            case DATE -> CodedOutputStream.computeInt32Size(number, toEpochDay(column, value));
+            case STRUCT -> computeDelimitedSize(number, computeMessageSize(column.nested(), value));
+            default -> throw new IllegalArgumentException("Unsupported type " + column.type() + " of column " + column.name());
+        };
+    }
+
+    private static int computeDelimitedSize(int number, int length) {
+        return CodedOutputStream.computeTagSize(number) + CodedOutputStream.computeUInt32SizeNoTag(length) + length;
+    }
+
+    private static int computeBytesLength(Column column, Object value) {
+        if (value instanceof byte[] bytes) {
+            return bytes.length;
+        }
+        if (value instanceof ByteString byteString) {
+            return byteString.size();
+        }
+        return toBytes(column, value).size();
+    }
+
+    /**
+     * Writes a non-null value of a column, every element of it for REPEATED columns.
+     */
+    public static void writeField(CodedOutputStream out, Column column, Object value) throws IOException {
+        if (column.repeated()) {
+            for (Object element : toIterable(column, value)) {
+                if (!isNull(element)) {
+                    writeValue(out, column, element);
+                }
+            }
+        } else {
+            writeValue(out, column, value);
+        }
+    }
+
+    /**
+     * Creates an output for a single serialized row.
+     */
+    public static ByteString.Output newRowOutput() {
+        return ByteString.newOutput(OUTPUT_BUFFER_SIZE);
+    }
+
+    /**
+     * Wraps a row output with a coded stream.
+     */
+    public static CodedOutputStream newCodedOutput(ByteString.Output bytes) {
+        return CodedOutputStream.newInstance(bytes, OUTPUT_BUFFER_SIZE);
+    }
+
+    private static void writeValue(CodedOutputStream out, Column column, Object value) throws IOException {
+        int number = column.number();
+        switch (column.type()) {
+            case STRING, GEOGRAPHY, INTERVAL -> out.writeString(number, toStringValue(value));
+            case JSON -> out.writeString(number, toJsonString(value));
+            case NUMERIC, BIGNUMERIC -> out.writeBytes(number, toScaledBytes(column, value));
+            case DATETIME -> out.writeInt64(number, toPackedDatetime(column, value));
+            case TIME -> out.writeInt64(number, toPackedTime(column, value));
+            case INT64 -> out.writeInt64(number, toLong(column, value));
+            case DOUBLE -> out.writeDouble(number, toDouble(column, value));
+            case BOOL -> out.writeBool(number, toBoolean(column, value));
+            case BYTES -> out.writeBytes(number, toBytes(column, value));
+            case TIMESTAMP -> out.writeInt64(number, toEpochMicros(column, value));
+            case DATE -> out.writeInt32(number, toEpochDay(column, value));
+            case STRUCT -> out.writeBytes(number, encode(column.nested(), toMap(column, value)));
+            default -> throw new IllegalArgumentException("Unsupported type " + column.type() + " of column " + column.name());
+        }
+    }
+
+    public static boolean isNull(Object value) {
+        return value == null || JSONObject.NULL.equals(value);
+    }
+
+    private static String toStringValue(Object value) {
+        if (value instanceof BigDecimal decimal) {
+            return decimal.toPlainString();
+        }
+        if (value instanceof Enum<?> enumValue) {
+            return enumValue.name();
+        }
+        return value.toString();
+    }
+
+    private static String toJsonString(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            return new JSONObject(map).toString();
+        }
+        if (value instanceof Collection<?> collection) {
+            return new JSONArray(collection).toString();
+        }
+        return value.toString();
+    }
+
+    /**
+     * NUMERIC and BIGNUMERIC values are scaled integers in little-endian two's complement,
+     * like {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter} writes them.
+     */
+    private static ByteString toScaledBytes(Column column, Object value) {
+        BigDecimal decimal;
+        if (value instanceof BigDecimal d) {
+            decimal = d;
+        } else if (value instanceof BigInteger integer) {
+            decimal = new BigDecimal(integer);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            decimal = BigDecimal.valueOf(((Number) value).longValue());
+        } else if (value instanceof Number || value instanceof String) {
+            decimal = new BigDecimal(value.toString());
+        } else {
+            throw unsupportedValue(column, value);
+        }
+        return column.type() == TableFieldSchema.Type.NUMERIC
+                ? BigDecimalByteStringEncoder.encodeToNumericByteString(decimal)
+                : BigDecimalByteStringEncoder.encodeToBigNumericByteString(decimal);
+    }
+
+    /**
+     * Numbers are taken as already packed, like {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter} does.
+     */
+    private static long toPackedDatetime(Column column, Object value) {
+        if (value instanceof LocalDateTime dateTime) {
+            return CivilTimeEncoder.encodePacked64DatetimeMicros(dateTime);
+        }
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value instanceof String string) {
+            try {
+                return CivilTimeEncoder.encodePacked64DatetimeMicros(LocalDateTime.parse(string.trim().replace(' ', 'T')));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Can not parse datetime '" + value + "' of column " + column.name(), e);
+            }
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    /**
+     * Numbers are taken as already packed, like {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter} does.
+     */
+    private static long toPackedTime(Column column, Object value) {
+        if (value instanceof LocalTime time) {
+            return CivilTimeEncoder.encodePacked64TimeMicros(time);
+        }
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value instanceof String string) {
+            try {
+                return CivilTimeEncoder.encodePacked64TimeMicros(LocalTime.parse(string.trim()));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Can not parse time '" + value + "' of column " + column.name(), e);
+            }
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    private static long toLong(Column column, Object value) {
+        if (value instanceof Number number) {
+            return number.longValue();
+        }
+        if (value instanceof String string) {
+            return Long.parseLong(string);
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    private static double toDouble(Column column, Object value) {
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        if (value instanceof String string) {
+            return Double.parseDouble(string);
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    private static boolean toBoolean(Column column, Object value) {
+        if (value instanceof Boolean bool) {
+            return bool;
+        }
+        if (value instanceof String string) {
+            return Boolean.parseBoolean(string);
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    private static ByteString toBytes(Column column, Object value) {
+        if (value instanceof ByteString byteString) {
+            return byteString;
+        }
+        if (value instanceof byte[] bytes) {
+            return ByteString.copyFrom(bytes);
+        }
+        if (value instanceof String string) {
+            return ByteString.copyFrom(Base64.getDecoder().decode(string));
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    /**
+     * Numbers are treated as epoch micros, like {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter} does.
+     * Strings may be ISO-8601 instants or BigQuery literals such as {@code 2024-01-01 10:00:00 UTC}.
+     */
+    public static long toEpochMicros(Column column, Object value) {
+        Instant instant;
+        if (value instanceof Number number) {
+            return number.longValue();
+        } else if (value instanceof Instant i) {
+            instant = i;
+        } else if (value instanceof OffsetDateTime dateTime) {
+            instant = dateTime.toInstant();
+        } else if (value instanceof ZonedDateTime dateTime) {
+            instant = dateTime.toInstant();
+        } else if (value instanceof LocalDateTime dateTime) {
+            instant = dateTime.toInstant(ZoneOffset.UTC);
+        } else if (value instanceof Date date) {
+            instant = date.toInstant();
+        } else if (value instanceof String string) {
+            instant = parseInstant(column, string);
+        } else {
+            throw unsupportedValue(column, value);
+        }
+        return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000L), instant.getNano() / 1_000);
+    }
+
+    private static Instant parseInstant(Column column, String value) {
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException ignore) {
+        }
+        String literal = value.trim().replace(' ', 'T');
+        if (literal.endsWith("TUTC")) {
+            literal = literal.substring(0, literal.length() - 4);
+        }
+        try {
+            return OffsetDateTime.parse(literal).toInstant();
+        } catch (DateTimeParseException ignore) {
+        }
+        try {
+            return LocalDateTime.parse(literal).toInstant(ZoneOffset.UTC);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Can not parse timestamp '" + value + "' of column " + column.name(), e);
+        }
+    }
+
+    private static int toEpochDay(Column column, Object value) {
+        if (value instanceof LocalDate date) {
+            return Math.toIntExact(date.toEpochDay());
+        }
+        if (value instanceof Number number) {
+            return number.intValue();
+        }
+        if (value instanceof String string) {
+            try {
+                return Math.toIntExact(LocalDate.parse(string.trim()).toEpochDay());
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("Can not parse date '" + value + "' of column " + column.name(), e);
+            }
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    private static Map<?, ?> toMap(Column column, Object value) {
+        if (value instanceof Map<?, ?> map) {
+            return map;
+        }
+        if (value instanceof JSONObject json) {
+            return json.toMap();
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    private static Iterable<?> toIterable(Column column, Object value) {
+        if (value instanceof Iterable<?> iterable) {
+            return iterable;
+        }
+        if (value instanceof Object[] array) {
+            return Arrays.asList(array);
+        }
+        throw unsupportedValue(column, value);
+    }
+
+    private static IllegalArgumentException unsupportedValue(Column column, Object value) {
+        return new IllegalArgumentException(String.format("Unsupported value of type %s for column %s of type %s",
+                value.getClass().getName(), column.name(), column.type()));
+    }
+
+    private static DescriptorProto toDescriptorProto(String name, List<TableFieldSchema> fields) {
+        DescriptorProto.Builder message = DescriptorProto.newBuilder().setName(name);
+        for (int i = 0; i < fields.size(); i++) {
+            TableFieldSchema field = fields.get(i);
+            int number = i + 1;
+            FieldDescriptorProto.Builder fieldProto = FieldDescriptorProto.newBuilder()
+                    .setName(field.getName())
+                    .setNumber(number)
+                    .setLabel(field.getMode() == TableFieldSchema.Mode.REPEATED
+                            ? FieldDescriptorProto.Label.LABEL_REPEATED
+                            : FieldDescriptorProto.Label.LABEL_OPTIONAL);
+            if (field.getType() == TableFieldSchema.Type.STRUCT) {
+                String nestedName = "Struct" + number;
+                message.addNestedType(toDescriptorProto(nestedName, field.getFieldsList()));
+                fieldProto.setType(FieldDescriptorProto.Type.TYPE_MESSAGE).setTypeName(nestedName);
+            } else {
+                fieldProto.setType(toProtoType(field));
+            }
+            message.addField(fieldProto);
+        }
+        return message.build();
+    }
+
+    private static FieldDescriptorProto.Type toProtoType(TableFieldSchema field) {
+        return switch (field.getType()) {
+            case STRING, GEOGRAPHY, JSON, INTERVAL -> FieldDescriptorProto.Type.TYPE_STRING;
+            case NUMERIC, BIGNUMERIC -> FieldDescriptorProto.Type.TYPE_BYTES;
+            case INT64, TIMESTAMP, DATETIME, TIME -> FieldDescriptorProto.Type.TYPE_INT64;
+            case DATE -> FieldDescriptorProto.Type.TYPE_INT32;
+            case DOUBLE -> FieldDescriptorProto.Type.TYPE_DOUBLE;
+            case BOOL -> FieldDescriptorProto.Type.TYPE_BOOL;
+            case BYTES -> FieldDescriptorProto.Type.TYPE_BYTES;
+            default -> throw new IllegalArgumentException("Unsupported type " + field.getType() + " of column " + field.getName());
+        };
+    }
+
+    /**
+     * Column of a (possibly nested) message.
+     *
+     * @param name     The column name.
+     * @param number   The protobuf field number.
+     * @param type     The BigQuery type.
+     * @param repeated Whether the column is REPEATED.
+     * @param required Whether the column is REQUIRED.
+     * @param nested   The layout of a STRUCT column, null for other types.
+     */
+    public record Column(String name, int number, TableFieldSchema.Type type, boolean repeated, boolean required, MessageLayout nested) {
+    }
+
+    /**
+     * Columns of a message looked up by name, case-insensitively like BigQuery does.
+     */
+    public static class MessageLayout {
+
+        @Getter
+        private final List<Column> columns;
+        private final Map<String, Column> byName;
+
+        private MessageLayout(List<Column> columns) {
+            this.columns = Collections.unmodifiableList(columns);
+            this.byName = new HashMap<>();
+            for (Column column : columns) {
+                byName.put(column.name(), column);
+                byName.putIfAbsent(column.name().toLowerCase(Locale.ROOT), column);
+            }
+        }
+
+        static MessageLayout of(List<TableFieldSchema> fields) {
+            List<Column> columns = new ArrayList<>(fields.size());
+            for (int i = 0; i < fields.size(); i++) {
+                TableFieldSchema field = fields.get(i);
+                MessageLayout nested = field.getType() == TableFieldSchema.Type.STRUCT ? of(field.getFieldsList()) : null;
+                columns.add(new Column(field.getName(), i + 1, field.getType(),
+                        field.getMode() == TableFieldSchema.Mode.REPEATED,
+                        field.getMode() == TableFieldSchema.Mode.REQUIRED, nested));
+            }
+            return new MessageLayout(columns);
+        }
+
+        /**
+         * @throws UnknownColumnException If there is no such column.
+         */
+        public Column column(String name) {
+            Column column = byName.get(name);
+            if (column == null) {
+                column = byName.get(name.toLowerCase(Locale.ROOT));
+            }
+            if (column == null) {
+                throw new UnknownColumnException("Unknown column " + name);
+            }
+            return column;
+        }
+
+        /**
+         * @return The column or null if there is no such column.
+         */
+        public Column findColumn(String name) {
+            Column column = byName.get(name);
+            return column != null ? column : byName.get(name.toLowerCase(Locale.ROOT));
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+import com.belkatechnologies.bigquery.streaming.codec.RowCodec;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
+import com.google.cloud.bigquery.storage.v1.StreamWriter;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer encoding rows straight to protobuf with the cached {@link ProtoRowSchema} of the table
+ * and appending them with {@link StreamWriter}, so rows never pass through JSON.
+ */
+@RequiredArgsConstructor
+public class ProtoRowWriter implements StreamRowWriter {
+
+    private final StreamWriter streamWriter;
+    @Getter
+    private final ProtoRowSchema schema;
+
+    @Override
+    public StreamingRow encode(Map<String, Object> row) {
+        return new StreamingRow(schema.encode(row));
+    }
+
+    @Override
+    public <T> StreamingRow encode(RowCodec<T> codec, T record) {
+        return new StreamingRow(codec.toProto(record));
+    }
+
+    @Override
+    public StreamingObject toBatch(List<StreamingRow> rows, int size) {
+        ProtoRows.Builder protoRows = ProtoRows.newBuilder();
+        rows.forEach(row -> protoRows.addSerializedRows(row.message()));
+        return new StreamingObject(size, protoRows.build());
+    }
+
+    @Override
+    public List<StreamingRow> toRows(StreamingObject batch) {
+        List<StreamingRow> rows = new ArrayList<>(batch.rowCount());
+        batch.protoBatch().getSerializedRowsList().forEach(message -> rows.add(new StreamingRow(message)));
+        return rows;
+    }
+
+    @Override
+    public ApiFuture<AppendRowsResponse> append(StreamingObject batch) {
+        return batch.offset() != null
+                ? streamWriter.append(batch.protoBatch(), batch.offset().offset())
+                : streamWriter.append(batch.protoBatch());
+    }
+
+    @Override
+    public void close() {
+        streamWriter.close();
+    }
+}
@@ -0,0 +1,10 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+/**
+ * Record representing the position a batch is appended at in an explicitly created write stream.
+ *
+ * @param stream The name of the write stream.
+ * @param offset The offset of the first row of the batch in the stream.
+ */
+public record StreamOffset(String stream, long offset) {
+}
@@ -0,0 +1,99 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+import com.belkatechnologies.bigquery.streaming.codec.RowCodec;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encodes rows for a single table and appends batches of them to BigQuery.
+ */
+public interface StreamRowWriter extends AutoCloseable {
+
+    /**
+     * Encodes a row. Called on the producer thread when the row is put into a processor.
+     *
+     * @param row The map representing the row data.
+     * @return The encoded row with its size.
+     * @throws IllegalArgumentException If the row does not match the table schema.
+     */
+    StreamingRow encode(Map<String, Object> row);
+
+    /**
+     * Encodes a typed record with the codec of its class. Called on the producer thread when the record is put into a processor.
+     *
+     * @param codec  The codec built for the class of the record and the schema of the table.
+     * @param record The record.
+     * @return The encoded row with its size.
+     */
+    <T> StreamingRow encode(RowCodec<T> codec, T record);
+
+    /**
+     * Gets the schema the writer encodes rows with.
+     *
+     * @return The protobuf row schema of the table as it was when the writer was created.
+     */
+    ProtoRowSchema getSchema();
+
+    /**
+     * Assembles encoded rows into a batch ready to be appended.
+     *
+     * @param rows The encoded rows.
+     * @param size The total size of the rows in bytes.
+     * @return The batch.
+     */
+    StreamingObject toBatch(List<StreamingRow> rows, int size);
+
+    /**
+     * Splits a batch back into its rows, e.g. to append again the rows BigQuery did not reject.
+     *
+     * @param batch The batch assembled by {@link #toBatch(List, int)}.
+     * @return The rows of the batch in their order, with their sizes.
+     */
+    List<StreamingRow> toRows(StreamingObject batch);
+
+    /**
+     * Appends a batch to the table.
+     *
+     * @param batch The batch assembled by {@link #toBatch(List, int)}.
+     * @return The future of the append response.
+     * @throws Exception If the batch can not be sent, e.g. on serialization errors.
+     */
+    ApiFuture<AppendRowsResponse> append(StreamingObject batch) throws Exception;
+
+    /**
+     * Binds a batch to the position it is appended at, once per stream. Writers appending to the default stream
+     * have no positions and return the batch as is.
+     *
+     * @param batch The batch about to be sent.
+     * @return The batch with its {@link StreamingObject#offset()} in the stream of the writer.
+     */
+    default StreamingObject bind(StreamingObject batch) {
+        return batch;
+    }
+
+    /**
+     * Tells whether a batch has a position in the stream of the writer, so that an append of the batch
+     * which does not land leaves a gap in the stream.
+     *
+     * @param batch The batch.
+     * @return True if the batch is bound to the stream of the writer.
+     */
+    default boolean isBound(StreamingObject batch) {
+        return false;
+    }
+
+    /**
+     * Finalizes the stream the writer appends to, if it has been created for the writer. Nothing can be appended
+     * to the stream afterwards, the default stream is never finalized.
+     */
+    default void finalizeStream() {
+    }
+
+    @Override
+    void close();
+}
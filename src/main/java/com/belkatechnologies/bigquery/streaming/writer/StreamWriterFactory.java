@@ -0,0 +1,153 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+import com.belkatechnologies.bigquery.streaming.transport.StreamingTransport;
+import com.google.cloud.bigquery.storage.v1.*;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates {@link StreamRowWriter}s for stream processors according to the configured {@link WriteMode}.
+ * Protobuf row schemas are fetched once per table and cached.
+ * All writers share the channel pool and the executor of the {@link StreamingTransport}.
+ * In exactly-once mode writers append to COMMITTED streams created for them, at explicit offsets.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class StreamWriterFactory {
+
+    @Getter
+    private final WriteMode writeMode;
+    @Getter
+    private final StreamingTransport transport;
+    @Getter
+    private final boolean exactlyOnce;
+
+    private final Map<TableName, ProtoRowSchema> schemas = new ConcurrentHashMap<>();
+
+    public StreamWriterFactory(WriteMode writeMode, StreamingTransport transport) {
+        this(writeMode, transport, false);
+    }
+
+    /**
+     * Creates a writer appending to the default stream of the table or, in exactly-once mode,
+     * to a new COMMITTED stream of the table.
+     *
+     * @param tableName The BigQuery object representing the table (project, dataset, table).
+     * @param client    BigQuery Write client.
+     * @return The writer.
+     * @throws Exception If the writer can not be created.
+     */
+    public StreamRowWriter create(TableName tableName, BigQueryWriteClient client) throws Exception {
+        if (!exactlyOnce) {
+            return createWriter(tableName, defaultStreamName(tableName), client);
+        }
+        return create(tableName, client, WriteStream.Type.COMMITTED);
+    }
+
+    /**
+     * Creates a new write stream of the table and a writer appending to it at explicit offsets.
+     *
+     * @param tableName The BigQuery object representing the table (project, dataset, table).
+     * @param client    BigQuery Write client.
+     * @param type      The type of the stream, COMMITTED or PENDING.
+     * @return The writer.
+     * @throws Exception If the stream or the writer can not be created.
+     */
+    public ExplicitStreamWriter create(TableName tableName, BigQueryWriteClient client, WriteStream.Type type) throws Exception {
+        WriteStream writeStream = client.createWriteStream(CreateWriteStreamRequest.newBuilder()
+                .setParent(tableName.toString())
+                .setWriteStream(WriteStream.newBuilder().setType(type).build())
+                .build());
+        log.debug("Created {} write stream {}", type, writeStream.getName());
+        return reopen(new ExplicitStreamWriter.Stream(writeStream.getName(), new AtomicLong()), tableName, client);
+    }
+
+    /**
+     * Creates a writer replacing the given one, e.g. to restore the connection. A writer of an application-created
+     * stream is replaced by a writer of the same stream, continuing at the same offset.
+     *
+     * @param previous  The writer to replace, closed by the caller.
+     * @param tableName The BigQuery object representing the table (project, dataset, table).
+     * @param client    BigQuery Write client.
+     * @return The writer.
+     * @throws Exception If the writer can not be created.
+     */
+    public StreamRowWriter recreate(StreamRowWriter previous, TableName tableName, BigQueryWriteClient client) throws Exception {
+        if (previous instanceof ExplicitStreamWriter explicit) {
+            return reopen(explicit.getStream(), tableName, client);
+        }
+        return create(tableName, client);
+    }
+
+    private ExplicitStreamWriter reopen(ExplicitStreamWriter.Stream stream, TableName tableName, BigQueryWriteClient client) throws Exception {
+        return new ExplicitStreamWriter(createWriter(tableName, stream.name(), client), stream, client);
+    }
+
+    private StreamRowWriter createWriter(TableName tableName, String streamName, BigQueryWriteClient client) throws Exception {
+        // connections are pooled for the default stream only
+        boolean defaultStream = streamName.equals(defaultStreamName(tableName));
+        return switch (writeMode) {
+            case JSON -> new JsonRowWriter(JsonStreamWriter.newBuilder(defaultStream ? tableName.toString() : streamName, client)
+                    .setExecutorProvider(transport.getExecutorProvider())
+                    .setChannelProvider(transport.getChannelProvider())
+                    .setEnableConnectionPool(defaultStream)
+                    .build(), getSchema(tableName, client));
+            case PROTO -> {
+                ProtoRowSchema schema = getSchema(tableName, client);
+                yield new ProtoRowWriter(StreamWriter.newBuilder(streamName, client)
+                        .setWriterSchema(schema.getProtoSchema())
+                        .setExecutorProvider(transport.getExecutorProvider())
+                        .setChannelProvider(transport.getChannelProvider())
+                        .setEnableConnectionPool(defaultStream)
+                        .build(), schema);
+            }
+        };
+    }
+
+    /**
+     * Gets the cached protobuf row schema of the table, fetching the table schema on the first call.
+     *
+     * @param tableName The BigQuery object representing the table (project, dataset, table).
+     * @param client    BigQuery Write client.
+     * @return The protobuf row schema.
+     */
+    public ProtoRowSchema getSchema(TableName tableName, BigQueryWriteClient client) {
+        return schemas.computeIfAbsent(tableName, table -> {
+            log.debug("Fetch schema for table {}", table);
+            return ProtoRowSchema.of(fetchTableSchema(table, client));
+        });
+    }
+
+    /**
+     * Replaces the cached schema of the table, e.g. after a column has been added. Writers created afterwards use it.
+     *
+     * @param tableName   The BigQuery object representing the table (project, dataset, table).
+     * @param tableSchema The current schema of the table.
+     * @return The protobuf row schema.
+     */
+    public ProtoRowSchema updateSchema(TableName tableName, TableSchema tableSchema) {
+        return schemas.compute(tableName, (table, cached) -> cached != null && cached.getTableSchema().equals(tableSchema)
+                ? cached
+                : ProtoRowSchema.of(tableSchema));
+    }
+
+    /**
+     * Fetches the current schema of the table from the Storage Write API.
+     */
+    public static TableSchema fetchTableSchema(TableName tableName, BigQueryWriteClient client) {
+        WriteStream writeStream = client.getWriteStream(GetWriteStreamRequest.newBuilder()
+                .setName(defaultStreamName(tableName))
+                .setView(WriteStreamView.FULL)
+                .build());
+        return writeStream.getTableSchema();
+    }
+
+    public static String defaultStreamName(TableName tableName) {
+        return tableName.toString() + "/streams/_default";
+    }
+}
@@ -0,0 +1,12 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+/**
+ * Thrown when a row has a column which the table schema known to the writer does not have,
+ * e.g. because the column has been added to the table since the schema was fetched.
+ */
+public class UnknownColumnException extends IllegalArgumentException {
+
+    public UnknownColumnException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,17 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+/**
+ * Defines how stream processors encode rows and which Storage Write API writer they append with.
+ */
+public enum WriteMode {
+    /**
+     * Rows are kept as JSON objects and appended by {@link com.google.cloud.bigquery.storage.v1.JsonStreamWriter},
+     * which converts them to protobuf inside the client.
+     */
+    JSON,
+    /**
+     * Rows are encoded to protobuf once, when they are put, using the descriptor built from the table schema,
+     * and appended by {@link com.google.cloud.bigquery.storage.v1.StreamWriter}.
+     */
+    PROTO
+}
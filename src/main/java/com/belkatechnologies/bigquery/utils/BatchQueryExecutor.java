@@ -4,7 +4,6 @@ import com.belkatechnologies.bigquery.manager.BigQueryManager;
 import com.belkatechnologies.bigquery.manager.FieldValueListDecorator;
 import com.google.cloud.bigquery.FieldValueList;
 import com.google.cloud.bigquery.TableResult;
-import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import lombok.extern.slf4j.Slf4j;
 
 import javax.annotation.Nullable;
@@ -27,6 +26,7 @@ public class BatchQueryExecutor {
     private final AtomicInteger counter = new AtomicInteger();
     private final Consumer<FieldValueListDecorator> function;
     private final String countField;
+    private final boolean virtualThreads;
 
     /**
      * Constructs a BatchQueryExecutor instance.
@@ -39,12 +39,29 @@ public class BatchQueryExecutor {
      * @param function    The consumer function to process fetched data.
      */
     public BatchQueryExecutor(String countQuery, String baseQuery, BigQueryManager bq, String name, String countField, Consumer<FieldValueListDecorator> function) {
+        this(countQuery, baseQuery, bq, name, countField, function, false);
+    }
+
+    /**
+     * Constructs a BatchQueryExecutor instance.
+     *
+     * @param countQuery     The query to get the count of rows.
+     * @param baseQuery      The base query for fetching data.
+     * @param bq             The BigQuery manager.
+     * @param name           The name of the batch query.
+     * @param countField     The field used for counting.
+     * @param function       The consumer function to process fetched data.
+     * @param virtualThreads Whether to run the batches on virtual threads, see {@code bigquery.virtual-threads}.
+     */
+    public BatchQueryExecutor(String countQuery, String baseQuery, BigQueryManager bq, String name, String countField,
+                              Consumer<FieldValueListDecorator> function, boolean virtualThreads) {
         this.countQuery = countQuery;
         this.baseQuery = baseQuery;
         this.bq = bq;
         this.name = name;
         this.function = function;
         this.countField = countField;
+        this.virtualThreads = virtualThreads;
     }
 
     /**
@@ -53,7 +70,8 @@ public class BatchQueryExecutor {
     public void fetch() {
         long rowCounts = bq.one(countQuery, values -> values.getLong("count"));
         int batchCount = Math.min(20, (int) (rowCounts / 200_000) + 1);
-        ExecutorService executor = Executors.newFixedThreadPool(batchCount, new ThreadFactoryBuilder().setNameFormat("batch-query-thread-%d").build());
+        ExecutorService executor = Executors.newFixedThreadPool(batchCount,
+                ThreadFactories.create("batch-query-thread-%d", virtualThreads));
         log.info("Begin init {}, count {}, thread count {}", name, rowCounts, batchCount);
         for (int i = 0; i < batchCount; i++) {
             final int currentBatchNumber = i;
@@ -0,0 +1,65 @@
+package com.belkatechnologies.bigquery.utils;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Creates the thread factories of the pools of the starter. With {@code bigquery.virtual-threads} the pools run their
+ * tasks on virtual threads, so the threads blocked on BigQuery calls, sleeps and waits do not hold platform threads.
+ * Virtual threads need Java 21; the starter is built for Java 17, so they are looked up reflectively and platform
+ * threads are used on older runtimes.
+ */
+@Slf4j
+public class ThreadFactories {
+
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    /**
+     * Creates a factory of named threads.
+     *
+     * @param nameFormat The name of the threads with a {@code %d} for their number, e.g. {@code snapshot-thread-%d}.
+     * @param virtual    Whether to create virtual threads when the runtime supports them.
+     * @return The thread factory.
+     */
+    public static ThreadFactory create(String nameFormat, boolean virtual) {
+        if (virtual) {
+            if (isVirtualThreadsSupported()) {
+                return virtualThreadFactory(nameFormat);
+            }
+            log.warn("Virtual threads need Java 21, pool {} uses platform threads", nameFormat);
+        }
+        return new ThreadFactoryBuilder().setNameFormat(nameFormat).build();
+    }
+
+    public static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    private static ThreadFactory virtualThreadFactory(String nameFormat) {
+        int number = nameFormat.indexOf("%d");
+        String prefix = number >= 0 ? nameFormat.substring(0, number) : nameFormat;
+        try {
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new RuntimeException("Can not create virtual threads " + nameFormat, e);
+        }
+    }
+
+    private static Method findOfVirtual() {
+        // a preview API before Java 21
+        if (Runtime.version().feature() < 21) {
+            return null;
+        }
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -16,6 +16,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -100,6 +101,51 @@ public class NewStreamTests {
         deleteTable(tableTest);
     }
 
+    /**
+     * Writes the same rows through a standalone processor (default stream) and through a bulk session (PENDING streams)
+     * into two tables, logging the throughput of both paths.
+     */
+    @SneakyThrows
+    @Test
+    public void bulkThroughputTest() {
+        String project = bigQueryProperties.getData().getProject();
+        String defaultTableTest = "journal_table_test_" + UUID.randomUUID();
+        String bulkTableTest = "journal_table_test_" + UUID.randomUUID();
+        String secondBulkTableTest = "journal_table_test_" + UUID.randomUUID();
+        createNewTestTable(defaultTableTest);
+        createNewTestTable(bulkTableTest);
+        createNewTestTable(secondBulkTableTest);
+        TableName defaultTable = TableName.of(project, "unit_tests", defaultTableTest);
+        TableName bulkTable = TableName.of(project, "unit_tests", bulkTableTest);
+        TableName secondBulkTable = TableName.of(project, "unit_tests", secondBulkTableTest);
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            rows.add(createRow());
+        }
+
+        long start = System.nanoTime();
+        streamingManager.executeOnceOnStandalone(defaultTable, processor -> processor.putBatch(rows));
+        long defaultNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        Map<TableName, Long> committed = streamingManager.executeBulk(List.of(bulkTable, secondBulkTable), session -> {
+            session.putBatch(bulkTable, rows);
+            session.putBatch(secondBulkTable, rows);
+        });
+        long bulkNanos = System.nanoTime() - start;
+        log.info("default stream: {} rows/s, bulk: {} rows/s",
+                (long) (rows.size() * 1e9 / defaultNanos), (long) (2 * rows.size() * 1e9 / bulkNanos));
+
+        Assertions.assertEquals(rows.size(), committed.get(bulkTable));
+        Assertions.assertEquals(rows.size(), committed.get(secondBulkTable));
+        for (String tableTest : List.of(defaultTableTest, bulkTableTest, secondBulkTableTest)) {
+            String queryRowCount = String.format("SELECT COUNT(*) FROM `%s.unit_tests.%s` where timestamp is not null", project, tableTest);
+            long count = FieldValueListDecorator.getSingleValue(bigQueryManager.query(queryRowCount)).getLongValue();
+            Assertions.assertEquals(rows.size(), count);
+            deleteTable(tableTest);
+        }
+    }
+
     private Map<String, Object> createRow() {
         Map<String, Object> record = new HashMap();
         record.put("timestamp", Instant.now().toString());
@@ -10,7 +10,6 @@ import org.springframework.beans.factory.config.BeanDefinition;
 import org.springframework.context.annotation.Scope;
 import org.springframework.stereotype.Component;
 
-import java.util.concurrent.Phaser;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Slf4j
@@ -18,8 +17,8 @@ import java.util.concurrent.atomic.AtomicLong;
 @Scope(BeanDefinition.SCOPE_PROTOTYPE)
 public class TestCallBack extends DefaultAbstractAppendCompleteCallback {
 
-    public TestCallBack(BigQueryStreamProcessor parent, StreamingObject batch, Phaser phaser, AtomicLong processedRows, AtomicLong processedBytes) {
-        super(parent, batch, phaser, processedRows, processedBytes);
+    public TestCallBack(BigQueryStreamProcessor parent, StreamingObject batch, AtomicLong processedRows, AtomicLong processedBytes) {
+        super(parent, batch, processedRows, processedBytes);
     }
 
     @Override
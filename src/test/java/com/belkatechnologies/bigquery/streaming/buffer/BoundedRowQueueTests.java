@@ -0,0 +1,88 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class BoundedRowQueueTests {
+
+    @Test
+    public void pushedBackRowIsPolledFirstTest() {
+        BoundedRowQueue queue = queue(1_000);
+        StreamingRow first = row(1, 100);
+        StreamingRow second = row(2, 200);
+        queue.offer(first);
+        queue.offer(second);
+
+        Assertions.assertSame(first, queue.poll());
+        Assertions.assertEquals(200, queue.getCapacity().getBytes());
+        queue.pushBack(first);
+
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertEquals(300, queue.getCapacity().getBytes());
+        Assertions.assertSame(first, queue.peek());
+        Assertions.assertSame(first, queue.poll());
+        Assertions.assertSame(second, queue.poll());
+        Assertions.assertTrue(queue.isEmpty());
+        Assertions.assertEquals(0, queue.getCapacity().getBytes());
+    }
+
+    @Test
+    public void pushBackIgnoresTheCapacityTest() {
+        BoundedRowQueue queue = queue(300);
+        StreamingRow first = row(1, 200);
+        queue.offer(first);
+        Assertions.assertSame(first, queue.poll());
+        // a producer takes the room while the row is being sized
+        queue.offer(row(2, 200));
+
+        queue.pushBack(first);
+
+        Assertions.assertEquals(400, queue.getCapacity().getBytes());
+        Assertions.assertThrows(BufferOverflowException.class, () -> queue.offer(row(3, 1)));
+        Assertions.assertSame(first, queue.poll());
+    }
+
+    @Test
+    public void droppedRowsAreNotReportedAsAddedTest() {
+        BoundedRowQueue queue = queue(300, OverflowPolicy.DROP_NEWEST);
+        List<StreamingRow> dropped = new ArrayList<>();
+        queue.setDropListener(dropped::add);
+        StreamingRow kept = row(1, 200);
+        StreamingRow late = row(2, 200);
+
+        Assertions.assertTrue(queue.offer(kept));
+        Assertions.assertFalse(queue.offer(late));
+        Assertions.assertEquals(List.of(late), dropped);
+
+        List<StreamingRow> batch = List.of(row(3, 50), row(4, 100), row(5, 50));
+        Assertions.assertEquals(List.of(batch.get(0), batch.get(2)), queue.offerAll(batch));
+        Assertions.assertEquals(3, queue.size());
+        Assertions.assertEquals(List.of(late, batch.get(1)), dropped);
+    }
+
+    @Test
+    public void batchAcceptedAsAWholeIsReturnedTest() {
+        BoundedRowQueue queue = queue(1_000);
+        List<StreamingRow> batch = List.of(row(1, 100), row(2, 100));
+
+        Assertions.assertSame(batch, queue.offerAll(batch));
+    }
+
+    private static BoundedRowQueue queue(long maxBytes) {
+        return queue(maxBytes, OverflowPolicy.REJECT);
+    }
+
+    private static BoundedRowQueue queue(long maxBytes, OverflowPolicy overflowPolicy) {
+        return new BoundedRowQueue(new ConcurrentLinkedQueue<>(), new BufferCapacity(null, maxBytes, null), overflowPolicy, 0);
+    }
+
+    private static StreamingRow row(long id, int size) {
+        return new StreamingRow(new JSONObject().put("id", id), size);
+    }
+}
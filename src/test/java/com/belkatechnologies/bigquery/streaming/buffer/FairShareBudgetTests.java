@@ -0,0 +1,104 @@
+package com.belkatechnologies.bigquery.streaming.buffer;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.priority.Priority;
+import com.belkatechnologies.bigquery.streaming.priority.PriorityLanes;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+public class FairShareBudgetTests {
+
+    private static final long BUDGET = 1_000;
+
+    @Test
+    public void belowHalfOfBudgetNothingIsThrottledTest() {
+        FairShareBudget budget = new FairShareBudget(null, BUDGET, Map.of("busy", 0.1), PriorityLanes.UNLIMITED);
+        BufferCapacity busy = table(budget, "busy");
+        BufferCapacity quiet = table(budget, "quiet");
+
+        Assertions.assertTrue(busy.tryAcquire(1, 450));
+        Assertions.assertTrue(quiet.tryAcquire(1, 50));
+        Assertions.assertEquals(0, busy.getThrottled());
+        Assertions.assertEquals(500, budget.getBytes());
+    }
+
+    @Test
+    public void tableAboveItsShareIsThrottledFirstTest() {
+        FairShareBudget budget = new FairShareBudget(null, BUDGET, Map.of("quiet", 3.0), PriorityLanes.UNLIMITED);
+        BufferCapacity busy = table(budget, "busy");
+        BufferCapacity quiet = table(budget, "quiet");
+
+        Assertions.assertTrue(busy.tryAcquire(1, 450));
+        // above half of the budget the shares are split 1:3 between the tables holding rows
+        Assertions.assertTrue(quiet.tryAcquire(1, 100));
+        Assertions.assertEquals(250, busy.getFairShareBytes());
+        Assertions.assertEquals(750, quiet.getFairShareBytes());
+
+        // the busy table is above its share and the rest of the budget is promised to the quiet one
+        Assertions.assertFalse(busy.tryAcquire(1, 100));
+        Assertions.assertEquals(1, busy.getThrottled());
+        Assertions.assertEquals(450, busy.getBytes());
+        Assertions.assertEquals(550, budget.getBytes());
+
+        // the quiet table still finds room up to its share
+        Assertions.assertTrue(quiet.tryAcquire(1, 300));
+        Assertions.assertEquals(0, quiet.getThrottled());
+        Assertions.assertEquals(850, budget.getBytes());
+    }
+
+    @Test
+    public void priorityClassWeighsUnlistedTablesTest() {
+        BigQueryProperties.PriorityProperties properties = new BigQueryProperties.PriorityProperties();
+        properties.setTables(Map.of("payments", Priority.HIGH, "audit", Priority.LOW));
+        FairShareBudget budget = new FairShareBudget(null, BUDGET, Map.of(), new PriorityLanes(properties, 4));
+        BufferCapacity payments = table(budget, "payments");
+        BufferCapacity audit = table(budget, "audit");
+
+        Assertions.assertTrue(payments.tryAcquire(1, 300));
+        Assertions.assertTrue(audit.tryAcquire(1, 200));
+        Assertions.assertTrue(payments.tryAcquire(1, 100));
+
+        double weights = Priority.HIGH.getWeight() + Priority.LOW.getWeight();
+        Assertions.assertEquals((long) (BUDGET * Priority.HIGH.getWeight() / weights), payments.getFairShareBytes());
+        Assertions.assertEquals((long) (BUDGET * Priority.LOW.getWeight() / weights), audit.getFairShareBytes());
+    }
+
+    @Test
+    public void writersOfTableSplitItsWeightTest() {
+        FairShareBudget budget = new FairShareBudget(null, BUDGET, Map.of(), PriorityLanes.UNLIMITED);
+        BufferCapacity firstWriter = table(budget, "fanned_out");
+        BufferCapacity secondWriter = table(budget, "fanned_out");
+        firstWriter.split(2);
+        secondWriter.split(2);
+        BufferCapacity single = table(budget, "single");
+
+        Assertions.assertTrue(firstWriter.tryAcquire(1, 200));
+        Assertions.assertTrue(secondWriter.tryAcquire(1, 200));
+        Assertions.assertTrue(single.tryAcquire(1, 100));
+        Assertions.assertTrue(single.tryAcquire(1, 50));
+
+        // both tables weigh the same, whatever the number of writers
+        Assertions.assertEquals(250, firstWriter.getFairShareBytes());
+        Assertions.assertEquals(250, secondWriter.getFairShareBytes());
+        Assertions.assertEquals(500, single.getFairShareBytes());
+    }
+
+    @Test
+    public void detachedTableLeavesSharesTest() {
+        FairShareBudget budget = new FairShareBudget(null, BUDGET, Map.of(), PriorityLanes.UNLIMITED);
+        BufferCapacity closed = table(budget, "closed");
+        BufferCapacity open = table(budget, "open");
+        closed.detach();
+
+        Assertions.assertTrue(open.tryAcquire(1, 600));
+        Assertions.assertEquals(BUDGET, open.getFairShareBytes());
+    }
+
+    private static BufferCapacity table(FairShareBudget budget, String table) {
+        BufferCapacity capacity = new BufferCapacity(null, null, budget);
+        capacity.attach(table);
+        return capacity;
+    }
+}
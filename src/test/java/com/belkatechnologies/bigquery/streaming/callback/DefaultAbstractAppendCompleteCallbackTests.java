@@ -0,0 +1,143 @@
+package com.belkatechnologies.bigquery.streaming.callback;
+
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.writer.StreamOffset;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import io.grpc.Status;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class DefaultAbstractAppendCompleteCallbackTests {
+
+    private static final TableName TABLE = TableName.of("test", "test_dataset", "callback");
+
+    private final List<String> parentCalls = new CopyOnWriteArrayList<>();
+    private final BigQueryStreamProcessor parent = (BigQueryStreamProcessor) Proxy.newProxyInstance(
+            BigQueryStreamProcessor.class.getClassLoader(), new Class<?>[]{BigQueryStreamProcessor.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("getTable")) {
+                    return TABLE;
+                }
+                parentCalls.add(method.getName());
+                return null;
+            });
+    // the processor waits for the second party, an extra arrival would advance the phase
+    private final Phaser phaser = new Phaser(2);
+    private final AtomicLong processedRows = new AtomicLong();
+    private final AtomicLong processedBytes = new AtomicLong();
+
+    @Test
+    public void alreadyExistsResponseIsSuccessTest() {
+        RecordingCallback callback = callback(batch().withOffset(new StreamOffset("stream", 10)));
+
+        callback.onSuccess(errorResponse(Status.Code.ALREADY_EXISTS));
+
+        Assertions.assertEquals(List.of("releaseBatch"), parentCalls);
+        Assertions.assertEquals(List.of("doOnSuccess"), callback.calls);
+        Assertions.assertEquals(2, processedRows.get());
+        Assertions.assertEquals(20, processedBytes.get());
+        assertArrivedOnce();
+    }
+
+    @Test
+    public void alreadyExistsFailureIsSuccessTest() {
+        RecordingCallback callback = callback(batch().withOffset(new StreamOffset("stream", 10)));
+
+        callback.onFailure(Status.ALREADY_EXISTS.withDescription("Offset 10 is already written").asRuntimeException());
+
+        Assertions.assertEquals(List.of("releaseBatch"), parentCalls);
+        Assertions.assertEquals(List.of("doOnSuccess"), callback.calls);
+        Assertions.assertEquals(2, processedRows.get());
+        assertArrivedOnce();
+    }
+
+    @Test
+    public void alreadyExistsWithoutOffsetIsNotSuccessTest() {
+        RecordingCallback callback = callback(batch());
+
+        callback.onSuccess(errorResponse(Status.Code.ALREADY_EXISTS));
+
+        Assertions.assertEquals(List.of("failBatch"), parentCalls);
+        Assertions.assertEquals(List.of("doOnSuccessButHasError"), callback.calls);
+        Assertions.assertEquals(0, processedRows.get());
+        assertArrivedOnce();
+    }
+
+    @Test
+    public void outOfRangeResponseIsDeferredTest() {
+        RecordingCallback callback = callback(batch().withOffset(new StreamOffset("stream", 10)));
+
+        callback.onSuccess(errorResponse(Status.Code.OUT_OF_RANGE));
+
+        Assertions.assertEquals(List.of("deferBatch"), parentCalls);
+        Assertions.assertEquals(List.of("doOnSuccessButHasError"), callback.calls);
+        Assertions.assertEquals(0, processedRows.get());
+        assertArrivedOnce();
+    }
+
+    @Test
+    public void outOfRangeFailureIsDeferredTest() {
+        RecordingCallback callback = callback(batch().withOffset(new StreamOffset("stream", 10)));
+
+        callback.onFailure(Status.OUT_OF_RANGE.asRuntimeException());
+
+        Assertions.assertEquals(List.of("deferBatch"), parentCalls);
+        Assertions.assertEquals(List.of("doOnFailure"), callback.calls);
+        assertArrivedOnce();
+    }
+
+    private void assertArrivedOnce() {
+        Assertions.assertEquals(0, phaser.getPhase());
+        Assertions.assertEquals(1, phaser.getArrivedParties());
+    }
+
+    private RecordingCallback callback(StreamingObject batch) {
+        return new RecordingCallback(parent, batch, phaser, processedRows, processedBytes);
+    }
+
+    private static StreamingObject batch() {
+        return new StreamingObject(20, new JSONArray().put(new JSONObject().put("id", 1)).put(new JSONObject().put("id", 2)));
+    }
+
+    private static AppendRowsResponse errorResponse(Status.Code code) {
+        return AppendRowsResponse.newBuilder()
+                .setError(com.google.rpc.Status.newBuilder().setCode(code.value()).setMessage(code.name()))
+                .build();
+    }
+
+    private static class RecordingCallback extends DefaultAbstractAppendCompleteCallback {
+
+        private final List<String> calls = new CopyOnWriteArrayList<>();
+
+        @SuppressWarnings("deprecation")
+        RecordingCallback(BigQueryStreamProcessor parent, StreamingObject batch, Phaser phaser,
+                          AtomicLong processedRows, AtomicLong processedBytes) {
+            super(parent, batch, phaser, processedRows, processedBytes);
+        }
+
+        @Override
+        public void doOnSuccess(AppendRowsResponse response) {
+            calls.add("doOnSuccess");
+        }
+
+        @Override
+        public void doOnSuccessButHasError(AppendRowsResponse response) {
+            calls.add("doOnSuccessButHasError");
+        }
+
+        @Override
+        public void doOnFailure(Throwable throwable) {
+            calls.add("doOnFailure");
+        }
+    }
+}
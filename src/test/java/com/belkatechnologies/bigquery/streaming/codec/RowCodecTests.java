@@ -0,0 +1,118 @@
+package com.belkatechnologies.bigquery.streaming.codec;
+
+import com.belkatechnologies.bigquery.streaming.writer.ProtoRowSchema;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class RowCodecTests {
+
+    private static final ProtoRowSchema SCHEMA = ProtoRowSchema.of(TableSchema.newBuilder()
+            .addFields(field("id", TableFieldSchema.Type.INT64, TableFieldSchema.Mode.REQUIRED))
+            .addFields(field("event_name", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("kind", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("created", TableFieldSchema.Type.TIMESTAMP, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("tags", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.REPEATED))
+            .addFields(TableFieldSchema.newBuilder()
+                    .setName("device")
+                    .setType(TableFieldSchema.Type.STRUCT)
+                    .setMode(TableFieldSchema.Mode.NULLABLE)
+                    .addFields(field("model", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.NULLABLE)))
+            .build());
+
+    public enum Kind { CLICK, VIEW }
+
+    public record Device(String model) {
+    }
+
+    public record Event(long id, @BigQueryColumn("event_name") String name, Kind kind, Instant created,
+                        List<String> tags, Device device, @BigQueryColumn(ignore = true) String secret) {
+    }
+
+    public record UnknownColumn(long id, String missing) {
+    }
+
+    public record WithoutRequired(String kind) {
+    }
+
+    public record WrongType(Instant id) {
+    }
+
+    @Test
+    public void protoMatchesEncodedMapTest() {
+        RowCodec<Event> codec = RowCodec.of(Event.class, SCHEMA.getLayout());
+        Instant created = Instant.ofEpochSecond(1_700_000_000L, 123_000);
+        Event event = new Event(42, "open", Kind.CLICK, created, List.of("a", "b"), null, "hidden");
+
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 42L);
+        row.put("event_name", "open");
+        row.put("kind", "CLICK");
+        row.put("created", created);
+        row.put("tags", List.of("a", "b"));
+
+        Assertions.assertEquals(SCHEMA.encode(row), codec.toProto(event));
+    }
+
+    @Test
+    public void jsonUsesColumnNamesAndSkipsNullsTest() {
+        RowCodec<Event> codec = RowCodec.of(Event.class, SCHEMA.getLayout());
+        Instant created = Instant.ofEpochSecond(1_700_000_000L, 123_000);
+        Event event = new Event(42, "open", Kind.VIEW, created, List.of("a"), new Device("pixel"), "hidden");
+
+        JSONObject json = codec.toJson(event);
+
+        Assertions.assertEquals(42L, json.getLong("id"));
+        Assertions.assertEquals("open", json.getString("event_name"));
+        Assertions.assertEquals("VIEW", json.getString("kind"));
+        Assertions.assertEquals(1_700_000_000_000_123L, json.getLong("created"));
+        Assertions.assertEquals("a", json.getJSONArray("tags").getString(0));
+        Assertions.assertEquals("pixel", json.getJSONObject("device").getString("model"));
+        Assertions.assertFalse(json.has("secret"));
+
+        JSONObject sparse = codec.toJson(new Event(1, null, null, null, null, null, null));
+        Assertions.assertEquals(Set.of("id"), sparse.keySet());
+    }
+
+    @Test
+    public void unknownColumnFailsTest() {
+        SchemaMismatchException e = Assertions.assertThrows(SchemaMismatchException.class,
+                () -> RowCodec.of(UnknownColumn.class, SCHEMA.getLayout()));
+        Assertions.assertTrue(e.getMessage().contains("missing"));
+    }
+
+    @Test
+    public void unmappedRequiredColumnFailsTest() {
+        SchemaMismatchException e = Assertions.assertThrows(SchemaMismatchException.class,
+                () -> RowCodec.of(WithoutRequired.class, SCHEMA.getLayout()));
+        Assertions.assertTrue(e.getMessage().contains("id"));
+    }
+
+    @Test
+    public void incompatibleTypeFailsTest() {
+        Assertions.assertThrows(SchemaMismatchException.class, () -> RowCodec.of(WrongType.class, SCHEMA.getLayout()));
+    }
+
+    @Test
+    public void accessorIsFoundIgnoringCaseTest() {
+        Event event = new Event(7, "open", Kind.CLICK, null, null, null, "hidden");
+
+        PropertyAccessor accessor = RowCodec.accessorOf(Event.class, "EVENT_NAME");
+
+        Assertions.assertNotNull(accessor);
+        Assertions.assertEquals("open", accessor.get(event));
+        Assertions.assertNull(RowCodec.accessorOf(Event.class, "secret"));
+    }
+
+    private static TableFieldSchema.Builder field(String name, TableFieldSchema.Type type, TableFieldSchema.Mode mode) {
+        return TableFieldSchema.newBuilder().setName(name).setType(type).setMode(mode);
+    }
+}
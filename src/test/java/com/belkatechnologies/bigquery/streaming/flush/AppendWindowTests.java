@@ -0,0 +1,75 @@
+package com.belkatechnologies.bigquery.streaming.flush;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AppendWindowTests {
+
+    @Test
+    public void requestLimitHoldsAppendsTest() throws Exception {
+        AppendWindow window = new AppendWindow(2, 0);
+
+        Assertions.assertTrue(window.tryAcquire(10, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(window.tryAcquire(10, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(window.tryAcquire(10, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(2, window.getInFlightRequests());
+        Assertions.assertEquals(20, window.getInFlightBytes());
+
+        window.release(10);
+        Assertions.assertTrue(window.tryAcquire(10, 0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void byteLimitHoldsAppendsTest() throws Exception {
+        AppendWindow window = new AppendWindow(0, 100);
+
+        Assertions.assertTrue(window.tryAcquire(60, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertFalse(window.tryAcquire(50, 10, TimeUnit.MILLISECONDS));
+        Assertions.assertTrue(window.tryAcquire(40, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(100, window.getInFlightBytes());
+    }
+
+    @Test
+    public void emptyWindowAdmitsOversizedBatchTest() throws Exception {
+        AppendWindow window = new AppendWindow(1, 100);
+
+        Assertions.assertTrue(window.tryAcquire(500, 0, TimeUnit.MILLISECONDS));
+        Assertions.assertEquals(500, window.getInFlightBytes());
+    }
+
+    @Test
+    public void releaseWakesWaitingAppendTest() throws Exception {
+        AppendWindow window = new AppendWindow(1, 0);
+        window.acquire(10);
+
+        CompletableFuture<Void> waiting = CompletableFuture.runAsync(() -> {
+            try {
+                window.acquire(20);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Assertions.assertThrows(Exception.class, () -> waiting.get(50, TimeUnit.MILLISECONDS));
+
+        window.release(10);
+        waiting.get(5, TimeUnit.SECONDS);
+        Assertions.assertEquals(1, window.getInFlightRequests());
+        Assertions.assertEquals(20, window.getInFlightBytes());
+    }
+
+    @Test
+    public void awaitEmptyWaitsForAllAppendsTest() throws Exception {
+        AppendWindow window = new AppendWindow(0, 0);
+        window.acquire(10);
+        window.acquire(10);
+
+        Assertions.assertFalse(window.awaitEmpty(10, TimeUnit.MILLISECONDS));
+
+        window.release(10);
+        window.release(10);
+        Assertions.assertTrue(window.awaitEmpty(0, TimeUnit.MILLISECONDS));
+    }
+}
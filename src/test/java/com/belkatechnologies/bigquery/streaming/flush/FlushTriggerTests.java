@@ -0,0 +1,110 @@
+package com.belkatechnologies.bigquery.streaming.flush;
+
+import com.belkatechnologies.bigquery.streaming.buffer.BoundedRowQueue;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferCapacity;
+import com.belkatechnologies.bigquery.streaming.buffer.OverflowPolicy;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.belkatechnologies.bigquery.streaming.retry.RetryQueue;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+public class FlushTriggerTests {
+
+    private static final long LINGER = TimeUnit.SECONDS.toNanos(30);
+    private static final long RETRY_DELAY = TimeUnit.SECONDS.toNanos(5);
+
+    private BoundedRowQueue rows;
+    private RetryQueue retries;
+    private FlushTrigger trigger;
+    private final List<Long> flushes = new ArrayList<>();
+
+    @BeforeEach
+    public void setUp() {
+        rows = new BoundedRowQueue(new ConcurrentLinkedQueue<>(), new BufferCapacity(null, null, null), OverflowPolicy.BLOCK, 0);
+        retries = new RetryQueue(0);
+        trigger = new FlushTrigger(new FlushPolicy(100, 3, LINGER), rows, retries);
+        trigger.setListener(new FlushTrigger.Listener() {
+            @Override
+            public void flushNow() {
+                flushes.add(0L);
+            }
+
+            @Override
+            public void flushIn(long nanos) {
+                flushes.add(nanos);
+            }
+        });
+    }
+
+    @Test
+    public void firstRowArmsLingerTest() {
+        buffer(10);
+        Assertions.assertEquals(List.of(LINGER), flushes);
+    }
+
+    @Test
+    public void bytesThresholdFlushesNowTest() {
+        buffer(60);
+        buffer(60);
+        Assertions.assertEquals(List.of(LINGER, 0L), flushes);
+    }
+
+    @Test
+    public void rowsThresholdFlushesNowTest() {
+        buffer(1);
+        buffer(1);
+        buffer(1);
+        Assertions.assertEquals(List.of(LINGER, 0L), flushes);
+    }
+
+    @Test
+    public void heldRetriesDoNotCountTowardsThresholdsTest() {
+        holdRetry(1_000);
+        buffer(10);
+        buffer(10);
+        Assertions.assertEquals(List.of(LINGER), flushes);
+        Assertions.assertEquals(20, rows.getQueuedBytes());
+    }
+
+    @Test
+    public void onlyHeldRetriesAreDueWhenReadyTest() {
+        holdRetry(1_000);
+        long due = trigger.onFlushed();
+        Assertions.assertTrue(due > 0 && due <= RETRY_DELAY, "due in " + due);
+    }
+
+    @Test
+    public void lingeringRowsAndRetryDueAtEarliestTest() {
+        buffer(10);
+        holdRetry(1_000);
+        long due = trigger.onFlushed();
+        Assertions.assertTrue(due > 0 && due <= RETRY_DELAY, "due in " + due);
+    }
+
+    @Test
+    public void nothingBufferedTest() {
+        Assertions.assertEquals(-1, trigger.onFlushed());
+    }
+
+    private void buffer(int size) {
+        rows.offer(new StreamingRow(new JSONObject(), size));
+        trigger.onBuffered();
+    }
+
+    private void holdRetry(int size) {
+        StreamingObject batch = new StreamingObject(size, new JSONArray());
+        rows.holdRetry(1, size);
+        retries.force(batch, RETRY_DELAY);
+        trigger.onRetryScheduled(RETRY_DELAY);
+        flushes.remove(Long.valueOf(RETRY_DELAY));
+    }
+}
@@ -0,0 +1,86 @@
+package com.belkatechnologies.bigquery.streaming.priority;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+public class PriorityLanesTests {
+
+    @Test
+    public void priorityResolutionTest() {
+        BigQueryProperties.PatternPriority pattern = new BigQueryProperties.PatternPriority();
+        pattern.setPattern("audit_.*");
+        pattern.setPriority(Priority.LOW);
+        BigQueryProperties.PriorityProperties properties = new BigQueryProperties.PriorityProperties();
+        properties.setTables(Map.of("payments", Priority.HIGH, "audit_payments", Priority.NORMAL));
+        properties.setPatterns(List.of(pattern));
+        PriorityLanes lanes = new PriorityLanes(properties, 4);
+
+        Assertions.assertEquals(Priority.HIGH, lanes.priorityOf("payments"));
+        // the table name wins over the patterns
+        Assertions.assertEquals(Priority.NORMAL, lanes.priorityOf("audit_payments"));
+        Assertions.assertEquals(Priority.LOW, lanes.priorityOf("audit_logins"));
+        Assertions.assertEquals(Priority.NORMAL, lanes.priorityOf("events"));
+        Assertions.assertEquals(Priority.NORMAL, lanes.priorityOf(null));
+    }
+
+    @Test
+    public void flushSharesTest() {
+        PriorityLanes lanes = new PriorityLanes(new BigQueryProperties.PriorityProperties(), 4);
+
+        // LOW takes a quarter of the threads, NORMAL three quarters, HIGH all of them
+        Assertions.assertTrue(lanes.tryEnterFlush(Priority.LOW));
+        Assertions.assertFalse(lanes.tryEnterFlush(Priority.LOW));
+        Assertions.assertTrue(lanes.tryEnterFlush(Priority.NORMAL));
+        Assertions.assertTrue(lanes.tryEnterFlush(Priority.NORMAL));
+        Assertions.assertFalse(lanes.tryEnterFlush(Priority.NORMAL));
+        Assertions.assertTrue(lanes.tryEnterFlush(Priority.HIGH));
+        Assertions.assertEquals(4, lanes.getRunningFlushes());
+
+        lanes.exitFlush();
+        lanes.exitFlush();
+        Assertions.assertTrue(lanes.tryEnterFlush(Priority.NORMAL));
+        Assertions.assertFalse(lanes.tryEnterFlush(Priority.LOW));
+    }
+
+    @Test
+    public void inFlightSharesTest() {
+        BigQueryProperties.PriorityProperties properties = new BigQueryProperties.PriorityProperties();
+        properties.setMaxInFlightBytes(1_000L);
+        PriorityLanes lanes = new PriorityLanes(properties, 4);
+
+        Assertions.assertTrue(lanes.tryAcquireInFlight(Priority.LOW, 400));
+        Assertions.assertFalse(lanes.tryAcquireInFlight(Priority.LOW, 200));
+        Assertions.assertTrue(lanes.tryAcquireInFlight(Priority.NORMAL, 300));
+        Assertions.assertFalse(lanes.tryAcquireInFlight(Priority.NORMAL, 200));
+        Assertions.assertTrue(lanes.tryAcquireInFlight(Priority.HIGH, 300));
+        Assertions.assertEquals(1_000, lanes.getInFlightBytes());
+
+        lanes.releaseInFlight(400);
+        Assertions.assertTrue(lanes.tryAcquireInFlight(Priority.NORMAL, 200));
+        Assertions.assertEquals(800, lanes.getInFlightBytes());
+    }
+
+    @Test
+    public void appendBiggerThanBudgetIsAdmittedWhenIdleTest() {
+        BigQueryProperties.PriorityProperties properties = new BigQueryProperties.PriorityProperties();
+        properties.setMaxInFlightBytes(1_000L);
+        PriorityLanes lanes = new PriorityLanes(properties, 4);
+
+        Assertions.assertTrue(lanes.tryAcquireInFlight(Priority.LOW, 5_000));
+        Assertions.assertFalse(lanes.tryAcquireInFlight(Priority.HIGH, 1));
+    }
+
+    @Test
+    public void unlimitedLanesAdmitEverythingTest() {
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertTrue(PriorityLanes.UNLIMITED.tryEnterFlush(Priority.LOW));
+            Assertions.assertTrue(PriorityLanes.UNLIMITED.tryAcquireInFlight(Priority.LOW, Long.MAX_VALUE / 1_000));
+        }
+        Assertions.assertEquals(0, PriorityLanes.UNLIMITED.getRunningFlushes());
+        Assertions.assertEquals(0, PriorityLanes.UNLIMITED.getInFlightBytes());
+    }
+}
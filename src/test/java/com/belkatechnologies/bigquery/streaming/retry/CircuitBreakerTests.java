@@ -0,0 +1,114 @@
+package com.belkatechnologies.bigquery.streaming.retry;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class CircuitBreakerTests {
+
+    private static final int THRESHOLD = 3;
+    private static final long LONG_OPEN = TimeUnit.MINUTES.toNanos(10);
+
+    @Test
+    public void opensAfterConsecutiveFailuresTest() {
+        CircuitBreaker breaker = new CircuitBreaker("table", THRESHOLD, LONG_OPEN, LONG_OPEN);
+        Assertions.assertFalse(breaker.onFailure(CircuitBreaker.NOT_PROBE));
+        Assertions.assertFalse(breaker.onFailure(CircuitBreaker.NOT_PROBE));
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assertions.assertEquals(CircuitBreaker.NOT_PROBE, breaker.tryAcquire());
+
+        Assertions.assertTrue(breaker.onFailure(CircuitBreaker.NOT_PROBE));
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertEquals(CircuitBreaker.DENIED, breaker.tryAcquire());
+        Assertions.assertTrue(breaker.nanosUntilProbe() > 0);
+    }
+
+    @Test
+    public void successResetsFailuresTest() {
+        CircuitBreaker breaker = new CircuitBreaker("table", THRESHOLD, LONG_OPEN, LONG_OPEN);
+        breaker.onFailure(CircuitBreaker.NOT_PROBE);
+        breaker.onFailure(CircuitBreaker.NOT_PROBE);
+        Assertions.assertFalse(breaker.onSuccess(CircuitBreaker.NOT_PROBE));
+        Assertions.assertFalse(breaker.onFailure(CircuitBreaker.NOT_PROBE));
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void probeSuccessClosesTest() {
+        CircuitBreaker breaker = open();
+        long probe = breaker.tryAcquire();
+        Assertions.assertTrue(probe > 0);
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        // a single append probes BigQuery
+        Assertions.assertEquals(CircuitBreaker.DENIED, breaker.tryAcquire());
+        Assertions.assertEquals(-1, breaker.nanosUntilProbe());
+
+        Assertions.assertTrue(breaker.onSuccess(probe));
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assertions.assertEquals(CircuitBreaker.NOT_PROBE, breaker.tryAcquire());
+    }
+
+    @Test
+    public void probeFailureReopensTest() {
+        CircuitBreaker breaker = open();
+        long probe = breaker.tryAcquire();
+        Assertions.assertTrue(breaker.onFailure(probe));
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assertions.assertEquals(1, breaker.getStatistic(false, 0).getHalfOpenedCount());
+        Assertions.assertEquals(2, breaker.getStatistic(false, 0).getOpenedCount());
+    }
+
+    @Test
+    public void staleOutcomesDoNotMoveHalfOpenTest() {
+        CircuitBreaker breaker = open();
+        long probe = breaker.tryAcquire();
+
+        // appends sent before the breaker opened complete while the probe is in flight
+        Assertions.assertFalse(breaker.onFailure(CircuitBreaker.NOT_PROBE));
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertFalse(breaker.onSuccess(CircuitBreaker.NOT_PROBE));
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertEquals(-1, breaker.nanosUntilProbe());
+
+        Assertions.assertTrue(breaker.onSuccess(probe));
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void releasedProbeIsNotTheProbeAnymoreTest() {
+        CircuitBreaker breaker = open();
+        long released = breaker.tryAcquire();
+        breaker.release(released);
+        Assertions.assertEquals(0, breaker.nanosUntilProbe());
+
+        long probe = breaker.tryAcquire();
+        Assertions.assertTrue(probe > 0);
+        Assertions.assertNotEquals(released, probe);
+        Assertions.assertFalse(breaker.onFailure(released));
+        Assertions.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assertions.assertTrue(breaker.onFailure(probe));
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void disabledNeverOpensTest() {
+        CircuitBreaker breaker = new CircuitBreaker("table", 0, LONG_OPEN, LONG_OPEN);
+        for (int i = 0; i < 100; i++) {
+            Assertions.assertFalse(breaker.onFailure(CircuitBreaker.NOT_PROBE));
+        }
+        Assertions.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    /**
+     * @return A breaker just opened whose probe may be sent right away.
+     */
+    private static CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker("table", THRESHOLD, 0, 0);
+        for (int i = 0; i < THRESHOLD; i++) {
+            breaker.onFailure(CircuitBreaker.NOT_PROBE);
+        }
+        Assertions.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
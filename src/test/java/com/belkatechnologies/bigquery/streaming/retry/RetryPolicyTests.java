@@ -0,0 +1,45 @@
+package com.belkatechnologies.bigquery.streaming.retry;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RetryPolicyTests {
+
+    private static final long INITIAL = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX = TimeUnit.MILLISECONDS.toNanos(1_000);
+
+    private final RetryPolicy policy = new RetryPolicy(5, 5, INITIAL, MAX, 2, 0);
+
+    @Test
+    public void backoffGrowsWithJitterTest() {
+        for (int attempt = 1; attempt <= 4; attempt++) {
+            long exponential = INITIAL << (attempt - 1);
+            for (int i = 0; i < 100; i++) {
+                long delay = policy.backoffNanos(attempt);
+                Assertions.assertTrue(delay >= exponential / 2 && delay <= exponential,
+                        "attempt " + attempt + ", delay " + delay);
+            }
+        }
+    }
+
+    @Test
+    public void backoffIsCappedTest() {
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.backoffNanos(30);
+            Assertions.assertTrue(delay >= MAX / 2 && delay <= MAX, "delay " + delay);
+        }
+    }
+
+    @Test
+    public void laterAttemptWaitsAtLeastAsLongTest() {
+        // with a multiplier of 2 the shortest delay of an attempt is the longest delay of the previous one
+        for (int attempt = 2; attempt <= 4; attempt++) {
+            long previousLongest = INITIAL << (attempt - 2);
+            for (int i = 0; i < 100; i++) {
+                Assertions.assertTrue(policy.backoffNanos(attempt) >= previousLongest);
+            }
+        }
+    }
+}
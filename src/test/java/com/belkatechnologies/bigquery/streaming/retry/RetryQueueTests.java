@@ -0,0 +1,73 @@
+package com.belkatechnologies.bigquery.streaming.retry;
+
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import org.json.JSONArray;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RetryQueueTests {
+
+    private static final long LATER = TimeUnit.SECONDS.toNanos(10);
+    private static final long MUCH_LATER = TimeUnit.SECONDS.toNanos(20);
+
+    @Test
+    public void pollOnlyReadyBatchesTest() {
+        RetryQueue queue = new RetryQueue(0);
+        StreamingObject waiting = batch(10);
+        StreamingObject ready = batch(10);
+        queue.offer(waiting, LATER);
+        queue.offer(ready, 0);
+
+        Assertions.assertSame(ready, queue.poll(false));
+        Assertions.assertNull(queue.poll(false));
+        Assertions.assertEquals(1, queue.size());
+        Assertions.assertEquals(10, queue.getBytes());
+    }
+
+    @Test
+    public void pollIgnoringDelayTakesEarliestFirstTest() {
+        RetryQueue queue = new RetryQueue(0);
+        StreamingObject last = batch(10);
+        StreamingObject first = batch(10);
+        queue.offer(last, MUCH_LATER);
+        queue.offer(first, LATER);
+
+        Assertions.assertSame(first, queue.poll(true));
+        Assertions.assertSame(last, queue.poll(true));
+        Assertions.assertNull(queue.poll(true));
+        Assertions.assertEquals(0, queue.getBytes());
+    }
+
+    @Test
+    public void nanosUntilReadyTest() {
+        RetryQueue queue = new RetryQueue(0);
+        Assertions.assertEquals(-1, queue.nanosUntilReady());
+
+        queue.offer(batch(10), MUCH_LATER);
+        long waiting = queue.nanosUntilReady();
+        Assertions.assertTrue(waiting > LATER && waiting <= MUCH_LATER, "nanos until ready: " + waiting);
+
+        queue.offer(batch(10), 0);
+        Assertions.assertEquals(0, queue.nanosUntilReady());
+    }
+
+    @Test
+    public void byteBudgetTest() {
+        RetryQueue queue = new RetryQueue(100);
+        // a batch always fits into an empty queue
+        Assertions.assertTrue(queue.offer(batch(150), LATER));
+        Assertions.assertFalse(queue.offer(batch(10), LATER));
+        Assertions.assertEquals(150, queue.getBytes());
+
+        // forced batches ignore the budget
+        queue.force(batch(10), LATER);
+        Assertions.assertEquals(2, queue.size());
+        Assertions.assertEquals(160, queue.getBytes());
+    }
+
+    private static StreamingObject batch(int size) {
+        return new StreamingObject(size, new JSONArray());
+    }
+}
@@ -0,0 +1,160 @@
+package com.belkatechnologies.bigquery.streaming.wal;
+
+import com.belkatechnologies.bigquery.streaming.buffer.BoundedRowQueue;
+import com.belkatechnologies.bigquery.streaming.buffer.BufferCapacity;
+import com.belkatechnologies.bigquery.streaming.buffer.OverflowPolicy;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingRow;
+import com.google.protobuf.ByteString;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+public class WriteAheadLogTests {
+
+    private static final int SEGMENT_BYTES = 4096;
+    private static final long NEVER_SPILL = Long.MAX_VALUE;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void replayAfterCrashTest() {
+        WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_BYTES, NEVER_SPILL, false);
+        ByteString message = ByteString.copyFromUtf8("proto row");
+        wal.append(new StreamingRow(new JSONObject().put("id", "a"), 12), 0);
+        wal.append(new StreamingRow(message), 0);
+        // the process dies without closing the log
+
+        WriteAheadLog recovered = new WriteAheadLog(directory, SEGMENT_BYTES, NEVER_SPILL, false);
+        Assertions.assertTrue(recovered.hasRecoveredSegments());
+        List<StreamingRow> rows = new ArrayList<>();
+        Assertions.assertEquals(2, recovered.replay(rows::add));
+        Assertions.assertFalse(recovered.hasRecoveredSegments());
+
+        Assertions.assertTrue(rows.stream().allMatch(StreamingRow::isSpilled));
+        StreamingRow json = recovered.load(rows.get(0));
+        Assertions.assertEquals("a", json.json().getString("id"));
+        Assertions.assertEquals(12, json.size());
+        StreamingRow proto = recovered.load(rows.get(1));
+        Assertions.assertEquals(message, proto.message());
+        Assertions.assertEquals(new StreamingRow(message).size(), proto.size());
+    }
+
+    @Test
+    public void acknowledgedReplayDeletesSegmentTest() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_BYTES, NEVER_SPILL, false);
+        Path segment = wal.append(new StreamingRow(new JSONObject().put("id", "a"), 12), 0).segment().getPath();
+
+        WriteAheadLog recovered = new WriteAheadLog(directory, SEGMENT_BYTES, NEVER_SPILL, false);
+        List<StreamingRow> rows = new ArrayList<>();
+        recovered.replay(rows::add);
+        Assertions.assertTrue(Files.exists(segment));
+
+        rows.forEach(recovered::release);
+        Assertions.assertFalse(Files.exists(segment));
+        try (var files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count());
+        }
+    }
+
+    @Test
+    public void tornRecordEndsReplayTest() throws IOException {
+        WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_BYTES, NEVER_SPILL, false);
+        JSONObject first = new JSONObject().put("id", "a");
+        StreamingRow logged = wal.append(new StreamingRow(first, 12), 0);
+        StreamingRow torn = wal.append(new StreamingRow(new JSONObject().put("id", "b"), 12), 0);
+        Assertions.assertEquals(WalSegment.HEADER_BYTES + first.toString().getBytes(StandardCharsets.UTF_8).length, torn.offset());
+        // the crash happens while the checksum of the second record is being written
+        try (FileChannel channel = FileChannel.open(logged.segment().getPath(), StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[]{0, 0, 0, 0}), torn.offset() + 9);
+        }
+
+        WriteAheadLog recovered = new WriteAheadLog(directory, SEGMENT_BYTES, NEVER_SPILL, false);
+        List<StreamingRow> rows = new ArrayList<>();
+        Assertions.assertEquals(1, recovered.replay(rows::add));
+        Assertions.assertEquals("a", recovered.load(rows.get(0)).json().getString("id"));
+    }
+
+    @Test
+    public void spilledRowIsReadBackTest() {
+        WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_BYTES, 0, false);
+        StreamingRow spilled = wal.append(new StreamingRow(new JSONObject().put("id", "a"), 12), 0);
+        Assertions.assertTrue(spilled.isSpilled());
+        Assertions.assertEquals("a", wal.load(spilled).json().getString("id"));
+    }
+
+    @Test
+    public void drainedSegmentIsDeletedTest() {
+        WriteAheadLog wal = new WriteAheadLog(directory, SEGMENT_BYTES, NEVER_SPILL, false);
+        StreamingRow row = wal.append(new StreamingRow(new JSONObject().put("id", "a"), 12), 0);
+        Path segment = row.segment().getPath();
+        wal.release(row);
+        Assertions.assertFalse(Files.exists(segment));
+
+        // the next row goes to a new segment
+        StreamingRow next = wal.append(new StreamingRow(new JSONObject().put("id", "b"), 12), 0);
+        Assertions.assertNotEquals(segment, next.segment().getPath());
+        wal.close();
+        Assertions.assertTrue(Files.exists(next.segment().getPath()));
+    }
+
+    @Test
+    public void rollsToNewSegmentWhenFullTest() {
+        WriteAheadLog wal = new WriteAheadLog(directory, 64, NEVER_SPILL, false);
+        String payload = "x".repeat(40);
+        StreamingRow first = wal.append(new StreamingRow(new JSONObject().put("id", payload), 50), 0);
+        StreamingRow second = wal.append(new StreamingRow(new JSONObject().put("id", payload), 50), 0);
+        Assertions.assertNotSame(first.segment(), second.segment());
+
+        // the rolled segment is deleted once its row is acknowledged
+        wal.release(first);
+        Assertions.assertFalse(Files.exists(first.segment().getPath()));
+        Assertions.assertTrue(Files.exists(second.segment().getPath()));
+    }
+
+    @Test
+    public void outageLongerThanByteLimitLosesNoRowsTest() throws IOException {
+        long maxBytes = 100_000;
+        WriteAheadLog wal = new WriteAheadLog(directory, 1024 * 1024, maxBytes / 2, false);
+        BoundedRowQueue queue = new BoundedRowQueue(new ConcurrentLinkedQueue<>(), new BufferCapacity(null, maxBytes, null),
+                OverflowPolicy.REJECT, 0);
+        int rows = 1_000;
+        String padding = "x".repeat(980);
+
+        // nothing is sent: ten times the byte limit is buffered, the rows above the threshold are kept on disk only
+        for (int i = 0; i < rows; i++) {
+            StreamingRow row = new StreamingRow(new JSONObject().put("id", i).put("padding", padding), 1_000);
+            queue.offer(wal.append(row, queue.getCapacity().getBytes()));
+        }
+        Assertions.assertEquals(rows, queue.size());
+        Assertions.assertTrue(queue.getCapacity().getBytes() <= maxBytes);
+
+        List<StreamingRow> sent = new ArrayList<>();
+        StreamingRow next;
+        while ((next = queue.poll()) != null) {
+            StreamingRow loaded = wal.load(next);
+            Assertions.assertEquals(sent.size(), loaded.json().getInt("id"));
+            Assertions.assertEquals(1_000, loaded.size());
+            sent.add(loaded);
+        }
+        Assertions.assertEquals(rows, sent.size());
+        Assertions.assertEquals(0, queue.getCapacity().getBytes());
+
+        sent.forEach(wal::release);
+        try (var files = Files.list(directory)) {
+            Assertions.assertEquals(0, files.count());
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package com.belkatechnologies.bigquery.streaming.writer;
+
+import com.google.cloud.bigquery.storage.v1.BQTableSchemaToProtoDescriptor;
+import com.google.cloud.bigquery.storage.v1.BigDecimalByteStringEncoder;
+import com.google.cloud.bigquery.storage.v1.CivilTimeEncoder;
+import com.google.cloud.bigquery.storage.v1.JsonToProtoMessage;
+import com.google.cloud.bigquery.storage.v1.ProtoRows;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.CodedOutputStream;
+import com.google.protobuf.Descriptors;
+import com.google.protobuf.DynamicMessage;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ProtoRowSchemaTests {
+
+    private static final TableSchema TABLE_SCHEMA = TableSchema.newBuilder()
+            .addFields(field("id", TableFieldSchema.Type.INT64, TableFieldSchema.Mode.REQUIRED))
+            .addFields(field("name", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("score", TableFieldSchema.Type.DOUBLE, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("active", TableFieldSchema.Type.BOOL, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("payload", TableFieldSchema.Type.BYTES, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("created", TableFieldSchema.Type.TIMESTAMP, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("day", TableFieldSchema.Type.DATE, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("local_created", TableFieldSchema.Type.DATETIME, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("local_time", TableFieldSchema.Type.TIME, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("price", TableFieldSchema.Type.NUMERIC, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("big_price", TableFieldSchema.Type.BIGNUMERIC, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("place", TableFieldSchema.Type.GEOGRAPHY, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("attributes", TableFieldSchema.Type.JSON, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("duration", TableFieldSchema.Type.INTERVAL, TableFieldSchema.Mode.NULLABLE))
+            .addFields(field("tags", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.REPEATED))
+            .addFields(field("amounts", TableFieldSchema.Type.NUMERIC, TableFieldSchema.Mode.REPEATED))
+            .addFields(field("times", TableFieldSchema.Type.TIME, TableFieldSchema.Mode.REPEATED))
+            .addFields(TableFieldSchema.newBuilder()
+                    .setName("device")
+                    .setType(TableFieldSchema.Type.STRUCT)
+                    .setMode(TableFieldSchema.Mode.NULLABLE)
+                    .addFields(field("model", TableFieldSchema.Type.STRING, TableFieldSchema.Mode.NULLABLE))
+                    .addFields(field("released", TableFieldSchema.Type.DATETIME, TableFieldSchema.Mode.NULLABLE)))
+            .build();
+
+    private static final ProtoRowSchema SCHEMA = ProtoRowSchema.of(TABLE_SCHEMA);
+
+    @Test
+    public void rowSizeMatchesSerializedJsonRowForEveryTypeTest() throws Exception {
+        JSONObject row = fullRow();
+
+        Assertions.assertEquals(serializedSize(row), SCHEMA.computeRowSize(row));
+    }
+
+    @Test
+    public void rowSizeMatchesSerializedJsonRowForEachColumnTest() throws Exception {
+        JSONObject full = fullRow();
+        for (String column : full.keySet()) {
+            JSONObject row = new JSONObject().put("id", 1L).put(column, full.get(column));
+
+            Assertions.assertEquals(serializedSize(row), SCHEMA.computeRowSize(row), column);
+        }
+    }
+
+    @Test
+    public void rowSizeMatchesSerializedJsonRowForEdgeValuesTest() throws Exception {
+        JSONObject row = new JSONObject()
+                .put("id", -1L)
+                .put("price", "-99999999999999999999999999999.999999999")
+                .put("big_price", "0")
+                .put("local_created", "0001-01-01 00:00:00")
+                .put("local_time", "23:59:59.999999")
+                .put("tags", new JSONArray())
+                .put("name", "");
+
+        Assertions.assertEquals(serializedSize(row), SCHEMA.computeRowSize(row));
+    }
+
+    @Test
+    public void encodedRowMatchesJsonStreamWriterBytesTest() throws Exception {
+        JSONObject json = fullRow();
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 42L);
+        row.put("name", "open");
+        row.put("score", 1.5);
+        row.put("active", true);
+        row.put("payload", "raw".getBytes(StandardCharsets.UTF_8));
+        row.put("created", 1_700_000_000_000_123L);
+        row.put("day", "2024-01-15");
+        row.put("local_created", LocalDateTime.of(2024, 1, 15, 10, 30, 0, 123_456_000));
+        row.put("local_time", LocalTime.of(10, 30, 0, 123_456_000));
+        row.put("price", new BigDecimal("123.456"));
+        row.put("big_price", new BigDecimal("-98765432109876543210.1234567890123456789"));
+        row.put("place", "POINT(1 2)");
+        row.put("attributes", "{\"a\":1}");
+        row.put("duration", "1-2 3 4:5:6");
+        row.put("tags", List.of("a", "b"));
+        row.put("amounts", List.of(1L, new BigDecimal("2.5")));
+        row.put("times", List.of("00:00:01", LocalTime.of(12, 0)));
+        Map<String, Object> device = new LinkedHashMap<>();
+        device.put("model", "pixel");
+        device.put("released", "2023-10-04T09:00:00");
+        row.put("device", device);
+
+        Assertions.assertEquals(convert(json).toByteString(), SCHEMA.encode(row));
+    }
+
+    @Test
+    public void descriptorUsesJsonStreamWriterWireTypesTest() throws Exception {
+        Descriptors.Descriptor expected = BQTableSchemaToProtoDescriptor.convertBQTableSchemaToProtoDescriptor(TABLE_SCHEMA);
+        for (Descriptors.FieldDescriptor field : SCHEMA.getDescriptor().getFields()) {
+            Descriptors.FieldDescriptor other = expected.findFieldByNumber(field.getNumber());
+
+            Assertions.assertEquals(other.getType(), field.getType(), field.getName());
+            Assertions.assertEquals(other.isRepeated(), field.isRepeated(), field.getName());
+        }
+    }
+
+    @Test
+    public void encodedScalarsRoundTripTest() throws Exception {
+        Instant created = Instant.ofEpochSecond(1_700_000_000L, 123_000);
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 42);
+        row.put("name", "open");
+        row.put("score", 1.5f);
+        row.put("active", "true");
+        row.put("payload", ByteString.copyFromUtf8("raw"));
+        row.put("created", created);
+        row.put("day", LocalDate.of(2024, 1, 15));
+        row.put("local_created", "2024-01-15 10:30:00.123456");
+        row.put("local_time", "10:30:00.123456");
+        row.put("price", "123.456");
+        row.put("big_price", 7L);
+        row.put("place", "POINT(1 2)");
+        row.put("attributes", Map.of("a", 1));
+        row.put("duration", "1-2 3 4:5:6");
+
+        DynamicMessage message = parse(SCHEMA.encode(row));
+
+        Assertions.assertEquals(42L, value(message, "id"));
+        Assertions.assertEquals("open", value(message, "name"));
+        Assertions.assertEquals(1.5, value(message, "score"));
+        Assertions.assertEquals(true, value(message, "active"));
+        Assertions.assertEquals(ByteString.copyFromUtf8("raw"), value(message, "payload"));
+        Assertions.assertEquals(1_700_000_000_000_123L, value(message, "created"));
+        Assertions.assertEquals((int) LocalDate.of(2024, 1, 15).toEpochDay(), value(message, "day"));
+        Assertions.assertEquals(LocalDateTime.of(2024, 1, 15, 10, 30, 0, 123_456_000),
+                CivilTimeEncoder.decodePacked64DatetimeMicrosAsJavaTime((Long) value(message, "local_created")));
+        Assertions.assertEquals(LocalTime.of(10, 30, 0, 123_456_000),
+                CivilTimeEncoder.decodePacked64TimeMicrosAsJavaTime((Long) value(message, "local_time")));
+        Assertions.assertEquals(0, new BigDecimal("123.456").compareTo(
+                BigDecimalByteStringEncoder.decodeNumericByteString((ByteString) value(message, "price"))));
+        Assertions.assertEquals(0, BigDecimal.valueOf(7).compareTo(
+                BigDecimalByteStringEncoder.decodeBigNumericByteString((ByteString) value(message, "big_price"))));
+        Assertions.assertEquals("POINT(1 2)", value(message, "place"));
+        Assertions.assertEquals("{\"a\":1}", value(message, "attributes"));
+        Assertions.assertEquals("1-2 3 4:5:6", value(message, "duration"));
+    }
+
+    @Test
+    public void encodedNullsAreLeftOutTest() throws Exception {
+        Map<String, Object> row = new HashMap<>();
+        row.put("id", 1L);
+        row.put("name", null);
+        row.put("price", JSONObject.NULL);
+        row.put("device", null);
+
+        DynamicMessage message = parse(SCHEMA.encode(row));
+
+        Assertions.assertEquals(1, message.getAllFields().size());
+        Assertions.assertFalse(message.hasField(SCHEMA.getDescriptor().findFieldByName("name")));
+        Assertions.assertFalse(message.hasField(SCHEMA.getDescriptor().findFieldByName("price")));
+        Assertions.assertFalse(message.hasField(SCHEMA.getDescriptor().findFieldByName("device")));
+    }
+
+    @Test
+    public void encodedRepeatedAndNestedRoundTripTest() throws Exception {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", 1L);
+        row.put("tags", Arrays.asList("a", null, "b"));
+        row.put("amounts", new Object[]{"1.5", 2});
+        row.put("times", new JSONArray().put("00:00:01").put(JSONObject.NULL));
+        row.put("device", new JSONObject().put("model", "pixel").put("released", LocalDateTime.of(2023, 10, 4, 9, 0)));
+
+        DynamicMessage message = parse(SCHEMA.encode(row));
+
+        Assertions.assertEquals(List.of("a", "b"), value(message, "tags"));
+        List<?> amounts = (List<?>) value(message, "amounts");
+        Assertions.assertEquals(2, amounts.size());
+        Assertions.assertEquals(0, new BigDecimal("1.5").compareTo(BigDecimalByteStringEncoder.decodeNumericByteString((ByteString) amounts.get(0))));
+        Assertions.assertEquals(0, new BigDecimal("2").compareTo(BigDecimalByteStringEncoder.decodeNumericByteString((ByteString) amounts.get(1))));
+        Assertions.assertEquals(List.of(CivilTimeEncoder.encodePacked64TimeMicros(LocalTime.of(0, 0, 1))), value(message, "times"));
+        DynamicMessage device = (DynamicMessage) value(message, "device");
+        Assertions.assertEquals("pixel", device.getField(device.getDescriptorForType().findFieldByName("model")));
+        Assertions.assertEquals(CivilTimeEncoder.encodePacked64DatetimeMicros(LocalDateTime.of(2023, 10, 4, 9, 0)),
+                device.getField(device.getDescriptorForType().findFieldByName("released")));
+    }
+
+    @Test
+    public void encodeRejectsUnknownColumnsAndWrongValuesTest() {
+        Assertions.assertThrows(UnknownColumnException.class, () -> SCHEMA.encode(Map.of("id", 1L, "missing", "x")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SCHEMA.encode(Map.of("id", "one")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SCHEMA.encode(Map.of("local_time", "noon")));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> SCHEMA.encode(Map.of("price", List.of(1))));
+    }
+
+    @Test
+    public void wrongValuesAreSizedAsTextTest() {
+        JSONObject row = new JSONObject().put("id", "one").put("local_time", "noon").put("tags", "single");
+
+        int expected = ProtoRowSchema.computeRowSize(CodedOutputStream.computeStringSize(1, "one")
+                + CodedOutputStream.computeStringSize(9, "noon")
+                + CodedOutputStream.computeStringSize(15, "single"));
+        Assertions.assertEquals(expected, SCHEMA.computeRowSize(row));
+        Assertions.assertThrows(UnknownColumnException.class, () -> SCHEMA.computeRowSize(new JSONObject().put("missing", 1)));
+    }
+
+    private static DynamicMessage parse(ByteString bytes) throws Exception {
+        return DynamicMessage.parseFrom(SCHEMA.getDescriptor(), bytes);
+    }
+
+    private static Object value(DynamicMessage message, String name) {
+        return message.getField(SCHEMA.getDescriptor().findFieldByName(name));
+    }
+
+    private static JSONObject fullRow() {
+        return new JSONObject()
+                .put("id", 42L)
+                .put("name", "open")
+                .put("score", 1.5)
+                .put("active", true)
+                .put("payload", ByteString.copyFromUtf8("raw"))
+                .put("created", 1_700_000_000_000_123L)
+                .put("day", "2024-01-15")
+                .put("local_created", "2024-01-15 10:30:00.123456")
+                .put("local_time", "10:30:00.123456")
+                .put("price", "123.456")
+                .put("big_price", "-98765432109876543210.1234567890123456789")
+                .put("place", "POINT(1 2)")
+                .put("attributes", "{\"a\":1}")
+                .put("duration", "1-2 3 4:5:6")
+                .put("tags", new JSONArray().put("a").put("b"))
+                .put("amounts", new JSONArray().put("1").put("2.5"))
+                .put("times", new JSONArray().put("00:00:01").put("12:00:00"))
+                .put("device", new JSONObject().put("model", "pixel").put("released", "2023-10-04 09:00:00"));
+    }
+
+    private static com.google.protobuf.Message convert(JSONObject row) throws Exception {
+        Descriptors.Descriptor descriptor = BQTableSchemaToProtoDescriptor.convertBQTableSchemaToProtoDescriptor(TABLE_SCHEMA);
+        return JsonToProtoMessage.INSTANCE.convertToProtoMessage(descriptor, TABLE_SCHEMA, row);
+    }
+
+    private static int serializedSize(JSONObject row) throws Exception {
+        return ProtoRows.newBuilder().addSerializedRows(convert(row).toByteString()).build().getSerializedSize();
+    }
+
+    private static TableFieldSchema.Builder field(String name, TableFieldSchema.Type type, TableFieldSchema.Mode mode) {
+        return TableFieldSchema.newBuilder().setName(name).setType(type).setMode(mode);
+    }
+}
@@ -0,0 +1,492 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.google.api.gax.grpc.GrpcTransportChannel;
+import com.google.api.gax.rpc.FixedTransportChannelProvider;
+import com.google.api.gax.rpc.TransportChannelProvider;
+import com.google.cloud.bigquery.storage.v1.*;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.protobuf.ByteString;
+import com.google.protobuf.Int64Value;
+import com.google.protobuf.Timestamp;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * In-process stand-in of the BigQuery Storage Write API. Tables are created on first use with the default schema,
+ * rows are counted but not stored. Appends are acknowledged in order after the latency of the {@link Behavior},
+ * which also injects in-response errors, row errors, rejects given rows, drops connections and loses responses.
+ * <p>
+ * Writers reach it through {@link #getChannelProvider()}, see {@link FakeBigQueryWriteConfiguration}.
+ */
+@Slf4j
+public class FakeBigQueryWrite extends BigQueryWriteGrpc.BigQueryWriteImplBase implements AutoCloseable {
+
+    private static final String DEFAULT_STREAM = "_default";
+
+    private final String serverName = "fake-bigquery-write-" + UUID.randomUUID();
+    private final TableSchema defaultSchema;
+    private final Map<String, Table> tables = new ConcurrentHashMap<>();
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    // a single thread sends the responses of all connections, in the order they are due
+    private final ScheduledExecutorService responder = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("fake-bigquery-write-%d").setDaemon(true).build());
+    private final LongAdder appends = new LongAdder();
+    private final LongAdder failedAppends = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+    private final Map<Status.Code, LongAdder> errors = new ConcurrentHashMap<>();
+
+    private volatile Behavior behavior = Behavior.builder().build();
+    private Server server;
+    private ManagedChannel channel;
+    @Getter
+    private TransportChannelProvider channelProvider;
+
+    /**
+     * @param defaultSchema The schema of the tables not given one with {@link #setSchema(TableName, TableSchema)}.
+     */
+    public FakeBigQueryWrite(TableSchema defaultSchema) {
+        this.defaultSchema = defaultSchema;
+    }
+
+    public FakeBigQueryWrite start() throws IOException {
+        server = InProcessServerBuilder.forName(serverName).addService(this).build().start();
+        channel = InProcessChannelBuilder.forName(serverName).usePlaintext().build();
+        channelProvider = FixedTransportChannelProvider.create(GrpcTransportChannel.create(channel));
+        return this;
+    }
+
+    /**
+     * Replaces the behavior, appends received from now on follow the new one.
+     */
+    public void setBehavior(Behavior behavior) {
+        this.behavior = behavior;
+    }
+
+    /**
+     * Sets the schema of a table, returned to writers fetching it from now on.
+     */
+    public void setSchema(TableName tableName, TableSchema schema) {
+        table(tableName.toString()).schema = schema;
+    }
+
+    /**
+     * Gets the number of rows of a table: appended to the default or to COMMITTED streams, or committed PENDING streams.
+     */
+    public long getRowCount(TableName tableName) {
+        Table table = tables.get(tableName.toString());
+        return table != null ? table.rows.get() : 0;
+    }
+
+    public long getAppends() {
+        return appends.sum();
+    }
+
+    public long getFailedAppends() {
+        return failedAppends.sum();
+    }
+
+    public long getDisconnects() {
+        return disconnects.sum();
+    }
+
+    /**
+     * Gets the number of appends answered with an error of the code, injected or not, e.g. OUT_OF_RANGE for offsets
+     * beyond the end of a stream. Appends answered with row errors are not counted.
+     */
+    public long getErrors(Status.Code code) {
+        LongAdder count = errors.get(code);
+        return count != null ? count.sum() : 0;
+    }
+
+    @Override
+    public void getWriteStream(GetWriteStreamRequest request, StreamObserver<WriteStream> responseObserver) {
+        String table = tableOf(request.getName());
+        Stream stream = streams.get(request.getName());
+        responseObserver.onNext(WriteStream.newBuilder()
+                .setName(request.getName())
+                .setType(stream != null ? stream.type : WriteStream.Type.COMMITTED)
+                .setTableSchema(table(table).schema)
+                .setLocation("US")
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void createWriteStream(CreateWriteStreamRequest request, StreamObserver<WriteStream> responseObserver) {
+        Table table = table(request.getParent());
+        Stream stream = new Stream(request.getParent() + "/streams/" + UUID.randomUUID(), request.getParent(),
+                request.getWriteStream().getType());
+        streams.put(stream.name, stream);
+        responseObserver.onNext(WriteStream.newBuilder()
+                .setName(stream.name)
+                .setType(stream.type)
+                .setTableSchema(table.schema)
+                .setLocation("US")
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void finalizeWriteStream(FinalizeWriteStreamRequest request, StreamObserver<FinalizeWriteStreamResponse> responseObserver) {
+        Stream stream = streams.get(request.getName());
+        if (stream == null) {
+            responseObserver.onError(Status.NOT_FOUND.withDescription("Stream " + request.getName()).asRuntimeException());
+            return;
+        }
+        stream.finalized = true;
+        responseObserver.onNext(FinalizeWriteStreamResponse.newBuilder().setRowCount(stream.rows.get()).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void batchCommitWriteStreams(BatchCommitWriteStreamsRequest request,
+                                        StreamObserver<BatchCommitWriteStreamsResponse> responseObserver) {
+        if (behavior.getRefusedCommits().contains(request.getParent())) {
+            responseObserver.onNext(BatchCommitWriteStreamsResponse.newBuilder()
+                    .addStreamErrors(StorageError.newBuilder()
+                            .setCode(StorageError.StorageErrorCode.INVALID_STREAM_STATE)
+                            .setEntity(request.getParent())
+                            .setErrorMessage("Commit refused by fake"))
+                    .build());
+            responseObserver.onCompleted();
+            return;
+        }
+        List<Stream> committed = new ArrayList<>();
+        for (String name : request.getWriteStreamsList()) {
+            Stream stream = streams.get(name);
+            if (stream == null || !stream.finalized || !stream.table.equals(request.getParent())) {
+                responseObserver.onNext(BatchCommitWriteStreamsResponse.newBuilder()
+                        .addStreamErrors(StorageError.newBuilder()
+                                .setCode(StorageError.StorageErrorCode.STREAM_NOT_FOUND)
+                                .setEntity(name)
+                                .setErrorMessage("Stream is not found or not finalized"))
+                        .build());
+                responseObserver.onCompleted();
+                return;
+            }
+            committed.add(stream);
+        }
+        for (Stream stream : committed) {
+            if (!stream.committed) {
+                stream.committed = true;
+                table(stream.table).rows.addAndGet(stream.rows.get());
+            }
+        }
+        Instant now = Instant.now();
+        responseObserver.onNext(BatchCommitWriteStreamsResponse.newBuilder()
+                .setCommitTime(Timestamp.newBuilder().setSeconds(now.getEpochSecond()).setNanos(now.getNano()))
+                .build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void flushRows(FlushRowsRequest request, StreamObserver<FlushRowsResponse> responseObserver) {
+        responseObserver.onNext(FlushRowsResponse.newBuilder().setOffset(request.getOffset().getValue()).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public StreamObserver<AppendRowsRequest> appendRows(StreamObserver<AppendRowsResponse> responseObserver) {
+        return new Connection(responseObserver);
+    }
+
+    @Override
+    public void close() {
+        responder.shutdownNow();
+        if (channel != null) {
+            channel.shutdownNow();
+        }
+        if (server != null) {
+            server.shutdownNow();
+        }
+    }
+
+    private Table table(String name) {
+        return tables.computeIfAbsent(name, it -> new Table(defaultSchema));
+    }
+
+    private static String tableOf(String streamName) {
+        int streams = streamName.indexOf("/streams/");
+        return streams >= 0 ? streamName.substring(0, streams) : streamName;
+    }
+
+    /**
+     * An AppendRows call of a writer. Responses are computed when requests arrive and sent in the same order.
+     */
+    private class Connection implements StreamObserver<AppendRowsRequest> {
+
+        private final StreamObserver<AppendRowsResponse> responseObserver;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private String streamName;
+        private long lastDueNanos;
+
+        Connection(StreamObserver<AppendRowsResponse> responseObserver) {
+            this.responseObserver = responseObserver;
+        }
+
+        @Override
+        public void onNext(AppendRowsRequest request) {
+            if (!request.getWriteStream().isEmpty()) {
+                streamName = request.getWriteStream();
+            }
+            appends.increment();
+            Behavior current = behavior;
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (current.getDisconnectRate() > 0 && random.nextDouble() < current.getDisconnectRate()) {
+                disconnects.increment();
+                // appends in flight on the connection fail with it
+                send(() -> {
+                    if (closed.compareAndSet(false, true)) {
+                        responseObserver.onError(Status.UNAVAILABLE.withDescription("Connection reset by fake").asRuntimeException());
+                    }
+                }, current);
+                return;
+            }
+            AppendRowsResponse applied = respond(request, current, random);
+            AppendRowsResponse response = !applied.hasError() && random.nextDouble() < current.getLostResponseRate()
+                    ? error(Status.Code.UNAVAILABLE, "Response lost by fake")
+                    : applied;
+            send(() -> {
+                if (!closed.get()) {
+                    responseObserver.onNext(response);
+                }
+            }, current);
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            closed.set(true);
+        }
+
+        @Override
+        public void onCompleted() {
+            send(() -> {
+                if (closed.compareAndSet(false, true)) {
+                    responseObserver.onCompleted();
+                }
+            }, behavior);
+        }
+
+        private void send(Runnable response, Behavior current) {
+            long latency = TimeUnit.MILLISECONDS.toNanos(current.getMinLatencyMillis() >= current.getMaxLatencyMillis()
+                    ? current.getMinLatencyMillis()
+                    : ThreadLocalRandom.current().nextLong(current.getMinLatencyMillis(), current.getMaxLatencyMillis() + 1));
+            long now = System.nanoTime();
+            // never before the response of a previous request
+            lastDueNanos = Math.max(lastDueNanos, now + latency);
+            try {
+                responder.schedule(response, lastDueNanos - now, TimeUnit.NANOSECONDS);
+            } catch (Exception e) {
+                log.debug("Fake BigQuery Write is closed, response dropped");
+            }
+        }
+
+        private AppendRowsResponse respond(AppendRowsRequest request, Behavior current, ThreadLocalRandom random) {
+            int rows = request.getProtoRows().getRows().getSerializedRowsCount();
+            Status.Code error = current.drawError(random);
+            if (error != null) {
+                failedAppends.increment();
+                return error(error, "Injected by fake");
+            }
+            if (current.getRejectedRows() != null) {
+                AppendRowsResponse rejected = reject(request, current);
+                if (rejected != null) {
+                    failedAppends.increment();
+                    return rejected;
+                }
+            }
+            if (current.getRowErrorRate() > 0) {
+                AppendRowsResponse.Builder rowErrors = AppendRowsResponse.newBuilder();
+                for (int i = 0; i < rows; i++) {
+                    if (random.nextDouble() < current.getRowErrorRate()) {
+                        rowErrors.addRowErrors(RowError.newBuilder()
+                                .setIndex(i)
+                                .setCode(RowError.RowErrorCode.FIELDS_ERROR)
+                                .setMessage("Row error injected by fake"));
+                    }
+                }
+                if (rowErrors.getRowErrorsCount() > 0) {
+                    failedAppends.increment();
+                    return rowErrors.setError(com.google.rpc.Status.newBuilder()
+                                    .setCode(Status.Code.INVALID_ARGUMENT.value())
+                                    .setMessage("Rows rejected by fake"))
+                            .build();
+                }
+            }
+            if (streamName == null) {
+                failedAppends.increment();
+                return error(Status.Code.INVALID_ARGUMENT, "The first request of a connection has no write stream");
+            }
+            Stream stream = streams.get(streamName);
+            if (stream == null) {
+                if (!streamName.endsWith("/streams/" + DEFAULT_STREAM)) {
+                    failedAppends.increment();
+                    return error(Status.Code.NOT_FOUND, "Stream " + streamName);
+                }
+                table(tableOf(streamName)).rows.addAndGet(rows);
+                return AppendRowsResponse.newBuilder().setAppendResult(AppendRowsResponse.AppendResult.newBuilder()).build();
+            }
+            synchronized (stream) {
+                long offset = request.hasOffset() ? request.getOffset().getValue() : stream.rows.get();
+                if (stream.finalized) {
+                    failedAppends.increment();
+                    return error(Status.Code.INVALID_ARGUMENT, "Stream " + streamName + " is finalized");
+                } else if (offset < stream.rows.get()) {
+                    failedAppends.increment();
+                    return error(Status.Code.ALREADY_EXISTS, "Offset " + offset + " is already written");
+                } else if (offset > stream.rows.get()) {
+                    failedAppends.increment();
+                    return error(Status.Code.OUT_OF_RANGE, "Offset " + offset + " is beyond the end of the stream");
+                }
+                stream.rows.addAndGet(rows);
+                if (stream.type == WriteStream.Type.COMMITTED) {
+                    table(stream.table).rows.addAndGet(rows);
+                }
+                return AppendRowsResponse.newBuilder()
+                        .setAppendResult(AppendRowsResponse.AppendResult.newBuilder().setOffset(Int64Value.of(offset)))
+                        .build();
+            }
+        }
+
+        private AppendRowsResponse reject(AppendRowsRequest request, Behavior current) {
+            List<ByteString> rows = request.getProtoRows().getRows().getSerializedRowsList();
+            AppendRowsResponse.Builder rowErrors = AppendRowsResponse.newBuilder();
+            for (int i = 0; i < rows.size(); i++) {
+                if (current.getRejectedRows().test(rows.get(i))) {
+                    rowErrors.addRowErrors(RowError.newBuilder()
+                            .setIndex(i)
+                            .setCode(RowError.RowErrorCode.FIELDS_ERROR)
+                            .setMessage("Row rejected by fake"));
+                }
+            }
+            if (rowErrors.getRowErrorsCount() == 0) {
+                return null;
+            }
+            if (!current.isRowErrorsReported()) {
+                return error(Status.Code.INVALID_ARGUMENT, "Rows rejected by fake");
+            }
+            return rowErrors.setError(com.google.rpc.Status.newBuilder()
+                            .setCode(Status.Code.INVALID_ARGUMENT.value())
+                            .setMessage("Rows rejected by fake"))
+                    .build();
+        }
+
+        private AppendRowsResponse error(Status.Code code, String message) {
+            errors.computeIfAbsent(code, it -> new LongAdder()).increment();
+            return AppendRowsResponse.newBuilder()
+                    .setError(com.google.rpc.Status.newBuilder().setCode(code.value()).setMessage(message))
+                    .build();
+        }
+    }
+
+    private static class Table {
+        private volatile TableSchema schema;
+        private final AtomicLong rows = new AtomicLong();
+
+        Table(TableSchema schema) {
+            this.schema = schema;
+        }
+    }
+
+    private static class Stream {
+        private final String name;
+        private final String table;
+        private final WriteStream.Type type;
+        private final AtomicLong rows = new AtomicLong();
+        private volatile boolean finalized;
+        private volatile boolean committed;
+
+        Stream(String name, String table, WriteStream.Type type) {
+            this.name = name;
+            this.table = table;
+            this.type = type;
+        }
+    }
+
+    /**
+     * How the fake answers appends. Rates are probabilities from 0 to 1, drawn per append (per row for row errors).
+     */
+    @Getter
+    @Builder(toBuilder = true)
+    public static class Behavior {
+        /**
+         * Bounds of the uniformly distributed time until an append is answered. Answers keep the order of the appends.
+         */
+        @Builder.Default
+        private final long minLatencyMillis = 0;
+        @Builder.Default
+        private final long maxLatencyMillis = 0;
+        /**
+         * Rates of appends answered with an error, e.g. UNAVAILABLE, INTERNAL or RESOURCE_EXHAUSTED.
+         */
+        @Builder.Default
+        private final Map<Status.Code, Double> errorRates = Map.of();
+        /**
+         * Rate of rows rejected as invalid; an append with a rejected row is answered with INVALID_ARGUMENT and row errors.
+         */
+        @Builder.Default
+        private final double rowErrorRate = 0;
+        /**
+         * Rows always rejected as invalid, tested against the serialized row. An append holding one is answered with
+         * INVALID_ARGUMENT, with row errors unless they are not reported.
+         */
+        @Builder.Default
+        private final Predicate<ByteString> rejectedRows = null;
+        @Builder.Default
+        private final boolean rowErrorsReported = true;
+        /**
+         * Rate of appends closing their connection with UNAVAILABLE, failing every append in flight on it.
+         */
+        @Builder.Default
+        private final double disconnectRate = 0;
+        /**
+         * Rate of appends which land but are answered with UNAVAILABLE, as if the response was lost on the way.
+         */
+        @Builder.Default
+        private final double lostResponseRate = 0;
+        /**
+         * Tables, by their full names, whose PENDING streams are refused at the commit.
+         */
+        @Builder.Default
+        private final Set<String> refusedCommits = Set.of();
+
+        private Status.Code drawError(ThreadLocalRandom random) {
+            if (errorRates.isEmpty()) {
+                return null;
+            }
+            double draw = random.nextDouble();
+            double cumulative = 0;
+            for (Map.Entry<Status.Code, Double> rate : errorRates.entrySet()) {
+                cumulative += rate.getValue();
+                if (draw < cumulative) {
+                    return rate.getKey();
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.transport.StreamingTransport;
+import com.google.api.gax.core.NoCredentialsProvider;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteClient;
+import com.google.cloud.bigquery.storage.v1.BigQueryWriteSettings;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+
+/**
+ * Points the streaming beans of the starter at a {@link FakeBigQueryWrite} bean, which the importing context defines
+ * and starts. Import it before {@code StreamingAutoConfiguration}, or from a test configuration,
+ * so that these beans replace the ones connecting to BigQuery:
+ * <pre>
+ * &#64;Bean(destroyMethod = "close")
+ * public FakeBigQueryWrite fakeBigQueryWrite() throws IOException {
+ *     return new FakeBigQueryWrite(schema).start();
+ * }
+ * </pre>
+ */
+@Configuration
+public class FakeBigQueryWriteConfiguration {
+
+    @Bean
+    public BigQueryWriteSettings bigQueryWriteSettings(FakeBigQueryWrite fakeBigQueryWrite) throws IOException {
+        return BigQueryWriteSettings.newBuilder()
+                .setCredentialsProvider(NoCredentialsProvider.create())
+                .setTransportChannelProvider(fakeBigQueryWrite.getChannelProvider())
+                .build();
+    }
+
+    @Bean
+    public StreamingTransport streamingTransport(BigQueryProperties bigQueryProperties, FakeBigQueryWrite fakeBigQueryWrite) {
+        return new FakeStreamingTransport(bigQueryProperties.getStreaming().getTransport(), fakeBigQueryWrite);
+    }
+
+    @Bean
+    public BigQueryWriteClient bigQueryWriteClient(BigQueryWriteSettings bigQueryWriteSettings,
+                                                   StreamingTransport streamingTransport) throws IOException {
+        return BigQueryWriteClient.create(bigQueryWriteSettings.toBuilder()
+                .setBackgroundExecutorProvider(streamingTransport.getExecutorProvider())
+                .build());
+    }
+}
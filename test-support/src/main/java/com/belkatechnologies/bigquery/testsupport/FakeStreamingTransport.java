@@ -0,0 +1,24 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.transport.StreamingTransport;
+import com.google.api.gax.rpc.TransportChannelProvider;
+
+/**
+ * Streaming transport whose writers connect to a {@link FakeBigQueryWrite} instead of BigQuery.
+ * Executors are sized by the transport properties as usual.
+ */
+public class FakeStreamingTransport extends StreamingTransport {
+
+    private final TransportChannelProvider channelProvider;
+
+    public FakeStreamingTransport(BigQueryProperties.TransportProperties properties, FakeBigQueryWrite fake) {
+        super(properties);
+        this.channelProvider = fake.getChannelProvider();
+    }
+
+    @Override
+    public TransportChannelProvider getChannelProvider() {
+        return channelProvider;
+    }
+}
@@ -0,0 +1,16 @@
+package com.belkatechnologies.bigquery.testsupport.harness;
+
+import lombok.Getter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rows acknowledged by the append callbacks and their enqueue-to-ack latencies.
+ */
+@Getter
+public class AckStats {
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder ackedRows = new LongAdder();
+    private final LongAdder failedAppends = new LongAdder();
+}
@@ -0,0 +1,51 @@
+package com.belkatechnologies.bigquery.testsupport.harness;
+
+import com.belkatechnologies.bigquery.streaming.callback.DefaultAbstractAppendCompleteCallback;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import org.json.JSONArray;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the enqueue-to-ack latency of every acknowledged row from its {@code enqueued_at} column (a nano time).
+ * Latencies are recorded for JSON batches only, PROTO batches are counted.
+ */
+@Component
+@Scope(BeanDefinition.SCOPE_PROTOTYPE)
+public class HarnessCallback extends DefaultAbstractAppendCompleteCallback {
+
+    @Autowired
+    private AckStats ackStats;
+
+    public HarnessCallback(BigQueryStreamProcessor parent, StreamingObject batch, AtomicLong processedRows, AtomicLong processedBytes) {
+        super(parent, batch, processedRows, processedBytes);
+    }
+
+    @Override
+    public void doOnSuccess(AppendRowsResponse response) {
+        long now = System.nanoTime();
+        JSONArray rows = batch.jsonBatch();
+        if (rows != null) {
+            for (int i = 0; i < rows.length(); i++) {
+                ackStats.getLatencies().record(now - rows.getJSONObject(i).getLong(StreamingLoadHarness.ENQUEUED_AT));
+            }
+        }
+        ackStats.getAckedRows().add(batch.rowCount());
+    }
+
+    @Override
+    public void doOnSuccessButHasError(AppendRowsResponse response) {
+        ackStats.getFailedAppends().increment();
+    }
+
+    @Override
+    public void doOnFailure(Throwable throwable) {
+        ackStats.getFailedAppends().increment();
+    }
+}
@@ -0,0 +1,253 @@
+package com.belkatechnologies.bigquery.testsupport.harness;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.configuration.StreamingAutoConfiguration;
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.belkatechnologies.bigquery.testsupport.FakeBigQueryWrite;
+import com.belkatechnologies.bigquery.testsupport.FakeBigQueryWriteConfiguration;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import io.grpc.Status;
+import org.springframework.boot.Banner;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.SimpleCommandLinePropertySource;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives N tables × M producers through the {@link StreamingManager} against a {@link FakeBigQueryWrite} and reports
+ * rows/s, p50/p99 enqueue-to-ack latency, heap use and the peak count of platform threads. Every producer puts its rows
+ * round-robin over all tables.
+ * <p>
+ * Options are Spring properties, e.g.
+ * {@code java -jar big-query-starter-test-support-0.0.1-harness.jar --harness.tables=100 --harness.producers=16
+ * --harness.max-latency-ms=50 --harness.unavailable-rate=0.01 --bigquery.streaming.flush.linger-ms=200}:
+ * <ul>
+ *     <li>{@code harness.tables}, {@code harness.producers}, {@code harness.rows-per-producer}</li>
+ *     <li>{@code harness.min-latency-ms}, {@code harness.max-latency-ms} - append latency of the fake</li>
+ *     <li>{@code harness.unavailable-rate}, {@code harness.internal-rate}, {@code harness.resource-exhausted-rate},
+ *     {@code harness.row-error-rate}, {@code harness.disconnect-rate} - see {@link FakeBigQueryWrite.Behavior}</li>
+ *     <li>{@code bigquery.streaming.*} - the starter configuration</li>
+ * </ul>
+ * With {@code --harness.compare-virtual-threads=true} the load runs twice in a row, on platform and on virtual threads,
+ * and both runs are reported side by side: the peak platform threads and the peak heap and resident memory, the latter
+ * taking in the stacks of the threads. On Java 21 and {@code --harness.tables=1000} it shows the cost of the flush pool.
+ */
+public class StreamingLoadHarness {
+
+    static final String ENQUEUED_AT = "enqueued_at";
+    static final TableSchema SCHEMA = TableSchema.newBuilder()
+            .addFields(column("id", TableFieldSchema.Type.INT64))
+            .addFields(column("producer", TableFieldSchema.Type.INT64))
+            .addFields(column(ENQUEUED_AT, TableFieldSchema.Type.INT64))
+            .addFields(column("payload", TableFieldSchema.Type.STRING))
+            .build();
+    private static final String PAYLOAD = "session_platform=iOS#is#global_energy=43#is#global_level=10#is#event=exploration_action";
+
+    private static final String VIRTUAL_THREADS = "bigquery.virtual-threads";
+
+    public static void main(String[] args) throws Exception {
+        if (!Boolean.parseBoolean(new SimpleCommandLinePropertySource(args).getProperty("harness.compare-virtual-threads"))) {
+            runOnce(args);
+            return;
+        }
+        List<String> common = Arrays.stream(args).filter(arg -> !arg.startsWith("--" + VIRTUAL_THREADS + "=")).toList();
+        Result platform = runOnce(withArg(common, "--" + VIRTUAL_THREADS + "=false"));
+        // the pools of the first run are shut down with its context, its garbage is not counted by the second one
+        System.gc();
+        Result virtual = runOnce(withArg(common, "--" + VIRTUAL_THREADS + "=true"));
+        System.out.printf("%n%-28s %12s %12s%n", "", "platform", "virtual");
+        System.out.printf("%-28s %12d %12d%n", "peak platform threads", platform.peakThreads(), virtual.peakThreads());
+        System.out.printf("%-28s %12d %12d%n", "peak heap, MB", platform.peakHeap() >> 20, virtual.peakHeap() >> 20);
+        System.out.printf("%-28s %12s %12s%n", "peak resident memory, MB", megabytes(platform.peakResident()),
+                megabytes(virtual.peakResident()));
+        System.out.printf("%-28s %12d %12d%n", "acked rows/s", platform.ackedRowsPerSecond(), virtual.ackedRowsPerSecond());
+    }
+
+    private static Result runOnce(String[] args) throws InterruptedException {
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(HarnessConfiguration.class)
+                .web(WebApplicationType.NONE)
+                .bannerMode(Banner.Mode.OFF)
+                .properties(
+                        "bigquery.data.project=harness",
+                        "bigquery.streaming.enabled=true")
+                .run(args)) {
+            return run(context);
+        }
+    }
+
+    private static Result run(ConfigurableApplicationContext context) throws InterruptedException {
+        Environment env = context.getEnvironment();
+        int tableCount = env.getProperty("harness.tables", Integer.class, 10);
+        int producerCount = env.getProperty("harness.producers", Integer.class, 8);
+        int rowsPerProducer = env.getProperty("harness.rows-per-producer", Integer.class, 100_000);
+        StreamingManager streamingManager = context.getBean(StreamingManager.class);
+        FakeBigQueryWrite fake = context.getBean(FakeBigQueryWrite.class);
+        AckStats ackStats = context.getBean(AckStats.class);
+
+        List<TableName> tables = new ArrayList<>(tableCount);
+        for (int i = 0; i < tableCount; i++) {
+            tables.add(TableName.of("harness", "harness_dataset", "table_" + i));
+        }
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        AtomicLong peakHeap = new AtomicLong();
+        AtomicLong peakResident = new AtomicLong(-1);
+        Thread heapSampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+                peakResident.accumulateAndGet(residentMemory(), Math::max);
+                try {
+                    Thread.sleep(100);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "heap-sampler");
+        heapSampler.setDaemon(true);
+        heapSampler.start();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> producers = new ArrayList<>(producerCount);
+        for (int p = 0; p < producerCount; p++) {
+            int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < rowsPerProducer; i++) {
+                    Map<String, Object> row = new HashMap<>();
+                    row.put("id", i);
+                    row.put("producer", producer);
+                    row.put(ENQUEUED_AT, System.nanoTime());
+                    row.put("payload", PAYLOAD);
+                    streamingManager.putRowForTable(tables.get((producer + i) % tableCount), row);
+                }
+            }, "producer-" + p);
+            thread.start();
+            producers.add(thread);
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        long produced = System.nanoTime() - begin;
+        // waits until the buffers are sent and the appends in flight are answered
+        streamingManager.forceFlushAll();
+        long elapsed = System.nanoTime() - begin;
+        heapSampler.interrupt();
+
+        long totalRows = (long) producerCount * rowsPerProducer;
+        long acked = ackStats.getAckedRows().sum();
+        long stored = tables.stream().mapToLong(fake::getRowCount).sum();
+        System.out.printf("tables=%d producers=%d rows=%d%n", tableCount, producerCount, totalRows);
+        System.out.printf("enqueue: %d rows/s in %d ms%n", totalRows * 1_000_000_000L / Math.max(produced, 1),
+                TimeUnit.NANOSECONDS.toMillis(produced));
+        System.out.printf("acked: %d rows (%d stored by the fake) at %d rows/s in %d ms%n", acked, stored,
+                acked * 1_000_000_000L / Math.max(elapsed, 1), TimeUnit.NANOSECONDS.toMillis(elapsed));
+        System.out.printf("enqueue-to-ack latency: p50=%.1f ms p99=%.1f ms p99.9=%.1f ms%n",
+                millis(ackStats.getLatencies().getPercentile(50)),
+                millis(ackStats.getLatencies().getPercentile(99)),
+                millis(ackStats.getLatencies().getPercentile(99.9)));
+        System.out.printf("appends: %d sent, %d failed by the fake, %d disconnects, %d failed callbacks%n",
+                fake.getAppends(), fake.getFailedAppends(), fake.getDisconnects(), ackStats.getFailedAppends().sum());
+        System.out.printf("heap: peak %d MB, now %d MB, resident memory: peak %s MB%n", peakHeap.get() >> 20,
+                memory.getHeapMemoryUsage().getUsed() >> 20, megabytes(peakResident.get()));
+        // virtual threads are not counted, their carriers are
+        System.out.printf("platform threads: peak %d, now %d, virtual threads %s%n", threads.getPeakThreadCount(),
+                threads.getThreadCount(), context.getBean(BigQueryProperties.class).isVirtualThreads() ? "on" : "off");
+        return new Result(threads.getPeakThreadCount(), peakHeap.get(), peakResident.get(),
+                acked * 1_000_000_000L / Math.max(elapsed, 1));
+    }
+
+    /**
+     * @return The resident set size of the process from {@code /proc/self/status}, -1 where it is not available.
+     */
+    private static long residentMemory() {
+        try {
+            for (String line : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (line.startsWith("VmRSS:")) {
+                    return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static String megabytes(long bytes) {
+        return bytes < 0 ? "n/a" : String.valueOf(bytes >> 20);
+    }
+
+    private static String[] withArg(List<String> args, String arg) {
+        List<String> all = new ArrayList<>(args);
+        all.add(arg);
+        return all.toArray(String[]::new);
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    private record Result(int peakThreads, long peakHeap, long peakResident, long ackedRowsPerSecond) {
+    }
+
+    private static TableFieldSchema column(String name, TableFieldSchema.Type type) {
+        return TableFieldSchema.newBuilder().setName(name).setType(type).setMode(TableFieldSchema.Mode.NULLABLE).build();
+    }
+
+    @Configuration
+    @EnableConfigurationProperties(BigQueryProperties.class)
+    @Import({FakeBigQueryWriteConfiguration.class, StreamingAutoConfiguration.class, HarnessCallback.class})
+    public static class HarnessConfiguration {
+
+        @Bean(destroyMethod = "close")
+        public FakeBigQueryWrite fakeBigQueryWrite(Environment env) throws IOException {
+            Map<Status.Code, Double> errorRates = new HashMap<>();
+            errorRates.put(Status.Code.UNAVAILABLE, env.getProperty("harness.unavailable-rate", Double.class, 0.0));
+            errorRates.put(Status.Code.INTERNAL, env.getProperty("harness.internal-rate", Double.class, 0.0));
+            errorRates.put(Status.Code.RESOURCE_EXHAUSTED, env.getProperty("harness.resource-exhausted-rate", Double.class, 0.0));
+            FakeBigQueryWrite fake = new FakeBigQueryWrite(SCHEMA).start();
+            fake.setBehavior(FakeBigQueryWrite.Behavior.builder()
+                    .minLatencyMillis(env.getProperty("harness.min-latency-ms", Long.class, 5L))
+                    .maxLatencyMillis(env.getProperty("harness.max-latency-ms", Long.class, 20L))
+                    .errorRates(errorRates)
+                    .rowErrorRate(env.getProperty("harness.row-error-rate", Double.class, 0.0))
+                    .disconnectRate(env.getProperty("harness.disconnect-rate", Double.class, 0.0))
+                    .build());
+            return fake;
+        }
+
+        @Bean
+        public AckStats ackStats() {
+            return new AckStats();
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+@SpringBootTest(classes = FakeServerTestConfiguration.class, properties = {
+        "bigquery.data.project=" + FakeServerTestConfiguration.PROJECT,
+        "bigquery.streaming.enabled=true",
+        "bigquery.streaming.bulk.streams-per-table=2"
+})
+public class BulkCommitTests {
+
+    @Autowired
+    private StreamingManager streamingManager;
+    @Autowired
+    private FakeBigQueryWrite fake;
+
+    @AfterEach
+    public void resetBehavior() {
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().build());
+    }
+
+    @Test
+    public void commitMakesAllTablesVisibleTest() {
+        TableName first = FakeServerTestConfiguration.table("bulk_first");
+        TableName second = FakeServerTestConfiguration.table("bulk_second");
+
+        Map<TableName, Long> committed = streamingManager.executeBulk(List.of(first, second), session -> {
+            session.putBatch(first, FakeServerTestConfiguration.rows(0, 300, "first"));
+            session.putBatch(second, FakeServerTestConfiguration.rows(0, 200, "second"));
+            // PENDING streams are not visible before the commit
+            Assertions.assertEquals(0, fake.getRowCount(first));
+            Assertions.assertEquals(0, fake.getRowCount(second));
+        });
+
+        Assertions.assertEquals(Map.of(first, 300L, second, 200L), committed);
+        Assertions.assertEquals(300, fake.getRowCount(first));
+        Assertions.assertEquals(200, fake.getRowCount(second));
+    }
+
+    @Test
+    public void refusedCommitListsTheTablesCommittedBeforeTest() {
+        TableName committed = FakeServerTestConfiguration.table("partial_committed");
+        TableName refused = FakeServerTestConfiguration.table("partial_refused");
+        TableName notReached = FakeServerTestConfiguration.table("partial_not_reached");
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().refusedCommits(Set.of(refused.toString())).build());
+
+        // tables are committed in the order they are given
+        RuntimeException e = Assertions.assertThrows(RuntimeException.class,
+                () -> streamingManager.executeBulk(List.of(committed, refused, notReached), session -> {
+                    session.putBatch(committed, FakeServerTestConfiguration.rows(0, 100, "committed"));
+                    session.putBatch(refused, FakeServerTestConfiguration.rows(0, 100, "refused"));
+                    session.putBatch(notReached, FakeServerTestConfiguration.rows(0, 100, "not reached"));
+                }));
+
+        Assertions.assertTrue(e.getMessage().contains("Commit of table " + refused + " failed"));
+        Assertions.assertTrue(e.getMessage().contains("tables committed before: [" + committed + "]"));
+        Assertions.assertEquals(100, fake.getRowCount(committed));
+        Assertions.assertEquals(0, fake.getRowCount(refused));
+        Assertions.assertEquals(0, fake.getRowCount(notReached));
+    }
+
+    @Test
+    public void sessionClosedWithoutCommitIsDiscardedTest() {
+        TableName table = FakeServerTestConfiguration.table("bulk_discarded");
+
+        Assertions.assertThrows(IllegalStateException.class, () -> streamingManager.executeBulk(List.of(table), session -> {
+            session.putBatch(table, FakeServerTestConfiguration.rows(0, 100, "discarded"));
+            throw new IllegalStateException("Producer failed");
+        }));
+
+        Assertions.assertEquals(0, fake.getRowCount(table));
+    }
+}
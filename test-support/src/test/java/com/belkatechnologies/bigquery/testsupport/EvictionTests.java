@@ -0,0 +1,80 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.belkatechnologies.bigquery.streaming.StreamingManagerStatistic;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@SpringBootTest(classes = FakeServerTestConfiguration.class, properties = {
+        "bigquery.data.project=" + FakeServerTestConfiguration.PROJECT,
+        "bigquery.streaming.enabled=true",
+        "bigquery.streaming.flush.linger-ms=5",
+        "bigquery.streaming.eviction.idle-timeout-ms=20",
+        "bigquery.streaming.eviction.check-interval-ms=5"
+})
+public class EvictionTests {
+
+    private static final int PRODUCERS = 4;
+    private static final int ROUNDS = 30;
+    private static final int ROWS_PER_ROUND = 20;
+
+    @Autowired
+    private StreamingManager streamingManager;
+    @Autowired
+    private FakeBigQueryWrite fake;
+    @Autowired
+    private FakeServerTestConfiguration.CollectingDeadLetterSink deadLetters;
+
+    @Test
+    public void putsRacingTheEvictionLoseNoRowTest() throws Exception {
+        TableName table = FakeServerTestConfiguration.table("evicted");
+        StreamingManagerStatistic before = streamingManager.getManagerStatistic();
+
+        // pauses around the idle timeout make the evictions land between and during the puts
+        List<CompletableFuture<Void>> producers = new ArrayList<>();
+        for (int producer = 0; producer < PRODUCERS; producer++) {
+            long first = (long) producer * ROUNDS * ROWS_PER_ROUND;
+            producers.add(CompletableFuture.runAsync(() -> produce(table, first)));
+        }
+        CompletableFuture.allOf(producers.toArray(CompletableFuture[]::new)).get(60, TimeUnit.SECONDS);
+
+        long expected = (long) PRODUCERS * ROUNDS * ROWS_PER_ROUND;
+        FakeServerTestConfiguration.await(() -> fake.getRowCount(table) >= expected, 10_000);
+        Thread.sleep(200);
+        Assertions.assertEquals(expected, fake.getRowCount(table));
+        Assertions.assertTrue(deadLetters.of(table).isEmpty());
+
+        StreamingManagerStatistic after = streamingManager.getManagerStatistic();
+        Assertions.assertTrue(after.getEvictedProcessors() - before.getEvictedProcessors() > 0);
+        // every eviction followed by a put recreates the processor
+        Assertions.assertTrue(after.getCreatedProcessors() - before.getCreatedProcessors() > 1);
+    }
+
+    private void produce(TableName table, long first) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        try {
+            for (int round = 0; round < ROUNDS; round++) {
+                long from = first + (long) round * ROWS_PER_ROUND;
+                if (random.nextBoolean()) {
+                    streamingManager.putBatchForTable(table, FakeServerTestConfiguration.rows(from, from + ROWS_PER_ROUND, "batch"));
+                } else {
+                    FakeServerTestConfiguration.rows(from, from + ROWS_PER_ROUND, "row")
+                            .forEach(row -> streamingManager.putRowForTable(table, row));
+                }
+                Thread.sleep(random.nextLong(60));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import io.grpc.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.Map;
+
+@SpringBootTest(classes = FakeServerTestConfiguration.class, properties = {
+        "bigquery.data.project=" + FakeServerTestConfiguration.PROJECT,
+        "bigquery.streaming.enabled=true",
+        "bigquery.streaming.exactly-once=true",
+        "bigquery.streaming.flush.linger-ms=5",
+        "bigquery.streaming.retry.max-attempts=20",
+        "bigquery.streaming.retry.initial-backoff-ms=10",
+        "bigquery.streaming.retry.max-backoff-ms=100"
+})
+public class ExactlyOnceTests {
+
+    private static final int PARTS = 50;
+    private static final int ROWS_PER_PART = 40;
+
+    @Autowired
+    private StreamingManager streamingManager;
+    @Autowired
+    private FakeBigQueryWrite fake;
+    @Autowired
+    private FakeServerTestConfiguration.CollectingDeadLetterSink deadLetters;
+
+    @AfterEach
+    public void resetBehavior() {
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().build());
+    }
+
+    @Test
+    public void batchesBehindAFailedOneAreDeferredTest() throws Exception {
+        TableName table = FakeServerTestConfiguration.table("deferred");
+        long refusedBefore = fake.getErrors(Status.Code.OUT_OF_RANGE);
+        // the appends in flight behind a failed one are refused at their offsets until it lands
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder()
+                .minLatencyMillis(10)
+                .maxLatencyMillis(30)
+                .errorRates(Map.of(Status.Code.UNAVAILABLE, 0.1))
+                .build());
+
+        put(table);
+
+        assertLandedOnce(table);
+        Assertions.assertTrue(fake.getErrors(Status.Code.OUT_OF_RANGE) > refusedBefore);
+    }
+
+    @Test
+    public void alreadyWrittenBatchesCountAsAppendedTest() throws Exception {
+        TableName table = FakeServerTestConfiguration.table("already_written");
+        long alreadyWrittenBefore = fake.getErrors(Status.Code.ALREADY_EXISTS);
+        // a batch whose response is lost is retried at the offset it already landed at
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder()
+                .minLatencyMillis(10)
+                .maxLatencyMillis(30)
+                .lostResponseRate(0.1)
+                .build());
+
+        put(table);
+
+        assertLandedOnce(table);
+        Assertions.assertTrue(fake.getErrors(Status.Code.ALREADY_EXISTS) > alreadyWrittenBefore);
+    }
+
+    private void put(TableName table) throws InterruptedException {
+        for (int part = 0; part < PARTS; part++) {
+            streamingManager.putBatchForTable(table,
+                    FakeServerTestConfiguration.rows((long) part * ROWS_PER_PART, (long) (part + 1) * ROWS_PER_PART, "row"));
+            Thread.sleep(2);
+        }
+    }
+
+    private void assertLandedOnce(TableName table) throws InterruptedException {
+        long expected = (long) PARTS * ROWS_PER_PART;
+        FakeServerTestConfiguration.await(() -> fake.getRowCount(table) >= expected, 20_000);
+        // a batch appended twice would show up late
+        Thread.sleep(300);
+        Assertions.assertEquals(expected, fake.getRowCount(table));
+        Assertions.assertTrue(deadLetters.of(table).isEmpty());
+    }
+}
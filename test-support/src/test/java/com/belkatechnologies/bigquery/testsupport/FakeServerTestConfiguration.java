@@ -0,0 +1,136 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.configuration.StreamingAutoConfiguration;
+import com.belkatechnologies.bigquery.streaming.callback.DefaultAbstractAppendCompleteCallback;
+import com.belkatechnologies.bigquery.streaming.deadletter.DeadLetter;
+import com.belkatechnologies.bigquery.streaming.deadletter.DeadLetterSink;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.belkatechnologies.bigquery.streaming.processor.StreamingObject;
+import com.google.cloud.bigquery.storage.v1.AppendRowsResponse;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import org.junit.jupiter.api.Assertions;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.annotation.Scope;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Streaming beans of the starter connected to a {@link FakeBigQueryWrite}, with a dead-letter sink keeping the rows.
+ * Tables have the columns {@code id INT64} and {@code payload STRING}.
+ */
+@Configuration
+@EnableConfigurationProperties(BigQueryProperties.class)
+@Import({FakeBigQueryWriteConfiguration.class, StreamingAutoConfiguration.class, FakeServerTestConfiguration.TestCallback.class})
+public class FakeServerTestConfiguration {
+
+    public static final String PROJECT = "test";
+    public static final TableSchema SCHEMA = TableSchema.newBuilder()
+            .addFields(column("id", TableFieldSchema.Type.INT64))
+            .addFields(column("payload", TableFieldSchema.Type.STRING))
+            .build();
+
+    @Bean(destroyMethod = "close")
+    public FakeBigQueryWrite fakeBigQueryWrite() throws IOException {
+        return new FakeBigQueryWrite(SCHEMA).start();
+    }
+
+    @Bean
+    public CollectingDeadLetterSink collectingDeadLetterSink() {
+        return new CollectingDeadLetterSink();
+    }
+
+    public static TableName table(String name) {
+        return TableName.of(PROJECT, "test_dataset", name);
+    }
+
+    /**
+     * @return Rows with the ids from {@code from} until {@code to}, exclusive.
+     */
+    public static List<Map<String, Object>> rows(long from, long to, String payload) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (long id = from; id < to; id++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("id", id);
+            row.put("payload", payload);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * Waits until the condition holds, answers of the fake and retries come asynchronously.
+     */
+    public static void await(BooleanSupplier condition, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                Assertions.fail("Condition not met in " + timeoutMillis + " millis");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static TableFieldSchema column(String name, TableFieldSchema.Type type) {
+        return TableFieldSchema.newBuilder().setName(name).setType(type).setMode(TableFieldSchema.Mode.NULLABLE).build();
+    }
+
+    public static class CollectingDeadLetterSink implements DeadLetterSink {
+
+        private final List<DeadLetter> deadLetters = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void accept(List<DeadLetter> rows) {
+            deadLetters.addAll(rows);
+        }
+
+        /**
+         * @return The ids of the dead letters of the table, in the order they came.
+         */
+        public List<Long> ids(TableName table) {
+            return deadLetters.stream()
+                    .filter(it -> it.table().equals(table))
+                    .map(it -> it.json().getLong("id"))
+                    .toList();
+        }
+
+        public List<DeadLetter> of(TableName table) {
+            return deadLetters.stream().filter(it -> it.table().equals(table)).toList();
+        }
+    }
+
+    @Component
+    @Scope(BeanDefinition.SCOPE_PROTOTYPE)
+    public static class TestCallback extends DefaultAbstractAppendCompleteCallback {
+
+        public TestCallback(BigQueryStreamProcessor parent, StreamingObject batch, AtomicLong processedRows, AtomicLong processedBytes) {
+            super(parent, batch, processedRows, processedBytes);
+        }
+
+        @Override
+        public void doOnSuccess(AppendRowsResponse response) {
+        }
+
+        @Override
+        public void doOnSuccessButHasError(AppendRowsResponse response) {
+        }
+
+        @Override
+        public void doOnFailure(Throwable throwable) {
+        }
+    }
+}
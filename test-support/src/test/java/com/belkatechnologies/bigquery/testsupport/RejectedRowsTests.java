@@ -0,0 +1,85 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.google.protobuf.ByteString;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.stream.LongStream;
+
+@SpringBootTest(classes = FakeServerTestConfiguration.class, properties = {
+        "bigquery.data.project=" + FakeServerTestConfiguration.PROJECT,
+        "bigquery.streaming.enabled=true",
+        "bigquery.streaming.flush.linger-ms=50",
+        "bigquery.streaming.dead-letter.max-splits=3"
+})
+public class RejectedRowsTests {
+
+    private static final String POISON = "poison";
+    private static final Predicate<ByteString> IS_POISON = row -> row.toStringUtf8().contains(POISON);
+
+    @Autowired
+    private StreamingManager streamingManager;
+    @Autowired
+    private FakeBigQueryWrite fake;
+    @Autowired
+    private FakeServerTestConfiguration.CollectingDeadLetterSink deadLetters;
+
+    @AfterEach
+    public void resetBehavior() {
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().build());
+    }
+
+    @Test
+    public void rowErrorsDeadLetterOnlyThePoisonRowTest() throws Exception {
+        TableName table = FakeServerTestConfiguration.table("row_errors");
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().rejectedRows(IS_POISON).build());
+
+        streamingManager.putBatchForTable(table, withPoison(64, 37));
+
+        FakeServerTestConfiguration.await(() -> fake.getRowCount(table) == 63 && deadLetters.ids(table).size() == 1, 10_000);
+        Assertions.assertEquals(List.of(37L), deadLetters.ids(table));
+        Assertions.assertEquals("Row rejected by fake", deadLetters.of(table).get(0).error());
+    }
+
+    @Test
+    public void bisectionFindsThePoisonRowWithoutRowErrorsTest() throws Exception {
+        TableName table = FakeServerTestConfiguration.table("bisection");
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().rejectedRows(IS_POISON).rowErrorsReported(false).build());
+        long failedBefore = fake.getFailedAppends();
+
+        // three splits take 8 rows down to single rows
+        streamingManager.putBatchForTable(table, withPoison(8, 5));
+
+        FakeServerTestConfiguration.await(() -> fake.getRowCount(table) == 7 && deadLetters.ids(table).size() == 1, 10_000);
+        Assertions.assertEquals(List.of(5L), deadLetters.ids(table));
+        // the whole batch, its halves and quarters holding the row, and the row alone are rejected
+        Assertions.assertEquals(4, fake.getFailedAppends() - failedBefore);
+    }
+
+    @Test
+    public void bisectionStopsAtTheSplitLimitTest() throws Exception {
+        TableName table = FakeServerTestConfiguration.table("split_limit");
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().rejectedRows(IS_POISON).rowErrorsReported(false).build());
+
+        // three splits leave parts of 8 rows, the part holding the poison row is rejected as a whole
+        streamingManager.putBatchForTable(table, withPoison(64, 37));
+
+        FakeServerTestConfiguration.await(() -> fake.getRowCount(table) == 56 && deadLetters.ids(table).size() == 8, 10_000);
+        Assertions.assertEquals(LongStream.range(32, 40).boxed().toList(), deadLetters.ids(table).stream().sorted().toList());
+        Assertions.assertTrue(deadLetters.of(table).stream().allMatch(it -> it.error().contains("Rows rejected by fake")));
+    }
+
+    private static List<Map<String, Object>> withPoison(int count, int poison) {
+        List<Map<String, Object>> rows = FakeServerTestConfiguration.rows(0, count, "valid");
+        rows.get(poison).put("payload", POISON);
+        return rows;
+    }
+}
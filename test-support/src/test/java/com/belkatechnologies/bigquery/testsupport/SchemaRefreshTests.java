@@ -0,0 +1,68 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.google.cloud.bigquery.storage.v1.TableFieldSchema;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import com.google.cloud.bigquery.storage.v1.TableSchema;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.List;
+import java.util.Map;
+
+@SpringBootTest(classes = FakeServerTestConfiguration.class, properties = {
+        "bigquery.data.project=" + FakeServerTestConfiguration.PROJECT,
+        "bigquery.streaming.enabled=true",
+        "bigquery.streaming.flush.linger-ms=20"
+})
+public class SchemaRefreshTests {
+
+    private static final TableSchema EXTENDED_SCHEMA = FakeServerTestConfiguration.SCHEMA.toBuilder()
+            .addFields(TableFieldSchema.newBuilder()
+                    .setName("extra")
+                    .setType(TableFieldSchema.Type.STRING)
+                    .setMode(TableFieldSchema.Mode.NULLABLE))
+            .build();
+
+    @Autowired
+    private StreamingManager streamingManager;
+    @Autowired
+    private FakeBigQueryWrite fake;
+    @Autowired
+    private FakeServerTestConfiguration.CollectingDeadLetterSink deadLetters;
+
+    @AfterEach
+    public void resetBehavior() {
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().build());
+    }
+
+    @Test
+    public void newColumnSwapsTheWriterWithoutLosingBatchesInFlightTest() throws Exception {
+        TableName table = FakeServerTestConfiguration.table("schema_refresh");
+        // slow answers keep batches of the previous writer in flight while it is swapped
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().minLatencyMillis(20).maxLatencyMillis(50).build());
+        long failedBefore = fake.getFailedAppends();
+
+        for (int part = 0; part < 10; part++) {
+            streamingManager.putBatchForTable(table, FakeServerTestConfiguration.rows(part * 50L, (part + 1) * 50L, "before"));
+            Thread.sleep(5);
+        }
+        fake.setSchema(table, EXTENDED_SCHEMA);
+        for (int part = 10; part < 20; part++) {
+            List<Map<String, Object>> rows = FakeServerTestConfiguration.rows(part * 50L, (part + 1) * 50L, "after");
+            rows.forEach(row -> row.put("extra", "new column"));
+            streamingManager.putBatchForTable(table, rows);
+            Thread.sleep(5);
+        }
+
+        FakeServerTestConfiguration.await(() -> fake.getRowCount(table) >= 1_000, 10_000);
+        // appends retried or sent twice by the swap would show up late
+        Thread.sleep(500);
+        Assertions.assertEquals(1_000, fake.getRowCount(table));
+        Assertions.assertTrue(deadLetters.of(table).isEmpty());
+        Assertions.assertEquals(failedBefore, fake.getFailedAppends());
+    }
+}
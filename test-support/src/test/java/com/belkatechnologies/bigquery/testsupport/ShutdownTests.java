@@ -0,0 +1,135 @@
+package com.belkatechnologies.bigquery.testsupport;
+
+import com.belkatechnologies.bigquery.configuration.BigQueryProperties;
+import com.belkatechnologies.bigquery.streaming.StreamingManager;
+import com.belkatechnologies.bigquery.streaming.flush.ShutdownCoordinator;
+import com.belkatechnologies.bigquery.streaming.processor.BigQueryStreamProcessor;
+import com.google.cloud.bigquery.storage.v1.TableName;
+import io.grpc.Status;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.LongStream;
+
+@SpringBootTest(classes = FakeServerTestConfiguration.class, properties = {
+        "bigquery.data.project=" + FakeServerTestConfiguration.PROJECT,
+        "bigquery.streaming.enabled=true",
+        "bigquery.streaming.shutdown.parallelism=1",
+        "bigquery.streaming.retry.max-attempts=1000",
+        "bigquery.streaming.retry.initial-backoff-ms=20",
+        "bigquery.streaming.retry.max-backoff-ms=50"
+})
+public class ShutdownTests {
+
+    private static final String SHUTDOWN_ERROR = "Not sent before the shutdown deadline";
+
+    @Autowired
+    private StreamingManager streamingManager;
+    @Autowired
+    private BigQueryProperties bigQueryProperties;
+    @Autowired
+    private FakeBigQueryWrite fake;
+    @Autowired
+    private FakeServerTestConfiguration.CollectingDeadLetterSink deadLetters;
+
+    @AfterEach
+    public void resetBehavior() {
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().build());
+    }
+
+    @Test
+    public void tablesAreDrainedBeforeTheDeadlineTest() {
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().minLatencyMillis(5).maxLatencyMillis(20).build());
+        TableName first = FakeServerTestConfiguration.table("drain_first");
+        TableName second = FakeServerTestConfiguration.table("drain_second");
+        // standalone processors have no flusher, the rows wait in their buffers until the shutdown
+        BigQueryStreamProcessor firstProcessor = buffered(first, 500);
+        BigQueryStreamProcessor secondProcessor = buffered(second, 300);
+
+        Map<TableName, Long> left = new ShutdownCoordinator(bigQueryProperties)
+                .closeAll(List.of(firstProcessor, secondProcessor), deadlineIn(10_000));
+
+        Assertions.assertTrue(left.isEmpty());
+        Assertions.assertEquals(500, fake.getRowCount(first));
+        Assertions.assertEquals(300, fake.getRowCount(second));
+        Assertions.assertTrue(deadLetters.of(first).isEmpty());
+        Assertions.assertTrue(deadLetters.of(second).isEmpty());
+    }
+
+    @Test
+    public void rowsAreAbandonedAfterTheDeadlineTest() throws Exception {
+        fake.setBehavior(FakeBigQueryWrite.Behavior.builder().errorRates(Map.of(Status.Code.UNAVAILABLE, 1.0)).build());
+        TableName table = FakeServerTestConfiguration.table("abandoned");
+        BigQueryStreamProcessor processor = buffered(table, 200);
+
+        long started = System.nanoTime();
+        Map<TableName, Long> left = new ShutdownCoordinator(bigQueryProperties)
+                .closeAll(List.of(processor), deadlineIn(500));
+
+        Assertions.assertTrue(System.nanoTime() - started < TimeUnit.SECONDS.toNanos(5));
+        long abandoned = left.getOrDefault(table, 0L);
+        Assertions.assertTrue(abandoned > 0);
+        // appends answered after the deadline are given up when they come back, no row is lost silently
+        FakeServerTestConfiguration.await(() -> deadLetters.ids(table).size() == 200, 10_000);
+        Assertions.assertEquals(LongStream.range(0, 200).boxed().toList(), deadLetters.ids(table).stream().sorted().toList());
+        Assertions.assertTrue(deadLetters.of(table).stream().filter(it -> SHUTDOWN_ERROR.equals(it.error())).count() >= abandoned);
+        Assertions.assertEquals(0, fake.getRowCount(table));
+    }
+
+    @Test
+    public void largestBacklogIsDrainedFirstTest() {
+        TableName small = FakeServerTestConfiguration.table("backlog_small");
+        TableName large = FakeServerTestConfiguration.table("backlog_large");
+        TableName medium = FakeServerTestConfiguration.table("backlog_medium");
+        List<TableName> closed = new CopyOnWriteArrayList<>();
+        List<BigQueryStreamProcessor> processors = List.of(
+                recordingClose(buffered(small, 10), closed),
+                recordingClose(buffered(large, 1_000), closed),
+                recordingClose(buffered(medium, 100), closed));
+
+        // one table at a time, in the order of their backlogs
+        Map<TableName, Long> left = new ShutdownCoordinator(bigQueryProperties).closeAll(processors, deadlineIn(10_000));
+
+        Assertions.assertTrue(left.isEmpty());
+        Assertions.assertEquals(List.of(large, medium, small), closed);
+        Assertions.assertEquals(1_000, fake.getRowCount(large));
+        Assertions.assertEquals(100, fake.getRowCount(medium));
+        Assertions.assertEquals(10, fake.getRowCount(small));
+    }
+
+    private BigQueryStreamProcessor buffered(TableName table, int rows) {
+        BigQueryStreamProcessor processor = streamingManager.getStandaloneStreamProcessor(table);
+        processor.putBatch(FakeServerTestConfiguration.rows(0, rows, "payload of the row"));
+        return processor;
+    }
+
+    private static long deadlineIn(long millis) {
+        return System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * @return The processor, recording its table when it is closed.
+     */
+    private static BigQueryStreamProcessor recordingClose(BigQueryStreamProcessor processor, List<TableName> closed) {
+        return (BigQueryStreamProcessor) Proxy.newProxyInstance(BigQueryStreamProcessor.class.getClassLoader(),
+                new Class<?>[]{BigQueryStreamProcessor.class}, (proxy, method, args) -> {
+                    if (method.getName().equals("closeBy")) {
+                        closed.add(processor.getTable());
+                    }
+                    try {
+                        return method.invoke(processor, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+}